@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.consumer;
+
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.RecordBatch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A container that holds the list of {@link RecordBatch} per partition returned by a
+ * {@link KafkaConsumer#pollBatches(java.time.Duration)} operation. The batches are views of the fetched bytes, whose
+ * records are neither decompressed nor deserialized.
+ */
+public class ConsumerBatches {
+    public static final ConsumerBatches EMPTY = new ConsumerBatches(Collections.emptyMap());
+
+    private final Map<TopicPartition, List<RecordBatch>> batches;
+
+    public ConsumerBatches(Map<TopicPartition, List<RecordBatch>> batches) {
+        this.batches = batches;
+    }
+
+    /**
+     * Get just the batches for the given partition, in order of offset
+     *
+     * @param partition The partition to get batches for
+     */
+    public List<RecordBatch> batches(TopicPartition partition) {
+        List<RecordBatch> partitionBatches = this.batches.get(partition);
+        if (partitionBatches == null)
+            return Collections.emptyList();
+        else
+            return Collections.unmodifiableList(partitionBatches);
+    }
+
+    /**
+     * Get the partitions which have batches contained in this batch set.
+     * @return the set of partitions with data in this batch set (may be empty if no data was returned)
+     */
+    public Set<TopicPartition> partitions() {
+        return Collections.unmodifiableSet(batches.keySet());
+    }
+
+    /**
+     * The number of batches for all topics
+     */
+    public int count() {
+        int count = 0;
+        for (List<RecordBatch> partitionBatches : this.batches.values())
+            count += partitionBatches.size();
+        return count;
+    }
+
+    /**
+     * The total size in bytes of the batches for all topics
+     */
+    public long sizeInBytes() {
+        long sizeInBytes = 0;
+        for (List<RecordBatch> partitionBatches : this.batches.values()) {
+            for (RecordBatch batch : partitionBatches)
+                sizeInBytes += batch.sizeInBytes();
+        }
+        return sizeInBytes;
+    }
+
+    public boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    public static ConsumerBatches empty() {
+        return EMPTY;
+    }
+}
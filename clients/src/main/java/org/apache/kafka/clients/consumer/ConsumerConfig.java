@@ -365,6 +365,19 @@ public class ConsumerConfig extends AbstractConfig {
 
     public static final String LI_CLIENT_CLUSTER_METADATA_EXPIRE_TIME_MS_CONFIG = CommonClientConfigs.LI_CLIENT_CLUSTER_METADATA_EXPIRE_TIME_MS_CONFIG;
 
+    /** <code>li.zstd.dictionary.files</code> */
+    public static final String LI_ZSTD_DICTIONARY_FILES_CONFIG = "li.zstd.dictionary.files";
+    private static final String LI_ZSTD_DICTIONARY_FILES_DOC = "The files of the zstd dictionaries which the batches "
+        + "consumed may be compressed with, such as the dictionaries configured by their producers with "
+        + "<code>li.zstd.dictionary.file</code>. A batch compressed with a dictionary which is not loaded cannot be decompressed.";
+
+    /** <code>li.decode.threads</code> */
+    public static final String LI_DECODE_THREADS_CONFIG = "li.decode.threads";
+    private static final String LI_DECODE_THREADS_DOC = "The number of threads which decompress and deserialize the "
+        + "fetched records ahead of <code>poll()</code>. With 0, the records are decompressed and deserialized by the thread "
+        + "calling <code>poll()</code>. The records of a partition are returned in order, and pausing and seeking behave the "
+        + "same either way. The key and value deserializers must be thread-safe if this is greater than 0.";
+
     public static final int DEFAULT_FETCH_MAX_WAIT_MS = 500;
 
     static {
@@ -640,6 +653,18 @@ public class ConsumerConfig extends AbstractConfig {
                                         new EnumValueValidator<>(LeastLoadedNodeAlgorithm.class),
                                         Importance.MEDIUM,
                                         LEAST_LOADED_NODE_ALGORITHM_DOC)
+                                .define(LI_ZSTD_DICTIONARY_FILES_CONFIG,
+                                        Type.LIST,
+                                        Collections.emptyList(),
+                                        new ConfigDef.NonNullValidator(),
+                                        Importance.LOW,
+                                        LI_ZSTD_DICTIONARY_FILES_DOC)
+                                .define(LI_DECODE_THREADS_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        LI_DECODE_THREADS_DOC)
                                 .withClientSslSupport()
                                 .withClientSaslSupport();
     }
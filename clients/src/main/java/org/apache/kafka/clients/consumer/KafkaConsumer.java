@@ -39,6 +39,9 @@ import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.compress.ZstdDictionary;
+import org.apache.kafka.common.compress.ZstdFactory;
+import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.InvalidGroupIdException;
 import org.apache.kafka.common.errors.TimeoutException;
@@ -60,8 +63,11 @@ import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Timer;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.ConcurrentModificationException;
@@ -79,6 +85,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
@@ -596,6 +604,8 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
     // to keep from repeatedly scanning subscriptions in poll(), cache the result during metadata updates
     private boolean cachedSubscriptionHashAllFetchPositions;
     private final boolean skipMetadataCacheUpdateUponUnassignment;
+    // the dictionaries registered to decompress the fetched batches, until they are unregistered on close
+    private final List<ZstdDictionary> compressionDictionaries = new ArrayList<>();
 
     /**
      * A consumer is instantiated by providing a set of key-value pairs as configuration. Valid configuration strings
@@ -706,6 +716,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     ConsumerInterceptor.class,
                     Collections.singletonMap(ConsumerConfig.CLIENT_ID_CONFIG, clientId));
             this.interceptors = new ConsumerInterceptors<>(interceptorList);
+            registerCompressionDictionaries(config);
             if (keyDeserializer == null) {
                 this.keyDeserializer = config.getConfiguredInstance(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, Deserializer.class);
                 this.keyDeserializer.configure(config.originals(Collections.singletonMap(ConsumerConfig.CLIENT_ID_CONFIG, clientId)), true);
@@ -818,7 +829,9 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     this.retryBackoffMs,
                     this.requestTimeoutMs,
                     isolationLevel,
-                    apiVersions);
+                    apiVersions,
+                    clientId,
+                    config.getInt(ConsumerConfig.LI_DECODE_THREADS_CONFIG));
 
             this.kafkaConsumerMetrics = new KafkaConsumerMetrics(metrics, metricGrpPrefix);
             this.skipMetadataCacheUpdateUponUnassignment = config.getBoolean(ConsumerConfig.SKIP_METADATA_CACHE_UPDATE_UPON_UNASSIGN);
@@ -901,6 +914,17 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         this.skipMetadataCacheUpdateUponUnassignment = skipMetadataCacheUpdateUponUnassignment;
     }
 
+    private void registerCompressionDictionaries(ConsumerConfig config) {
+        for (String dictionaryFile : config.getList(ConsumerConfig.LI_ZSTD_DICTIONARY_FILES_CONFIG)) {
+            try {
+                compressionDictionaries.add(ZstdDictionary.register(ZstdDictionary.readFrom(Paths.get(dictionaryFile))));
+            } catch (IOException | IllegalArgumentException e) {
+                throw new ConfigException(ConsumerConfig.LI_ZSTD_DICTIONARY_FILES_CONFIG, dictionaryFile,
+                    "Failed to load zstd dictionary: " + e.getMessage());
+            }
+        }
+    }
+
     private static Metrics buildMetrics(ConsumerConfig config, Time time, String clientId) {
         Map<String, String> metricsTags = Collections.singletonMap(CLIENT_ID_METRIC_TAG, clientId);
         MetricConfig metricConfig = new MetricConfig().samples(config.getInt(ConsumerConfig.METRICS_NUM_SAMPLES_CONFIG))
@@ -1257,10 +1281,57 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         return poll(time.timer(timeout), true);
     }
 
+    /**
+     * Fetch the record batches of the topics or partitions specified using one of the subscribe/assign APIs, like
+     * {@link #poll(Duration)} but without decompressing and deserializing their records. This is meant for consumers
+     * which forward the fetched bytes, such as mirroring, and avoids allocating objects per record.
+     * <p>
+     * The batches are views of the fetched bytes, in the format and with the compression they are stored with by the
+     * broker. The position of a partition is advanced past its returned batches, so offsets are committed like with
+     * {@link #poll(Duration)}. Control batches and, with <code>isolation.level=read_committed</code>, aborted batches are
+     * not returned. The first batch returned for a partition may contain records before its position, such as records
+     * which were seeked past, which can be skipped by their offsets. At most <code>max.poll.records</code> records are
+     * returned, counting the records of batches in message format v0 and v1 as one per batch, except that a batch is
+     * never split. The {@link ConsumerInterceptor}s are not invoked for batches.
+     *
+     * @param timeout The maximum time to block (must not be greater than {@link Long#MAX_VALUE} milliseconds)
+     *
+     * @return The fetched batches of each partition
+     *
+     * @throws org.apache.kafka.clients.consumer.InvalidOffsetException if the offset for a partition or set of
+     *             partitions is undefined or out of range and no offset reset policy has been configured
+     * @throws org.apache.kafka.common.errors.WakeupException if {@link #wakeup()} is called before or while this
+     *             function is called
+     * @throws org.apache.kafka.common.errors.InterruptException if the calling thread is interrupted before or while
+     *             this function is called
+     * @throws org.apache.kafka.common.KafkaException for any other unrecoverable errors, like for {@link #poll(Duration)}
+     * @throws java.lang.IllegalArgumentException if the timeout value is negative
+     * @throws java.lang.IllegalStateException if the consumer is not subscribed to any topics or manually assigned any
+     *             partitions to consume from
+     */
+    public ConsumerBatches pollBatches(final Duration timeout) {
+        return poll(time.timer(timeout), true, fetcher::fetchedBatches, ConsumerBatches::new, ConsumerBatches.empty());
+    }
+
     /**
      * @throws KafkaException if the rebalance callback throws exception
      */
     private ConsumerRecords<K, V> poll(final Timer timer, final boolean includeMetadataInTimeout) {
+        return poll(timer, includeMetadataInTimeout, fetcher::fetchedRecords,
+            records -> this.interceptors.onConsume(new ConsumerRecords<>(records)), ConsumerRecords.empty());
+    }
+
+    /**
+     * @param fetched Returns the fetched records or batches of each partition
+     * @param result Creates the result of the poll from non-empty fetched records or batches
+     * @param empty The result of the poll if nothing is fetched before the timer expires
+     * @throws KafkaException if the rebalance callback throws exception
+     */
+    private <T, R> R poll(final Timer timer,
+                          final boolean includeMetadataInTimeout,
+                          final Supplier<Map<TopicPartition, List<T>>> fetched,
+                          final Function<Map<TopicPartition, List<T>>, R> result,
+                          final R empty) {
         acquireAndEnsureOpen();
         try {
             this.kafkaConsumerMetrics.recordPollStart(timer.currentTimeMs());
@@ -1281,7 +1352,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                     }
                 }
 
-                final Map<TopicPartition, List<ConsumerRecord<K, V>>> records = pollForFetches(timer);
+                final Map<TopicPartition, List<T>> records = pollForFetches(timer, fetched);
                 if (!records.isEmpty()) {
                     // before returning the fetched records, we can send off the next round of fetches
                     // and avoid block waiting for their responses to enable pipelining while the user
@@ -1293,11 +1364,11 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
                         client.transmitSends();
                     }
 
-                    return this.interceptors.onConsume(new ConsumerRecords<>(records));
+                    return result.apply(records);
                 }
             } while (timer.notExpired());
 
-            return ConsumerRecords.empty();
+            return empty;
         } finally {
             release();
             this.kafkaConsumerMetrics.recordPollEnd(timer.currentTimeMs());
@@ -1315,12 +1386,12 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
     /**
      * @throws KafkaException if the rebalance callback throws exception
      */
-    private Map<TopicPartition, List<ConsumerRecord<K, V>>> pollForFetches(Timer timer) {
+    private <T> Map<TopicPartition, List<T>> pollForFetches(Timer timer, Supplier<Map<TopicPartition, List<T>>> fetched) {
         long pollTimeout = coordinator == null ? timer.remainingMs() :
                 Math.min(coordinator.timeToNextPoll(timer.currentTimeMs()), timer.remainingMs());
 
         // if data is available already, return it immediately
-        final Map<TopicPartition, List<ConsumerRecord<K, V>>> records = fetcher.fetchedRecords();
+        final Map<TopicPartition, List<T>> records = fetched.get();
         if (!records.isEmpty()) {
             return records;
         }
@@ -1347,7 +1418,7 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         });
         timer.update(pollTimer.currentTimeMs());
 
-        return fetcher.fetchedRecords();
+        return fetched.get();
     }
 
     /**
@@ -2440,6 +2511,8 @@ public class KafkaConsumer<K, V> implements Consumer<K, V> {
         Utils.closeQuietly(client, "consumer network client", firstException);
         Utils.closeQuietly(keyDeserializer, "consumer key deserializer", firstException);
         Utils.closeQuietly(valueDeserializer, "consumer value deserializer", firstException);
+        compressionDictionaries.forEach(ZstdFactory::unregister);
+        compressionDictionaries.clear();
         AppInfoParser.unregisterAppInfo(JMX_PREFIX, clientId, metrics);
         log.debug("Kafka consumer has been closed");
         Throwable exception = firstException.get();
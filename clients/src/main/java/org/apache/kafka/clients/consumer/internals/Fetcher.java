@@ -39,6 +39,7 @@ import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.CorruptRecordException;
+import org.apache.kafka.common.errors.InterruptException;
 import org.apache.kafka.common.errors.InvalidTopicException;
 import org.apache.kafka.common.errors.RecordDeserializationException;
 import org.apache.kafka.common.errors.RecordTooLargeException;
@@ -80,6 +81,7 @@ import org.apache.kafka.common.requests.OffsetsForLeaderEpochRequest;
 import org.apache.kafka.common.serialization.Deserializer;
 import org.apache.kafka.common.utils.CloseableIterator;
 import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.ThreadUtils;
 import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Timer;
 import org.apache.kafka.common.utils.Utils;
@@ -103,10 +105,19 @@ import java.util.Optional;
 import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
@@ -132,9 +143,14 @@ import static org.apache.kafka.common.record.RecordBatch.MAGIC_VALUE_V2;
  *     tracked and updated after processing the response. This ensures that any state (e.g. epoch)
  *     updated while processing responses on one thread are visible while creating the subsequent request
  *     on a different thread.</li>
+ *     <li>With decode threads, the records of a completed fetch are decompressed and deserialized on a decode
+ *     thread with a copy of the iteration state of the fetch. The thread polling the consumer only reads the
+ *     decoded records once the decoding has completed.</li>
  * </ul>
  */
 public class Fetcher<K, V> implements Closeable {
+    public static final String DECODE_THREAD_PREFIX = "kafka-consumer-decode-thread";
+
     private final Logger log;
     private final LogContext logContext;
     private final ConsumerNetworkClient client;
@@ -164,6 +180,9 @@ public class Fetcher<K, V> implements Closeable {
     private final Set<Integer> nodesWithPendingFetchRequests;
     private final ApiVersions apiVersions;
     private final AtomicInteger metadataUpdateVersion = new AtomicInteger(-1);
+    // null unless the records of completed fetches are decoded ahead of poll on decode threads
+    private final ExecutorService decodeExecutor;
+    private final AtomicInteger decodedRecordsReady = new AtomicInteger(0);
 
     private CompletedFetch nextInLineFetch = null;
 
@@ -188,6 +207,39 @@ public class Fetcher<K, V> implements Closeable {
                    long requestTimeoutMs,
                    IsolationLevel isolationLevel,
                    ApiVersions apiVersions) {
+        this(logContext, client, minBytes, maxBytes, maxWaitMs, fetchSize, maxPollRecords, checkCrcs, clientRackId,
+            enableShallowIteration, keyDeserializer, valueDeserializer, metadata, subscriptions, metrics, metricsRegistry,
+            time, retryBackoffMs, requestTimeoutMs, isolationLevel, apiVersions, null, 0);
+    }
+
+    /**
+     * @param clientId The client id of the consumer, which is included in the names of the decode threads
+     * @param decodeThreads The number of threads which decompress and deserialize the records of completed fetches
+     *                      ahead of {@link #fetchedRecords()}, or 0 to do so on the thread polling the consumer
+     */
+    public Fetcher(LogContext logContext,
+                   ConsumerNetworkClient client,
+                   int minBytes,
+                   int maxBytes,
+                   int maxWaitMs,
+                   int fetchSize,
+                   int maxPollRecords,
+                   boolean checkCrcs,
+                   String clientRackId,
+                   boolean enableShallowIteration,
+                   Deserializer<K> keyDeserializer,
+                   Deserializer<V> valueDeserializer,
+                   ConsumerMetadata metadata,
+                   SubscriptionState subscriptions,
+                   Metrics metrics,
+                   FetcherMetricsRegistry metricsRegistry,
+                   Time time,
+                   long retryBackoffMs,
+                   long requestTimeoutMs,
+                   IsolationLevel isolationLevel,
+                   ApiVersions apiVersions,
+                   String clientId,
+                   int decodeThreads) {
         this.log = logContext.logger(Fetcher.class);
         this.logContext = logContext;
         this.time = time;
@@ -205,7 +257,7 @@ public class Fetcher<K, V> implements Closeable {
         this.valueDeserializer = valueDeserializer;
         this.enableShallowIteration = enableShallowIteration;
         this.completedFetches = new ConcurrentLinkedQueue<>();
-        this.sensors = new FetchManagerMetrics(metrics, metricsRegistry);
+        this.sensors = new FetchManagerMetrics(metrics, metricsRegistry, decodedRecordsReady);
         this.retryBackoffMs = retryBackoffMs;
         this.requestTimeoutMs = requestTimeoutMs;
         this.isolationLevel = isolationLevel;
@@ -213,6 +265,11 @@ public class Fetcher<K, V> implements Closeable {
         this.sessionHandlers = new HashMap<>();
         this.offsetsForLeaderEpochClient = new OffsetsForLeaderEpochClient(client, logContext);
         this.nodesWithPendingFetchRequests = new HashSet<>();
+        // the client id is escaped since the thread names are formatted from the pattern
+        this.decodeExecutor = decodeThreads > 0 ?
+            Executors.newFixedThreadPool(decodeThreads, ThreadUtils.createThreadFactory(
+                DECODE_THREAD_PREFIX + "-%d | " + clientId.replace("%", "%%"), true)) :
+            null;
     }
 
     /**
@@ -323,8 +380,10 @@ public class Fetcher<K, V> implements Closeable {
                                     Iterator<? extends RecordBatch> batches = FetchResponse.recordsOrFail(partitionData).batches().iterator();
                                     short responseVersion = resp.requestHeader().apiVersion();
 
-                                    completedFetches.add(new CompletedFetch(partition, partitionData,
-                                            metricAggregator, batches, fetchOffset, responseVersion));
+                                    CompletedFetch completedFetch = new CompletedFetch(partition, partitionData,
+                                            metricAggregator, batches, fetchOffset, responseVersion);
+                                    completedFetch.maybeStartDecoding();
+                                    completedFetches.add(completedFetch);
                                 }
                             }
 
@@ -639,7 +698,33 @@ public class Fetcher<K, V> implements Closeable {
      * @throws TopicAuthorizationException If there is TopicAuthorization error in fetchResponse.
      */
     public Map<TopicPartition, List<ConsumerRecord<K, V>>> fetchedRecords() {
-        Map<TopicPartition, List<ConsumerRecord<K, V>>> fetched = new HashMap<>();
+        return fetched(CompletedFetch::fetchRecords, List::size);
+    }
+
+    /**
+     * Return the fetched batches, without decompressing or deserializing their records, empty the record buffer and
+     * update the consumed position past the batches. The first batch of a partition may contain records before the
+     * consumed position.
+     *
+     * NOTE: returning empty batches guarantees the consumed position are NOT updated.
+     *
+     * @return The fetched batches per partition
+     * @throws OffsetOutOfRangeException If there is OffsetOutOfRange error in fetchResponse and
+     *         the defaultResetPolicy is NONE
+     * @throws TopicAuthorizationException If there is TopicAuthorization error in fetchResponse.
+     */
+    public Map<TopicPartition, List<RecordBatch>> fetchedBatches() {
+        return fetched(CompletedFetch::fetchBatches, Fetcher::recordCount);
+    }
+
+    /**
+     * @param fetchFrom Fetches at most the given number of records, or batches with about as many records, from a
+     *                  completed fetch
+     * @param count Counts the records of what was fetched from a completed fetch
+     */
+    private <T> Map<TopicPartition, List<T>> fetched(BiFunction<CompletedFetch, Integer, List<T>> fetchFrom,
+                                                     ToIntFunction<List<T>> count) {
+        Map<TopicPartition, List<T>> fetched = new HashMap<>();
         Queue<CompletedFetch> pausedCompletedFetches = new ArrayDeque<>();
         int recordsRemaining = maxPollRecords;
 
@@ -675,23 +760,23 @@ public class Fetcher<K, V> implements Closeable {
                     pausedCompletedFetches.add(nextInLineFetch);
                     nextInLineFetch = null;
                 } else {
-                    List<ConsumerRecord<K, V>> records = fetchRecords(nextInLineFetch, recordsRemaining);
+                    List<T> records = fetchRecords(nextInLineFetch, recordsRemaining, fetchFrom);
 
                     if (!records.isEmpty()) {
                         TopicPartition partition = nextInLineFetch.partition;
-                        List<ConsumerRecord<K, V>> currentRecords = fetched.get(partition);
+                        List<T> currentRecords = fetched.get(partition);
                         if (currentRecords == null) {
                             fetched.put(partition, records);
                         } else {
                             // this case shouldn't usually happen because we only send one fetch at a time per partition,
                             // but it might conceivably happen in some rare cases (such as partition leader changes).
                             // we have to copy to a new list because the old one may be immutable
-                            List<ConsumerRecord<K, V>> newRecords = new ArrayList<>(records.size() + currentRecords.size());
+                            List<T> newRecords = new ArrayList<>(records.size() + currentRecords.size());
                             newRecords.addAll(currentRecords);
                             newRecords.addAll(records);
                             fetched.put(partition, newRecords);
                         }
-                        recordsRemaining -= records.size();
+                        recordsRemaining -= count.applyAsInt(records);
                     }
                 }
             }
@@ -707,7 +792,21 @@ public class Fetcher<K, V> implements Closeable {
         return fetched;
     }
 
-    private List<ConsumerRecord<K, V>> fetchRecords(CompletedFetch completedFetch, int maxRecords) {
+    private static int recordCount(List<RecordBatch> batches) {
+        int count = 0;
+        for (RecordBatch batch : batches)
+            count += batchRecordCount(batch);
+        return count;
+    }
+
+    // the records of a batch in message format v0 or v1 are only counted by decompressing it, so it counts as one
+    private static int batchRecordCount(RecordBatch batch) {
+        Integer count = batch.countOrNull();
+        return count == null ? 1 : count;
+    }
+
+    private <T> List<T> fetchRecords(CompletedFetch completedFetch, int maxRecords,
+                                     BiFunction<CompletedFetch, Integer, List<T>> fetchFrom) {
         if (!subscriptions.isAssigned(completedFetch.partition)) {
             // this can happen when a rebalance happened before fetched records are returned to the consumer's poll call
             log.debug("Not returning fetched records for partition {} since it is no longer assigned",
@@ -724,7 +823,7 @@ public class Fetcher<K, V> implements Closeable {
             }
 
             if (completedFetch.nextFetchOffset == position.offset) {
-                List<ConsumerRecord<K, V>> partRecords = completedFetch.fetchRecords(maxRecords);
+                List<T> partRecords = fetchFrom.apply(completedFetch, maxRecords);
 
                 log.trace("Returning {} fetched records at offset {} for assigned partition {}",
                         partRecords.size(), position, completedFetch.partition);
@@ -1382,8 +1481,10 @@ public class Fetcher<K, V> implements Closeable {
                         + " from topic-partition " + tp);
             }
         } finally {
-            if (completedFetch == null)
+            if (completedFetch == null) {
+                nextCompletedFetch.releaseDecodedRecords();
                 nextCompletedFetch.metricAggregator.record(tp, 0, 0);
+            }
 
             if (error != Errors.NONE)
                 // we move the partition to the end if there was an error. This way, it's more likely that partitions for
@@ -1513,6 +1614,12 @@ public class Fetcher<K, V> implements Closeable {
         private boolean corruptLastRecord = false;
         private boolean initialized = false;
 
+        // the decoding of the records on a decode thread, and the decoded records once it has completed
+        private DecodeTask decodeTask = null;
+        private DecodedRecords decoded = null;
+        private int nextDecodedIndex = 0;
+        private ConsumerRecord<K, V> lastDecodedRecord = null;
+
         private CompletedFetch(TopicPartition partition,
                                FetchResponseData.PartitionData partitionData,
                                FetchResponseMetricAggregator metricAggregator,
@@ -1533,6 +1640,7 @@ public class Fetcher<K, V> implements Closeable {
         private void drain() {
             if (!isConsumed) {
                 maybeCloseRecordStream();
+                releaseDecodedRecords();
                 cachedRecordException = null;
                 this.isConsumed = true;
                 this.metricAggregator.record(partition, bytesRead, recordsRead);
@@ -1574,6 +1682,19 @@ public class Fetcher<K, V> implements Closeable {
         }
 
         private Record nextFetchedRecord() {
+            if (decodeTask != null)
+                return nextDecodedRecord();
+
+            Record record = nextRecord(decompressionBufferSupplier);
+            if (record == null)
+                drain();
+            return record;
+        }
+
+        /**
+         * Get the next record to return from the batches, or null if there are no more records.
+         */
+        private Record nextRecord(BufferSupplier bufferSupplier) {
             while (true) {
                 if (records == null || !records.hasNext()) {
                     maybeCloseRecordStream();
@@ -1586,38 +1707,16 @@ public class Fetcher<K, V> implements Closeable {
                         // fetching the same batch repeatedly).
                         if (currentBatch != null)
                             nextFetchOffset = currentBatch.nextOffset();
-                        drain();
                         return null;
                     }
 
-                    currentBatch = batches.next();
-                    lastEpoch = currentBatch.partitionLeaderEpoch() == RecordBatch.NO_PARTITION_LEADER_EPOCH ?
-                            Optional.empty() : Optional.of(currentBatch.partitionLeaderEpoch());
-
-                    maybeEnsureValid(currentBatch);
-
-                    if (isolationLevel == IsolationLevel.READ_COMMITTED && currentBatch.hasProducerId()) {
-                        // remove from the aborted transaction queue all aborted transactions which have begun
-                        // before the current batch's last offset and add the associated producerIds to the
-                        // aborted producer set
-                        consumeAbortedTransactionsUpTo(currentBatch.lastOffset());
-
-                        long producerId = currentBatch.producerId();
-                        if (containsAbortMarker(currentBatch)) {
-                            abortedProducerIds.remove(producerId);
-                        } else if (isBatchAborted(currentBatch)) {
-                            log.debug("Skipping aborted record batch from partition {} with producerId {} and " +
-                                          "offsets {} to {}",
-                                      partition, producerId, currentBatch.baseOffset(), currentBatch.lastOffset());
-                            nextFetchOffset = currentBatch.nextOffset();
-                            continue;
-                        }
-                    }
+                    if (!moveToNextBatch())
+                        continue;
 
                     if (enableShallowIteration) {
                         records = currentBatch.shallowIterator();
                     } else {
-                        records = currentBatch.streamingIterator(decompressionBufferSupplier);
+                        records = currentBatch.streamingIterator(bufferSupplier);
                     }
                 } else {
                     Record record = records.next();
@@ -1638,6 +1737,38 @@ public class Fetcher<K, V> implements Closeable {
             }
         }
 
+        /**
+         * Move to the next batch, which must exist, after validating it and tracking the aborted transactions up to it.
+         *
+         * @return false if the batch is aborted, in which case its records are skipped
+         */
+        private boolean moveToNextBatch() {
+            currentBatch = batches.next();
+            lastEpoch = currentBatch.partitionLeaderEpoch() == RecordBatch.NO_PARTITION_LEADER_EPOCH ?
+                    Optional.empty() : Optional.of(currentBatch.partitionLeaderEpoch());
+
+            maybeEnsureValid(currentBatch);
+
+            if (isolationLevel == IsolationLevel.READ_COMMITTED && currentBatch.hasProducerId()) {
+                // remove from the aborted transaction queue all aborted transactions which have begun
+                // before the current batch's last offset and add the associated producerIds to the
+                // aborted producer set
+                consumeAbortedTransactionsUpTo(currentBatch.lastOffset());
+
+                long producerId = currentBatch.producerId();
+                if (containsAbortMarker(currentBatch)) {
+                    abortedProducerIds.remove(producerId);
+                } else if (isBatchAborted(currentBatch)) {
+                    log.debug("Skipping aborted record batch from partition {} with producerId {} and " +
+                                  "offsets {} to {}",
+                              partition, producerId, currentBatch.baseOffset(), currentBatch.lastOffset());
+                    nextFetchOffset = currentBatch.nextOffset();
+                    return false;
+                }
+            }
+            return true;
+        }
+
         private List<ConsumerRecord<K, V>> fetchRecords(int maxRecords) {
             // Error when fetching the next record before deserialization.
             if (corruptLastRecord)
@@ -1648,6 +1779,10 @@ public class Fetcher<K, V> implements Closeable {
             if (isConsumed)
                 return Collections.emptyList();
 
+            // wait for the decoding outside of the handling of record errors, which an interruption is not
+            if (decodeTask != null && decoded == null)
+                decoded = awaitDecoded();
+
             List<ConsumerRecord<K, V>> records = new ArrayList<>();
             try {
                 for (int i = 0; i < maxRecords; i++) {
@@ -1660,7 +1795,8 @@ public class Fetcher<K, V> implements Closeable {
                     }
                     if (lastRecord == null)
                         break;
-                    records.add(parseRecord(partition, currentBatch, lastRecord));
+                    // a record which failed to deserialize on the decode thread is deserialized again, like a retry
+                    records.add(lastDecodedRecord != null ? lastDecodedRecord : parseRecord(partition, currentBatch, lastRecord));
                     recordsRead++;
                     bytesRead += lastRecord.sizeInBytes();
                     nextFetchOffset = lastRecord.offset() + 1;
@@ -1682,6 +1818,170 @@ public class Fetcher<K, V> implements Closeable {
             return records;
         }
 
+        /**
+         * Fetch whole batches with at least one record at or after the position, until they have at least the given
+         * number of records. Unlike records, batches are not decompressed, and the records of a batch are only read to
+         * check whether a control batch is an abort marker.
+         */
+        private List<RecordBatch> fetchBatches(int maxRecords) {
+            if (corruptLastRecord)
+                throw new KafkaException("Received exception when fetching the next record from " + partition
+                                             + ". If needed, please seek past the record to "
+                                             + "continue consumption.", cachedRecordException);
+
+            if (isConsumed)
+                return Collections.emptyList();
+
+            // the records decoded ahead are not returned, and any later records are read from the batches instead
+            if (decodeTask != null) {
+                releaseDecodedRecords();
+                decodeTask = null;
+                decoded = null;
+                lastDecodedRecord = null;
+            }
+
+            List<RecordBatch> fetchedBatches = new ArrayList<>();
+            int numRecords = 0;
+            try {
+                // a batch which was partially returned as records is returned whole
+                if (records != null) {
+                    maybeCloseRecordStream();
+                    cachedRecordException = null;
+                    if (currentBatch.nextOffset() > nextFetchOffset) {
+                        fetchedBatches.add(currentBatch);
+                        numRecords += batchRecordCount(currentBatch);
+                        nextFetchOffset = currentBatch.nextOffset();
+                    }
+                }
+
+                while (numRecords < maxRecords) {
+                    if (!batches.hasNext()) {
+                        drain();
+                        break;
+                    }
+                    // batches of records before the position are skipped like their records
+                    if (!moveToNextBatch() || currentBatch.nextOffset() <= nextFetchOffset)
+                        continue;
+
+                    // control batches are not returned to the user
+                    if (!currentBatch.isControlBatch()) {
+                        int count = batchRecordCount(currentBatch);
+                        fetchedBatches.add(currentBatch);
+                        numRecords += count;
+                        recordsRead += count;
+                        bytesRead += currentBatch.sizeInBytes();
+                    }
+                    nextFetchOffset = currentBatch.nextOffset();
+                }
+            } catch (KafkaException e) {
+                // the batch which failed to validate is not skipped
+                corruptLastRecord = true;
+                cachedRecordException = e;
+                if (fetchedBatches.isEmpty())
+                    throw new KafkaException("Received exception when fetching the next record from " + partition
+                                                 + ". If needed, please seek past the record to "
+                                                 + "continue consumption.", e);
+            }
+            return fetchedBatches;
+        }
+
+        /**
+         * Start decoding the records of this fetch on a decode thread, if there are decode threads and records.
+         */
+        private void maybeStartDecoding() {
+            if (decodeExecutor == null || partitionData.errorCode() != Errors.NONE.code() ||
+                    FetchResponse.recordsSize(partitionData) <= 0)
+                return;
+
+            // the records are decoded with a copy of the iteration state of this fetch, which only the decode thread uses
+            CompletedFetch decodingFetch = new CompletedFetch(partition, partitionData, metricAggregator,
+                FetchResponse.recordsOrFail(partitionData).batches().iterator(), nextFetchOffset, responseVersion);
+            decodeTask = new DecodeTask(decodingFetch::decodeRecords);
+            try {
+                decodeExecutor.execute(decodeTask);
+            } catch (RejectedExecutionException e) {
+                // the fetcher is closing, and the records are decoded by the thread polling the consumer if needed
+            }
+        }
+
+        /**
+         * Decompress and deserialize all the records of this fetch. This runs on a decode thread, and an error is
+         * returned with the records decoded before it rather than thrown, so that it is raised after they are returned.
+         */
+        private DecodedRecords decodeRecords() {
+            long startNs = time.nanoseconds();
+            List<DecodedRecord> decodedRecords = new ArrayList<>();
+            RuntimeException error = null;
+            try (BufferSupplier bufferSupplier = BufferSupplier.create()) {
+                Record record;
+                while ((record = nextRecord(bufferSupplier)) != null) {
+                    ConsumerRecord<K, V> consumerRecord = null;
+                    try {
+                        consumerRecord = parseRecord(partition, currentBatch, record);
+                    } catch (RecordDeserializationException e) {
+                        // the record is deserialized again when it is reached, which raises the error then
+                    }
+                    decodedRecords.add(new DecodedRecord(record, currentBatch, lastEpoch, consumerRecord));
+                    nextFetchOffset = record.offset() + 1;
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                maybeCloseRecordStream();
+            }
+            sensors.decodeTime.record((time.nanoseconds() - startNs) / 1_000_000.0);
+            return new DecodedRecords(decodedRecords, error, nextFetchOffset, lastEpoch);
+        }
+
+        /**
+         * Wait for the decoding of the records, decoding them on this thread if no decode thread has started to.
+         */
+        private DecodedRecords awaitDecoded() {
+            decodeTask.run();
+            try {
+                return decodeTask.get();
+            } catch (InterruptedException e) {
+                throw new InterruptException(e);
+            } catch (ExecutionException e) {
+                throw new KafkaException("Failed to decode the fetched records of partition " + partition, e.getCause());
+            }
+        }
+
+        private Record nextDecodedRecord() {
+            if (nextDecodedIndex < decoded.records.size()) {
+                DecodedRecord next = decoded.records.get(nextDecodedIndex++);
+                decodedRecordsReady.decrementAndGet();
+                currentBatch = next.batch;
+                lastEpoch = next.lastEpoch;
+                lastDecodedRecord = next.consumerRecord;
+                return next.record;
+            }
+
+            lastDecodedRecord = null;
+            if (decoded.error != null)
+                throw decoded.error;
+            nextFetchOffset = decoded.nextFetchOffset;
+            lastEpoch = decoded.lastEpoch;
+            drain();
+            return null;
+        }
+
+        /**
+         * Release the decoded records which have not been returned, or cancel the decoding if it has not completed.
+         */
+        private void releaseDecodedRecords() {
+            if (decodeTask == null)
+                return;
+            if (decoded == null) {
+                if (decodeTask.cancel(false))
+                    return;
+                // the decoding has completed, so its result is available without waiting
+                decoded = awaitDecoded();
+            }
+            decodedRecordsReady.addAndGet(nextDecodedIndex - decoded.records.size());
+            nextDecodedIndex = decoded.records.size();
+        }
+
         private void consumeAbortedTransactionsUpTo(long offset) {
             if (abortedTransactions == null)
                 return;
@@ -1724,6 +2024,58 @@ public class Fetcher<K, V> implements Closeable {
         }
     }
 
+    /**
+     * A record of a completed fetch decoded on a decode thread, with the state of the fetch when it is returned.
+     */
+    private class DecodedRecord {
+        private final Record record;
+        private final RecordBatch batch;
+        private final Optional<Integer> lastEpoch;
+        // null if the record failed to deserialize
+        private final ConsumerRecord<K, V> consumerRecord;
+
+        private DecodedRecord(Record record, RecordBatch batch, Optional<Integer> lastEpoch, ConsumerRecord<K, V> consumerRecord) {
+            this.record = record;
+            this.batch = batch;
+            this.lastEpoch = lastEpoch;
+            this.consumerRecord = consumerRecord;
+        }
+    }
+
+    /**
+     * The records of a completed fetch decoded on a decode thread, and the state of the fetch after all of them.
+     */
+    private class DecodedRecords {
+        private final List<DecodedRecord> records;
+        // the error which stopped the decoding after the records, if any
+        private final RuntimeException error;
+        private final long nextFetchOffset;
+        private final Optional<Integer> lastEpoch;
+
+        private DecodedRecords(List<DecodedRecord> records, RuntimeException error, long nextFetchOffset,
+                               Optional<Integer> lastEpoch) {
+            this.records = records;
+            this.error = error;
+            this.nextFetchOffset = nextFetchOffset;
+            this.lastEpoch = lastEpoch;
+        }
+    }
+
+    private class DecodeTask extends FutureTask<DecodedRecords> {
+        private DecodeTask(Callable<DecodedRecords> decoding) {
+            super(decoding);
+        }
+
+        @Override
+        protected void set(DecodedRecords decodedRecords) {
+            // the records are ready before the result is visible, unless the fetch was drained while they were decoded
+            decodedRecordsReady.addAndGet(decodedRecords.records.size());
+            super.set(decodedRecords);
+            if (isCancelled())
+                decodedRecordsReady.addAndGet(-decodedRecords.records.size());
+        }
+    }
+
     /**
      * Since we parse the message data for each partition from each fetch response lazily, fetch-level
      * metrics need to be aggregated as the messages from each partition are parsed. This class is used
@@ -1791,11 +2143,12 @@ public class Fetcher<K, V> implements Closeable {
         private final Sensor fetchLatency;
         private final Sensor recordsFetchLag;
         private final Sensor recordsFetchLead;
+        private final Sensor decodeTime;
 
         private int assignmentId = 0;
         private Set<TopicPartition> assignedPartitions = Collections.emptySet();
 
-        private FetchManagerMetrics(Metrics metrics, FetcherMetricsRegistry metricsRegistry) {
+        private FetchManagerMetrics(Metrics metrics, FetcherMetricsRegistry metricsRegistry, AtomicInteger decodedRecordsReady) {
             this.metrics = metrics;
             this.metricsRegistry = metricsRegistry;
 
@@ -1821,6 +2174,13 @@ public class Fetcher<K, V> implements Closeable {
 
             this.recordsFetchLead = metrics.sensor("records-lead");
             this.recordsFetchLead.add(metrics.metricInstance(metricsRegistry.recordsLeadMin), new Min());
+
+            this.decodeTime = metrics.sensor("decode-time");
+            this.decodeTime.add(metrics.metricInstance(metricsRegistry.decodeTimeAvg), new Avg());
+            this.decodeTime.add(metrics.metricInstance(metricsRegistry.decodeTimeMax), new Max());
+            MetricName decodedRecordsReadyMetricName = metrics.metricInstance(metricsRegistry.decodedRecordsReady);
+            if (metrics.metric(decodedRecordsReadyMetricName) == null)
+                metrics.addMetric(decodedRecordsReadyMetricName, (Gauge<Integer>) (config, now) -> decodedRecordsReady.get());
         }
 
         private void recordTopicFetchMetrics(String topic, int bytes, int records) {
@@ -1941,6 +2301,17 @@ public class Fetcher<K, V> implements Closeable {
 
     @Override
     public void close() {
+        if (decodeExecutor != null) {
+            decodeExecutor.shutdownNow();
+            // the decode threads use the deserializers, which are closed once the fetcher is
+            try {
+                if (!decodeExecutor.awaitTermination(requestTimeoutMs, TimeUnit.MILLISECONDS))
+                    log.warn("The decode threads did not terminate within {} ms", requestTimeoutMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptException(e);
+            }
+        }
         if (nextInLineFetch != null)
             nextInLineFetch.drain();
         decompressionBufferSupplier.close();
@@ -41,6 +41,9 @@ public class FetcherMetricsRegistry {
     public MetricNameTemplate recordsLeadMin;
     public MetricNameTemplate fetchThrottleTimeAvg;
     public MetricNameTemplate fetchThrottleTimeMax;
+    public MetricNameTemplate decodeTimeAvg;
+    public MetricNameTemplate decodeTimeMax;
+    public MetricNameTemplate decodedRecordsReady;
     public MetricNameTemplate metadataRequestRate;
     public MetricNameTemplate metadataRequestTotal;
     public MetricNameTemplate topicFetchSizeAvg;
@@ -110,6 +113,13 @@ public class FetcherMetricsRegistry {
         this.fetchThrottleTimeMax = new MetricNameTemplate("fetch-throttle-time-max", groupName,
                 "The maximum throttle time in ms", tags);
 
+        this.decodeTimeAvg = new MetricNameTemplate("decode-time-avg", groupName,
+                "The average time in ms taken by a decode thread to decompress and deserialize the records of a partition in a fetch", tags);
+        this.decodeTimeMax = new MetricNameTemplate("decode-time-max", groupName,
+                "The maximum time in ms taken by a decode thread to decompress and deserialize the records of a partition in a fetch", tags);
+        this.decodedRecordsReady = new MetricNameTemplate("decoded-records-ready", groupName,
+                "The number of records decoded by the decode threads which are yet to be returned by poll", tags);
+
         /***** Topic level *****/
         Set<String> topicTags = new LinkedHashSet<>(tags);
         topicTags.add("topic");
@@ -167,6 +177,9 @@ public class FetcherMetricsRegistry {
             recordsLeadMin,
             fetchThrottleTimeAvg,
             fetchThrottleTimeMax,
+            decodeTimeAvg,
+            decodeTimeMax,
+            decodedRecordsReady,
             topicFetchSizeAvg,
             topicFetchSizeMax,
             topicBytesConsumedRate,
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer;
+
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A batching policy which keeps the latency of the records of each partition within
+ * <code>li.batching.latency.slo.ms</code>. The rate at which records are sent to each partition and the latency of its
+ * produce requests are tracked as moving averages, from which:
+ * <ul>
+ * <li>The linger time is the part of the latency objective which is left after the produce latency, if at least one
+ * more record is expected to be sent to the partition within it, and no longer than it takes to fill a batch. So
+ * partitions which receive few records send them right away, and busy partitions send fuller batches.</li>
+ * <li>The batch size is the amount of data sent to the partition during a produce request, divided by the number of
+ * requests which can still be sent to its leader without waiting for a response, so that the requests of a busy
+ * partition keep up with the records sent to it. It is at least <code>batch.size</code> and at most
+ * <code>li.batching.max.batch.size</code>.</li>
+ * </ul>
+ */
+public class AdaptiveBatchingPolicy implements BatchingPolicy {
+    // the period over which the records sent to a partition are counted before the average rates are updated
+    static final long RATE_WINDOW_MS = 100;
+    // the weight of the latest window, or response, in the moving averages
+    private static final double SMOOTHING = 0.2;
+
+    private final ConcurrentMap<TopicPartition, PartitionStats> statsByPartition = new ConcurrentHashMap<>();
+    private long latencySloMs;
+    private int minBatchSize;
+    private int maxBatchSize;
+    private int maxInFlightRequests;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        latencySloMs = ((Number) configs.get(ProducerConfig.LI_BATCHING_LATENCY_SLO_MS_CONFIG)).longValue();
+        minBatchSize = ((Number) configs.get(ProducerConfig.BATCH_SIZE_CONFIG)).intValue();
+        maxBatchSize = Math.max(minBatchSize,
+            ((Number) configs.get(ProducerConfig.LI_BATCHING_MAX_BATCH_SIZE_CONFIG)).intValue());
+        maxInFlightRequests = ((Number) configs.get(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION)).intValue();
+    }
+
+    @Override
+    public long lingerMs(TopicPartition partition, long nowMs) {
+        PartitionStats partitionStats = stats(partition, nowMs);
+        partitionStats.maybeUpdate(nowMs);
+        return partitionStats.lingerMs;
+    }
+
+    @Override
+    public int batchSize(TopicPartition partition, long nowMs) {
+        PartitionStats partitionStats = stats(partition, nowMs);
+        partitionStats.maybeUpdate(nowMs);
+        return partitionStats.batchSize;
+    }
+
+    @Override
+    public void onAppend(TopicPartition partition, int sizeInBytes, long nowMs) {
+        PartitionStats partitionStats = stats(partition, nowMs);
+        partitionStats.windowRecords.increment();
+        partitionStats.windowBytes.add(sizeInBytes);
+    }
+
+    @Override
+    public void onProduceResponse(TopicPartition partition, long latencyMs, int inFlightRequests, long nowMs) {
+        PartitionStats partitionStats = stats(partition, nowMs);
+        synchronized (partitionStats) {
+            partitionStats.latencyMs = partitionStats.latencyMs < 0 ? latencyMs :
+                partitionStats.latencyMs + SMOOTHING * (latencyMs - partitionStats.latencyMs);
+            partitionStats.inFlightRequests = inFlightRequests;
+            partitionStats.update();
+        }
+    }
+
+    private PartitionStats stats(TopicPartition partition, long nowMs) {
+        PartitionStats partitionStats = statsByPartition.get(partition);
+        if (partitionStats == null) {
+            partitionStats = new PartitionStats(nowMs);
+            PartitionStats previous = statsByPartition.putIfAbsent(partition, partitionStats);
+            if (previous != null)
+                partitionStats = previous;
+        }
+        return partitionStats;
+    }
+
+    private class PartitionStats {
+        private final LongAdder windowRecords = new LongAdder();
+        private final LongAdder windowBytes = new LongAdder();
+        private volatile long windowStartMs;
+
+        // the following are only updated with the lock of the stats held
+        private double recordsPerMs;
+        private double bytesPerMs;
+        private double latencyMs = -1;
+        private int inFlightRequests;
+
+        private volatile long lingerMs;
+        private volatile int batchSize = minBatchSize;
+
+        PartitionStats(long nowMs) {
+            this.windowStartMs = nowMs;
+        }
+
+        void maybeUpdate(long nowMs) {
+            if (nowMs - windowStartMs < RATE_WINDOW_MS)
+                return;
+            synchronized (this) {
+                long elapsedMs = nowMs - windowStartMs;
+                if (elapsedMs < RATE_WINDOW_MS)
+                    return;
+                windowStartMs = nowMs;
+                // a window longer than the usual one weighs as much as that many usual windows
+                double weight = 1 - Math.pow(1 - SMOOTHING, (double) elapsedMs / RATE_WINDOW_MS);
+                recordsPerMs += weight * ((double) windowRecords.sumThenReset() / elapsedMs - recordsPerMs);
+                bytesPerMs += weight * ((double) windowBytes.sumThenReset() / elapsedMs - bytesPerMs);
+                update();
+            }
+        }
+
+        void update() {
+            double produceLatencyMs = Math.max(latencyMs, 0);
+            int requestWindow = Math.max(1, maxInFlightRequests - inFlightRequests);
+            double bytesPerRequest = bytesPerMs * Math.max(produceLatencyMs, 1) / requestWindow;
+            batchSize = (int) Math.min(maxBatchSize, Math.max(minBatchSize, bytesPerRequest));
+
+            double budgetMs = Math.max(0, latencySloMs - produceLatencyMs);
+            if (recordsPerMs * budgetMs < 1)
+                lingerMs = 0;
+            else
+                lingerMs = (long) Math.min(budgetMs, batchSize / bytesPerMs);
+        }
+    }
+}
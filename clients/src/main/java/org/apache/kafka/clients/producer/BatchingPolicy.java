@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer;
+
+import org.apache.kafka.common.Configurable;
+import org.apache.kafka.common.TopicPartition;
+
+import java.io.Closeable;
+
+/**
+ * A policy which chooses the linger time and the batch size of each partition, in place of <code>linger.ms</code> and
+ * <code>batch.size</code>, from the records sent to the partition and the responses to the produce requests.
+ * <p>
+ * The policy is configured with the producer configs, where <code>linger.ms</code>, <code>batch.size</code> and
+ * <code>max.in.flight.requests.per.connection</code> are parsed. Its methods are called concurrently by the threads
+ * sending records and by the I/O thread of the producer, and {@link #lingerMs(TopicPartition, long)} is called for each
+ * partition with queued batches whenever the I/O thread checks which batches are ready to be sent, so they should be
+ * thread safe and cheap.
+ */
+public interface BatchingPolicy extends Configurable, Closeable {
+
+    /**
+     * Get the time to wait for more records before sending a batch of the partition which is not full.
+     *
+     * @param partition The partition
+     * @param nowMs The current time in milliseconds
+     */
+    long lingerMs(TopicPartition partition, long nowMs);
+
+    /**
+     * Get the size of a new batch of the partition, which is sent once it is full. A larger batch is created for a
+     * record which is larger than this size.
+     *
+     * @param partition The partition
+     * @param nowMs The current time in milliseconds
+     */
+    int batchSize(TopicPartition partition, long nowMs);
+
+    /**
+     * Notifies the policy that a record was appended to a batch of the partition.
+     *
+     * @param partition The partition
+     * @param sizeInBytes The size of the serialized key and value of the record
+     * @param nowMs The current time in milliseconds
+     */
+    void onAppend(TopicPartition partition, int sizeInBytes, long nowMs);
+
+    /**
+     * Notifies the policy that a batch of the partition was successfully produced.
+     *
+     * @param partition The partition
+     * @param latencyMs The time from sending the produce request to receiving its response in milliseconds
+     * @param inFlightRequests The number of requests still in flight to the leader of the partition
+     * @param nowMs The current time in milliseconds
+     */
+    void onProduceResponse(TopicPartition partition, long latencyMs, int inFlightRequests, long nowMs);
+
+    /**
+     * This is called when the producer is closed.
+     */
+    default void close() {
+    }
+}
@@ -32,6 +32,7 @@ import org.apache.kafka.clients.producer.internals.ProducerMetadata;
 import org.apache.kafka.clients.producer.internals.ProducerMetrics;
 import org.apache.kafka.clients.producer.internals.RecordAccumulator;
 import org.apache.kafka.clients.producer.internals.Sender;
+import org.apache.kafka.clients.producer.internals.SizeClassedBufferPool;
 import org.apache.kafka.clients.producer.internals.TransactionManager;
 import org.apache.kafka.clients.producer.internals.TransactionalRequestResult;
 import org.apache.kafka.common.Cluster;
@@ -40,6 +41,8 @@ import org.apache.kafka.common.Metric;
 import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.compress.ZstdDictionary;
+import org.apache.kafka.common.compress.ZstdFactory;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.errors.ApiException;
 import org.apache.kafka.common.errors.AuthenticationException;
@@ -77,9 +80,12 @@ import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.common.utils.Utils;
 import org.slf4j.Logger;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -246,6 +252,7 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     // Visible for testing
     final Metrics metrics;
     private final Partitioner partitioner;
+    private final BatchingPolicy batchingPolicy;
     private final int maxRequestSize;
     private final long totalMemorySize;
     private final ProducerMetadata metadata;
@@ -262,6 +269,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
     private final ProducerInterceptors<K, V> interceptors;
     private final ApiVersions apiVersions;
     private final TransactionManager transactionManager;
+    // the registered dictionary the batches are compressed with, until it is unregistered on close
+    private final AtomicReference<ZstdDictionary> compressionDictionary = new AtomicReference<>();
 
     /**
      * A producer is instantiated by providing a set of key-value pairs as configuration. Valid configuration strings
@@ -411,6 +420,8 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
 
             this.apiVersions = new ApiVersions();
             this.transactionManager = configureTransactionState(config, logContext);
+            this.batchingPolicy = configureBatchingPolicy(config);
+            this.compressionDictionary.set(configureCompressionDictionary(config, this.compressionType));
             this.accumulator = new RecordAccumulator(logContext,
                     config.getInt(ProducerConfig.BATCH_SIZE_CONFIG),
                     this.compressionType,
@@ -422,7 +433,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
                     time,
                     apiVersions,
                     transactionManager,
-                    new BufferPool(this.totalMemorySize, config.getInt(ProducerConfig.BATCH_SIZE_CONFIG), metrics, time, PRODUCER_METRIC_GROUP_NAME));
+                    configureBufferPool(config, this.totalMemorySize, metrics, time),
+                    this.compressionDictionary.get(),
+                    config.getInt(ProducerConfig.LI_ACCUMULATOR_APPEND_STRIPES_CONFIG),
+                    batchingPolicy);
 
             List<InetSocketAddress> addresses = ClientUtils.parseAndValidateAddresses(
                     config.getList(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG),
@@ -519,6 +533,43 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         return (int) Math.min(config.getLong(ProducerConfig.LINGER_MS_CONFIG), Integer.MAX_VALUE);
     }
 
+    private static ZstdDictionary configureCompressionDictionary(ProducerConfig config, CompressionType compressionType) {
+        String dictionaryFile = config.getString(ProducerConfig.LI_ZSTD_DICTIONARY_FILE_CONFIG);
+        if (dictionaryFile == null || compressionType != CompressionType.ZSTD)
+            return null;
+        try {
+            // the dictionary is registered so that its digested form is created once for all the batches
+            return ZstdDictionary.register(ZstdDictionary.readFrom(Paths.get(dictionaryFile)));
+        } catch (IOException | IllegalArgumentException e) {
+            throw new ConfigException(ProducerConfig.LI_ZSTD_DICTIONARY_FILE_CONFIG, dictionaryFile,
+                "Failed to load zstd dictionary: " + e.getMessage());
+        }
+    }
+
+    private static BufferPool configureBufferPool(ProducerConfig config, long totalMemorySize, Metrics metrics, Time time) {
+        int batchSize = config.getInt(ProducerConfig.BATCH_SIZE_CONFIG);
+        int sizeClasses = config.getInt(ProducerConfig.LI_BUFFER_POOL_SIZE_CLASSES_CONFIG);
+        if (sizeClasses == 0)
+            return new BufferPool(totalMemorySize, batchSize, metrics, time, PRODUCER_METRIC_GROUP_NAME);
+        return new SizeClassedBufferPool(totalMemorySize, batchSize, sizeClasses,
+            config.getBoolean(ProducerConfig.LI_BUFFER_POOL_DIRECT_CONFIG), metrics, time, PRODUCER_METRIC_GROUP_NAME);
+    }
+
+    private static BatchingPolicy configureBatchingPolicy(ProducerConfig config) {
+        // the policy is given the parsed values of the configs it is documented to be given
+        Map<String, Object> configOverrides = new HashMap<>();
+        configOverrides.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs(config));
+        configOverrides.put(ProducerConfig.BATCH_SIZE_CONFIG, config.getInt(ProducerConfig.BATCH_SIZE_CONFIG));
+        configOverrides.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION,
+            config.getInt(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION));
+        configOverrides.put(ProducerConfig.LI_BATCHING_LATENCY_SLO_MS_CONFIG,
+            config.getLong(ProducerConfig.LI_BATCHING_LATENCY_SLO_MS_CONFIG));
+        configOverrides.put(ProducerConfig.LI_BATCHING_MAX_BATCH_SIZE_CONFIG,
+            config.getInt(ProducerConfig.LI_BATCHING_MAX_BATCH_SIZE_CONFIG));
+        return config.getConfiguredInstance(ProducerConfig.LI_BATCHING_POLICY_CLASS_CONFIG, BatchingPolicy.class,
+            configOverrides);
+    }
+
     private static int configureDeliveryTimeout(ProducerConfig config, Logger log) {
         int deliveryTimeoutMs = config.getInt(ProducerConfig.DELIVERY_TIMEOUT_MS_CONFIG);
         int lingerMs = lingerMs(config);
@@ -1301,6 +1352,10 @@ public class KafkaProducer<K, V> implements Producer<K, V> {
         Utils.closeQuietly(keySerializer, "producer keySerializer", firstException);
         Utils.closeQuietly(valueSerializer, "producer valueSerializer", firstException);
         Utils.closeQuietly(partitioner, "producer partitioner", firstException);
+        Utils.closeQuietly(batchingPolicy, "producer batching policy", firstException);
+        ZstdDictionary dictionary = compressionDictionary.getAndSet(null);
+        if (dictionary != null)
+            ZstdFactory.unregister(dictionary);
         AppInfoParser.unregisterAppInfo(JMX_PREFIX, clientId, metrics);
         Throwable exception = firstException.get();
         if (exception != null && !swallowException) {
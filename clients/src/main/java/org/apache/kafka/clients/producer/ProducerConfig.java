@@ -303,6 +303,58 @@ public class ProducerConfig extends AbstractConfig {
 
     public static final String LI_CLIENT_CLUSTER_METADATA_EXPIRE_TIME_MS_CONFIG = CommonClientConfigs.LI_CLIENT_CLUSTER_METADATA_EXPIRE_TIME_MS_CONFIG;
 
+    /** <code>li.zstd.dictionary.file</code> */
+    public static final String LI_ZSTD_DICTIONARY_FILE_CONFIG = "li.zstd.dictionary.file";
+    private static final String LI_ZSTD_DICTIONARY_FILE_DOC = "The file of a zstd dictionary to compress the batches with "
+        + "when <code>" + COMPRESSION_TYPE_CONFIG + "</code> is <code>zstd</code>, typically trained from the records of the "
+        + "topics the producer writes to with <code>kafka.tools.ZstdDictionaryTrainer</code>. The consumers of these topics "
+        + "must load the same dictionary to decompress the batches. If not set, batches are compressed without a dictionary.";
+
+    /** <code>li.accumulator.append.stripes</code> */
+    public static final String LI_ACCUMULATOR_APPEND_STRIPES_CONFIG = "li.accumulator.append.stripes";
+    private static final String LI_ACCUMULATOR_APPEND_STRIPES_DOC = "The number of batches of each partition which records "
+        + "can be appended to concurrently. Each sending thread appends to one of these batches, so that threads sending to "
+        + "the same partition contend less for it, while the records sent by a thread keep their order. With more than one, "
+        + "the records of a partition are spread over more, smaller batches, and batches are sent once one of them is full, "
+        + "rather than only the first.";
+
+    /** <code>li.batching.policy.class</code> */
+    public static final String LI_BATCHING_POLICY_CLASS_CONFIG = "li.batching.policy.class";
+    private static final String LI_BATCHING_POLICY_CLASS_DOC = "A class that implements the "
+        + "<code>org.apache.kafka.clients.producer.BatchingPolicy</code> interface, which chooses the linger time and the "
+        + "batch size of each partition in place of <code>" + LINGER_MS_CONFIG + "</code> and <code>" + BATCH_SIZE_CONFIG
+        + "</code>, such as <code>org.apache.kafka.clients.producer.AdaptiveBatchingPolicy</code>. If not set, every "
+        + "partition uses <code>" + LINGER_MS_CONFIG + "</code> and <code>" + BATCH_SIZE_CONFIG + "</code>.";
+
+    /** <code>li.batching.latency.slo.ms</code> */
+    public static final String LI_BATCHING_LATENCY_SLO_MS_CONFIG = "li.batching.latency.slo.ms";
+    private static final String LI_BATCHING_LATENCY_SLO_MS_DOC = "The latency objective of the records of a partition, "
+        + "from being sent until they are acknowledged, which the <code>AdaptiveBatchingPolicy</code> lingers within.";
+
+    /** <code>li.batching.max.batch.size</code> */
+    public static final String LI_BATCHING_MAX_BATCH_SIZE_CONFIG = "li.batching.max.batch.size";
+    private static final String LI_BATCHING_MAX_BATCH_SIZE_DOC = "The largest batch size the <code>AdaptiveBatchingPolicy</code> "
+        + "chooses for a partition which receives more records than batches of <code>" + BATCH_SIZE_CONFIG + "</code> can "
+        + "carry with the requests in flight. Batches larger than <code>" + BATCH_SIZE_CONFIG + "</code> are only pooled with "
+        + "<code>li.buffer.pool.size.classes</code>.";
+
+    /** <code>li.buffer.pool.size.classes</code> */
+    public static final String LI_BUFFER_POOL_SIZE_CLASSES_CONFIG = "li.buffer.pool.size.classes";
+    private static final String LI_BUFFER_POOL_SIZE_CLASSES_DOC = "The number of buffer sizes recycled by the producer, "
+        + "<code>" + BATCH_SIZE_CONFIG + "</code> and its doublings. With 0, only buffers of <code>" + BATCH_SIZE_CONFIG
+        + "</code> are recycled, and every allocation and deallocation takes the lock of the buffer pool. Otherwise buffers "
+        + "are allocated with the smallest of these sizes which fits them, and they are taken from and returned to a free "
+        + "list of their size without locking, unless threads are blocked waiting for buffer memory. Since a buffer is rounded "
+        + "up to its size, a batch may reserve up to twice its size of <code>" + BUFFER_MEMORY_CONFIG + "</code>.";
+
+    /** <code>li.buffer.pool.direct</code> */
+    public static final String LI_BUFFER_POOL_DIRECT_CONFIG = "li.buffer.pool.direct";
+    private static final String LI_BUFFER_POOL_DIRECT_DOC = "Whether the buffers recycled with <code>"
+        + LI_BUFFER_POOL_SIZE_CLASSES_CONFIG + "</code> are allocated off-heap, as direct buffers, so that a large <code>"
+        + BUFFER_MEMORY_CONFIG + "</code> does not grow the old generation of the heap. The direct memory of the JVM must "
+        + "allow for <code>" + BUFFER_MEMORY_CONFIG + "</code>. Direct buffers dropped to allocate buffers of another size "
+        + "are released right away. Ignored if <code>" + LI_BUFFER_POOL_SIZE_CLASSES_CONFIG + "</code> is 0.";
+
     static {
         CONFIG = new ConfigDef().define(BOOTSTRAP_SERVERS_CONFIG, Type.LIST, Collections.emptyList(), new ConfigDef.NonNullValidator(), Importance.HIGH, CommonClientConfigs.BOOTSTRAP_SERVERS_DOC)
                                 .define(CLIENT_DNS_LOOKUP_CONFIG,
@@ -470,7 +522,46 @@ public class ProducerConfig extends AbstractConfig {
                                         DEFAULT_LEAST_LOADED_NODE_ALGORITHM,
                                         new EnumValueValidator<>(LeastLoadedNodeAlgorithm.class),
                                         Importance.MEDIUM,
-                                        LEAST_LOADED_NODE_ALGORITHM_DOC);
+                                        LEAST_LOADED_NODE_ALGORITHM_DOC)
+                                .define(LI_ZSTD_DICTIONARY_FILE_CONFIG,
+                                        Type.STRING,
+                                        null,
+                                        Importance.LOW,
+                                        LI_ZSTD_DICTIONARY_FILE_DOC)
+                                .define(LI_ACCUMULATOR_APPEND_STRIPES_CONFIG,
+                                        Type.INT,
+                                        1,
+                                        atLeast(1),
+                                        Importance.LOW,
+                                        LI_ACCUMULATOR_APPEND_STRIPES_DOC)
+                                .define(LI_BATCHING_POLICY_CLASS_CONFIG,
+                                        Type.CLASS,
+                                        null,
+                                        Importance.LOW,
+                                        LI_BATCHING_POLICY_CLASS_DOC)
+                                .define(LI_BATCHING_LATENCY_SLO_MS_CONFIG,
+                                        Type.LONG,
+                                        100L,
+                                        atLeast(0L),
+                                        Importance.LOW,
+                                        LI_BATCHING_LATENCY_SLO_MS_DOC)
+                                .define(LI_BATCHING_MAX_BATCH_SIZE_CONFIG,
+                                        Type.INT,
+                                        256 * 1024,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        LI_BATCHING_MAX_BATCH_SIZE_DOC)
+                                .define(LI_BUFFER_POOL_SIZE_CLASSES_CONFIG,
+                                        Type.INT,
+                                        0,
+                                        atLeast(0),
+                                        Importance.LOW,
+                                        LI_BUFFER_POOL_SIZE_CLASSES_DOC)
+                                .define(LI_BUFFER_POOL_DIRECT_CONFIG,
+                                        Type.BOOLEAN,
+                                        false,
+                                        Importance.LOW,
+                                        LI_BUFFER_POOL_DIRECT_DOC);
     }
 
     @Override
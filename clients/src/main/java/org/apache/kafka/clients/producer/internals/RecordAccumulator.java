@@ -31,6 +31,7 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.TimeUnit;
 import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.BatchingPolicy;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.common.utils.ProducerIdAndEpoch;
 import org.apache.kafka.common.Cluster;
@@ -39,6 +40,7 @@ import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.Node;
 import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.compress.ZstdDictionary;
 import org.apache.kafka.common.errors.RecordBatchTooLargeException;
 import org.apache.kafka.common.errors.TimeoutException;
 import org.apache.kafka.common.errors.UnsupportedVersionException;
@@ -46,6 +48,9 @@ import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.metrics.Measurable;
 import org.apache.kafka.common.metrics.MetricConfig;
 import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
 import org.apache.kafka.common.record.AbstractRecords;
 import org.apache.kafka.common.record.CompressionRatioEstimator;
 import org.apache.kafka.common.record.CompressionType;
@@ -66,6 +71,12 @@ import org.slf4j.Logger;
  * <p>
  * The accumulator uses a bounded amount of memory and append calls will block when that memory is exhausted, unless
  * this behavior is explicitly disabled.
+ * <p>
+ * The batches of a partition are queued in a deque, whose monitor guards it and, by default, the appends to its last
+ * batch. With more than one append stripe, each appending thread appends to the open batch of one of the stripes of
+ * the partition under the monitor of the stripe instead, and the monitor of the deque is only taken to queue a new
+ * batch, so threads sending to the same partition contend less with each other and with the sender. Batches are always
+ * detached from their stripe before the sender closes, expires or aborts them.
  */
 public final class RecordAccumulator {
 
@@ -75,6 +86,7 @@ public final class RecordAccumulator {
     private final AtomicInteger appendsInProgress;
     private final int batchSize;
     private final CompressionType compression;
+    private final ZstdDictionary compressionDictionary;
     private final int lingerMs;
     private final long retryBackoffMs;
     private final int deliveryTimeoutMs;
@@ -82,6 +94,11 @@ public final class RecordAccumulator {
     private final Time time;
     private final ApiVersions apiVersions;
     private final ConcurrentMap<TopicPartition, Deque<ProducerBatch>> batches;
+    private final int appendStripes;
+    private final ConcurrentMap<TopicPartition, AppendStripe[]> stripes;
+    private final BatchingPolicy batchingPolicy;
+    private Sensor batchingLingerSensor;
+    private Sensor batchingBatchSizeSensor;
     private final IncompleteBatches incomplete;
     // The following variables are only accessed by the sender thread, so we don't need to protect them.
     private final Set<TopicPartition> muted;
@@ -118,6 +135,79 @@ public final class RecordAccumulator {
                              ApiVersions apiVersions,
                              TransactionManager transactionManager,
                              BufferPool bufferPool) {
+        this(logContext, batchSize, compression, lingerMs, retryBackoffMs, deliveryTimeoutMs, metrics, metricGrpName,
+            time, apiVersions, transactionManager, bufferPool, null);
+    }
+
+    /**
+     * Create a new record accumulator which compresses with the given dictionary
+     *
+     * @param compressionDictionary The dictionary to compress the records with if the compression codec supports
+     *                              dictionaries, or null to compress without a dictionary
+     */
+    public RecordAccumulator(LogContext logContext,
+                             int batchSize,
+                             CompressionType compression,
+                             int lingerMs,
+                             long retryBackoffMs,
+                             int deliveryTimeoutMs,
+                             Metrics metrics,
+                             String metricGrpName,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager,
+                             BufferPool bufferPool,
+                             ZstdDictionary compressionDictionary) {
+        this(logContext, batchSize, compression, lingerMs, retryBackoffMs, deliveryTimeoutMs, metrics, metricGrpName,
+            time, apiVersions, transactionManager, bufferPool, compressionDictionary, 1, null);
+    }
+
+    /**
+     * Create a new record accumulator which appends the records of each partition to the given number of batches
+     *
+     * @param appendStripes The number of open batches of each partition, which threads append records to concurrently
+     */
+    public RecordAccumulator(LogContext logContext,
+                             int batchSize,
+                             CompressionType compression,
+                             int lingerMs,
+                             long retryBackoffMs,
+                             int deliveryTimeoutMs,
+                             Metrics metrics,
+                             String metricGrpName,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager,
+                             BufferPool bufferPool,
+                             ZstdDictionary compressionDictionary,
+                             int appendStripes) {
+        this(logContext, batchSize, compression, lingerMs, retryBackoffMs, deliveryTimeoutMs, metrics, metricGrpName,
+            time, apiVersions, transactionManager, bufferPool, compressionDictionary, appendStripes, null);
+    }
+
+    /**
+     * Create a new record accumulator whose linger time and batch size of each partition are chosen by a policy
+     *
+     * @param batchingPolicy The policy which chooses the linger time and batch size of each partition in place of
+     *                       lingerMs and batchSize, or null to use them for every partition
+     */
+    public RecordAccumulator(LogContext logContext,
+                             int batchSize,
+                             CompressionType compression,
+                             int lingerMs,
+                             long retryBackoffMs,
+                             int deliveryTimeoutMs,
+                             Metrics metrics,
+                             String metricGrpName,
+                             Time time,
+                             ApiVersions apiVersions,
+                             TransactionManager transactionManager,
+                             BufferPool bufferPool,
+                             ZstdDictionary compressionDictionary,
+                             int appendStripes,
+                             BatchingPolicy batchingPolicy) {
+        if (appendStripes < 1)
+            throw new IllegalArgumentException("The number of append stripes must be at least 1, but was " + appendStripes);
         this.log = logContext.logger(RecordAccumulator.class);
         this.drainIndex = 0;
         this.closed = false;
@@ -125,10 +215,14 @@ public final class RecordAccumulator {
         this.appendsInProgress = new AtomicInteger(0);
         this.batchSize = batchSize;
         this.compression = compression;
+        this.compressionDictionary = compressionDictionary;
         this.lingerMs = lingerMs;
         this.retryBackoffMs = retryBackoffMs;
         this.deliveryTimeoutMs = deliveryTimeoutMs;
         this.batches = new CopyOnWriteMap<>();
+        this.appendStripes = appendStripes;
+        this.stripes = appendStripes > 1 ? new CopyOnWriteMap<>() : null;
+        this.batchingPolicy = batchingPolicy;
         this.free = bufferPool;
         this.incomplete = new IncompleteBatches();
         this.muted = new HashSet<>();
@@ -162,6 +256,54 @@ public final class RecordAccumulator {
             }
         };
         metrics.addMetric(metricName, availableBytes);
+
+        if (batchingPolicy != null) {
+            batchingLingerSensor = metrics.sensor("batching-linger-ms");
+            batchingLingerSensor.add(metrics.metricName("batching-linger-ms-avg", metricGrpName,
+                "The average linger time chosen by the batching policy for the partitions of the drained batches"), new Avg());
+            batchingLingerSensor.add(metrics.metricName("batching-linger-ms-max", metricGrpName,
+                "The max linger time chosen by the batching policy for the partitions of the drained batches"), new Max());
+
+            batchingBatchSizeSensor = metrics.sensor("batching-batch-size");
+            batchingBatchSizeSensor.add(metrics.metricName("batching-batch-size-avg", metricGrpName,
+                "The average batch size chosen by the batching policy for the new batches"), new Avg());
+            batchingBatchSizeSensor.add(metrics.metricName("batching-batch-size-max", metricGrpName,
+                "The max batch size chosen by the batching policy for the new batches"), new Max());
+        }
+    }
+
+    private long lingerMs(TopicPartition tp, long nowMs) {
+        return batchingPolicy == null ? lingerMs : batchingPolicy.lingerMs(tp, nowMs);
+    }
+
+    private int batchSize(TopicPartition tp, long nowMs) {
+        if (batchingPolicy == null)
+            return batchSize;
+        int partitionBatchSize = batchingPolicy.batchSize(tp, nowMs);
+        batchingBatchSizeSensor.record(partitionBatchSize, nowMs);
+        return partitionBatchSize;
+    }
+
+    private RecordAppendResult appended(TopicPartition tp, byte[] key, byte[] value, RecordAppendResult result,
+                                        long nowMs) {
+        if (batchingPolicy != null) {
+            int sizeInBytes = (key == null ? 0 : key.length) + (value == null ? 0 : value.length);
+            batchingPolicy.onAppend(tp, sizeInBytes, nowMs);
+        }
+        return result;
+    }
+
+    /**
+     * Notifies the batching policy, if any, of a batch of the partition which was successfully produced.
+     *
+     * @param tp The partition of the batch
+     * @param latencyMs The latency of the produce request of the batch
+     * @param inFlightRequests The number of requests still in flight to the leader of the partition
+     * @param nowMs The current time, in milliseconds
+     */
+    public void onProduceResponse(TopicPartition tp, long latencyMs, int inFlightRequests, long nowMs) {
+        if (batchingPolicy != null)
+            batchingPolicy.onProduceResponse(tp, latencyMs, inFlightRequests, nowMs);
     }
 
     /**
@@ -198,12 +340,14 @@ public final class RecordAccumulator {
         try {
             // check if we have an in-progress batch
             Deque<ProducerBatch> dq = getOrCreateDeque(tp);
-            synchronized (dq) {
+            AppendStripe stripe = appendStripes > 1 ? getOrCreateStripes(tp)[stripeIndex()] : null;
+            Object appendLock = stripe == null ? dq : stripe;
+            synchronized (appendLock) {
                 if (closed)
                     throw new KafkaException("Producer closed while send in progress");
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq, nowMs);
+                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq, stripe, nowMs);
                 if (appendResult != null)
-                    return appendResult;
+                    return appended(tp, key, value, appendResult, nowMs);
             }
 
             // we don't have an in-progress record batch try to allocate a new batch
@@ -213,21 +357,21 @@ public final class RecordAccumulator {
             }
 
             byte maxUsableMagic = apiVersions.maxUsableProduceMagic();
-            int size = Math.max(this.batchSize, AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
+            int size = Math.max(batchSize(tp, nowMs), AbstractRecords.estimateSizeInBytesUpperBound(maxUsableMagic, compression, key, value, headers));
             log.trace("Allocating a new {} byte message buffer for topic {} partition {} with remaining timeout {}ms", size, tp.topic(), tp.partition(), maxTimeToBlock);
             buffer = free.allocate(size, maxTimeToBlock);
 
             // Update the current time in case the buffer allocation blocked above.
             nowMs = time.milliseconds();
-            synchronized (dq) {
+            synchronized (appendLock) {
                 // Need to check if producer is closed again after grabbing the dequeue lock.
                 if (closed)
                     throw new KafkaException("Producer closed while send in progress");
 
-                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq, nowMs);
+                RecordAppendResult appendResult = tryAppend(timestamp, key, value, headers, callback, dq, stripe, nowMs);
                 if (appendResult != null) {
                     // Somebody else found us a batch, return the one we waited for! Hopefully this doesn't happen often...
-                    return appendResult;
+                    return appended(tp, key, value, appendResult, nowMs);
                 }
 
                 MemoryRecordsBuilder recordsBuilder = recordsBuilder(buffer, maxUsableMagic);
@@ -235,12 +379,23 @@ public final class RecordAccumulator {
                 FutureRecordMetadata future = Objects.requireNonNull(batch.tryAppend(timestamp, key, value, headers,
                         callback, nowMs));
 
-                dq.addLast(batch);
+                boolean batchIsFull;
+                if (stripe == null) {
+                    dq.addLast(batch);
+                    batchIsFull = hasFullBatch(dq);
+                } else {
+                    // the batch is attached to the stripe before the sender can find it in the deque
+                    stripe.batch = batch;
+                    synchronized (dq) {
+                        dq.addLast(batch);
+                        batchIsFull = hasFullBatch(dq);
+                    }
+                }
                 incomplete.add(batch);
 
                 // Don't deallocate this buffer in the finally block as it's being used in the record batch
                 buffer = null;
-                return new RecordAppendResult(future, dq.size() > 1 || batch.isFull(), true, false);
+                return appended(tp, key, value, new RecordAppendResult(future, batchIsFull, true, false), nowMs);
             }
         } finally {
             if (buffer != null)
@@ -254,7 +409,8 @@ public final class RecordAccumulator {
             throw new UnsupportedVersionException("Attempting to use idempotence with a broker which does not " +
                 "support the required message format (v2). The broker must be version 0.11 or later.");
         }
-        return MemoryRecords.builder(buffer, maxUsableMagic, compression, TimestampType.CREATE_TIME, 0L);
+        return MemoryRecords.builder(buffer, maxUsableMagic, compression, TimestampType.CREATE_TIME, 0L,
+            compressionDictionary);
     }
 
     /**
@@ -266,7 +422,9 @@ public final class RecordAccumulator {
      *  if it is expired, or when the producer is closed.
      */
     private RecordAppendResult tryAppend(long timestamp, byte[] key, byte[] value, Header[] headers,
-                                         Callback callback, Deque<ProducerBatch> deque, long nowMs) {
+                                         Callback callback, Deque<ProducerBatch> deque, AppendStripe stripe, long nowMs) {
+        if (stripe != null)
+            return tryAppendToStripe(timestamp, key, value, headers, callback, deque, stripe, nowMs);
         ProducerBatch last = deque.peekLast();
         if (last != null) {
             FutureRecordMetadata future = last.tryAppend(timestamp, key, value, headers, callback, nowMs);
@@ -278,6 +436,78 @@ public final class RecordAccumulator {
         return null;
     }
 
+    /**
+     * Try to append to the open batch of a stripe, which must be locked. If it is full, it is detached from the stripe
+     * and null is returned.
+     */
+    private RecordAppendResult tryAppendToStripe(long timestamp, byte[] key, byte[] value, Header[] headers,
+                                                 Callback callback, Deque<ProducerBatch> deque, AppendStripe stripe,
+                                                 long nowMs) {
+        ProducerBatch batch = stripe.batch;
+        if (batch != null) {
+            FutureRecordMetadata future = batch.tryAppend(timestamp, key, value, headers, callback, nowMs);
+            if (future != null)
+                return new RecordAppendResult(future, batch.isFull(), false, false);
+            // closed under the lock of the deque so that the sender sees that the batch is full
+            synchronized (deque) {
+                batch.closeForRecordAppends();
+            }
+            stripe.batch = null;
+        }
+        return null;
+    }
+
+    // the stripe of a thread is fixed, so that the records it sends to a partition are appended in order
+    private int stripeIndex() {
+        return (int) (Thread.currentThread().getId() % appendStripes);
+    }
+
+    private AppendStripe[] getOrCreateStripes(TopicPartition tp) {
+        AppendStripe[] partitionStripes = stripes.get(tp);
+        if (partitionStripes != null)
+            return partitionStripes;
+        partitionStripes = new AppendStripe[appendStripes];
+        for (int i = 0; i < appendStripes; i++)
+            partitionStripes[i] = new AppendStripe();
+        AppendStripe[] previous = stripes.putIfAbsent(tp, partitionStripes);
+        return previous == null ? partitionStripes : previous;
+    }
+
+    /**
+     * Detach a batch which is removed from its deque from the stripe it is open in, if any, so that no thread appends
+     * to it anymore. This must not be called with the lock of a deque held, which is taken after the lock of a stripe.
+     */
+    private void detachFromStripe(ProducerBatch batch) {
+        if (stripes == null)
+            return;
+        AppendStripe[] partitionStripes = stripes.get(batch.topicPartition);
+        if (partitionStripes == null)
+            return;
+        for (AppendStripe stripe : partitionStripes) {
+            // a batch is attached to a stripe before it is queued, and never attached again once detached
+            if (stripe.batch == batch) {
+                synchronized (stripe) {
+                    if (stripe.batch == batch)
+                        stripe.batch = null;
+                }
+                return;
+            }
+        }
+    }
+
+    // whether the non-empty deque has a full batch, where all but the last batch of each stripe are full
+    private boolean hasFullBatch(Deque<ProducerBatch> deque) {
+        if (deque.size() > appendStripes || deque.peekFirst().isFull())
+            return true;
+        if (appendStripes > 1) {
+            for (ProducerBatch batch : deque) {
+                if (batch.isFull())
+                    return true;
+            }
+        }
+        return false;
+    }
+
     private boolean isMuted(TopicPartition tp) {
         return muted.contains(tp);
     }
@@ -310,7 +540,6 @@ public final class RecordAccumulator {
                     ProducerBatch batch = deque.getFirst();
                     if (batch.hasReachedDeliveryTimeout(deliveryTimeoutMs, now)) {
                         deque.poll();
-                        batch.abortRecordAppends();
                         expiredBatches.add(batch);
                     } else {
                         maybeUpdateNextBatchExpiryTime(batch);
@@ -319,6 +548,10 @@ public final class RecordAccumulator {
                 }
             }
         }
+        for (ProducerBatch batch : expiredBatches) {
+            detachFromStripe(batch);
+            batch.abortRecordAppends();
+        }
         return expiredBatches;
     }
 
@@ -466,8 +699,8 @@ public final class RecordAccumulator {
                     } else if (!readyNodes.contains(leader) && !isMuted(part)) {
                         long waitedTimeMs = batch.waitedTimeMs(nowMs);
                         boolean backingOff = batch.attempts() > 0 && waitedTimeMs < retryBackoffMs;
-                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs;
-                        boolean full = deque.size() > 1 || batch.isFull();
+                        long timeToWaitMs = backingOff ? retryBackoffMs : lingerMs(part, nowMs);
+                        boolean full = hasFullBatch(deque);
                         boolean expired = waitedTimeMs >= timeToWaitMs;
                         boolean transactionCompleting = transactionManager != null && transactionManager.isCompleting();
                         boolean sendable = full
@@ -563,6 +796,7 @@ public final class RecordAccumulator {
             if (deque == null)
                 continue;
 
+            ProducerBatch batch;
             synchronized (deque) {
                 // invariant: !isMuted(tp,now) && deque != null
                 ProducerBatch first = deque.peekFirst();
@@ -579,44 +813,47 @@ public final class RecordAccumulator {
                     // there is a rare case that a single batch size is larger than the request size due to
                     // compression; in this case we will still eventually send this batch in a single request
                     break;
-                } else {
-                    if (shouldStopDrainBatchesForPartition(first, tp))
-                        break;
-
-                    boolean isTransactional = transactionManager != null && transactionManager.isTransactional();
-                    ProducerIdAndEpoch producerIdAndEpoch =
-                        transactionManager != null ? transactionManager.producerIdAndEpoch() : null;
-                    ProducerBatch batch = deque.pollFirst();
-                    if (producerIdAndEpoch != null && !batch.hasSequence()) {
-                        // If the producer id/epoch of the partition do not match the latest one
-                        // of the producer, we update it and reset the sequence. This should be
-                        // only done when all its in-flight batches have completed. This is guarantee
-                        // in `shouldStopDrainBatchesForPartition`.
-                        transactionManager.maybeUpdateProducerIdAndEpoch(batch.topicPartition);
-
-                        // If the batch already has an assigned sequence, then we should not change the producer id and
-                        // sequence number, since this may introduce duplicates. In particular, the previous attempt
-                        // may actually have been accepted, and if we change the producer id and sequence here, this
-                        // attempt will also be accepted, causing a duplicate.
-                        //
-                        // Additionally, we update the next sequence number bound for the partition, and also have
-                        // the transaction manager track the batch so as to ensure that sequence ordering is maintained
-                        // even if we receive out of order responses.
-                        batch.setProducerState(producerIdAndEpoch, transactionManager.sequenceNumber(batch.topicPartition), isTransactional);
-                        transactionManager.incrementSequenceNumber(batch.topicPartition, batch.recordCount);
-                        log.debug("Assigned producerId {} and producerEpoch {} to batch with base sequence " +
-                                "{} being sent to partition {}", producerIdAndEpoch.producerId,
-                            producerIdAndEpoch.epoch, batch.baseSequence(), tp);
-
-                        transactionManager.addInFlightBatch(batch);
-                    }
-                    batch.close();
-                    size += batch.records().sizeInBytes();
-                    ready.add(batch);
-
-                    batch.drained(now);
+                } else if (shouldStopDrainBatchesForPartition(first, tp)) {
+                    break;
                 }
+                batch = deque.pollFirst();
             }
+
+            // the drained batch is only accessed by the sender, so it is closed without blocking appends to the deque
+            detachFromStripe(batch);
+            boolean isTransactional = transactionManager != null && transactionManager.isTransactional();
+            ProducerIdAndEpoch producerIdAndEpoch =
+                transactionManager != null ? transactionManager.producerIdAndEpoch() : null;
+            if (producerIdAndEpoch != null && !batch.hasSequence()) {
+                // If the producer id/epoch of the partition do not match the latest one
+                // of the producer, we update it and reset the sequence. This should be
+                // only done when all its in-flight batches have completed. This is guarantee
+                // in `shouldStopDrainBatchesForPartition`.
+                transactionManager.maybeUpdateProducerIdAndEpoch(batch.topicPartition);
+
+                // If the batch already has an assigned sequence, then we should not change the producer id and
+                // sequence number, since this may introduce duplicates. In particular, the previous attempt
+                // may actually have been accepted, and if we change the producer id and sequence here, this
+                // attempt will also be accepted, causing a duplicate.
+                //
+                // Additionally, we update the next sequence number bound for the partition, and also have
+                // the transaction manager track the batch so as to ensure that sequence ordering is maintained
+                // even if we receive out of order responses.
+                batch.setProducerState(producerIdAndEpoch, transactionManager.sequenceNumber(batch.topicPartition), isTransactional);
+                transactionManager.incrementSequenceNumber(batch.topicPartition, batch.recordCount);
+                log.debug("Assigned producerId {} and producerEpoch {} to batch with base sequence " +
+                        "{} being sent to partition {}", producerIdAndEpoch.producerId,
+                    producerIdAndEpoch.epoch, batch.baseSequence(), tp);
+
+                transactionManager.addInFlightBatch(batch);
+            }
+            batch.close();
+            size += batch.records().sizeInBytes();
+            ready.add(batch);
+            if (batchingPolicy != null && batch.attempts() == 0)
+                batchingLingerSensor.record(lingerMs(tp, now), now);
+
+            batch.drained(now);
         } while (start != drainIndex);
         return ready;
     }
@@ -815,6 +1052,7 @@ public final class RecordAccumulator {
     void abortBatches(final RuntimeException reason) {
         for (ProducerBatch batch : incomplete.copyAll()) {
             Deque<ProducerBatch> dq = getDeque(batch.topicPartition);
+            detachFromStripe(batch);
             synchronized (dq) {
                 batch.abortRecordAppends();
                 dq.remove(batch);
@@ -831,6 +1069,8 @@ public final class RecordAccumulator {
         for (ProducerBatch batch : incomplete.copyAll()) {
             Deque<ProducerBatch> dq = getDeque(batch.topicPartition);
             boolean aborted = false;
+            // detaching a drained batch has no effect
+            detachFromStripe(batch);
             synchronized (dq) {
                 if ((transactionManager != null && !batch.hasSequence()) || (transactionManager == null && !batch.isClosed())) {
                     aborted = true;
@@ -861,6 +1101,14 @@ public final class RecordAccumulator {
         this.free.close();
     }
 
+    /*
+     * One of the stripes of a partition, whose monitor guards the appends to its open batch
+     */
+    private final static class AppendStripe {
+        // the batch records are appended to, which is also queued in the deque of the partition until it is drained
+        private volatile ProducerBatch batch;
+    }
+
     /*
      * Metadata about a record just appended to the record accumulator
      */
@@ -576,6 +576,9 @@ public class Sender implements Runnable {
                             p.errorMessage());
                     ProducerBatch batch = batches.get(tp);
                     completeBatch(batch, partResp, correlationId, now);
+                    if (partResp.error == Errors.NONE)
+                        accumulator.onProduceResponse(tp, response.requestLatencyMs(),
+                            client.inFlightRequestCount(response.destination()), now);
                 }));
                 this.sensors.recordLatency(response.destination(), response.requestLatencyMs());
             } else {
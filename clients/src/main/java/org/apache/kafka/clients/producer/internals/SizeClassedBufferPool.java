@@ -0,0 +1,474 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.kafka.clients.producer.BufferExhaustedException;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.metrics.Measurable;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.utils.ByteBufferUnmapper;
+import org.apache.kafka.common.utils.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BufferPool} which recycles buffers of several sizes, and which allocates and deallocates them without
+ * taking its lock. In particular:
+ * <ol>
+ * <li>The pooled sizes are the poolable size and its doublings. An allocation of up to the largest pooled size is
+ * given a buffer of the smallest pooled size which fits it, with its limit set to the requested size, so batches larger
+ * than the poolable size are recycled as well. A buffer may so take up to twice the requested memory.
+ * <li>Each pooled size has a lock-free free list. Pooled buffers are taken from and returned to it without locking,
+ * unless threads are waiting for memory. The lock is only taken to allocate memory which is not in the free lists,
+ * to deallocate buffers which are not pooled, and to notify the waiting threads.
+ * <li>It is fair as {@link BufferPool} is. While a thread is waiting for memory, all allocations take the lock, so the
+ * memory deallocated goes to the longest waiting thread.
+ * <li>The pooled buffers may be direct buffers, which keeps the buffer memory of the producer out of the heap. Larger
+ * buffers are always heap buffers, since they are not recycled.
+ * </ol>
+ * Pooled buffers are dropped from the free lists when their memory is needed for another size. Dropped direct buffers
+ * are released right away, so that the direct memory in use stays within the memory of the pool.
+ */
+public class SizeClassedBufferPool extends BufferPool {
+
+    private static final Logger log = LoggerFactory.getLogger(SizeClassedBufferPool.class);
+
+    static final String LOCK_WAIT_TIME_SENSOR_NAME = "bufferpool-lock-wait-time";
+
+    private final SizeClass[] sizeClasses;
+    private final boolean direct;
+    private final ReentrantLock lock;
+    private final Deque<Condition> waiters;
+    /** The number of waiters, read without the lock to decide whether the free lists can be used without it. */
+    private volatile int waiterCount;
+    /** Total available memory is the sum of nonPooledAvailableMemory and freeListMemory. */
+    private long nonPooledAvailableMemory;
+    private final AtomicLong freeListMemory;
+    private final Metrics metrics;
+    private final Time time;
+    private final Sensor lockWaitTime;
+    private final LongAdder freeListHits;
+    private final LongAdder freeListMisses;
+    private volatile boolean closed;
+    private long nextOvermemoryWarn;
+
+    /**
+     * Create a new size classed buffer pool
+     *
+     * @param memory The maximum amount of memory that this buffer pool can allocate
+     * @param poolableSize The smallest buffer size to cache in the free lists rather than deallocating
+     * @param sizeClassCount The number of buffer sizes to cache in the free lists, the poolable size and its doublings
+     * @param direct Whether to allocate the pooled buffers as direct buffers
+     * @param metrics instance of Metrics
+     * @param time time instance
+     * @param metricGrpName logical group name for metrics
+     */
+    public SizeClassedBufferPool(long memory, int poolableSize, int sizeClassCount, boolean direct, Metrics metrics,
+                                 Time time, String metricGrpName) {
+        super(memory, poolableSize, metrics, time, metricGrpName);
+        List<SizeClass> sizeClasses = new ArrayList<>(sizeClassCount);
+        for (int i = 0; i < sizeClassCount; i++) {
+            long size = (long) poolableSize << i;
+            if (size > memory || size > Integer.MAX_VALUE)
+                break;
+            sizeClasses.add(new SizeClass((int) size));
+        }
+        this.sizeClasses = sizeClasses.toArray(new SizeClass[0]);
+        this.direct = direct;
+        this.lock = new ReentrantLock();
+        this.waiters = new ArrayDeque<>();
+        this.nonPooledAvailableMemory = memory;
+        this.freeListMemory = new AtomicLong();
+        this.metrics = metrics;
+        this.time = time;
+        this.freeListHits = new LongAdder();
+        this.freeListMisses = new LongAdder();
+
+        this.lockWaitTime = metrics.sensor(LOCK_WAIT_TIME_SENSOR_NAME);
+        this.lockWaitTime.add(metrics.metricName("bufferpool-lock-wait-time-ns-avg", metricGrpName,
+            "The average time in nanoseconds an allocation or deallocation waits for the lock of the buffer pool when it is held by another thread."),
+            new Avg());
+        this.lockWaitTime.add(metrics.metricName("bufferpool-lock-wait-time-ns-max", metricGrpName,
+            "The maximum time in nanoseconds an allocation or deallocation waits for the lock of the buffer pool when it is held by another thread."),
+            new Max());
+        metrics.addMetric(metrics.metricName("bufferpool-free-list-hit-total", metricGrpName,
+            "The total number of allocations of a pooled size which are given a buffer from the free lists."),
+            (Measurable) (config, now) -> freeListHits.sum());
+        metrics.addMetric(metrics.metricName("bufferpool-free-list-miss-total", metricGrpName,
+            "The total number of allocations of a pooled size which allocate a new buffer."),
+            (Measurable) (config, now) -> freeListMisses.sum());
+        this.closed = false;
+        this.nextOvermemoryWarn = 0;
+    }
+
+    /**
+     * Allocate a buffer of the given size. The buffer has a capacity of the smallest pooled size which fits it, or of
+     * the given size if it is larger than every pooled size, and a limit of the given size. This method blocks if there
+     * is not enough memory.
+     *
+     * @param size The buffer size to allocate in bytes
+     * @param maxTimeToBlockMs The maximum time in milliseconds to block for buffer memory to be available
+     * @return The buffer
+     * @throws InterruptedException If the thread is interrupted while blocked
+     * @throws IllegalArgumentException if size is larger than the total memory controlled by the pool (and hence we would block
+     *         forever)
+     */
+    @Override
+    public ByteBuffer allocate(int size, long maxTimeToBlockMs) throws InterruptedException {
+        if (size > totalMemory())
+            throw new IllegalArgumentException("Attempt to allocate " + size
+                                               + " bytes, but there is a hard limit of "
+                                               + totalMemory()
+                                               + " on memory allocations.");
+        if (this.closed)
+            throw new KafkaException("Producer closed while allocating memory");
+
+        SizeClass sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        // the free lists are only used without the lock while no thread waits for memory, so that it gets the buffers
+        // which are deallocated in the meantime
+        if (sizeClass != null && this.waiterCount == 0)
+            buffer = sizeClass.poll();
+
+        if (buffer == null) {
+            int allocationSize = sizeClass == null ? size : sizeClass.size;
+            acquireLock();
+            try {
+                if (this.closed)
+                    throw new KafkaException("Producer closed while allocating memory");
+
+                if (sizeClass != null && this.waiters.isEmpty())
+                    buffer = sizeClass.poll();
+
+                if (buffer == null) {
+                    // check if the request is immediately satisfiable with the memory on hand, otherwise block. A free
+                    // buffer of the size class is not dropped to allocate another of the same size, but taken while waiting
+                    freeUp(allocationSize, sizeClass);
+                    if (this.nonPooledAvailableMemory >= allocationSize)
+                        this.nonPooledAvailableMemory -= allocationSize;
+                    else
+                        buffer = waitForMemory(sizeClass, allocationSize, maxTimeToBlockMs);
+                }
+            } finally {
+                // signal any additional waiters if there is more memory left over for them
+                try {
+                    if (!(this.nonPooledAvailableMemory == 0 && this.freeListMemory.get() == 0) && !this.waiters.isEmpty())
+                        this.waiters.peekFirst().signal();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+
+        if (sizeClass != null) {
+            if (buffer != null)
+                this.freeListHits.increment();
+            else
+                this.freeListMisses.increment();
+        }
+        if (buffer == null)
+            buffer = safeAllocateByteBuffer(sizeClass, sizeClass == null ? size : sizeClass.size);
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Wait until a pooled buffer of the size class is deallocated, or enough memory is available to allocate a buffer
+     * of the given size. This must be called with the lock held.
+     *
+     * @return The pooled buffer, or null if the memory to allocate a buffer was reserved
+     */
+    private ByteBuffer waitForMemory(SizeClass sizeClass, int size, long maxTimeToBlockMs) throws InterruptedException {
+        ByteBuffer buffer = null;
+        int accumulated = 0;
+        Condition moreMemory = this.lock.newCondition();
+        try {
+            long remainingTimeToBlockNs = TimeUnit.MILLISECONDS.toNanos(maxTimeToBlockMs);
+            this.waiters.addLast(moreMemory);
+            this.waiterCount = this.waiters.size();
+            // loop over and over until we have a buffer or have reserved enough memory to allocate one. The memory is
+            // checked before waiting, since a buffer may have been returned to a free list before we were counted as
+            // waiting, and so without signalling us
+            while (true) {
+                if (sizeClass != null && (buffer = sizeClass.poll()) != null)
+                    break;
+                // we'll need to allocate memory, but we may only get part of what we need on this iteration
+                freeUp(size - accumulated, sizeClass);
+                int got = (int) Math.min(size - accumulated, this.nonPooledAvailableMemory);
+                this.nonPooledAvailableMemory -= got;
+                accumulated += got;
+                if (accumulated >= size)
+                    break;
+
+                long startWaitNs = time.nanoseconds();
+                long timeNs;
+                boolean waitingTimeElapsed;
+                try {
+                    waitingTimeElapsed = !moreMemory.await(remainingTimeToBlockNs, TimeUnit.NANOSECONDS);
+                } finally {
+                    long endWaitNs = time.nanoseconds();
+                    timeNs = Math.max(0L, endWaitNs - startWaitNs);
+                    recordWaitTime(timeNs);
+                }
+
+                if (this.closed)
+                    throw new KafkaException("Producer closed while allocating memory");
+
+                if (waitingTimeElapsed) {
+                    this.metrics.sensor("buffer-exhausted-records").record();
+                    throw new BufferExhaustedException("Failed to allocate memory within the configured max blocking time " + maxTimeToBlockMs + " ms.");
+                }
+
+                remainingTimeToBlockNs -= timeNs;
+            }
+            // Don't reclaim memory on throwable since nothing was thrown, unless a pooled buffer was found after part of
+            // the memory was reserved
+            if (buffer == null)
+                accumulated = 0;
+            return buffer;
+        } finally {
+            // When this loop was not able to successfully terminate don't loose available memory
+            this.nonPooledAvailableMemory += accumulated;
+            this.waiters.remove(moreMemory);
+            this.waiterCount = this.waiters.size();
+        }
+    }
+
+    /**
+     * Allocate a buffer. If buffer allocation fails (e.g. because of OOM) then return the size count back to
+     * available memory and signal the next waiter if it exists.
+     */
+    private ByteBuffer safeAllocateByteBuffer(SizeClass sizeClass, int size) {
+        boolean error = true;
+        try {
+            ByteBuffer buffer = sizeClass != null && direct ? ByteBuffer.allocateDirect(size) : allocateByteBuffer(size);
+            error = false;
+            return buffer;
+        } finally {
+            if (error) {
+                acquireLock();
+                try {
+                    this.nonPooledAvailableMemory += size;
+                    if (!this.waiters.isEmpty())
+                        this.waiters.peekFirst().signal();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Attempt to ensure we have at least the requested number of bytes of memory for allocation by deallocating pooled
+     * buffers (if needed), largest first, except those of the given size class. This must be called with the lock held.
+     */
+    private void freeUp(int size, SizeClass excluded) {
+        for (int i = sizeClasses.length - 1; i >= 0 && this.nonPooledAvailableMemory < size; i--) {
+            if (sizeClasses[i] == excluded)
+                continue;
+            ByteBuffer buffer;
+            while (this.nonPooledAvailableMemory < size && (buffer = sizeClasses[i].poll()) != null) {
+                this.nonPooledAvailableMemory += buffer.capacity();
+                release(buffer);
+            }
+        }
+    }
+
+    // release the memory of a dropped direct buffer rather than waiting for it to be garbage collected
+    private void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            try {
+                ByteBufferUnmapper.unmap("producer buffer", buffer);
+            } catch (IOException | RuntimeException e) {
+                log.debug("Failed to release a direct buffer, it will be released when garbage collected", e);
+            }
+        }
+    }
+
+    /**
+     * Return buffers to the pool. If they were allocated with a pooled size add them to its free list, otherwise just
+     * mark the memory as free.
+     *
+     * @param buffer The buffer to return to the pool.
+     * @param size The size of the buffer to mark as deallocated, note that this may be smaller than buffer.capacity
+     *          since the buffer may re-allocate itself during in-place compression
+     */
+    @Override
+    public void deallocate(ByteBuffer buffer, int size) {
+        SizeClass sizeClass = size == buffer.capacity() && buffer.isDirect() == direct ? sizeClass(size) : null;
+        if (sizeClass != null && sizeClass.size == size) {
+            sizeClass.offer(buffer);
+            // the buffer is in the free list before the waiters are checked, and a waiter is counted before it checks
+            // the free list, so either it finds the buffer or it is signalled
+            if (this.waiterCount > 0) {
+                acquireLock();
+                try {
+                    Condition moreMem = this.waiters.peekFirst();
+                    if (moreMem != null)
+                        moreMem.signal();
+                } finally {
+                    this.lock.unlock();
+                }
+            }
+            return;
+        }
+
+        acquireLock();
+        try {
+            long availableMemory = availableMemoryUnlocked();
+            if (availableMemory + size > totalMemory() && nextOvermemoryWarn < this.time.milliseconds()) {
+                //Don't flood logs.
+                log.error("Detected an attempt to bring available memory " + availableMemory + " to " +
+                    (availableMemory + size) + " which is higher than totalMemory " + totalMemory() + ".", new Exception());
+                this.nextOvermemoryWarn = this.time.milliseconds() + TimeUnit.HOURS.toMillis(1);
+            }
+            long freeMem = Math.min(size, totalMemory() - availableMemory);
+            this.nonPooledAvailableMemory += freeMem;
+            Condition moreMem = this.waiters.peekFirst();
+            if (moreMem != null)
+                moreMem.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * the total free memory both unallocated and in the free lists
+     */
+    @Override
+    public long availableMemory() {
+        acquireLock();
+        try {
+            return availableMemoryUnlocked();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private long availableMemoryUnlocked() {
+        return this.nonPooledAvailableMemory + this.freeListMemory.get();
+    }
+
+    // Protected for testing.
+    @Override
+    protected int freeSize() {
+        int freeSize = 0;
+        for (SizeClass sizeClass : sizeClasses)
+            freeSize += sizeClass.free.size();
+        return freeSize;
+    }
+
+    /**
+     * Get the unallocated memory (not in the free lists or in use)
+     */
+    @Override
+    public long unallocatedMemory() {
+        acquireLock();
+        try {
+            return this.nonPooledAvailableMemory;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * The number of threads blocked waiting on memory
+     */
+    @Override
+    public int queued() {
+        return this.waiterCount;
+    }
+
+    // package-private method used only for testing
+    @Override
+    Deque<Condition> waiters() {
+        return this.waiters;
+    }
+
+    /**
+     * Closes the buffer pool. Memory will be prevented from being allocated, but may be deallocated. All allocations
+     * awaiting available memory will be notified to abort.
+     */
+    @Override
+    public void close() {
+        acquireLock();
+        this.closed = true;
+        try {
+            for (Condition waiter : this.waiters)
+                waiter.signal();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    // take the lock, recording how long we wait for it if it is held by another thread
+    private void acquireLock() {
+        if (!this.lock.tryLock()) {
+            long startNs = time.nanoseconds();
+            this.lock.lock();
+            this.lockWaitTime.record(Math.max(0L, time.nanoseconds() - startNs), time.milliseconds());
+        }
+    }
+
+    // the smallest size class which fits the size, or null if it is larger than all of them
+    private SizeClass sizeClass(int size) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (size <= sizeClass.size)
+                return sizeClass;
+        }
+        return null;
+    }
+
+    private class SizeClass {
+        private final int size;
+        private final Deque<ByteBuffer> free = new ConcurrentLinkedDeque<>();
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+
+        ByteBuffer poll() {
+            // the most recently deallocated buffer is the most likely to still be cached
+            ByteBuffer buffer = free.pollFirst();
+            if (buffer != null)
+                freeListMemory.addAndGet(-size);
+            return buffer;
+        }
+
+        void offer(ByteBuffer buffer) {
+            buffer.clear();
+            freeListMemory.addAndGet(size);
+            free.offerFirst(buffer);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.compress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A zstd dictionary, typically trained from the records of a topic, which improves the compression of small records
+ * with a similar structure.
+ *
+ * The id of a dictionary is part of its header, and zstd writes it to the header of every frame compressed with the
+ * dictionary. The batches compressed with a dictionary are thus decompressed with the registered dictionary of that id,
+ * which must be registered with {@link #register(ZstdDictionary)} before. A dictionary stays registered until each of
+ * its registrations is released with {@link ZstdFactory#unregister(ZstdDictionary)}. This class does not depend on the
+ * zstd library, so that it can be referenced by code which may not compress with zstd.
+ */
+public final class ZstdDictionary {
+    private static final int DICTIONARY_MAGIC = 0xEC30A437;
+    private static final int FRAME_MAGIC = 0xFD2FB528;
+
+    private static final ConcurrentMap<Integer, Registration> REGISTERED = new ConcurrentHashMap<>();
+
+    private final int id;
+    private final byte[] bytes;
+    // dictionaries are hashed by content, which is too large to hash on every lookup
+    private final int hashCode;
+
+    private ZstdDictionary(int id, byte[] bytes) {
+        this.id = id;
+        this.bytes = bytes;
+        this.hashCode = 31 * id + Arrays.hashCode(bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a zstd dictionary with an id
+     */
+    public static ZstdDictionary fromBytes(byte[] bytes) {
+        if (bytes.length < 8)
+            throw new IllegalArgumentException("Invalid zstd dictionary of " + bytes.length + " bytes");
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != DICTIONARY_MAGIC)
+            throw new IllegalArgumentException("Invalid zstd dictionary without the dictionary magic number");
+        int id = buffer.getInt(4);
+        if (id == 0)
+            throw new IllegalArgumentException("Invalid zstd dictionary without an id");
+        return new ZstdDictionary(id, bytes);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the string is not a base64 encoded zstd dictionary with an id
+     */
+    public static ZstdDictionary fromBase64(String encoded) {
+        return fromBytes(Base64.getDecoder().decode(encoded));
+    }
+
+    public static ZstdDictionary readFrom(Path path) throws IOException {
+        return fromBytes(Files.readAllBytes(path));
+    }
+
+    /**
+     * Register the dictionary to decompress the batches compressed with it. Registering an equal dictionary again only
+     * counts the registration, which must be released as well.
+     *
+     * @return The registered dictionary, which is equal to the given one and is looked up faster when compressing
+     * @throws IllegalArgumentException if a different dictionary with the same id is registered
+     */
+    public static ZstdDictionary register(ZstdDictionary dictionary) {
+        return REGISTERED.compute(dictionary.id, (id, registration) -> {
+            if (registration == null)
+                return new Registration(dictionary);
+            if (!registration.dictionary.equals(dictionary))
+                throw new IllegalArgumentException("A different zstd dictionary with id " + Integer.toUnsignedString(id) +
+                    " is already registered");
+            registration.count++;
+            return registration;
+        }).dictionary;
+    }
+
+    /**
+     * Release a registration of the dictionary. Use {@link ZstdFactory#unregister(ZstdDictionary)}, which also releases
+     * the digested dictionaries created for it.
+     *
+     * @return true if the dictionary is no longer registered
+     */
+    static boolean unregister(ZstdDictionary dictionary) {
+        Registration registration = REGISTERED.computeIfPresent(dictionary.id, (id, current) -> {
+            if (current.dictionary.equals(dictionary) && --current.count == 0)
+                return null;
+            return current;
+        });
+        return registration == null || !registration.dictionary.equals(dictionary);
+    }
+
+    /**
+     * @return The registered dictionary with the given id, or null if there is none
+     */
+    public static ZstdDictionary registered(int id) {
+        Registration registration = REGISTERED.get(id);
+        return registration == null ? null : registration.dictionary;
+    }
+
+    static boolean isRegistered(ZstdDictionary dictionary) {
+        ZstdDictionary registered = registered(dictionary.id);
+        return registered == dictionary || dictionary.equals(registered);
+    }
+
+    /**
+     * Get the id of the dictionary which the zstd frame at the position of the buffer was compressed with, without
+     * changing the position of the buffer.
+     *
+     * @return The id of the dictionary, or 0 if the frame was compressed without a dictionary or the buffer does not
+     *         start with a complete zstd frame header
+     */
+    static int frameDictionaryId(ByteBuffer buffer) {
+        ByteBuffer header = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (header.remaining() < 5 || header.getInt() != FRAME_MAGIC)
+            return 0;
+        int descriptor = header.get() & 0xff;
+        boolean singleSegment = (descriptor & 0x20) != 0;
+        // the window descriptor precedes the dictionary id unless the frame is a single segment
+        if (!singleSegment) {
+            if (!header.hasRemaining())
+                return 0;
+            header.get();
+        }
+        switch (descriptor & 0x03) {
+            case 1:
+                return header.remaining() < 1 ? 0 : header.get() & 0xff;
+            case 2:
+                return header.remaining() < 2 ? 0 : header.getShort() & 0xffff;
+            case 3:
+                return header.remaining() < 4 ? 0 : header.getInt();
+            default:
+                return 0;
+        }
+    }
+
+    public int id() {
+        return id;
+    }
+
+    /**
+     * The bytes of the dictionary, which must not be modified.
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public String toBase64() {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (o == null || getClass() != o.getClass())
+            return false;
+        ZstdDictionary that = (ZstdDictionary) o;
+        return id == that.id && hashCode == that.hashCode && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "ZstdDictionary(id=" + Integer.toUnsignedString(id) + ", sizeInBytes=" + bytes.length + ")";
+    }
+
+    private static class Registration {
+        private final ZstdDictionary dictionary;
+        // only updated in the compute functions of the registry, which run atomically
+        private int count;
+
+        Registration(ZstdDictionary dictionary) {
+            this.dictionary = dictionary;
+            this.count = 1;
+        }
+    }
+}
@@ -19,6 +19,9 @@ package org.apache.kafka.common.compress;
 
 import com.github.luben.zstd.BufferPool;
 import com.github.luben.zstd.RecyclingBufferPool;
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
 import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
 import com.github.luben.zstd.ZstdOutputStreamNoFinalizer;
 import org.apache.kafka.common.KafkaException;
@@ -31,22 +34,84 @@ import java.io.BufferedOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 public class ZstdFactory {
 
+    // The digested dictionaries are expensive to create and can be shared by streams, so they are created once per
+    // registered dictionary and released when it is unregistered. They are keyed by the content of the dictionary, since
+    // a dictionary which was unregistered may be replaced by a different one with the same id
+    private static final ConcurrentMap<ZstdDictionary, ZstdDictCompress> COMPRESSION_DICTIONARIES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<ZstdDictionary, ZstdDictDecompress> DECOMPRESSION_DICTIONARIES = new ConcurrentHashMap<>();
+
     private ZstdFactory() { }
 
+    /**
+     * Release a registration of the dictionary, and the digested dictionaries created for it once it is no longer
+     * registered. The streams which use them keep them until they are closed.
+     */
+    public static void unregister(ZstdDictionary dictionary) {
+        if (ZstdDictionary.unregister(dictionary)) {
+            COMPRESSION_DICTIONARIES.remove(dictionary);
+            DECOMPRESSION_DICTIONARIES.remove(dictionary);
+        }
+    }
+
+    // visible for testing
+    static boolean isCached(ZstdDictionary dictionary) {
+        return COMPRESSION_DICTIONARIES.containsKey(dictionary) || DECOMPRESSION_DICTIONARIES.containsKey(dictionary);
+    }
+
+    // the digested dictionary is only cached while the dictionary is registered, otherwise it is only used by one stream
+    private static <T> T digested(ConcurrentMap<ZstdDictionary, T> cache, ZstdDictionary dictionary,
+                                  Function<ZstdDictionary, T> digest) {
+        if (!ZstdDictionary.isRegistered(dictionary))
+            return digest.apply(dictionary);
+        T digested = cache.computeIfAbsent(dictionary, digest);
+        // the dictionary may have been unregistered before it was cached
+        if (!ZstdDictionary.isRegistered(dictionary))
+            cache.remove(dictionary);
+        return digested;
+    }
+
     public static OutputStream wrapForOutput(ByteBufferOutputStream buffer) {
+        return wrapForOutput(buffer, null);
+    }
+
+    /**
+     * @param dictionary The dictionary to compress with, or null to compress without a dictionary. Its digested form is
+     *                   only cached while it is registered
+     */
+    public static OutputStream wrapForOutput(ByteBufferOutputStream buffer, ZstdDictionary dictionary) {
         try {
+            ZstdOutputStreamNoFinalizer output = new ZstdOutputStreamNoFinalizer(buffer, RecyclingBufferPool.INSTANCE);
+            ZstdDictCompress digested = null;
+            if (dictionary != null) {
+                digested = digested(COMPRESSION_DICTIONARIES, dictionary,
+                    d -> new ZstdDictCompress(d.bytes(), Zstd.defaultCompressionLevel()));
+                output.setDict(digested);
+            }
             // Set input buffer (uncompressed) to 16 KB (none by default) to ensure reasonable performance
             // in cases where the caller passes a small number of bytes to write (potentially a single byte).
-            return new BufferedOutputStream(new ZstdOutputStreamNoFinalizer(buffer, RecyclingBufferPool.INSTANCE), 16 * 1024);
+            return new DictionaryOutputStream(output, digested);
         } catch (Throwable e) {
             throw new KafkaException(e);
         }
     }
 
     public static InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier) {
+        int dictionaryId = ZstdDictionary.frameDictionaryId(buffer);
+        ZstdDictionary dictionary = null;
+        if (dictionaryId != 0) {
+            dictionary = ZstdDictionary.registered(dictionaryId);
+            if (dictionary == null)
+                throw new KafkaException("Batch compressed with unknown zstd dictionary " +
+                    Integer.toUnsignedString(dictionaryId));
+        }
         try {
             // We use our own BufferSupplier instead of com.github.luben.zstd.RecyclingBufferPool since our
             // implementation doesn't require locking or soft references.
@@ -62,12 +127,54 @@ public class ZstdFactory {
                 }
             };
 
+            ZstdInputStreamNoFinalizer input = new ZstdInputStreamNoFinalizer(new ByteBufferInputStream(buffer), bufferPool);
+            ZstdDictDecompress digested = null;
+            if (dictionary != null) {
+                digested = digested(DECOMPRESSION_DICTIONARIES, dictionary, d -> new ZstdDictDecompress(d.bytes()));
+                input.setDict(digested);
+            }
             // Set output buffer (uncompressed) to 16 KB (none by default) to ensure reasonable performance
             // in cases where the caller reads a small number of bytes (potentially a single byte).
-            return new BufferedInputStream(new ZstdInputStreamNoFinalizer(new ByteBufferInputStream(buffer),
-                bufferPool), 16 * 1024);
+            return new DictionaryInputStream(input, digested);
         } catch (Throwable e) {
             throw new KafkaException(e);
         }
     }
+
+    /**
+     * Train a dictionary from samples of records, such as their values.
+     *
+     * @param samples The samples to train the dictionary from, which should be representative of the records that will
+     *                be compressed with it
+     * @param maxSizeInBytes The maximum size of the dictionary
+     * @throws KafkaException if the dictionary cannot be trained, for instance because there are too few samples
+     */
+    public static ZstdDictionary trainDictionary(List<byte[]> samples, int maxSizeInBytes) {
+        byte[] dictionary = new byte[maxSizeInBytes];
+        long size = Zstd.trainFromBuffer(samples.toArray(new byte[0][]), dictionary);
+        if (Zstd.isError(size))
+            throw new KafkaException("Failed to train zstd dictionary from " + samples.size() + " samples: " +
+                Zstd.getErrorName(size));
+        return ZstdDictionary.fromBytes(Arrays.copyOf(dictionary, (int) size));
+    }
+
+    // zstd only references the digested dictionary of a stream, which is freed when it is garbage collected, so the
+    // stream keeps it reachable itself once it is no longer cached
+    private static class DictionaryOutputStream extends BufferedOutputStream {
+        private final ZstdDictCompress dictionary;
+
+        DictionaryOutputStream(OutputStream out, ZstdDictCompress dictionary) {
+            super(out, 16 * 1024);
+            this.dictionary = dictionary;
+        }
+    }
+
+    private static class DictionaryInputStream extends BufferedInputStream {
+        private final ZstdDictDecompress dictionary;
+
+        DictionaryInputStream(InputStream in, ZstdDictDecompress dictionary) {
+            super(in, 16 * 1024);
+            this.dictionary = dictionary;
+        }
+    }
 }
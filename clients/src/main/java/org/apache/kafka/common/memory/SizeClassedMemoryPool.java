@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.common.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Meter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * An implementation of memory pool which recycles buffers over a whole range of sizes.
+ *
+ * Buffers are grouped in power-of-two size classes, from the smallest class size up to the largest class size.
+ * A request is served from the cache of the smallest class which can hold it, and a cache miss allocates a buffer of
+ * the full class size so that it can be recycled into that class once released. Each class caches at most a fixed
+ * number of buffers, and the total number of cached bytes over all classes is capped as well. Requests larger than
+ * the largest class size are allocated on the heap and never cached.
+ *
+ * This memory pool is useful when requested sizes are spread out (e.g. a mix of tiny and large requests), in which
+ * case {@link RecyclingMemoryPool} would miss most of the time.
+ */
+public class SizeClassedMemoryPool implements MemoryPool {
+    protected static final Logger log = LoggerFactory.getLogger(SizeClassedMemoryPool.class);
+    protected final int minClassSizeShift;
+    protected final int maxClassSize;
+    protected final long maxCachedBytes;
+    protected final AtomicLong cachedBytes = new AtomicLong();
+    protected final StripedRecyclingMemoryPool.BufferRing[] classCaches;
+    protected final Sensor[] hitSensors;
+    protected final Sensor[] missSensors;
+    protected final Sensor requestSensor;
+
+    public SizeClassedMemoryPool(int minClassSize, int maxClassSize, int classCacheCapacity, long maxCachedBytes,
+                                 Sensor requestSensor, Metrics metrics, String metricGroup) {
+        if (minClassSize <= 0 || maxClassSize < minClassSize || classCacheCapacity <= 0 || maxCachedBytes < 0) {
+            throw new IllegalArgumentException(String.format("Must provide positive class sizes with the smallest not " +
+                    "larger than the largest, a positive class cache capacity and a non-negative cached bytes limit, " +
+                    "provided %d, %d, %d and %d respectively.", minClassSize, maxClassSize, classCacheCapacity, maxCachedBytes));
+        }
+        this.minClassSizeShift = ceilLog2(minClassSize);
+        int maxClassSizeShift = ceilLog2(maxClassSize);
+        if (maxClassSizeShift > 30) {
+            throw new IllegalArgumentException("The largest class size " + maxClassSize + " cannot be rounded to a power of two");
+        }
+        this.maxClassSize = 1 << maxClassSizeShift;
+        this.maxCachedBytes = maxCachedBytes;
+        this.requestSensor = requestSensor;
+
+        int numClasses = maxClassSizeShift - minClassSizeShift + 1;
+        this.classCaches = new StripedRecyclingMemoryPool.BufferRing[numClasses];
+        this.hitSensors = new Sensor[numClasses];
+        this.missSensors = new Sensor[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            int classSize = classSize(i);
+            classCaches[i] = new StripedRecyclingMemoryPool.BufferRing(classCacheCapacity);
+            Map<String, String> tags = Collections.singletonMap("size-class", String.valueOf(classSize));
+            hitSensors[i] = metrics.sensor("memory-pool-size-class-" + classSize + "-hits");
+            hitSensors[i].add(new Meter(metrics.metricName("size-class-hit-rate", metricGroup,
+                    "The number of allocations per second served from the cache of this size class", tags),
+                    metrics.metricName("size-class-hit-total", metricGroup,
+                    "The total number of allocations served from the cache of this size class", tags)));
+            missSensors[i] = metrics.sensor("memory-pool-size-class-" + classSize + "-misses");
+            missSensors[i].add(new Meter(metrics.metricName("size-class-miss-rate", metricGroup,
+                    "The number of allocations per second of this size class which had to allocate a new buffer", tags),
+                    metrics.metricName("size-class-miss-total", metricGroup,
+                    "The total number of allocations of this size class which had to allocate a new buffer", tags)));
+        }
+    }
+
+    @Override
+    public ByteBuffer tryAllocate(int sizeBytes) {
+        if (sizeBytes < 1) {
+            throw new IllegalArgumentException("requested size " + sizeBytes + "<=0");
+        }
+
+        ByteBuffer allocated;
+        if (sizeBytes <= maxClassSize) {
+            int sizeClass = sizeClass(sizeBytes);
+            allocated = classCaches[sizeClass].poll();
+            if (allocated != null) {
+                cachedBytes.addAndGet(-allocated.capacity());
+                hitSensors[sizeClass].record();
+            } else {
+                allocated = ByteBuffer.allocate(classSize(sizeClass));
+                missSensors[sizeClass].record();
+            }
+            allocated.limit(sizeBytes);
+        } else {
+            allocated = ByteBuffer.allocate(sizeBytes);
+        }
+        bufferToBeAllocated(allocated);
+        return allocated;
+    }
+
+    @Override
+    public void release(ByteBuffer previouslyAllocated) {
+        if (previouslyAllocated == null) {
+            throw new IllegalArgumentException("provided null buffer");
+        }
+        int capacity = previouslyAllocated.capacity();
+        if (capacity <= maxClassSize && Integer.bitCount(capacity) == 1 && capacity >= classSize(0)) {
+            if (cachedBytes.addAndGet(capacity) <= maxCachedBytes) {
+                previouslyAllocated.clear();
+                if (classCaches[sizeClass(capacity)].offer(previouslyAllocated)) {
+                    return;
+                }
+            }
+            cachedBytes.addAndGet(-capacity);
+        }
+        bufferToBeReleased(previouslyAllocated);
+    }
+
+    //allows subclasses to do their own bookkeeping (and validation) _before_ memory is returned to client code.
+    protected void bufferToBeAllocated(ByteBuffer justAllocated) {
+        try {
+            this.requestSensor.record(justAllocated.limit());
+        } catch (Exception e) {
+            log.debug("failed to record size of allocated buffer");
+        }
+        log.trace("allocated buffer of size {}", justAllocated.capacity());
+    }
+
+    //allows subclasses to do their own bookkeeping (and validation) _before_ memory is marked as reclaimed.
+    protected void bufferToBeReleased(ByteBuffer justReleased) {
+        log.trace("released buffer of size {}", justReleased.capacity());
+    }
+
+    private int sizeClass(int sizeBytes) {
+        return Math.max(0, ceilLog2(sizeBytes) - minClassSizeShift);
+    }
+
+    private int classSize(int sizeClass) {
+        return 1 << (sizeClass + minClassSizeShift);
+    }
+
+    private static int ceilLog2(int value) {
+        return 32 - Integer.numberOfLeadingZeros(value - 1);
+    }
+
+    /**
+     * Returns the number of bytes currently held in the cache, summed over all size classes.
+     */
+    long cachedBytes() {
+        return cachedBytes.get();
+    }
+
+    @Override
+    public long size() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long availableMemory() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isOutOfMemory() {
+        return false;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.common.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.kafka.common.metrics.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * A lock-free variant of {@link RecyclingMemoryPool}.
+ *
+ * The buffer cache is split into a number of stripes, each of which is a bounded multi-producer multi-consumer ring.
+ * A thread first allocates from (and releases to) the stripe its thread id maps to, and only falls back to the other
+ * stripes when its own stripe is empty (or full). Since network processor threads are long lived, each of them mostly
+ * touches its own stripe, and no lock is taken nor any object allocated when a buffer is recycled.
+ *
+ * The cacheable size range is the same as for {@link RecyclingMemoryPool}.
+ */
+public class StripedRecyclingMemoryPool implements MemoryPool {
+    protected static final Logger log = LoggerFactory.getLogger(StripedRecyclingMemoryPool.class);
+    protected final int cacheableBufferSizeUpperThreshold;
+    protected final int cacheableBufferSizeLowerThreshold;
+    protected final BufferRing[] stripes;
+    protected final Sensor requestSensor;
+
+    public StripedRecyclingMemoryPool(int cacheableBufferSize, int bufferCacheCapacity, Sensor requestSensor) {
+        this(cacheableBufferSize, bufferCacheCapacity, Runtime.getRuntime().availableProcessors(), requestSensor);
+    }
+
+    public StripedRecyclingMemoryPool(int cacheableBufferSize, int bufferCacheCapacity, int numStripes, Sensor requestSensor) {
+        if (bufferCacheCapacity <= 0 || cacheableBufferSize <= 0) {
+            throw new IllegalArgumentException(String.format("Must provide a positive cacheable buffer size and buffer cache " +
+                    "capacity, provided %d and %d respectively.", cacheableBufferSize, bufferCacheCapacity));
+        }
+        if (numStripes <= 0) {
+            throw new IllegalArgumentException("Must provide a positive number of stripes, provided " + numStripes);
+        }
+        int stripeCount = Math.min(numStripes, bufferCacheCapacity);
+        this.stripes = new BufferRing[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            // spread the capacity as evenly as possible, so that the total number of cached buffers never exceeds it
+            int stripeCapacity = bufferCacheCapacity / stripeCount + (i < bufferCacheCapacity % stripeCount ? 1 : 0);
+            stripes[i] = new BufferRing(stripeCapacity);
+            for (int j = 0; j < stripeCapacity; j++) {
+                stripes[i].offer(ByteBuffer.allocate(cacheableBufferSize));
+            }
+        }
+        this.cacheableBufferSizeUpperThreshold = cacheableBufferSize;
+        this.cacheableBufferSizeLowerThreshold = cacheableBufferSize / 2;
+        this.requestSensor = requestSensor;
+    }
+
+    @Override
+    public ByteBuffer tryAllocate(int sizeBytes) {
+        if (sizeBytes < 1) {
+            throw new IllegalArgumentException("requested size " + sizeBytes + "<=0");
+        }
+
+        ByteBuffer allocated = null;
+        if (sizeBytes > cacheableBufferSizeLowerThreshold && sizeBytes <= cacheableBufferSizeUpperThreshold) {
+            int home = homeStripe();
+            for (int i = 0; i < stripes.length && allocated == null; i++) {
+                allocated = stripes[(home + i) % stripes.length].poll();
+            }
+        }
+        if (allocated != null) {
+            allocated.limit(sizeBytes);
+        } else {
+            allocated = ByteBuffer.allocate(sizeBytes);
+        }
+        bufferToBeAllocated(allocated);
+        return allocated;
+    }
+
+    @Override
+    public void release(ByteBuffer previouslyAllocated) {
+        if (previouslyAllocated == null) {
+            throw new IllegalArgumentException("provided null buffer");
+        }
+        if (previouslyAllocated.capacity() == cacheableBufferSizeUpperThreshold) {
+            previouslyAllocated.clear();
+            int home = homeStripe();
+            for (int i = 0; i < stripes.length; i++) {
+                if (stripes[(home + i) % stripes.length].offer(previouslyAllocated)) {
+                    return;
+                }
+            }
+        }
+        bufferToBeReleased(previouslyAllocated);
+    }
+
+    //allows subclasses to do their own bookkeeping (and validation) _before_ memory is returned to client code.
+    protected void bufferToBeAllocated(ByteBuffer justAllocated) {
+        try {
+            this.requestSensor.record(justAllocated.limit());
+        } catch (Exception e) {
+            log.debug("failed to record size of allocated buffer");
+        }
+        log.trace("allocated buffer of size {}", justAllocated.capacity());
+    }
+
+    //allows subclasses to do their own bookkeeping (and validation) _before_ memory is marked as reclaimed.
+    protected void bufferToBeReleased(ByteBuffer justReleased) {
+        log.trace("released buffer of size {}", justReleased.capacity());
+    }
+
+    private int homeStripe() {
+        return (int) (Thread.currentThread().getId() % stripes.length);
+    }
+
+    /**
+     * Returns the number of buffers currently held in the cache, summed over all stripes.
+     * The result is only a snapshot when other threads are concurrently allocating or releasing.
+     */
+    int cachedBuffers() {
+        int cached = 0;
+        for (BufferRing stripe : stripes) {
+            cached += stripe.size();
+        }
+        return cached;
+    }
+
+    @Override
+    public long size() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public long availableMemory() {
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public boolean isOutOfMemory() {
+        return false;
+    }
+
+    /**
+     * A bounded multi-producer multi-consumer ring of buffers (after Dmitry Vyukov's bounded MPMC queue).
+     * Every slot carries a sequence number which tells producers and consumers whether the slot is theirs to claim
+     * for the current lap, so claiming a slot is a single CAS on the enqueue or dequeue position.
+     */
+    static final class BufferRing {
+        private final int capacity;
+        private final int mask;
+        private final AtomicReferenceArray<ByteBuffer> slots;
+        private final AtomicLongArray sequences;
+        private final AtomicLong enqueuePosition = new AtomicLong();
+        private final AtomicLong dequeuePosition = new AtomicLong();
+
+        BufferRing(int capacity) {
+            this.capacity = capacity;
+            int ringSize = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+            this.mask = ringSize - 1;
+            this.slots = new AtomicReferenceArray<>(ringSize);
+            this.sequences = new AtomicLongArray(ringSize);
+            for (int i = 0; i < ringSize; i++) {
+                sequences.set(i, i);
+            }
+        }
+
+        boolean offer(ByteBuffer buffer) {
+            long position = enqueuePosition.get();
+            while (true) {
+                if (position - dequeuePosition.get() >= capacity) {
+                    return false;
+                }
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - position;
+                if (difference == 0) {
+                    if (enqueuePosition.compareAndSet(position, position + 1)) {
+                        slots.set(index, buffer);
+                        sequences.lazySet(index, position + 1);
+                        return true;
+                    }
+                    position = enqueuePosition.get();
+                } else if (difference < 0) {
+                    return false;
+                } else {
+                    position = enqueuePosition.get();
+                }
+            }
+        }
+
+        ByteBuffer poll() {
+            long position = dequeuePosition.get();
+            while (true) {
+                int index = (int) (position & mask);
+                long difference = sequences.get(index) - (position + 1);
+                if (difference == 0) {
+                    if (dequeuePosition.compareAndSet(position, position + 1)) {
+                        ByteBuffer buffer = slots.get(index);
+                        slots.set(index, null);
+                        sequences.lazySet(index, position + mask + 1);
+                        return buffer;
+                    }
+                    position = dequeuePosition.get();
+                } else if (difference < 0) {
+                    return null;
+                } else {
+                    position = dequeuePosition.get();
+                }
+            }
+        }
+
+        int size() {
+            return (int) Math.max(0, enqueuePosition.get() - dequeuePosition.get());
+        }
+    }
+}
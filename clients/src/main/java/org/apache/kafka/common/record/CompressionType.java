@@ -20,6 +20,7 @@ import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.compress.KafkaLZ4BlockInputStream;
 import org.apache.kafka.common.compress.KafkaLZ4BlockOutputStream;
 import org.apache.kafka.common.compress.SnappyFactory;
+import org.apache.kafka.common.compress.ZstdDictionary;
 import org.apache.kafka.common.compress.ZstdFactory;
 import org.apache.kafka.common.utils.BufferSupplier;
 import org.apache.kafka.common.utils.ByteBufferInputStream;
@@ -132,6 +133,11 @@ public enum CompressionType {
             return ZstdFactory.wrapForOutput(buffer);
         }
 
+        @Override
+        public OutputStream wrapForOutput(ByteBufferOutputStream buffer, byte messageVersion, ZstdDictionary dictionary) {
+            return ZstdFactory.wrapForOutput(buffer, dictionary);
+        }
+
         @Override
         public InputStream wrapForInput(ByteBuffer buffer, byte messageVersion, BufferSupplier decompressionBufferSupplier) {
             return ZstdFactory.wrapForInput(buffer, messageVersion, decompressionBufferSupplier);
@@ -172,6 +178,16 @@ public enum CompressionType {
      */
     public abstract OutputStream wrapForOutput(ByteBufferOutputStream bufferStream, byte messageVersion);
 
+    /**
+     * Wrap bufferStream with an OutputStream that will compress data with this CompressionType and the given dictionary.
+     * Only {@link #ZSTD} compresses with a dictionary, the other types ignore it.
+     *
+     * @param dictionary The dictionary to compress with, or null to compress without a dictionary
+     */
+    public OutputStream wrapForOutput(ByteBufferOutputStream bufferStream, byte messageVersion, ZstdDictionary dictionary) {
+        return wrapForOutput(bufferStream, messageVersion);
+    }
+
     /**
      * Wrap buffer with an InputStream that will decompress data with this CompressionType.
      *
@@ -48,7 +48,8 @@ public class FileRecords extends AbstractRecords implements Closeable {
 
     // mutable state
     private final AtomicInteger size;
-    private final FileChannel channel;
+    // null until the first access if the records are opened lazily
+    private volatile FileChannel channel;
     private volatile File file;
 
     /**
@@ -86,6 +87,16 @@ public class FileRecords extends AbstractRecords implements Closeable {
         batches = batchesFrom(start);
     }
 
+    private FileRecords(File file, int sizeInBytes) {
+        this.file = file;
+        this.channel = null;
+        this.start = 0;
+        this.end = Integer.MAX_VALUE;
+        this.isSlice = false;
+        this.size = new AtomicInteger(sizeInBytes);
+        batches = batchesFrom(start);
+    }
+
     @Override
     public int sizeInBytes() {
         return size.get();
@@ -104,9 +115,46 @@ public class FileRecords extends AbstractRecords implements Closeable {
      * @return The file channel
      */
     public FileChannel channel() {
+        FileChannel channel = this.channel;
+        if (channel == null) {
+            synchronized (this) {
+                channel = this.channel;
+                if (channel == null) {
+                    channel = openExistingChannel();
+                    this.channel = channel;
+                }
+            }
+        }
         return channel;
     }
 
+    private FileChannel openExistingChannel() {
+        FileChannel channel = null;
+        try {
+            // the file is not created if it was deleted before it was first accessed
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long fileSize = channel.size();
+            int expectedSize = size.get();
+            if (fileSize != expectedSize) {
+                Utils.closeQuietly(channel, "FileChannel");
+                throw new KafkaException("The size of segment " + file + " (" + fileSize +
+                        ") does not match its expected size of " + expectedSize);
+            }
+            channel.position(expectedSize);
+            return channel;
+        } catch (IOException e) {
+            Utils.closeQuietly(channel, "FileChannel");
+            throw new KafkaException("Failed to open segment " + file, e);
+        }
+    }
+
+    /**
+     * Whether the underlying file channel has been opened, which a lazily opened instance only does on first access.
+     */
+    public boolean isOpened() {
+        return channel != null;
+    }
+
     /**
      * Read log batches into the given buffer until there are no bytes remaining in the buffer or the end of the file
      * is reached.
@@ -117,7 +165,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
      * possible exceptions
      */
     public void readInto(ByteBuffer buffer, int position) throws IOException {
-        Utils.readFully(channel, buffer, position + this.start);
+        Utils.readFully(channel(), buffer, position + this.start);
         buffer.flip();
     }
 
@@ -136,7 +184,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
     public FileRecords slice(int position, int size) throws IOException {
         int availableBytes = availableBytes(position, size);
         int startPosition = this.start + position;
-        return new FileRecords(file, channel, startPosition, startPosition + availableBytes, true);
+        return new FileRecords(file, channel(), startPosition, startPosition + availableBytes, true);
     }
 
     /**
@@ -152,7 +200,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
      */
     public UnalignedFileRecords sliceUnaligned(int position, int size) {
         int availableBytes = availableBytes(position, size);
-        return new UnalignedFileRecords(channel, this.start + position, availableBytes);
+        return new UnalignedFileRecords(channel(), this.start + position, availableBytes);
     }
 
     private int availableBytes(int position, int size) {
@@ -185,7 +233,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
             throw new IllegalArgumentException("Append of size " + records.sizeInBytes() +
                     " bytes is too large for segment with current file position at " + size.get());
 
-        int written = records.writeFullyTo(channel);
+        int written = records.writeFullyTo(channel());
         size.getAndAdd(written);
         return written;
     }
@@ -194,13 +242,18 @@ public class FileRecords extends AbstractRecords implements Closeable {
      * Commit all written data to the physical disk
      */
     public void flush() throws IOException {
-        channel.force(true);
+        // nothing was written if the channel was never opened
+        FileChannel channel = this.channel;
+        if (channel != null)
+            channel.force(true);
     }
 
     /**
      * Close this record set
      */
     public void close() throws IOException {
+        if (channel == null)
+            return;
         flush();
         trim();
         channel.close();
@@ -210,7 +263,9 @@ public class FileRecords extends AbstractRecords implements Closeable {
      * Close file handlers used by the FileChannel but don't write to disk. This is used when the disk may have failed
      */
     public void closeHandlers() throws IOException {
-        channel.close();
+        FileChannel channel = this.channel;
+        if (channel != null)
+            channel.close();
     }
 
     /**
@@ -266,6 +321,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
         if (targetSize > originalSize || targetSize < 0)
             throw new KafkaException("Attempt to truncate log segment " + file + " to " + targetSize + " bytes failed, " +
                     " size of this log segment is " + originalSize + " bytes.");
+        FileChannel channel = channel();
         if (targetSize < (int) channel.size()) {
             channel.truncate(targetSize);
             size.set(targetSize);
@@ -292,6 +348,7 @@ public class FileRecords extends AbstractRecords implements Closeable {
 
     @Override
     public long writeTo(TransferableChannel destChannel, long offset, int length) throws IOException {
+        FileChannel channel = channel();
         long newSize = Math.min(channel.size(), end) - start;
         int oldSize = sizeInBytes();
         if (newSize < oldSize)
@@ -445,6 +502,15 @@ public class FileRecords extends AbstractRecords implements Closeable {
         return new FileRecords(file, channel, 0, end, false);
     }
 
+    /**
+     * Open the records of an existing file of the given size without opening its channel, which is only opened when
+     * the records are first accessed. This avoids opening the files of segments which are never read or written, but
+     * the file must not be changed before it is opened.
+     */
+    public static FileRecords openLazily(File file, int sizeInBytes) {
+        return new FileRecords(file, sizeInBytes);
+    }
+
     public static FileRecords open(File file,
                                    boolean fileAlreadyExists,
                                    int initFileSize,
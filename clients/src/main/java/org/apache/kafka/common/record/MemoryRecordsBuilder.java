@@ -17,6 +17,7 @@
 package org.apache.kafka.common.record;
 
 import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.compress.ZstdDictionary;
 import org.apache.kafka.common.header.Header;
 import org.apache.kafka.common.message.LeaderChangeMessage;
 import org.apache.kafka.common.message.SnapshotHeaderRecord;
@@ -68,6 +69,7 @@ public class MemoryRecordsBuilder implements AutoCloseable {
     private final int partitionLeaderEpoch;
     private final int writeLimit;
     private final int batchHeaderSizeInBytes;
+    private final ZstdDictionary compressionDictionary;
 
     // Use a conservative estimate of the compression ratio. The producer overrides this using statistics
     // from previous batches before appending any records.
@@ -104,6 +106,24 @@ public class MemoryRecordsBuilder implements AutoCloseable {
                                 boolean isControlBatch,
                                 int partitionLeaderEpoch,
                                 int writeLimit) {
+        this(bufferStream, magic, compressionType, timestampType, baseOffset, logAppendTime, producerId, producerEpoch,
+            baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch, writeLimit, null);
+    }
+
+    public MemoryRecordsBuilder(ByteBufferOutputStream bufferStream,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit,
+                                ZstdDictionary compressionDictionary) {
         if (magic > RecordBatch.MAGIC_VALUE_V0 && timestampType == TimestampType.NO_TIMESTAMP_TYPE)
             throw new IllegalArgumentException("TimestampType must be set for magic >= 0");
         if (magic < RecordBatch.MAGIC_VALUE_V2) {
@@ -143,7 +163,9 @@ public class MemoryRecordsBuilder implements AutoCloseable {
 
         bufferStream.position(initialPosition + batchHeaderSizeInBytes);
         this.bufferStream = bufferStream;
-        this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic));
+        this.compressionDictionary = compressionDictionary;
+        this.appendStream = new DataOutputStream(compressionType.wrapForOutput(this.bufferStream, magic,
+            compressionDictionary));
     }
 
     /**
@@ -179,9 +201,34 @@ public class MemoryRecordsBuilder implements AutoCloseable {
                                 boolean isControlBatch,
                                 int partitionLeaderEpoch,
                                 int writeLimit) {
+        this(buffer, magic, compressionType, timestampType, baseOffset, logAppendTime, producerId, producerEpoch,
+                baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch, writeLimit, null);
+    }
+
+    /**
+     * Construct a new builder which compresses with the given dictionary.
+     *
+     * @param compressionDictionary The dictionary to compress with if the compression codec supports dictionaries,
+     *                              or null to compress without a dictionary
+     * @see #MemoryRecordsBuilder(ByteBuffer, byte, CompressionType, TimestampType, long, long, long, short, int, boolean, boolean, int, int)
+     */
+    public MemoryRecordsBuilder(ByteBuffer buffer,
+                                byte magic,
+                                CompressionType compressionType,
+                                TimestampType timestampType,
+                                long baseOffset,
+                                long logAppendTime,
+                                long producerId,
+                                short producerEpoch,
+                                int baseSequence,
+                                boolean isTransactional,
+                                boolean isControlBatch,
+                                int partitionLeaderEpoch,
+                                int writeLimit,
+                                ZstdDictionary compressionDictionary) {
         this(new ByteBufferOutputStream(buffer), magic, compressionType, timestampType, baseOffset, logAppendTime,
                 producerId, producerEpoch, baseSequence, isTransactional, isControlBatch, partitionLeaderEpoch,
-                writeLimit);
+                writeLimit, compressionDictionary);
     }
 
     public ByteBuffer buffer() {
@@ -200,6 +247,13 @@ public class MemoryRecordsBuilder implements AutoCloseable {
         return compressionType;
     }
 
+    /**
+     * The dictionary to compress with, or null if there is none.
+     */
+    public ZstdDictionary compressionDictionary() {
+        return compressionDictionary;
+    }
+
     public boolean isControlBatch() {
         return isControlBatch;
     }
@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.InvalidRecordException;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.utils.BufferSupplier;
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The fields of the records of a v2 batch which are needed to validate them, with one array per field. The fields are
+ * parsed from the record headers of the (decompressed) batch without materializing {@link Record} objects, and the keys,
+ * values and headers of the records are skipped.
+ *
+ * Checking a field of all the records is a simple loop over a primitive array, which the JIT compiler can unroll and
+ * vectorize. An instance reuses its arrays for the batches it reads, and is not thread-safe.
+ */
+public class RecordBatchColumns {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private int numRecords = 0;
+    private int totalSizeInBytes = 0;
+    private int[] sizesInBytes = new int[INITIAL_CAPACITY];
+    private int[] offsetDeltas = new int[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] keySizes = new int[INITIAL_CAPACITY];
+
+    // the decompressed bytes of a compressed batch are read into this buffer, and parsed from it
+    private byte[] readBuffer;
+    private ByteBuffer window;
+    private DataInputStream input;
+    // the position in the records of the first byte of the window
+    private int windowStart;
+
+    /**
+     * Read the fields of the records of the given batch, replacing those of the previous batch.
+     *
+     * @throws InvalidRecordException if the records of the batch are invalid
+     */
+    public void read(DefaultRecordBatch batch, BufferSupplier bufferSupplier) {
+        int count = batch.count();
+        if (count < 0)
+            throw new InvalidRecordException("Found invalid record count " + count + " in magic v" +
+                batch.magic() + " batch");
+        numRecords = 0;
+        totalSizeInBytes = 0;
+        if (count == 0)
+            return;
+
+        boolean logAppendTime = batch.timestampType() == TimestampType.LOG_APPEND_TIME;
+        long maxTimestamp = batch.maxTimestamp();
+        long firstTimestamp = batch.firstTimestamp();
+        windowStart = 0;
+        if (batch.isCompressed()) {
+            if (readBuffer == null)
+                readBuffer = new byte[READ_BUFFER_SIZE];
+            window = ByteBuffer.wrap(readBuffer);
+            window.limit(0);
+            input = batch.recordInputStream(bufferSupplier);
+        } else {
+            window = batch.recordsBuffer();
+            input = null;
+        }
+
+        try {
+            for (int i = 0; i < count; i++) {
+                ensureCapacity(i + 1);
+                int sizeOfBodyInBytes = readVarint();
+                if (sizeOfBodyInBytes < 0)
+                    throw new InvalidRecordException("Invalid record size " + sizeOfBodyInBytes);
+                int recordStart = position();
+
+                // the attributes of a record are unused
+                skip(1);
+                long timestampDelta = readVarlong();
+                timestamps[i] = logAppendTime ? maxTimestamp : firstTimestamp + timestampDelta;
+                offsetDeltas[i] = readVarint();
+                keySizes[i] = skipLengthDelimitedField();
+                skipLengthDelimitedField();
+                int numHeaders = readVarint();
+                if (numHeaders < 0)
+                    throw new InvalidRecordException("Found invalid number of record headers " + numHeaders);
+                for (int header = 0; header < numHeaders; header++) {
+                    int headerKeySize = skipLengthDelimitedField();
+                    if (headerKeySize < 0)
+                        throw new InvalidRecordException("Invalid negative header key size " + headerKeySize);
+                    skipLengthDelimitedField();
+                }
+
+                if (position() - recordStart != sizeOfBodyInBytes)
+                    throw new InvalidRecordException("Invalid record size: expected to read " + sizeOfBodyInBytes +
+                        " bytes in record payload, but instead read " + (position() - recordStart));
+                sizesInBytes[i] = ByteUtils.sizeOfVarint(sizeOfBodyInBytes) + sizeOfBodyInBytes;
+                totalSizeInBytes += sizesInBytes[i];
+                numRecords++;
+            }
+
+            if (window.hasRemaining() || (input != null && input.read() != -1))
+                throw new InvalidRecordException("Incorrect declared batch size, records still remaining in file");
+        } catch (BufferUnderflowException e) {
+            throw new InvalidRecordException("Incorrect declared batch size, premature EOF reached");
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRecordException("Found invalid record structure", e);
+        } catch (IOException e) {
+            throw new KafkaException("Failed to decompress record stream", e);
+        } finally {
+            closeInput();
+        }
+    }
+
+    private void closeInput() {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                throw new KafkaException("Failed to close record stream", e);
+            } finally {
+                input = null;
+            }
+        }
+        window = null;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > sizesInBytes.length) {
+            int newCapacity = Math.max(capacity, sizesInBytes.length * 2);
+            sizesInBytes = Arrays.copyOf(sizesInBytes, newCapacity);
+            offsetDeltas = Arrays.copyOf(offsetDeltas, newCapacity);
+            timestamps = Arrays.copyOf(timestamps, newCapacity);
+            keySizes = Arrays.copyOf(keySizes, newCapacity);
+        }
+    }
+
+    private int position() {
+        return windowStart + window.position();
+    }
+
+    // make at least the given number of bytes available in the window, unless the records end before
+    private void fill(int bytes) throws IOException {
+        if (window.remaining() >= bytes || input == null)
+            return;
+        windowStart += window.position();
+        window.compact();
+        while (window.position() < bytes) {
+            int read = input.read(readBuffer, window.position(), window.capacity() - window.position());
+            if (read < 0)
+                break;
+            window.position(window.position() + read);
+        }
+        window.flip();
+    }
+
+    private int readVarint() throws IOException {
+        fill(5);
+        return ByteUtils.readVarint(window);
+    }
+
+    private long readVarlong() throws IOException {
+        fill(10);
+        return ByteUtils.readVarlong(window);
+    }
+
+    private int skipLengthDelimitedField() throws IOException {
+        int size = readVarint();
+        if (size > 0)
+            skip(size);
+        return size;
+    }
+
+    private void skip(int bytes) throws IOException {
+        int inWindow = Math.min(bytes, window.remaining());
+        window.position(window.position() + inWindow);
+        int remaining = bytes - inWindow;
+        if (remaining == 0)
+            return;
+        if (input == null)
+            throw new BufferUnderflowException();
+
+        // skip the rest of the field from the input, past the end of the window
+        windowStart += window.position();
+        window.position(0).limit(0);
+        while (remaining > 0) {
+            int read = input.read(readBuffer, 0, Math.min(remaining, readBuffer.length));
+            if (read < 0)
+                throw new BufferUnderflowException();
+            remaining -= read;
+            windowStart += read;
+        }
+    }
+
+    public int numRecords() {
+        return numRecords;
+    }
+
+    /**
+     * The total size of the records, without the batch header.
+     */
+    public int totalSizeInBytes() {
+        return totalSizeInBytes;
+    }
+
+    public int sizeInBytes(int index) {
+        return sizesInBytes[index];
+    }
+
+    public int offsetDelta(int index) {
+        return offsetDeltas[index];
+    }
+
+    public long timestamp(int index) {
+        return timestamps[index];
+    }
+
+    public boolean hasKey(int index) {
+        return keySizes[index] >= 0;
+    }
+
+    /**
+     * Whether the offset delta of every record is its index in the batch.
+     */
+    public boolean hasSequentialOffsetDeltas() {
+        boolean sequential = true;
+        for (int i = 0; i < numRecords; i++)
+            sequential &= offsetDeltas[i] == i;
+        return sequential;
+    }
+
+    public boolean allRecordsHaveKeys() {
+        boolean allKeys = true;
+        for (int i = 0; i < numRecords; i++)
+            allKeys &= keySizes[i] >= 0;
+        return allKeys;
+    }
+
+    /**
+     * Whether the timestamp of every record with a timestamp differs by at most the given maximum from now.
+     */
+    public boolean timestampsWithin(long now, long maxDiffMs) {
+        boolean within = true;
+        for (int i = 0; i < numRecords; i++) {
+            long timestamp = timestamps[i];
+            within &= timestamp == RecordBatch.NO_TIMESTAMP || Math.abs(timestamp - now) <= maxDiffMs;
+        }
+        return within;
+    }
+
+    public long maxTimestamp() {
+        long maxTimestamp = RecordBatch.NO_TIMESTAMP;
+        for (int i = 0; i < numRecords; i++)
+            maxTimestamp = Math.max(maxTimestamp, timestamps[i]);
+        return maxTimestamp;
+    }
+}
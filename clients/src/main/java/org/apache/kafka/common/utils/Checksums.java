@@ -16,6 +16,9 @@
  */
 package org.apache.kafka.common.utils;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.nio.ByteBuffer;
 import java.util.zip.Checksum;
 
@@ -30,6 +33,24 @@ import java.util.zip.Checksum;
  */
 public final class Checksums {
 
+    // Checksum.update(ByteBuffer), which was added in Java 9 and which java.util.zip.CRC32C and CRC32 implement without
+    // copying direct buffers. null if not available
+    private static final MethodHandle UPDATE_BYTE_BUFFER;
+
+    static {
+        MethodHandle updateByteBuffer = null;
+        if (Java.IS_JAVA9_COMPATIBLE) {
+            try {
+                updateByteBuffer = MethodHandles.publicLookup().findVirtual(Checksum.class, "update",
+                    MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (ReflectiveOperationException e) {
+                // Should never happen
+                throw new RuntimeException(e);
+            }
+        }
+        UPDATE_BYTE_BUFFER = updateByteBuffer;
+    }
+
     private Checksums() {
     }
 
@@ -40,6 +61,17 @@ public final class Checksums {
     public static void update(Checksum checksum, ByteBuffer buffer, int offset, int length) {
         if (buffer.hasArray()) {
             checksum.update(buffer.array(), buffer.position() + buffer.arrayOffset() + offset, length);
+        } else if (UPDATE_BYTE_BUFFER != null) {
+            int start = buffer.position() + offset;
+            ByteBuffer view = buffer.duplicate();
+            view.limit(start + length);
+            view.position(start);
+            try {
+                UPDATE_BYTE_BUFFER.invokeExact(checksum, view);
+            } catch (Throwable throwable) {
+                // Should never happen
+                throw new RuntimeException(throwable);
+            }
         } else {
             int start = buffer.position() + offset;
             for (int i = start; i < start + length; i++)
@@ -182,6 +182,7 @@ public class FetcherTest {
     private Fetcher<?, ?> fetcher;
 
     private boolean testPassthrough = false;
+    private int decodeThreads = 0;
 
     private MemoryRecords records;
     private MemoryRecords nextRecords;
@@ -248,6 +249,236 @@ public class FetcherTest {
         }
     }
 
+    @Test
+    public void testFetchWithDecodeThreads() throws Exception {
+        decodeThreads = 2;
+        buildFetcher();
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 0);
+
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), CompressionType.ZSTD,
+                TimestampType.CREATE_TIME, 1L);
+        for (int i = 1; i <= 3; i++)
+            builder.append(0L, "key".getBytes(), ("value-" + i).getBytes());
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fullFetchResponse(tp0, builder.build(), Errors.NONE, 100L, 0));
+        consumerClient.poll(time.timer(0));
+
+        // the records are decoded before they are polled
+        KafkaMetric decodedRecordsReady = metrics.metrics().get(metrics.metricInstance(metricsRegistry.decodedRecordsReady));
+        TestUtils.waitForCondition(() -> (Integer) decodedRecordsReady.metricValue() == 3,
+            "The records were not decoded by a decode thread");
+
+        Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> partitionRecords = fetchedRecords();
+        List<ConsumerRecord<byte[], byte[]>> records = partitionRecords.get(tp0);
+        assertEquals(3, records.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, records.get(i).offset());
+            assertEquals("value-" + (i + 1), new String(records.get(i).value(), StandardCharsets.UTF_8));
+        }
+        assertEquals(4L, subscriptions.position(tp0).offset);
+        assertEquals(0, decodedRecordsReady.metricValue());
+        KafkaMetric decodeTimeMax = metrics.metrics().get(metrics.metricInstance(metricsRegistry.decodeTimeMax));
+        assertFalse(Double.isNaN((Double) decodeTimeMax.metricValue()));
+    }
+
+    @Test
+    public void testCloseStopsDecodeThreads() throws Exception {
+        decodeThreads = 2;
+        buildFetcher();
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 0);
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fullFetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(time.timer(0));
+        TestUtils.waitForCondition(() -> !decodeThreadNames().isEmpty(),
+            "The decode threads were not started or are not named after the client id");
+
+        // the deserializers are closed after the fetcher, so no decode thread may be left running
+        fetcher.close();
+        fetcher = null;
+        assertEquals(Collections.emptySet(), decodeThreadNames());
+    }
+
+    private Set<String> decodeThreadNames() {
+        return Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.isAlive() && thread.getName().startsWith(Fetcher.DECODE_THREAD_PREFIX) &&
+                thread.getName().endsWith(" | clientId"))
+            .map(Thread::getName)
+            .collect(Collectors.toSet());
+    }
+
+    @Test
+    public void testDeserializationErrorWithDecodeThreads() {
+        // the value of the second record fails to deserialize both on the decode thread and when it is reached
+        ByteArrayDeserializer deserializer = new ByteArrayDeserializer() {
+            @Override
+            public byte[] deserialize(String topic, byte[] data) {
+                if ("value-2".equals(new String(data, StandardCharsets.UTF_8)))
+                    throw new SerializationException();
+                return data;
+            }
+        };
+
+        decodeThreads = 1;
+        buildFetcher(deserializer, deserializer);
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        client.prepareResponse(matchesOffset(tp0, 1), fullFetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        assertEquals(1, fetcher.sendFetches());
+        consumerClient.poll(time.timer(0));
+
+        // the record before the error is returned, and the error is raised on the following polls
+        Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> partitionRecords = fetchedRecords();
+        assertEquals(1, partitionRecords.get(tp0).size());
+        assertEquals(1L, partitionRecords.get(tp0).get(0).offset());
+        for (int i = 0; i < 2; i++) {
+            assertThrows(SerializationException.class, fetcher::fetchedRecords);
+            assertEquals(2, subscriptions.position(tp0).offset);
+        }
+    }
+
+    @Test
+    public void testDecodedRecordsOfPausedPartitionWithDecodeThreads() throws Exception {
+        decodeThreads = 1;
+        buildFetcher();
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        subscriptions.pause(tp0);
+        client.prepareResponse(fullFetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(time.timer(0));
+
+        KafkaMetric decodedRecordsReady = metrics.metrics().get(metrics.metricInstance(metricsRegistry.decodedRecordsReady));
+        TestUtils.waitForCondition(() -> (Integer) decodedRecordsReady.metricValue() == 3,
+            "The records were not decoded by a decode thread");
+        assertTrue(fetchedRecords().isEmpty());
+
+        // the decoded records are kept while the partition is paused
+        subscriptions.resume(tp0);
+        Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> partitionRecords = fetchedRecords();
+        assertEquals(3, partitionRecords.get(tp0).size());
+        assertEquals(4L, subscriptions.position(tp0).offset);
+        assertEquals(0, decodedRecordsReady.metricValue());
+    }
+
+    @Test
+    public void testDecodedRecordsAreDiscardedAfterSeekWithDecodeThreads() throws Exception {
+        decodeThreads = 1;
+        buildFetcher();
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fullFetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(time.timer(0));
+
+        KafkaMetric decodedRecordsReady = metrics.metrics().get(metrics.metricInstance(metricsRegistry.decodedRecordsReady));
+        TestUtils.waitForCondition(() -> (Integer) decodedRecordsReady.metricValue() == 3,
+            "The records were not decoded by a decode thread");
+
+        subscriptions.seek(tp0, 10);
+        assertTrue(fetchedRecords().isEmpty());
+        assertEquals(10L, subscriptions.position(tp0).offset);
+        assertEquals(0, decodedRecordsReady.metricValue());
+    }
+
+    @Test
+    public void testFetchedBatches() {
+        buildFetcher();
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (long baseOffset : new long[] {0L, 3L}) {
+            MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, CompressionType.GZIP,
+                    TimestampType.CREATE_TIME, baseOffset);
+            for (int i = 0; i < 3; i++)
+                builder.append(0L, "key".getBytes(), "value".getBytes());
+            builder.close();
+        }
+        buffer.flip();
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fullFetchResponse(tp0, MemoryRecords.readableRecords(buffer), Errors.NONE, 100L, 0));
+        consumerClient.poll(time.timer(0));
+
+        // the first batch is returned whole although the position is in the middle of it
+        List<RecordBatch> batches = fetcher.fetchedBatches().get(tp0);
+        assertEquals(2, batches.size());
+        assertEquals(0L, batches.get(0).baseOffset());
+        assertEquals(3L, batches.get(1).baseOffset());
+        for (RecordBatch batch : batches)
+            assertEquals(CompressionType.GZIP, batch.compressionType());
+        assertEquals(6L, subscriptions.position(tp0).offset);
+        assertTrue(fetcher.fetchedBatches().isEmpty());
+    }
+
+    @Test
+    public void testFetchedBatchesAfterFetchedRecords() {
+        buildFetcher(2);
+
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 1);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fullFetchResponse(tp0, this.records, Errors.NONE, 100L, 0));
+        consumerClient.poll(time.timer(0));
+
+        Map<TopicPartition, List<ConsumerRecord<byte[], byte[]>>> partitionRecords = fetchedRecords();
+        assertEquals(2, partitionRecords.get(tp0).size());
+        assertEquals(3L, subscriptions.position(tp0).offset);
+
+        // the batch whose records were partially returned is returned whole
+        List<RecordBatch> batches = fetcher.fetchedBatches().get(tp0);
+        assertEquals(1, batches.size());
+        assertEquals(1L, batches.get(0).baseOffset());
+        assertEquals(4L, subscriptions.position(tp0).offset);
+    }
+
+    @Test
+    public void testFetchedBatchesSkipAbortedTransactions() {
+        buildFetcher(OffsetResetStrategy.EARLIEST, new ByteArrayDeserializer(),
+                new ByteArrayDeserializer(), Integer.MAX_VALUE, IsolationLevel.READ_COMMITTED);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int currentOffset = 0;
+
+        currentOffset += appendTransactionalRecords(buffer, 1L, currentOffset,
+                new SimpleRecord(time.milliseconds(), "key".getBytes(), "value".getBytes()),
+                new SimpleRecord(time.milliseconds(), "key".getBytes(), "value".getBytes()));
+        currentOffset += abortTransaction(buffer, 1L, currentOffset);
+        currentOffset += appendTransactionalRecords(buffer, 2L, currentOffset,
+                new SimpleRecord(time.milliseconds(), "key".getBytes(), "value".getBytes()),
+                new SimpleRecord(time.milliseconds(), "key".getBytes(), "value".getBytes()));
+        commitTransaction(buffer, 2L, currentOffset);
+        buffer.flip();
+
+        List<FetchResponseData.AbortedTransaction> abortedTransactions = Collections.singletonList(
+                new FetchResponseData.AbortedTransaction().setProducerId(1).setFirstOffset(0));
+        assignFromUser(singleton(tp0));
+        subscriptions.seek(tp0, 0);
+
+        assertEquals(1, fetcher.sendFetches());
+        client.prepareResponse(fullFetchResponseWithAbortedTransactions(MemoryRecords.readableRecords(buffer),
+                abortedTransactions, Errors.NONE, 100L, 100L, 0));
+        consumerClient.poll(time.timer(0));
+
+        // neither the aborted batch nor the control batches are returned
+        List<RecordBatch> batches = fetcher.fetchedBatches().get(tp0);
+        assertEquals(1, batches.size());
+        assertEquals(3L, batches.get(0).baseOffset());
+        assertEquals(6L, subscriptions.position(tp0).offset);
+    }
+
     @Test
     public void testMissingLeaderEpochInRecords() {
         buildFetcher();
@@ -4745,7 +4976,9 @@ public class FetcherTest {
                 retryBackoffMs,
                 requestTimeoutMs,
                 isolationLevel,
-                apiVersions);
+                apiVersions,
+                "clientId",
+                decodeThreads);
     }
 
     private void buildDependencies(MetricConfig metricConfig,
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer;
+
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AdaptiveBatchingPolicyTest {
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 10000;
+
+    private final TopicPartition tp = new TopicPartition("test", 0);
+    private final AdaptiveBatchingPolicy policy = new AdaptiveBatchingPolicy();
+
+    @BeforeEach
+    public void setUp() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(ProducerConfig.LI_BATCHING_LATENCY_SLO_MS_CONFIG, 100L);
+        configs.put(ProducerConfig.BATCH_SIZE_CONFIG, BATCH_SIZE);
+        configs.put(ProducerConfig.LI_BATCHING_MAX_BATCH_SIZE_CONFIG, MAX_BATCH_SIZE);
+        configs.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, 5);
+        policy.configure(configs);
+    }
+
+    @Test
+    public void testNoLingerWithoutRecords() {
+        assertEquals(0, policy.lingerMs(tp, 0));
+        assertEquals(BATCH_SIZE, policy.batchSize(tp, 0));
+        assertEquals(0, policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+    }
+
+    @Test
+    public void testNoLingerForFewRecords() {
+        policy.lingerMs(tp, 0);
+        policy.onAppend(tp, 100, 0);
+        // a record every 100 ms is not expected to be followed by another within the latency objective
+        assertEquals(0, policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+        assertEquals(BATCH_SIZE, policy.batchSize(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+    }
+
+    @Test
+    public void testLingerUntilBatchIsFull() {
+        policy.lingerMs(tp, 0);
+        for (long nowMs = 0; nowMs < AdaptiveBatchingPolicy.RATE_WINDOW_MS; nowMs++) {
+            for (int i = 0; i < 10; i++)
+                policy.onAppend(tp, 100, nowMs);
+        }
+        // the moving average of 1000 bytes per ms is 200 bytes per ms after the first window, which fill a batch in 5 ms
+        assertEquals(5, policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+        assertEquals(BATCH_SIZE, policy.batchSize(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+    }
+
+    @Test
+    public void testLargerBatchesAndNoLingerWithProduceLatency() {
+        policy.lingerMs(tp, 0);
+        for (long nowMs = 0; nowMs < AdaptiveBatchingPolicy.RATE_WINDOW_MS; nowMs++) {
+            for (int i = 0; i < 10; i++)
+                policy.onAppend(tp, 100, nowMs);
+        }
+        policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS);
+
+        // the 200 bytes per ms sent during 20 ms are split across the 4 requests the leader can still take
+        policy.onProduceResponse(tp, 20, 1, AdaptiveBatchingPolicy.RATE_WINDOW_MS);
+        assertEquals(BATCH_SIZE, policy.batchSize(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+        assertEquals(5, policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+
+        // the average latency becomes 36 ms, whose 7200 bytes are sent in the only request the leader can still take
+        policy.onProduceResponse(tp, 100, 4, AdaptiveBatchingPolicy.RATE_WINDOW_MS);
+        assertEquals(7200, policy.batchSize(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+        assertEquals(36, policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+    }
+
+    @Test
+    public void testNoLingerWhenProduceLatencyExceedsObjective() {
+        policy.lingerMs(tp, 0);
+        for (long nowMs = 0; nowMs < AdaptiveBatchingPolicy.RATE_WINDOW_MS; nowMs++) {
+            for (int i = 0; i < 10; i++)
+                policy.onAppend(tp, 100, nowMs);
+        }
+        policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS);
+
+        // the latency objective is used up by the produce latency, and each request takes the records of 100 ms
+        policy.onProduceResponse(tp, 100, 4, AdaptiveBatchingPolicy.RATE_WINDOW_MS);
+        assertEquals(0, policy.lingerMs(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+        assertEquals(MAX_BATCH_SIZE, policy.batchSize(tp, AdaptiveBatchingPolicy.RATE_WINDOW_MS));
+    }
+}
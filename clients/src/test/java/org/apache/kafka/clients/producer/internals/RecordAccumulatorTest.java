@@ -16,10 +16,12 @@
  */
 package org.apache.kafka.clients.producer.internals;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.kafka.clients.ApiVersions;
 import org.apache.kafka.clients.NodeApiVersions;
+import org.apache.kafka.clients.producer.BatchingPolicy;
 import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.Partitioner;
 import org.apache.kafka.clients.producer.RecordMetadata;
@@ -57,9 +59,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -296,6 +300,166 @@ public class RecordAccumulatorTest {
             t.join();
     }
 
+    @Test
+    public void testStripedAppendsKeepTheOrderOfEachThread() throws Exception {
+        final int numThreads = 8;
+        final int msgs = 5000;
+        final RecordAccumulator accum = createTestRecordAccumulator(null, 3200,
+            1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 100 * 1024, CompressionType.NONE, 0, 4);
+        List<Thread> threads = new ArrayList<>();
+        Queue<Exception> appendErrors = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int threadIndex = i;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < msgs; j++) {
+                        byte[] value = ByteBuffer.allocate(8).putInt(threadIndex).putInt(j).array();
+                        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+                    }
+                } catch (Exception e) {
+                    appendErrors.add(e);
+                }
+            }));
+        }
+        for (Thread t : threads)
+            t.start();
+        int[] nextSequence = new int[numThreads];
+        int read = 0;
+        // a failed append stops its thread, so its records would never all be drained
+        long deadlineMs = System.currentTimeMillis() + TestUtils.DEFAULT_MAX_WAIT_MS;
+        while (read < numThreads * msgs && appendErrors.isEmpty() && System.currentTimeMillis() < deadlineMs) {
+            Set<Node> nodes = accum.ready(cluster, time.milliseconds()).readyNodes;
+            List<ProducerBatch> batches = accum.drain(cluster, nodes, 5 * 1024, 0).get(node1.id());
+            if (batches != null) {
+                for (ProducerBatch batch : batches) {
+                    for (Record record : batch.records().records()) {
+                        ByteBuffer recordValue = record.value();
+                        int threadIndex = recordValue.getInt();
+                        assertEquals(nextSequence[threadIndex]++, recordValue.getInt());
+                        read++;
+                    }
+                    accum.deallocate(batch);
+                }
+            }
+        }
+
+        for (Thread t : threads)
+            t.join(TestUtils.DEFAULT_MAX_WAIT_MS);
+        assertTrue(appendErrors.isEmpty(), () -> "Appends failed: " + appendErrors);
+        assertEquals(numThreads * msgs, read, "Not all the records were drained in time");
+        assertFalse(accum.hasUndrained());
+    }
+
+    @Test
+    public void testStripedAppendsWithLinger() throws Exception {
+        int lingerMs = 10;
+        RecordAccumulator accum = createTestRecordAccumulator(null, 3200,
+            1024 + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10 * 1024, CompressionType.NONE, lingerMs, 2);
+
+        // the threads of different stripes append to different batches, which linger until one is full
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        appendFromOtherStripe(accum, 2);
+        assertFalse(accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false,
+            time.milliseconds()).newBatchCreated);
+        assertEquals(2, accum.batches().get(tp1).size());
+        assertEquals(0, accum.ready(cluster, time.milliseconds()).readyNodes.size(), "No partitions should be ready.");
+
+        time.sleep(lingerMs);
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+        List<ProducerBatch> batches = accum.drain(cluster, Collections.singleton(node1), Integer.MAX_VALUE,
+            time.milliseconds()).get(node1.id());
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).recordCount);
+
+        // the drained batch is detached from its stripe
+        assertTrue(accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false,
+            time.milliseconds()).newBatchCreated);
+        assertEquals(2, accum.batches().get(tp1).size());
+        assertEquals(2, batches.get(0).recordCount);
+    }
+
+    @Test
+    public void testStripedAppendsWithFullBatch() throws Exception {
+        int batchSize = 1025;
+        RecordAccumulator accum = createTestRecordAccumulator(null, 3200,
+            batchSize + DefaultRecordBatch.RECORD_BATCH_OVERHEAD, 10L * batchSize, CompressionType.NONE, 10, 2);
+
+        appendFromOtherStripe(accum, 2);
+        int appends = expectedNumAppends(batchSize);
+        for (int i = 0; i < appends; i++)
+            accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        assertEquals(0, accum.ready(cluster, time.milliseconds()).readyNodes.size(), "No partitions should be ready.");
+
+        // the full batch is not the first batch, but the partition is ready to send it once it is closed
+        assertTrue(accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, true,
+            time.milliseconds()).abortForNewBatch);
+        assertEquals(2, accum.batches().get(tp1).size());
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+    }
+
+    @Test
+    public void testBatchingPolicy() throws Exception {
+        int policyBatchSize = 2048;
+        AtomicInteger appends = new AtomicInteger();
+        BatchingPolicy batchingPolicy = new BatchingPolicy() {
+            @Override
+            public void configure(Map<String, ?> configs) {
+            }
+
+            @Override
+            public long lingerMs(TopicPartition partition, long nowMs) {
+                return partition.equals(tp1) ? 0 : 1000;
+            }
+
+            @Override
+            public int batchSize(TopicPartition partition, long nowMs) {
+                return policyBatchSize;
+            }
+
+            @Override
+            public void onAppend(TopicPartition partition, int sizeInBytes, long nowMs) {
+                assertEquals(key.length + value.length, sizeInBytes);
+                appends.incrementAndGet();
+            }
+
+            @Override
+            public void onProduceResponse(TopicPartition partition, long latencyMs, int inFlightRequests, long nowMs) {
+            }
+        };
+        RecordAccumulator accum = createTestRecordAccumulator(null, 3200, 1024, 10 * 1024, CompressionType.NONE,
+            1000, 1, batchingPolicy);
+
+        accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        accum.append(tp3, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+        assertEquals(2, appends.get());
+        assertEquals(policyBatchSize, accum.batches().get(tp1).peekFirst().initialCapacity());
+        assertEquals((double) policyBatchSize,
+            metrics.metrics().get(metrics.metricName("batching-batch-size-max", "producer-metrics")).metricValue());
+
+        // only the partition without linger time is ready, although linger.ms has not passed
+        assertEquals(Collections.singleton(node1), accum.ready(cluster, time.milliseconds()).readyNodes);
+        time.sleep(1000);
+        assertEquals(new HashSet<>(Arrays.asList(node1, node2)), accum.ready(cluster, time.milliseconds()).readyNodes);
+    }
+
+    // append a record from a thread which appends to a different stripe than the current thread
+    private void appendFromOtherStripe(RecordAccumulator accum, int appendStripes) throws InterruptedException {
+        AtomicBoolean appended = new AtomicBoolean();
+        Thread thread;
+        do {
+            thread = new Thread(() -> {
+                try {
+                    accum.append(tp1, 0L, key, value, Record.EMPTY_HEADERS, null, maxBlockTimeMs, false, time.milliseconds());
+                    appended.set(true);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        } while (thread.getId() % appendStripes == Thread.currentThread().getId() % appendStripes);
+        thread.start();
+        thread.join();
+        assertTrue(appended.get());
+    }
 
     @Test
     public void testNextReadyCheckDelay() throws Exception {
@@ -1252,6 +1416,32 @@ public class RecordAccumulatorTest {
         long totalSize,
         CompressionType type,
         int lingerMs
+    ) {
+        return createTestRecordAccumulator(txnManager, deliveryTimeoutMs, batchSize, totalSize, type, lingerMs, 1);
+    }
+
+    private RecordAccumulator createTestRecordAccumulator(
+        TransactionManager txnManager,
+        int deliveryTimeoutMs,
+        int batchSize,
+        long totalSize,
+        CompressionType type,
+        int lingerMs,
+        int appendStripes
+    ) {
+        return createTestRecordAccumulator(txnManager, deliveryTimeoutMs, batchSize, totalSize, type, lingerMs,
+            appendStripes, null);
+    }
+
+    private RecordAccumulator createTestRecordAccumulator(
+        TransactionManager txnManager,
+        int deliveryTimeoutMs,
+        int batchSize,
+        long totalSize,
+        CompressionType type,
+        int lingerMs,
+        int appendStripes,
+        BatchingPolicy batchingPolicy
     ) {
         long retryBackoffMs = 100L;
         String metricGrpName = "producer-metrics";
@@ -1268,6 +1458,9 @@ public class RecordAccumulatorTest {
             time,
             new ApiVersions(),
             txnManager,
-            new BufferPool(totalSize, batchSize, metrics, time, metricGrpName));
+            new BufferPool(totalSize, batchSize, metrics, time, metricGrpName),
+            null,
+            appendStripes,
+            batchingPolicy);
     }
 }
@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.clients.producer.internals;
+
+import org.apache.kafka.clients.producer.BufferExhaustedException;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.MockTime;
+import org.apache.kafka.test.TestUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SizeClassedBufferPoolTest {
+    private final MockTime time = new MockTime();
+    private final Metrics metrics = new Metrics(time);
+    private final long maxBlockTimeMs = 10;
+    private final String metricGroup = "TestMetrics";
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    public void teardown() {
+        this.executor.shutdownNow();
+        this.metrics.close();
+    }
+
+    /**
+     * Test that allocations are rounded up to the pooled sizes and that the pooled buffers are recycled
+     */
+    @Test
+    public void testSizeClasses() throws Exception {
+        long totalMemory = 64 * 1024;
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(totalMemory, 1024, 3, false, metrics, time, metricGroup);
+        ByteBuffer small = pool.allocate(1024, maxBlockTimeMs);
+        assertEquals(1024, small.capacity());
+        assertEquals(1024, small.limit());
+        ByteBuffer medium = pool.allocate(1500, maxBlockTimeMs);
+        assertEquals(2048, medium.capacity(), "Buffer should have the next pooled size.");
+        assertEquals(1500, medium.limit(), "Buffer limit should equal requested size.");
+        ByteBuffer large = pool.allocate(5000, maxBlockTimeMs);
+        assertEquals(5000, large.capacity(), "Buffer larger than the pooled sizes should have the requested size.");
+        assertEquals(totalMemory - 1024 - 2048 - 5000, pool.availableMemory());
+
+        small.putInt(1);
+        pool.deallocate(small);
+        pool.deallocate(medium);
+        pool.deallocate(large);
+        assertEquals(totalMemory, pool.availableMemory(), "All memory should be available");
+        assertEquals(totalMemory - 1024 - 2048, pool.unallocatedMemory(), "But the pooled buffers are on the free lists");
+        assertEquals(2, pool.freeSize());
+
+        ByteBuffer recycled = pool.allocate(2000, maxBlockTimeMs);
+        assertSame(medium, recycled);
+        assertEquals(0, recycled.position(), "Recycled buffer should be cleared.");
+        assertEquals(2000, recycled.limit());
+        recycled = pool.allocate(1000, maxBlockTimeMs);
+        assertSame(small, recycled);
+        assertEquals(0, recycled.position(), "Recycled buffer should be cleared.");
+        assertEquals(2, metricValue("bufferpool-free-list-miss-total"), "Only the first allocation of each size should miss");
+        assertEquals(2, metricValue("bufferpool-free-list-hit-total"));
+    }
+
+    /**
+     * Test that the pooled buffers are direct buffers, but not the larger buffers
+     */
+    @Test
+    public void testDirectBuffers() throws Exception {
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(64 * 1024, 1024, 2, true, metrics, time, metricGroup);
+        ByteBuffer pooled = pool.allocate(2048, maxBlockTimeMs);
+        assertTrue(pooled.isDirect());
+        ByteBuffer large = pool.allocate(4096, maxBlockTimeMs);
+        assertFalse(large.isDirect());
+        pool.deallocate(pooled);
+        pool.deallocate(large);
+        assertEquals(1, pool.freeSize());
+        assertSame(pooled, pool.allocate(2048, maxBlockTimeMs));
+    }
+
+    /**
+     * Test that a pooled buffer which was replaced by a larger one while it was used only frees its memory
+     */
+    @Test
+    public void testExpandBufferDeallocation() throws Exception {
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(4096, 1024, 2, false, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(1024, maxBlockTimeMs);
+        pool.deallocate(ByteBuffer.allocate(2048), buffer.capacity());
+        assertEquals(4096, pool.availableMemory());
+        assertEquals(4096, pool.unallocatedMemory());
+        assertEquals(0, pool.freeSize());
+    }
+
+    /**
+     * Test that the memory of the pooled buffers is used to allocate buffers of other sizes
+     */
+    @Test
+    public void testFreeListMemoryIsReclaimed() throws Exception {
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(4096, 1024, 2, false, metrics, time, metricGroup);
+        List<ByteBuffer> buffers = new ArrayList<>();
+        for (int i = 0; i < 4; i++)
+            buffers.add(pool.allocate(1024, maxBlockTimeMs));
+        for (ByteBuffer buffer : buffers)
+            pool.deallocate(buffer);
+        assertEquals(0, pool.unallocatedMemory());
+        assertEquals(4, pool.freeSize());
+
+        ByteBuffer buffer = pool.allocate(4096, maxBlockTimeMs);
+        assertEquals(4096, buffer.capacity());
+        assertEquals(0, pool.availableMemory());
+        assertEquals(0, pool.freeSize());
+        pool.deallocate(buffer);
+        assertEquals(4096, pool.unallocatedMemory());
+    }
+
+    /**
+     * Test that a thread waiting for memory is given a pooled buffer deallocated without the lock
+     */
+    @Test
+    public void testDeallocateToWaitingThread() throws Exception {
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(2048, 1024, 1, false, metrics, time, metricGroup);
+        ByteBuffer buffer = pool.allocate(1024, maxBlockTimeMs);
+        pool.allocate(1024, maxBlockTimeMs);
+
+        Future<ByteBuffer> allocation = executor.submit(() -> pool.allocate(1024, Long.MAX_VALUE));
+        TestUtils.waitForCondition(() -> pool.queued() == 1, "The allocation should wait for memory");
+        pool.deallocate(buffer);
+        assertSame(buffer, allocation.get(30, TimeUnit.SECONDS));
+        assertEquals(0, pool.queued());
+        assertEquals(0, pool.availableMemory());
+    }
+
+    @Test
+    public void testBlockTimeout() throws Exception {
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(2048, 1024, 2, false, metrics, time, metricGroup);
+        pool.allocate(1024, maxBlockTimeMs);
+        assertThrows(BufferExhaustedException.class, () -> pool.allocate(2048, maxBlockTimeMs));
+        assertEquals(0, pool.queued(), "The waiter should be removed after the timeout");
+        assertEquals(1024, pool.availableMemory(), "The memory reserved while waiting should be released");
+    }
+
+    @Test
+    public void testCloseNotifiesWaiters() throws Exception {
+        SizeClassedBufferPool pool = new SizeClassedBufferPool(1024, 1024, 1, false, metrics, time, metricGroup);
+        pool.allocate(1024, maxBlockTimeMs);
+
+        Future<ByteBuffer> allocation = executor.submit(() -> pool.allocate(1024, Long.MAX_VALUE));
+        TestUtils.waitForCondition(() -> pool.queued() == 1, "The allocation should wait for memory");
+        pool.close();
+        TestUtils.assertFutureThrows(allocation, KafkaException.class);
+        assertThrows(KafkaException.class, () -> pool.allocate(1024, maxBlockTimeMs));
+    }
+
+    private double metricValue(String name) {
+        return (double) metrics.metrics().get(metrics.metricName(name, metricGroup)).metricValue();
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.compress;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.DefaultRecordBatch;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ZstdDictionaryTest {
+
+    private ZstdDictionary dictionary;
+
+    @BeforeEach
+    public void setUp() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            samples.add(value(i));
+        dictionary = ZstdFactory.trainDictionary(samples, 4 * 1024);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        while (ZstdDictionary.registered(dictionary.id()) != null)
+            ZstdFactory.unregister(dictionary);
+    }
+
+    private static byte[] value(int i) {
+        return ("{\"memberId\":" + i + ",\"pageKey\":\"profile_view_" + (i % 7) + "\",\"trackingId\":\"" +
+            Integer.toHexString(i * 31) + "\",\"timestamp\":" + (1600000000000L + i) + "}").getBytes();
+    }
+
+    @Test
+    public void testFromBytes() {
+        ZstdDictionary copy = ZstdDictionary.fromBytes(dictionary.bytes().clone());
+        assertEquals(dictionary, copy);
+        assertEquals(dictionary.id(), copy.id());
+        assertEquals(dictionary, ZstdDictionary.fromBase64(dictionary.toBase64()));
+
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBytes(new byte[4]));
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBytes(new byte[16]));
+        byte[] withoutId = dictionary.bytes().clone();
+        ByteBuffer.wrap(withoutId).putInt(4, 0);
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBytes(withoutId));
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.fromBase64("not_base64!"));
+    }
+
+    @Test
+    public void testRegister() {
+        assertNull(ZstdDictionary.registered(dictionary.id()));
+        assertSame(dictionary, ZstdDictionary.register(dictionary));
+        assertSame(dictionary, ZstdDictionary.register(ZstdDictionary.fromBytes(dictionary.bytes().clone())),
+            "An equal dictionary should share the registration");
+        assertEquals(dictionary, ZstdDictionary.registered(dictionary.id()));
+
+        byte[] differentBytes = dictionary.bytes().clone();
+        differentBytes[differentBytes.length - 1]++;
+        assertThrows(IllegalArgumentException.class, () -> ZstdDictionary.register(ZstdDictionary.fromBytes(differentBytes)));
+
+        ZstdFactory.unregister(dictionary);
+        assertEquals(dictionary, ZstdDictionary.registered(dictionary.id()), "The dictionary was registered twice");
+        ZstdFactory.unregister(dictionary);
+        assertNull(ZstdDictionary.registered(dictionary.id()));
+    }
+
+    @Test
+    public void testUnregisterReleasesDigestedDictionaries() {
+        ZstdDictionary.register(dictionary);
+        MemoryRecords records = build(dictionary);
+        records.batches().iterator().next().iterator().next();
+        assertTrue(ZstdFactory.isCached(dictionary));
+
+        ZstdFactory.unregister(dictionary);
+        assertFalse(ZstdFactory.isCached(dictionary));
+        // an unregistered dictionary still compresses, without caching its digested form
+        build(dictionary);
+        assertFalse(ZstdFactory.isCached(dictionary));
+    }
+
+    @Test
+    public void testCompressWithDictionary() {
+        ZstdDictionary.register(dictionary);
+        MemoryRecords withDictionary = build(dictionary);
+        MemoryRecords withoutDictionary = build(null);
+        assertTrue(withDictionary.sizeInBytes() < withoutDictionary.sizeInBytes(),
+            "Expected " + withDictionary.sizeInBytes() + " bytes with the dictionary to be fewer than " +
+                withoutDictionary.sizeInBytes() + " bytes without");
+        assertEquals(dictionary.id(), ZstdDictionary.frameDictionaryId(compressedRecords(withDictionary)));
+
+        int i = 0;
+        for (Record record : withDictionary.batches().iterator().next())
+            assertArrayEquals(value(i++), Utils.toArray(record.value()));
+        assertEquals(10, i);
+    }
+
+    @Test
+    public void testDecompressWithUnknownDictionary() {
+        MemoryRecords records = build(dictionary);
+        RecordBatch batch = records.batches().iterator().next();
+        assertThrows(KafkaException.class, () -> batch.iterator().next());
+    }
+
+    @Test
+    public void testFrameDictionaryIdWithoutDictionary() {
+        assertEquals(0, ZstdDictionary.frameDictionaryId(compressedRecords(build(null))));
+        assertEquals(0, ZstdDictionary.frameDictionaryId(ByteBuffer.wrap(new byte[] {1, 2, 3})));
+        assertNotEquals(0, dictionary.id());
+    }
+
+    private static MemoryRecords build(ZstdDictionary dictionary) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.CURRENT_MAGIC_VALUE,
+            CompressionType.ZSTD, TimestampType.CREATE_TIME, 0L, dictionary);
+        for (int i = 0; i < 10; i++)
+            builder.append(1000L + i, null, value(i));
+        return builder.build();
+    }
+
+    // the zstd frame of the records, which follows the header of the batch
+    private static ByteBuffer compressedRecords(MemoryRecords records) {
+        ByteBuffer buffer = records.buffer().duplicate();
+        buffer.position(buffer.position() + DefaultRecordBatch.RECORD_BATCH_OVERHEAD);
+        return buffer;
+    }
+}
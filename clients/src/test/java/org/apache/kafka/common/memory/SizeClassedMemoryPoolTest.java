@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.common.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+
+public class SizeClassedMemoryPoolTest {
+    private static final int MIN_CLASS_SIZE = 1024;
+    private static final int MAX_CLASS_SIZE = 1024 * 1024;
+    private static final int CLASS_CACHE_CAPACITY = 2;
+    private static final String METRIC_GROUP = "memory-pool-test";
+
+    private Metrics metrics;
+
+    @BeforeEach
+    public void setUp() {
+        metrics = new Metrics();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        metrics.close();
+    }
+
+    private SizeClassedMemoryPool createPool(long maxCachedBytes) {
+        return new SizeClassedMemoryPool(MIN_CLASS_SIZE, MAX_CLASS_SIZE, CLASS_CACHE_CAPACITY, maxCachedBytes,
+            metrics.sensor("allocate_sensor"), metrics, METRIC_GROUP);
+    }
+
+    private double metricValue(String name, int classSize) {
+        MetricName metricName = metrics.metricName(name, METRIC_GROUP,
+            Collections.singletonMap("size-class", String.valueOf(classSize)));
+        return (double) metrics.metric(metricName).metricValue();
+    }
+
+    @Test
+    public void testInvalidConfiguration() {
+        assertThrows(IllegalArgumentException.class, () -> new SizeClassedMemoryPool(0, MAX_CLASS_SIZE,
+            CLASS_CACHE_CAPACITY, Long.MAX_VALUE, metrics.sensor("allocate_sensor"), metrics, METRIC_GROUP));
+        assertThrows(IllegalArgumentException.class, () -> new SizeClassedMemoryPool(MAX_CLASS_SIZE, MIN_CLASS_SIZE,
+            CLASS_CACHE_CAPACITY, Long.MAX_VALUE, metrics.sensor("allocate_sensor"), metrics, METRIC_GROUP));
+        assertThrows(IllegalArgumentException.class, () -> new SizeClassedMemoryPool(MIN_CLASS_SIZE, MAX_CLASS_SIZE,
+            0, Long.MAX_VALUE, metrics.sensor("allocate_sensor"), metrics, METRIC_GROUP));
+    }
+
+    @Test
+    public void testZeroAllocation() {
+        SizeClassedMemoryPool memoryPool = createPool(Long.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> memoryPool.tryAllocate(0));
+    }
+
+    @Test
+    public void testNullRelease() {
+        SizeClassedMemoryPool memoryPool = createPool(Long.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> memoryPool.release(null));
+    }
+
+    @Test
+    public void testAllocationAcrossSizeClasses() {
+        SizeClassedMemoryPool memoryPool = createPool(Long.MAX_VALUE);
+        ByteBuffer tiny = memoryPool.tryAllocate(10);
+        ByteBuffer small = memoryPool.tryAllocate(3000);
+        ByteBuffer large = memoryPool.tryAllocate(MAX_CLASS_SIZE - 1);
+        ByteBuffer huge = memoryPool.tryAllocate(MAX_CLASS_SIZE + 1);
+
+        assertEquals(MIN_CLASS_SIZE, tiny.capacity());
+        assertEquals(10, tiny.limit());
+        assertEquals(4096, small.capacity());
+        assertEquals(3000, small.limit());
+        assertEquals(MAX_CLASS_SIZE, large.capacity());
+        assertEquals(MAX_CLASS_SIZE + 1, huge.capacity());
+
+        memoryPool.release(tiny);
+        memoryPool.release(small);
+        memoryPool.release(large);
+        memoryPool.release(huge);
+        assertEquals(MIN_CLASS_SIZE + 4096 + MAX_CLASS_SIZE, memoryPool.cachedBytes());
+
+        assertSame(tiny, memoryPool.tryAllocate(1000));
+        assertSame(small, memoryPool.tryAllocate(2049));
+        assertSame(large, memoryPool.tryAllocate(MAX_CLASS_SIZE));
+        assertNotSame(huge, memoryPool.tryAllocate(MAX_CLASS_SIZE + 1));
+        assertEquals(0, memoryPool.cachedBytes());
+
+        assertEquals(1.0, metricValue("size-class-hit-total", 4096));
+        assertEquals(1.0, metricValue("size-class-miss-total", 4096));
+        assertEquals(0.0, metricValue("size-class-hit-total", 2048));
+    }
+
+    @Test
+    public void testClassCacheCapacity() {
+        SizeClassedMemoryPool memoryPool = createPool(Long.MAX_VALUE);
+        for (int i = 0; i < CLASS_CACHE_CAPACITY + 1; i++) {
+            memoryPool.release(ByteBuffer.allocate(MIN_CLASS_SIZE));
+        }
+        assertEquals(CLASS_CACHE_CAPACITY * MIN_CLASS_SIZE, memoryPool.cachedBytes());
+    }
+
+    @Test
+    public void testMaxCachedBytes() {
+        SizeClassedMemoryPool memoryPool = createPool(MAX_CLASS_SIZE);
+        memoryPool.release(ByteBuffer.allocate(MAX_CLASS_SIZE / 2));
+        memoryPool.release(ByteBuffer.allocate(MAX_CLASS_SIZE));
+        memoryPool.release(ByteBuffer.allocate(MAX_CLASS_SIZE / 2));
+        assertEquals(MAX_CLASS_SIZE, memoryPool.cachedBytes());
+    }
+
+    @Test
+    public void testBuffersOfOtherSizesAreNotCached() {
+        SizeClassedMemoryPool memoryPool = createPool(Long.MAX_VALUE);
+        memoryPool.release(ByteBuffer.allocate(MIN_CLASS_SIZE + 1));
+        memoryPool.release(ByteBuffer.allocate(MIN_CLASS_SIZE / 2));
+        memoryPool.release(ByteBuffer.allocate(MAX_CLASS_SIZE * 2));
+        assertEquals(0, memoryPool.cachedBytes());
+    }
+}
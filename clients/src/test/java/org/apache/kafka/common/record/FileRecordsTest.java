@@ -121,6 +121,38 @@ public class FileRecordsTest {
         }
     }
 
+    @Test
+    public void testOpenLazily() throws IOException {
+        FileRecords records = createFileRecords(values);
+        records.close();
+        File file = records.file();
+        FileRecords lazyRecords = FileRecords.openLazily(file, records.sizeInBytes());
+        assertFalse(lazyRecords.isOpened());
+        assertEquals(records.sizeInBytes(), lazyRecords.sizeInBytes());
+
+        // the channel is opened when the records are first read, and appends go to the end of the file
+        List<RecordBatch> batches = batches(lazyRecords);
+        assertEquals(values.length, batches.size());
+        assertTrue(lazyRecords.isOpened());
+        lazyRecords.append(MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("mnop".getBytes())));
+        assertEquals(lazyRecords.channel().size(), lazyRecords.sizeInBytes());
+        assertEquals(values.length + 1, batches(lazyRecords).size());
+        lazyRecords.close();
+
+        // a file which does not have the expected size is not opened
+        FileRecords wrongSize = FileRecords.openLazily(file, 1);
+        assertThrows(KafkaException.class, wrongSize::channel);
+        assertFalse(wrongSize.isOpened());
+
+        // closing or deleting records which were never opened does not open or recreate the file
+        FileRecords unopened = FileRecords.openLazily(file, lazyRecords.sizeInBytes());
+        unopened.close();
+        assertTrue(unopened.deleteIfExists());
+        assertFalse(unopened.isOpened());
+        assertThrows(KafkaException.class, unopened::channel);
+        assertFalse(file.exists());
+    }
+
     /**
      * Test that adding invalid bytes to the end of the log doesn't break iteration
      */
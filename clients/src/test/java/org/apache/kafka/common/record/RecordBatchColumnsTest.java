@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.common.record;
+
+import org.apache.kafka.common.InvalidRecordException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.utils.BufferSupplier;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RecordBatchColumnsTest {
+
+    @ParameterizedTest
+    @EnumSource(value = CompressionType.class, names = {"NONE", "GZIP", "LZ4"})
+    public void testRead(CompressionType compressionType) {
+        // more records than the initial capacity of the columns, with values larger than the read buffer
+        int numRecords = 100;
+        byte[] largeValue = new byte[20 * 1024];
+        Header[] headers = new Header[] {new RecordHeader("header", "value".getBytes())};
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), compressionType,
+            TimestampType.CREATE_TIME, 0L);
+        for (int i = 0; i < numRecords; i++) {
+            byte[] key = i % 2 == 0 ? null : Integer.toString(i).getBytes();
+            byte[] value = i % 10 == 0 ? largeValue : "value".getBytes();
+            builder.append(1000L + i, key, value, headers);
+        }
+        DefaultRecordBatch batch = (DefaultRecordBatch) builder.build().batches().iterator().next();
+
+        RecordBatchColumns columns = new RecordBatchColumns();
+        columns.read(batch, BufferSupplier.create());
+
+        assertEquals(numRecords, columns.numRecords());
+        int totalSizeInBytes = 0;
+        Iterator<Record> records = batch.iterator();
+        for (int i = 0; i < numRecords; i++) {
+            Record record = records.next();
+            assertEquals(record.sizeInBytes(), columns.sizeInBytes(i));
+            assertEquals(record.offset(), columns.offsetDelta(i));
+            assertEquals(record.timestamp(), columns.timestamp(i));
+            assertEquals(record.hasKey(), columns.hasKey(i));
+            totalSizeInBytes += record.sizeInBytes();
+        }
+        assertEquals(totalSizeInBytes, columns.totalSizeInBytes());
+        assertTrue(columns.hasSequentialOffsetDeltas());
+        assertFalse(columns.allRecordsHaveKeys());
+        assertEquals(1000L + numRecords - 1, columns.maxTimestamp());
+        assertTrue(columns.timestampsWithin(1000L, numRecords - 1));
+        assertFalse(columns.timestampsWithin(1000L, numRecords - 2));
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressionType.class, names = {"NONE", "GZIP"})
+    public void testReadNonSequentialOffsetDeltas(CompressionType compressionType) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), compressionType,
+            TimestampType.CREATE_TIME, 0L);
+        builder.appendWithOffset(0L, 10L, "a".getBytes(), "a".getBytes());
+        builder.appendWithOffset(2L, 11L, "b".getBytes(), "b".getBytes());
+        DefaultRecordBatch batch = (DefaultRecordBatch) builder.build().batches().iterator().next();
+
+        RecordBatchColumns columns = new RecordBatchColumns();
+        columns.read(batch, BufferSupplier.NO_CACHING);
+
+        assertEquals(2, columns.numRecords());
+        assertFalse(columns.hasSequentialOffsetDeltas());
+        assertTrue(columns.allRecordsHaveKeys());
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = CompressionType.class, names = {"NONE", "GZIP"})
+    public void testReadWithInvalidRecordCount(CompressionType compressionType) {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), compressionType,
+            TimestampType.CREATE_TIME, 0L);
+        builder.append(10L, "a".getBytes(), "a".getBytes());
+        builder.append(11L, "b".getBytes(), "b".getBytes());
+        ByteBuffer buffer = builder.build().buffer();
+
+        RecordBatchColumns columns = new RecordBatchColumns();
+        // fewer records than in the batch leaves records remaining, more reaches the end of the records
+        for (int count : new int[] {1, 3}) {
+            buffer.putInt(DefaultRecordBatch.RECORDS_COUNT_OFFSET, count);
+            DefaultRecordBatch batch = new DefaultRecordBatch(buffer.duplicate());
+            assertThrows(InvalidRecordException.class, () -> columns.read(batch, BufferSupplier.NO_CACHING));
+        }
+    }
+}
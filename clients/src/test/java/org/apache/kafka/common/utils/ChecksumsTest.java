@@ -49,6 +49,20 @@ public class ChecksumsTest {
         doTestUpdateByteBufferWithOffsetPosition(bytes, ByteBuffer.allocateDirect(bytes.length), 2);
     }
 
+    @Test
+    public void testUpdateDirectByteBufferWithOffset() {
+        byte[] bytes = new byte[]{-2, -1, 0, 1, 2, 3, 4, 5};
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.position(1);
+
+        Checksum bufferCrc = Crc32C.create();
+        Checksums.update(bufferCrc, buffer, 2, 4);
+        assertEquals(Crc32C.compute(bytes, 3, 4), bufferCrc.getValue());
+        assertEquals(1, buffer.position());
+        assertEquals(bytes.length, buffer.limit());
+    }
+
     @Test
     public void testUpdateInt() {
         final int value = 1000;
@@ -62,6 +62,17 @@ class DelayedOperations(topicPartition: TopicPartition,
     deleteRecords.checkAndComplete(requestKey)
   }
 
+  /**
+   * Like checkAndCompleteAll, after the high watermark or the low watermark of the leader moved but not its log end
+   * offset, so that only the fetches waiting for the high watermark up to the given one are checked.
+   */
+  def checkAndCompleteAllOnHighWatermark(highWatermark: Long): Unit = {
+    val requestKey = TopicPartitionOperationKey(topicPartition)
+    fetch.checkAndCompleteOnProgress(requestKey, DelayedFetch.HighWatermarkProgress, highWatermark)
+    produce.checkAndComplete(requestKey)
+    deleteRecords.checkAndComplete(requestKey)
+  }
+
   def numDelayedDelete: Int = deleteRecords.numDelayed
 }
 
@@ -706,7 +717,7 @@ class Partition(val topicPartition: TopicPartition,
 
         // some delayed operations may be unblocked after HW or LW changed
         if (leaderLWIncremented || leaderHWIncremented)
-          tryCompleteDelayedRequests()
+          tryCompleteDelayedRequestsOnHighWatermark()
 
         debug(s"Recorded replica $followerId log end offset (LEO) position " +
           s"${followerFetchOffsetMetadata.messageOffset} and log start offset $followerStartOffset.")
@@ -935,6 +946,15 @@ class Partition(val topicPartition: TopicPartition,
    */
   private def tryCompleteDelayedRequests(): Unit = delayedOperations.checkAndCompleteAll()
 
+  /**
+   * Try to complete any pending requests after the high watermark or the low watermark of the leader moved.
+   * This should be called without holding the leaderIsrUpdateLock.
+   */
+  private def tryCompleteDelayedRequestsOnHighWatermark(): Unit = leaderLogIfLocal match {
+    case Some(leaderLog) => delayedOperations.checkAndCompleteAllOnHighWatermark(leaderLog.highWatermark)
+    case None => delayedOperations.checkAndCompleteAll()
+  }
+
   def maybeShrinkIsr(): Unit = {
     val needsIsrUpdate = !isrState.isInflight && inReadLock(leaderIsrUpdateLock) {
       needsShrinkIsr()
@@ -967,7 +987,7 @@ class Partition(val topicPartition: TopicPartition,
 
     // some delayed operations may be unblocked after HW changed
     if (leaderHWIncremented)
-      tryCompleteDelayedRequests()
+      tryCompleteDelayedRequestsOnHighWatermark()
   }
 
   /**
@@ -0,0 +1,356 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util
+import java.util.Optional
+
+import kafka.common.OffsetAndMetadata
+import kafka.utils.nonthreadsafe
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.RecordBatch
+import org.apache.kafka.common.requests.OffsetCommitRequest
+
+import scala.collection.mutable
+
+/**
+ * The committed offsets of a group, stored compactly.
+ *
+ * A coordinator may hold tens of millions of committed offsets. Kept as a map of `TopicPartition` to
+ * [[CommitRecordMetadataAndOffset]], each of them costs a map entry, a topic partition, an offset and metadata, and a few
+ * boxed options, i.e. about ten objects. Here the offsets of a topic are instead kept in arrays of primitives, indexed by
+ * partition or hashed by partition when few partitions are committed, under a single interned topic name, and the objects are only built when an offset is read. Empty metadata
+ * is shared, as is the metadata equal to that of the previous partition of the topic, which is the common case of
+ * consumers committing the same metadata for all their partitions.
+ *
+ * The absent leader epoch, expire timestamp and commit record offset are stored as the values they are written to the
+ * log with when absent.
+ */
+@nonthreadsafe
+private[group] class CommittedOffsets {
+  import CommittedOffsets._
+
+  private val topics = new mutable.HashMap[String, TopicOffsets]
+  // the offsets of the partitions which cannot index an array, which no valid partition should need
+  private val sparseOffsets = new mutable.HashMap[TopicPartition, CommitRecordMetadataAndOffset]
+  private var numOffsets = 0
+
+  def size: Int = numOffsets
+
+  def isEmpty: Boolean = numOffsets == 0
+
+  def nonEmpty: Boolean = !isEmpty
+
+  def contains(topicPartition: TopicPartition): Boolean = {
+    if (isDense(topicPartition.partition)) topics.get(topicPartition.topic).exists(_.contains(topicPartition.partition))
+    else sparseOffsets.contains(topicPartition)
+  }
+
+  def get(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = {
+    if (isDense(topicPartition.partition)) topics.get(topicPartition.topic).flatMap(_.get(topicPartition.partition))
+    else sparseOffsets.get(topicPartition)
+  }
+
+  def offsetAndMetadata(topicPartition: TopicPartition): Option[OffsetAndMetadata] = {
+    if (isDense(topicPartition.partition)) topics.get(topicPartition.topic).flatMap(_.offsetAndMetadata(topicPartition.partition))
+    else sparseOffsets.get(topicPartition).map(_.offsetAndMetadata)
+  }
+
+  def put(topicPartition: TopicPartition, offset: CommitRecordMetadataAndOffset): Unit = {
+    val added = if (isDense(topicPartition.partition)) {
+      val topicOffsets = topics.get(topicPartition.topic) match {
+        case Some(topicOffsets) => topicOffsets
+        case None =>
+          val topicOffsets = new TopicOffsets(topicPartition.topic.intern())
+          topics.put(topicOffsets.topic, topicOffsets)
+          topicOffsets
+      }
+      topicOffsets.put(topicPartition.partition, offset)
+    } else {
+      sparseOffsets.put(topicPartition, offset).isEmpty
+    }
+    if (added)
+      numOffsets += 1
+  }
+
+  def remove(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = {
+    val removed = if (isDense(topicPartition.partition)) {
+      topics.get(topicPartition.topic).flatMap { topicOffsets =>
+        val removed = topicOffsets.remove(topicPartition.partition)
+        if (topicOffsets.isEmpty)
+          topics.remove(topicPartition.topic)
+        removed
+      }
+    } else {
+      sparseOffsets.remove(topicPartition)
+    }
+    if (removed.isDefined)
+      numOffsets -= 1
+    removed
+  }
+
+  def foreach(fun: (TopicPartition, CommitRecordMetadataAndOffset) => Unit): Unit = {
+    topics.values.foreach(_.foreach(fun))
+    sparseOffsets.foreach { case (topicPartition, offset) => fun(topicPartition, offset) }
+  }
+
+  def topicPartitions: Seq[TopicPartition] = {
+    val topicPartitions = Seq.newBuilder[TopicPartition]
+    foreach { (topicPartition, _) => topicPartitions += topicPartition }
+    topicPartitions.result()
+  }
+
+  override def toString: String = {
+    val offsets = new mutable.ArrayBuffer[String](numOffsets)
+    foreach { (topicPartition, offset) => offsets += s"$topicPartition -> $offset" }
+    offsets.mkString("CommittedOffsets(", ", ", ")")
+  }
+}
+
+private[group] object CommittedOffsets {
+  // partitions are dense from 0; this bounds the arrays of a topic, which commits for invalid partitions could grow
+  private val MaxDensePartition = 1 << 16
+  private val NoBatchOffset = -1L
+  private val EmptySlot = -1
+  // the slots of a topic are indexed by partition up to this many partitions, whether or not they are used
+  private val MinDenseCapacity = 16
+  private val MinHashedCapacity = 4
+
+  private def isDense(partition: Int): Boolean = partition >= 0 && partition < MaxDensePartition
+
+  /**
+   * The committed offsets of the partitions of a topic, in parallel arrays of slots. The slots are indexed by partition
+   * while at least half of them are used, which is the common case of a group committing most partitions of its
+   * topics. Otherwise the arrays are an open addressing hash table keyed by partition, with linear probing, so a few
+   * high partitions do not cost arrays as large as the partition numbers.
+   */
+  private class TopicOffsets(val topic: String) {
+    private var hashed = false
+    private var count = 0
+    // the partition of each slot, or EmptySlot
+    private var partitions = new Array[Int](0)
+    private var offsets = new Array[Long](0)
+    private var leaderEpochs = new Array[Int](0)
+    private var commitTimestamps = new Array[Long](0)
+    private var expireTimestamps = new Array[Long](0)
+    private var batchOffsets = new Array[Long](0)
+    private var metadata = new Array[String](0)
+
+    def isEmpty: Boolean = count == 0
+
+    def contains(partition: Int): Boolean = slotOf(partition) >= 0
+
+    def offsetAndMetadata(partition: Int): Option[OffsetAndMetadata] = {
+      val slot = slotOf(partition)
+      if (slot < 0) None else Some(offsetAndMetadataAt(slot))
+    }
+
+    def get(partition: Int): Option[CommitRecordMetadataAndOffset] = {
+      val slot = slotOf(partition)
+      if (slot < 0) None else Some(getAt(slot))
+    }
+
+    /**
+     * @return true if the partition had no committed offset
+     */
+    def put(partition: Int, offset: CommitRecordMetadataAndOffset): Boolean = {
+      var slot = slotOf(partition)
+      val added = slot < 0
+      if (added) {
+        if (!hasFreeSlot(partition))
+          rebuild(partition)
+        slot = freeSlot(partition)
+        partitions(slot) = partition
+        count += 1
+      }
+      val offsetAndMetadata = offset.offsetAndMetadata
+      offsets(slot) = offsetAndMetadata.offset
+      leaderEpochs(slot) = offsetAndMetadata.leaderEpoch.orElse(RecordBatch.NO_PARTITION_LEADER_EPOCH)
+      commitTimestamps(slot) = offsetAndMetadata.commitTimestamp
+      expireTimestamps(slot) = offsetAndMetadata.expireTimestamp.getOrElse(OffsetCommitRequest.DEFAULT_TIMESTAMP)
+      batchOffsets(slot) = offset.appendedBatchOffset.getOrElse(NoBatchOffset)
+      metadata(slot) = sharedMetadata(partition, offsetAndMetadata.metadata)
+      added
+    }
+
+    def remove(partition: Int): Option[CommitRecordMetadataAndOffset] = {
+      val slot = slotOf(partition)
+      if (slot < 0)
+        None
+      else {
+        val removed = getAt(slot)
+        partitions(slot) = EmptySlot
+        metadata(slot) = null
+        count -= 1
+        if (hashed)
+          closeGap(slot)
+        Some(removed)
+      }
+    }
+
+    def foreach(fun: (TopicPartition, CommitRecordMetadataAndOffset) => Unit): Unit = {
+      var slot = 0
+      while (slot < partitions.length) {
+        if (partitions(slot) != EmptySlot)
+          fun(new TopicPartition(topic, partitions(slot)), getAt(slot))
+        slot += 1
+      }
+    }
+
+    private def offsetAndMetadataAt(slot: Int): OffsetAndMetadata = {
+      val leaderEpoch = leaderEpochs(slot)
+      val expireTimestamp = expireTimestamps(slot)
+      OffsetAndMetadata(
+        offset = offsets(slot),
+        leaderEpoch = if (leaderEpoch == RecordBatch.NO_PARTITION_LEADER_EPOCH) Optional.empty() else Optional.of(leaderEpoch),
+        metadata = metadata(slot),
+        commitTimestamp = commitTimestamps(slot),
+        expireTimestamp = if (expireTimestamp == OffsetCommitRequest.DEFAULT_TIMESTAMP) None else Some(expireTimestamp))
+    }
+
+    private def getAt(slot: Int): CommitRecordMetadataAndOffset = {
+      val batchOffset = batchOffsets(slot)
+      CommitRecordMetadataAndOffset(if (batchOffset == NoBatchOffset) None else Some(batchOffset), offsetAndMetadataAt(slot))
+    }
+
+    private def slotOf(partition: Int): Int = {
+      if (!hashed) {
+        if (partition < partitions.length && partitions(partition) == partition) partition else -1
+      } else {
+        val mask = partitions.length - 1
+        var slot = hashSlot(partition)
+        while (partitions(slot) != EmptySlot && partitions(slot) != partition)
+          slot = (slot + 1) & mask
+        if (partitions(slot) == partition) slot else -1
+      }
+    }
+
+    private def hashSlot(partition: Int): Int =
+      (partition * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(partitions.length))
+
+    private def hasFreeSlot(partition: Int): Boolean = {
+      if (hashed) (count + 1) * 4 <= partitions.length * 3
+      else partition < partitions.length
+    }
+
+    private def freeSlot(partition: Int): Int = {
+      if (!hashed)
+        partition
+      else {
+        val mask = partitions.length - 1
+        var slot = hashSlot(partition)
+        while (partitions(slot) != EmptySlot)
+          slot = (slot + 1) & mask
+        slot
+      }
+    }
+
+    /**
+     * Move the entries which probed past a slot that was just emptied, so that every entry stays reachable from the
+     * slot it hashes to.
+     */
+    private def closeGap(emptied: Int): Unit = {
+      val mask = partitions.length - 1
+      var gap = emptied
+      var slot = (gap + 1) & mask
+      while (partitions(slot) != EmptySlot) {
+        // the entry may move to the gap unless it hashes to a slot between the gap and its own slot
+        if (((slot - hashSlot(partitions(slot))) & mask) >= ((slot - gap) & mask)) {
+          moveSlot(slot, gap)
+          gap = slot
+        }
+        slot = (slot + 1) & mask
+      }
+    }
+
+    private def moveSlot(from: Int, to: Int): Unit = {
+      partitions(to) = partitions(from)
+      offsets(to) = offsets(from)
+      leaderEpochs(to) = leaderEpochs(from)
+      commitTimestamps(to) = commitTimestamps(from)
+      expireTimestamps(to) = expireTimestamps(from)
+      batchOffsets(to) = batchOffsets(from)
+      metadata(to) = metadata(from)
+      partitions(from) = EmptySlot
+      metadata(from) = null
+    }
+
+    /**
+     * Reallocate the slots so that they can take one more partition, choosing whether to index them by partition from
+     * the highest partition and the number of partitions once it is added.
+     */
+    private def rebuild(newPartition: Int): Unit = {
+      val newCount = count + 1
+      var maxPartition = newPartition
+      partitions.foreach { partition => maxPartition = math.max(maxPartition, partition) }
+
+      val oldPartitions = partitions
+      val oldOffsets = offsets
+      val oldLeaderEpochs = leaderEpochs
+      val oldCommitTimestamps = commitTimestamps
+      val oldExpireTimestamps = expireTimestamps
+      val oldBatchOffsets = batchOffsets
+      val oldMetadata = metadata
+
+      hashed = maxPartition >= MinDenseCapacity && maxPartition >= 2 * newCount
+      val capacity =
+        if (hashed) math.max(MinHashedCapacity, Integer.highestOneBit(newCount * 2 - 1) << 1)
+        else math.min(MaxDensePartition, math.max(maxPartition + 1, oldPartitions.length + (oldPartitions.length >> 1)))
+      partitions = Array.fill(capacity)(EmptySlot)
+      offsets = new Array[Long](capacity)
+      leaderEpochs = new Array[Int](capacity)
+      commitTimestamps = new Array[Long](capacity)
+      expireTimestamps = new Array[Long](capacity)
+      batchOffsets = new Array[Long](capacity)
+      metadata = new Array[String](capacity)
+
+      var oldSlot = 0
+      while (oldSlot < oldPartitions.length) {
+        val partition = oldPartitions(oldSlot)
+        if (partition != EmptySlot) {
+          val slot = freeSlot(partition)
+          partitions(slot) = partition
+          offsets(slot) = oldOffsets(oldSlot)
+          leaderEpochs(slot) = oldLeaderEpochs(oldSlot)
+          commitTimestamps(slot) = oldCommitTimestamps(oldSlot)
+          expireTimestamps(slot) = oldExpireTimestamps(oldSlot)
+          batchOffsets(slot) = oldBatchOffsets(oldSlot)
+          metadata(slot) = oldMetadata(oldSlot)
+        }
+        oldSlot += 1
+      }
+    }
+
+    private def sharedMetadata(partition: Int, value: String): String = {
+      if (value == null)
+        value
+      else if (value.isEmpty)
+        OffsetAndMetadata.NoMetadata
+      else {
+        val previous = if (partition > 0) slotOf(partition - 1) else -1
+        val next = slotOf(partition + 1)
+        if (previous >= 0 && value == metadata(previous))
+          metadata(previous)
+        else if (next >= 0 && value == metadata(next))
+          metadata(next)
+        else
+          value
+      }
+    }
+  }
+}
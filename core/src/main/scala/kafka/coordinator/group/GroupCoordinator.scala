@@ -1648,7 +1648,10 @@ object GroupCoordinator {
     offsetCommitRequiredAcks = config.offsetCommitRequiredAcks,
     offsetsTopicMaxMessageBytes = config.offsetsTopicMaxMessageBytes,
     offsetsTopicMinInSyncReplicas = config.offsetsTopicMinInSyncReplicas,
-    offsetsTopicMinCompactionLagMs = config.offsetsTopicMinCompactionLagMs
+    offsetsTopicMinCompactionLagMs = config.offsetsTopicMinCompactionLagMs,
+    loadThreads = config.liOffsetsLoadThreads,
+    loadDecodeThreads = config.liOffsetsLoadDecodeThreads,
+    loadIncrementally = config.liOffsetsLoadIncrementalEnable
   )
 
   def apply(config: KafkaConfig,
@@ -209,7 +209,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
   private val pendingMembers = new mutable.HashSet[String]
   private var numMembersAwaitingJoin = 0
   private val supportedProtocols = new mutable.HashMap[String, Integer]().withDefaultValue(0)
-  private val offsets = new mutable.HashMap[TopicPartition, CommitRecordMetadataAndOffset]
+  private val offsets = new CommittedOffsets
   private val pendingOffsetCommits = new mutable.HashMap[TopicPartition, OffsetAndMetadata]
   private val pendingTransactionalOffsetCommits = new mutable.HashMap[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]()
   private var receivedTransactionalOffsetCommits = false
@@ -609,7 +609,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
   def initializeOffsets(offsets: collection.Map[TopicPartition, CommitRecordMetadataAndOffset],
                         pendingTxnOffsets: Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]): Unit = {
-    this.offsets ++= offsets
+    offsets.forKeyValue(this.offsets.put)
     this.pendingTransactionalOffsetCommits ++= pendingTxnOffsets
   }
 
@@ -618,7 +618,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
       if (offsetWithCommitRecordMetadata.appendedBatchOffset.isEmpty)
         throw new IllegalStateException("Cannot complete offset commit write without providing the metadata of the record " +
           "in the log.")
-      if (!offsets.contains(topicPartition) || offsets(topicPartition).olderThan(offsetWithCommitRecordMetadata))
+      if (offsets.get(topicPartition).forall(_.olderThan(offsetWithCommitRecordMetadata)))
         offsets.put(topicPartition, offsetWithCommitRecordMetadata)
     }
 
@@ -726,7 +726,7 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
       )
   }
 
-  def removeAllOffsets(): immutable.Map[TopicPartition, OffsetAndMetadata] = removeOffsets(offsets.keySet.toSeq)
+  def removeAllOffsets(): immutable.Map[TopicPartition, OffsetAndMetadata] = removeOffsets(offsets.topicPartitions)
 
   def removeOffsets(topicPartitions: Seq[TopicPartition]): immutable.Map[TopicPartition, OffsetAndMetadata] = {
     topicPartitions.flatMap { topicPartition =>
@@ -743,9 +743,9 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
 
     def getExpiredOffsets(baseTimestamp: CommitRecordMetadataAndOffset => Long,
                           subscribedTopics: Set[String] = Set.empty): Map[TopicPartition, OffsetAndMetadata] = {
-      offsets.filter {
-        case (topicPartition, commitRecordMetadataAndOffset) =>
-          !subscribedTopics.contains(topicPartition.topic()) &&
+      val expiredOffsets = Map.newBuilder[TopicPartition, OffsetAndMetadata]
+      offsets.foreach { (topicPartition, commitRecordMetadataAndOffset) =>
+        val expired = !subscribedTopics.contains(topicPartition.topic()) &&
           !pendingOffsetCommits.contains(topicPartition) && {
             commitRecordMetadataAndOffset.offsetAndMetadata.expireTimestamp match {
               case None =>
@@ -756,10 +756,10 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
                 currentTimestamp >= expireTimestamp
             }
           }
-      }.map {
-        case (topicPartition, commitRecordOffsetAndMetadata) =>
-          (topicPartition, commitRecordOffsetAndMetadata.offsetAndMetadata)
-      }.toMap
+        if (expired)
+          expiredOffsets += topicPartition -> commitRecordMetadataAndOffset.offsetAndMetadata
+      }
+      expiredOffsets.result()
     }
 
     val expiredOffsets: Map[TopicPartition, OffsetAndMetadata] = protocolType match {
@@ -796,15 +796,19 @@ private[group] class GroupMetadata(val groupId: String, initialState: GroupState
     if (expiredOffsets.nonEmpty)
       debug(s"Expired offsets from group '$groupId': ${expiredOffsets.keySet}")
 
-    offsets --= expiredOffsets.keySet
+    expiredOffsets.keys.foreach(offsets.remove)
     expiredOffsets
   }
 
-  def allOffsets: Map[TopicPartition, OffsetAndMetadata] = offsets.map { case (topicPartition, commitRecordMetadataAndOffset) =>
-    (topicPartition, commitRecordMetadataAndOffset.offsetAndMetadata)
-  }.toMap
+  def allOffsets: Map[TopicPartition, OffsetAndMetadata] = {
+    val allOffsets = Map.newBuilder[TopicPartition, OffsetAndMetadata]
+    offsets.foreach { (topicPartition, commitRecordMetadataAndOffset) =>
+      allOffsets += topicPartition -> commitRecordMetadataAndOffset.offsetAndMetadata
+    }
+    allOffsets.result()
+  }
 
-  def offset(topicPartition: TopicPartition): Option[OffsetAndMetadata] = offsets.get(topicPartition).map(_.offsetAndMetadata)
+  def offset(topicPartition: TopicPartition): Option[OffsetAndMetadata] = offsets.offsetAndMetadata(topicPartition)
 
   // visible for testing
   private[group] def offsetWithRecordMetadata(topicPartition: TopicPartition): Option[CommitRecordMetadataAndOffset] = offsets.get(topicPartition)
@@ -23,13 +23,14 @@ import java.nio.charset.StandardCharsets
 import java.util.Optional
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.locks.ReentrantLock
-import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+import java.util.concurrent.{Callable, ConcurrentHashMap, ExecutionException, ExecutorService, Executors, TimeUnit}
+import java.util.concurrent.atomic.AtomicInteger
 
 import com.yammer.metrics.core.Gauge
 import kafka.api.{ApiVersion, KAFKA_0_10_1_IV0, KAFKA_2_1_IV0, KAFKA_2_1_IV1, KAFKA_2_3_IV0}
 import kafka.common.OffsetAndMetadata
 import kafka.internals.generated.{GroupMetadataValue, OffsetCommitKey, OffsetCommitValue, GroupMetadataKey => GroupMetadataKeyData}
-import kafka.log.AppendOrigin
+import kafka.log.{AppendOrigin, Log}
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{FetchLogEnd, ReplicaManager, RequestLocal}
 import kafka.utils.CoreUtils.inLock
@@ -45,7 +46,7 @@ import org.apache.kafka.common.record._
 import org.apache.kafka.common.requests.OffsetFetchResponse.PartitionData
 import org.apache.kafka.common.requests.ProduceResponse.PartitionResponse
 import org.apache.kafka.common.requests.{OffsetCommitRequest, OffsetFetchResponse}
-import org.apache.kafka.common.utils.{Time, Utils}
+import org.apache.kafka.common.utils.{KafkaThread, Time, Utils}
 import org.apache.kafka.common.{KafkaException, MessageFormatter, TopicPartition}
 
 import scala.collection._
@@ -72,6 +73,10 @@ class GroupMetadataManager(brokerId: Int,
   /* partitions of consumer groups that are assigned, using the same loading partition lock */
   private val ownedPartitions: mutable.Set[Int] = mutable.Set()
 
+  /* groups of the loading partitions whose final state is loaded, which are available before the rest of their partition
+   * when loading incrementally, using the same loading partition lock */
+  private val finalGroupsOfLoadingPartitions: mutable.Map[Int, mutable.Set[String]] = mutable.Map()
+
   /* shutting down flag */
   private val shuttingDown = new AtomicBoolean(false)
 
@@ -81,6 +86,23 @@ class GroupMetadataManager(brokerId: Int,
   /* single-thread scheduler to handle offset/group metadata cache loading and unloading */
   private val scheduler = new KafkaScheduler(threads = 1, threadNamePrefix = "group-metadata-manager-")
 
+  /* single-thread schedulers to load and unload several offsets partitions concurrently. The tasks of a partition always
+   * run on the same scheduler, so that they stay ordered. If there is a single loading thread, the scheduler above is used */
+  private val partitionSchedulers: Seq[KafkaScheduler] =
+    if (config.loadThreads > 1)
+      Seq.tabulate(config.loadThreads)(i => new KafkaScheduler(threads = 1, threadNamePrefix = s"group-metadata-loader-$i-"))
+    else
+      Seq.empty
+
+  /* pool decoding the records of the offsets partitions being loaded, see decodeBatches */
+  private val loadDecodeExecutor: Option[ExecutorService] = if (config.loadDecodeThreads > 0) {
+    val threadCounter = new AtomicInteger(0)
+    Some(Executors.newFixedThreadPool(config.loadDecodeThreads,
+      (runnable: Runnable) => KafkaThread.daemon(s"group-metadata-decoder-${threadCounter.getAndIncrement()}", runnable)))
+  } else {
+    None
+  }
+
   /* The groups with open transactional offsets commits per producer. We need this because when the commit or abort
    * marker comes in for a transaction, it is for a particular partition on the offsets topic and a particular producerId.
    * We use this structure to quickly find the groups which need to be updated by the commit/abort marker. */
@@ -99,6 +121,15 @@ class GroupMetadataManager(brokerId: Int,
     GroupMetadataManager.MetricsGroup,
     "The avg time it took to load the partitions in the last 30sec"), new Avg())
 
+  private val groupLoadSensor = metrics.sensor(GroupMetadataManager.GroupLoadTimeSensor)
+
+  groupLoadSensor.add(metrics.metricName("group-load-time-max",
+    GroupMetadataManager.MetricsGroup,
+    "The max time it took for the groups to be loaded since the loading of their partition was scheduled in the last 30sec"), new Max())
+  groupLoadSensor.add(metrics.metricName("group-load-time-avg",
+    GroupMetadataManager.MetricsGroup,
+    "The avg time it took for the groups to be loaded since the loading of their partition was scheduled in the last 30sec"), new Avg())
+
   val offsetCommitsSensor: Sensor = metrics.sensor("OffsetCommits")
 
   offsetCommitsSensor.add(new Meter(
@@ -174,6 +205,7 @@ class GroupMetadataManager(brokerId: Int,
   def startup(retrieveGroupMetadataTopicPartitionCount: () => Int, enableMetadataExpiration: Boolean): Unit = {
     groupMetadataTopicPartitionCount = retrieveGroupMetadataTopicPartitionCount()
     scheduler.startup()
+    partitionSchedulers.foreach(_.startup())
     if (enableMetadataExpiration) {
       scheduler.schedule(name = "delete-expired-group-metadata",
         fun = () => cleanupGroupMetadata(),
@@ -190,9 +222,26 @@ class GroupMetadataManager(brokerId: Int,
 
   def partitionFor(groupId: String): Int = Utils.abs(groupId.hashCode) % groupMetadataTopicPartitionCount
 
-  def isGroupLocal(groupId: String): Boolean = isPartitionOwned(partitionFor(groupId))
+  def isGroupLocal(groupId: String): Boolean = inLock(partitionLock) {
+    val partition = partitionFor(groupId)
+    ownedPartitions.contains(partition) || isFinalGroupOfLoadingPartition(partition, groupId)
+  }
+
+  def isGroupLoading(groupId: String): Boolean = inLock(partitionLock) {
+    val partition = partitionFor(groupId)
+    loadingPartitions.contains(partition) && !isFinalGroupOfLoadingPartition(partition, groupId)
+  }
 
-  def isGroupLoading(groupId: String): Boolean = isPartitionLoading(partitionFor(groupId))
+  private def isFinalGroupOfLoadingPartition(partition: Int, groupId: String): Boolean =
+    finalGroupsOfLoadingPartitions.get(partition).exists(_.contains(groupId))
+
+  /**
+   * Make a group of a loading partition available once its final state is loaded
+   */
+  private def addFinalGroup(partition: Int, groupId: String): Unit = inLock(partitionLock) {
+    if (loadingPartitions.contains(partition))
+      finalGroupsOfLoadingPartitions.getOrElseUpdate(partition, mutable.Set[String]()).add(groupId)
+  }
 
   def isLoading: Boolean = inLock(partitionLock) { loadingPartitions.nonEmpty }
 
@@ -538,9 +587,14 @@ class GroupMetadataManager(brokerId: Int,
     val topicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition)
     info(s"Scheduling loading of offsets and group metadata from $topicPartition for epoch $coordinatorEpoch")
     val startTimeMs = time.milliseconds()
-    scheduler.schedule(topicPartition.toString, () => loadGroupsAndOffsets(topicPartition, coordinatorEpoch, onGroupLoaded, startTimeMs))
+    schedulerFor(offsetsPartition).schedule(topicPartition.toString,
+      () => loadGroupsAndOffsets(topicPartition, coordinatorEpoch, onGroupLoaded, startTimeMs))
   }
 
+  private def schedulerFor(offsetsPartition: Int): KafkaScheduler =
+    if (partitionSchedulers.isEmpty) scheduler
+    else partitionSchedulers(offsetsPartition % partitionSchedulers.size)
+
   private[group] def loadGroupsAndOffsets(
     topicPartition: TopicPartition,
     coordinatorEpoch: Int,
@@ -556,7 +610,7 @@ class GroupMetadataManager(brokerId: Int,
       try {
         val schedulerTimeMs = time.milliseconds() - startTimeMs
         debug(s"Started loading offsets and group metadata from $topicPartition for epoch $coordinatorEpoch")
-        doLoadGroupsAndOffsets(topicPartition, onGroupLoaded)
+        doLoadGroupsAndOffsets(topicPartition, onGroupLoaded, startTimeMs)
         val endTimeMs = time.milliseconds()
         val totalLoadingTimeMs = endTimeMs - startTimeMs
         partitionLoadSensor.record(totalLoadingTimeMs.toDouble, endTimeMs, false)
@@ -569,132 +623,131 @@ class GroupMetadataManager(brokerId: Int,
         inLock(partitionLock) {
           ownedPartitions.add(topicPartition.partition)
           loadingPartitions.remove(topicPartition.partition)
+          finalGroupsOfLoadingPartitions.remove(topicPartition.partition)
         }
       }
     }
   }
 
-  private def doLoadGroupsAndOffsets(topicPartition: TopicPartition, onGroupLoaded: GroupMetadata => Unit): Unit = {
-    def logEndOffset: Long = replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
+  private def doLoadGroupsAndOffsets(topicPartition: TopicPartition, onGroupLoaded: GroupMetadata => Unit, startTimeMs: Long): Unit = {
+    def groupLoaded(group: GroupMetadata): Unit = {
+      onGroupLoaded(group)
+      val nowMs = time.milliseconds()
+      groupLoadSensor.record((nowMs - startTimeMs).toDouble, nowMs, false)
+    }
 
     replicaManager.getLog(topicPartition) match {
       case None =>
         warn(s"Attempted to load offsets and group metadata from $topicPartition, but found no log")
 
       case Some(log) =>
-        val loadedOffsets = mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]()
+        val loadedOffsets = mutable.Map[String, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]()
         val pendingOffsets = mutable.Map[Long, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]]()
         val loadedGroups = mutable.Map[String, GroupMetadata]()
         val removedGroups = mutable.Set[String]()
 
-        // buffer may not be needed if records are read from memory
-        var buffer = ByteBuffer.allocate(0)
-
-        // loop breaks if leader changes at any time during the load, since logEndOffset is -1
-        var currOffset = log.logStartOffset
-
-        // loop breaks if no records have been read, since the end of the log has been reached
-        var readAtLeastOneRecord = true
-
-        while (currOffset < logEndOffset && readAtLeastOneRecord && !shuttingDown.get()) {
-          val fetchDataInfo = log.read(currOffset,
-            maxLength = config.loadBufferSize,
-            isolation = FetchLogEnd,
-            minOneMessage = true)
-
-          readAtLeastOneRecord = fetchDataInfo.records.sizeInBytes > 0
-
-          val memRecords = (fetchDataInfo.records: @unchecked) match {
-            case records: MemoryRecords => records
-            case fileRecords: FileRecords =>
-              val sizeInBytes = fileRecords.sizeInBytes
-              val bytesNeeded = Math.max(config.loadBufferSize, sizeInBytes)
-
-              // minOneMessage = true in the above log.read means that the buffer may need to be grown to ensure progress can be made
-              if (buffer.capacity < bytesNeeded) {
-                if (config.loadBufferSize < bytesNeeded)
-                  warn(s"Loaded offsets and group metadata from $topicPartition with buffer larger ($bytesNeeded bytes) than " +
-                    s"configured offsets.load.buffer.size (${config.loadBufferSize} bytes)")
+        // when loading incrementally, the groups are made available as soon as the last batch changing their state is
+        // loaded. Only the records up to the current log end offset are loaded, since the groups made available may
+        // append records while the partition is loading; the records of such a group are skipped if they are read.
+        val (loadEndOffset, groupsFinalAt) =
+          if (config.loadIncrementally) {
+            val loadEndOffset = replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
+            (loadEndOffset, indexFinalBatches(log, topicPartition, loadEndOffset))
+          } else {
+            (Long.MaxValue, mutable.LongMap.empty[ArrayBuffer[String]])
+          }
+        val finalGroups = mutable.Set[String]()
 
-                buffer = ByteBuffer.allocate(bytesNeeded)
-              } else {
-                buffer.clear()
-              }
+        def removeGroup(groupId: String, hasOffsets: Boolean): Unit = {
+          // if the cache already contains a group which should be removed, raise an error. Note that it
+          // is possible (however unlikely) for a consumer group to be removed, and then to be used only for
+          // offset storage (i.e. by "simple" consumers)
+          if (groupMetadataCache.contains(groupId) && !hasOffsets)
+            throw new IllegalStateException(s"Unexpected unload of active group $groupId while " +
+              s"loading partition $topicPartition")
+        }
 
-              fileRecords.readInto(buffer, 0)
-              MemoryRecords.readableRecords(buffer)
+        // the group has no pending offsets once its state is final, since the markers of its transactions are loaded
+        def loadFinalGroup(groupId: String): Unit = {
+          finalGroups.add(groupId)
+          val offsets = loadedOffsets.remove(groupId).getOrElse(Map.empty[TopicPartition, CommitRecordMetadataAndOffset])
+          val group = loadedGroups.remove(groupId).orElse {
+            if (offsets.nonEmpty) Some(new GroupMetadata(groupId, Empty, time)) else None
           }
+          group.foreach { group =>
+            debug(s"Loaded group metadata $group with offsets $offsets")
+            loadGroup(group, offsets, Map.empty)
+            groupLoaded(group)
+          }
+          if (removedGroups.remove(groupId))
+            removeGroup(groupId, offsets.nonEmpty)
+          addFinalGroup(topicPartition.partition, groupId)
+        }
 
-          memRecords.batches.forEach { batch =>
-            val isTxnOffsetCommit = batch.isTransactional
-            if (batch.isControlBatch) {
-              val recordIterator = batch.iterator
-              if (recordIterator.hasNext) {
-                val record = recordIterator.next()
-                val controlRecord = ControlRecordType.parse(record.key)
+        readRecords(log, topicPartition, loadEndOffset) { memRecords =>
+          decodeBatches(memRecords).foreach {
+            case LoadedControlBatch(producerId, controlRecord, nextOffset) =>
+              controlRecord.foreach { controlRecord =>
                 if (controlRecord == ControlRecordType.COMMIT) {
-                  pendingOffsets.getOrElse(batch.producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
+                  pendingOffsets.getOrElse(producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
                     .foreach {
                       case (groupTopicPartition, commitRecordMetadataAndOffset) =>
-                        if (!loadedOffsets.contains(groupTopicPartition) || loadedOffsets(groupTopicPartition).olderThan(commitRecordMetadataAndOffset))
-                          loadedOffsets.put(groupTopicPartition, commitRecordMetadataAndOffset)
+                        val groupOffsets = loadedOffsets.getOrElseUpdate(groupTopicPartition.group,
+                          mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]())
+                        val committedPartition = groupTopicPartition.topicPartition
+                        if (!groupOffsets.contains(committedPartition) || groupOffsets(committedPartition).olderThan(commitRecordMetadataAndOffset))
+                          groupOffsets.put(committedPartition, commitRecordMetadataAndOffset)
                     }
                 }
-                pendingOffsets.remove(batch.producerId)
+                pendingOffsets.remove(producerId)
               }
-            } else {
-              var batchBaseOffset: Option[Long] = None
-              for (record <- batch.asScala) {
-                require(record.hasKey, "Group metadata/offset entry key should not be null")
-                if (batchBaseOffset.isEmpty)
-                  batchBaseOffset = Some(record.offset)
-                GroupMetadataManager.readMessageKey(record.key) match {
-
-                  case offsetKey: OffsetKey =>
-                    if (isTxnOffsetCommit && !pendingOffsets.contains(batch.producerId))
-                      pendingOffsets.put(batch.producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
-
-                    // load offset
-                    val groupTopicPartition = offsetKey.key
-                    if (!record.hasValue) {
+              groupsFinalAt.remove(nextOffset - 1).foreach(_.foreach(loadFinalGroup))
+
+            case LoadedDataBatch(producerId, isTxnOffsetCommit, batchBaseOffset, records, nextOffset) =>
+              records.foreach {
+                case LoadedOffset(groupTopicPartition, _) if finalGroups.contains(groupTopicPartition.group) =>
+                  // the group is already loaded
+
+                case LoadedOffset(groupTopicPartition, offsetAndMetadataOpt) =>
+                  if (isTxnOffsetCommit && !pendingOffsets.contains(producerId))
+                    pendingOffsets.put(producerId, mutable.Map[GroupTopicPartition, CommitRecordMetadataAndOffset]())
+
+                  // load offset
+                  offsetAndMetadataOpt match {
+                    case None =>
                       if (isTxnOffsetCommit)
-                        pendingOffsets(batch.producerId).remove(groupTopicPartition)
+                        pendingOffsets(producerId).remove(groupTopicPartition)
                       else
-                        loadedOffsets.remove(groupTopicPartition)
-                    } else {
-                      val offsetAndMetadata = GroupMetadataManager.readOffsetMessageValue(record.value)
+                        loadedOffsets.get(groupTopicPartition.group).foreach(_.remove(groupTopicPartition.topicPartition))
+                    case Some(offsetAndMetadata) =>
                       if (isTxnOffsetCommit)
-                        pendingOffsets(batch.producerId).put(groupTopicPartition, CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata))
+                        pendingOffsets(producerId).put(groupTopicPartition, CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata))
                       else
-                        loadedOffsets.put(groupTopicPartition, CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata))
-                    }
+                        loadedOffsets.getOrElseUpdate(groupTopicPartition.group, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]())
+                          .put(groupTopicPartition.topicPartition, CommitRecordMetadataAndOffset(batchBaseOffset, offsetAndMetadata))
+                  }
+
+                case LoadedGroupMetadata(groupId, _) if finalGroups.contains(groupId) =>
+                  // the group is already loaded
 
-                  case groupMetadataKey: GroupMetadataKey =>
-                    // load group metadata
-                    val groupId = groupMetadataKey.key
-                    val groupMetadata = GroupMetadataManager.readGroupMessageValue(groupId, record.value, time)
-                    if (groupMetadata != null) {
+                case LoadedGroupMetadata(groupId, groupMetadataOpt) =>
+                  // load group metadata
+                  groupMetadataOpt match {
+                    case Some(groupMetadata) =>
                       removedGroups.remove(groupId)
                       loadedGroups.put(groupId, groupMetadata)
-                    } else {
+                    case None =>
                       loadedGroups.remove(groupId)
                       removedGroups.add(groupId)
-                    }
-
-                  case unknownKey =>
-                    throw new IllegalStateException(s"Unexpected message key $unknownKey while loading offsets and group metadata")
-                }
+                  }
               }
-            }
-            currOffset = batch.nextOffset
+              groupsFinalAt.remove(nextOffset - 1).foreach(_.foreach(loadFinalGroup))
           }
         }
 
         val (groupOffsets, emptyGroupOffsets) = loadedOffsets
-          .groupBy(_._1.group)
-          .map { case (k, v) =>
-            k -> v.map { case (groupTopicPartition, offset) => (groupTopicPartition.topicPartition, offset) }
-          }.partition { case (group, _) => loadedGroups.contains(group) }
+          .filter { case (_, offsets) => offsets.nonEmpty }
+          .partition { case (group, _) => loadedGroups.contains(group) }
 
         val pendingOffsetsByGroup = mutable.Map[String, mutable.Map[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]]]()
         pendingOffsets.forKeyValue { (producerId, producerOffsets) =>
@@ -718,7 +771,7 @@ class GroupMetadataManager(brokerId: Int,
           val pendingOffsets = pendingGroupOffsets.getOrElse(group.groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
           debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
           loadGroup(group, offsets, pendingOffsets)
-          onGroupLoaded(group)
+          groupLoaded(group)
         }
 
         // load groups which store offsets in kafka, but which have no active members and thus no group
@@ -729,17 +782,159 @@ class GroupMetadataManager(brokerId: Int,
           val pendingOffsets = pendingEmptyGroupOffsets.getOrElse(groupId, Map.empty[Long, mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]])
           debug(s"Loaded group metadata $group with offsets $offsets and pending offsets $pendingOffsets")
           loadGroup(group, offsets, pendingOffsets)
-          onGroupLoaded(group)
+          groupLoaded(group)
         }
 
-        removedGroups.foreach { groupId =>
-          // if the cache already contains a group which should be removed, raise an error. Note that it
-          // is possible (however unlikely) for a consumer group to be removed, and then to be used only for
-          // offset storage (i.e. by "simple" consumers)
-          if (groupMetadataCache.contains(groupId) && !emptyGroupOffsets.contains(groupId))
-            throw new IllegalStateException(s"Unexpected unload of active group $groupId while " +
-              s"loading partition $topicPartition")
+        removedGroups.foreach(groupId => removeGroup(groupId, emptyGroupOffsets.contains(groupId)))
+    }
+  }
+
+  /**
+   * Read the batches of an offsets partition from its log start offset, up to the given end offset or the log end
+   * offset if it is lower.
+   */
+  private def readRecords(log: Log, topicPartition: TopicPartition, endOffset: Long)(fun: MemoryRecords => Unit): Unit = {
+    def logEndOffset: Long = replicaManager.getLogEndOffset(topicPartition).getOrElse(-1L)
+
+    // buffer may not be needed if records are read from memory
+    var buffer = ByteBuffer.allocate(0)
+
+    // loop breaks if leader changes at any time during the load, since logEndOffset is -1
+    var currOffset = log.logStartOffset
+
+    // loop breaks if no records have been read, since the end of the log has been reached
+    var readAtLeastOneRecord = true
+
+    while (currOffset < math.min(endOffset, logEndOffset) && readAtLeastOneRecord && !shuttingDown.get()) {
+      val fetchDataInfo = log.read(currOffset,
+        maxLength = config.loadBufferSize,
+        isolation = FetchLogEnd,
+        minOneMessage = true)
+
+      readAtLeastOneRecord = fetchDataInfo.records.sizeInBytes > 0
+
+      val memRecords = (fetchDataInfo.records: @unchecked) match {
+        case records: MemoryRecords => records
+        case fileRecords: FileRecords =>
+          val sizeInBytes = fileRecords.sizeInBytes
+          val bytesNeeded = Math.max(config.loadBufferSize, sizeInBytes)
+
+          // minOneMessage = true in the above log.read means that the buffer may need to be grown to ensure progress can be made
+          if (buffer.capacity < bytesNeeded) {
+            if (config.loadBufferSize < bytesNeeded)
+              warn(s"Loaded offsets and group metadata from $topicPartition with buffer larger ($bytesNeeded bytes) than " +
+                s"configured offsets.load.buffer.size (${config.loadBufferSize} bytes)")
+
+            buffer = ByteBuffer.allocate(bytesNeeded)
+          } else {
+            buffer.clear()
+          }
+
+          fileRecords.readInto(buffer, 0)
+          MemoryRecords.readableRecords(buffer)
+      }
+
+      fun(memRecords)
+      memRecords.batches.forEach(batch => currOffset = batch.nextOffset)
+    }
+  }
+
+  /**
+   * Find the last batch changing the state of each group of an offsets partition, which is the last batch with a
+   * record of the group, or the last marker of a transaction with offsets of the group if it comes later. The groups
+   * with offsets of a transaction which is still open at the end offset are left out, as their state is only final
+   * once the whole partition is loaded. Only the keys of the records are read.
+   *
+   * @return The groups whose state is final after each batch, by the last offset of the batch
+   */
+  private def indexFinalBatches(log: Log, topicPartition: TopicPartition, endOffset: Long): mutable.LongMap[ArrayBuffer[String]] = {
+    val finalOffsets = mutable.Map[String, Long]()
+    val openTxnGroups = mutable.LongMap[mutable.Set[String]]()
+    readRecords(log, topicPartition, endOffset) { memRecords =>
+      memRecords.batches.forEach { batch =>
+        if (batch.isControlBatch) {
+          if (batch.iterator.hasNext)
+            openTxnGroups.remove(batch.producerId).foreach(_.foreach(finalOffsets.put(_, batch.lastOffset)))
+        } else {
+          batch.forEach { record =>
+            require(record.hasKey, "Group metadata/offset entry key should not be null")
+            val groupId = GroupMetadataManager.readMessageKey(record.key) match {
+              case offsetKey: OffsetKey => offsetKey.key.group
+              case groupMetadataKey: GroupMetadataKey => groupMetadataKey.key
+              case unknownKey =>
+                throw new IllegalStateException(s"Unexpected message key $unknownKey while loading offsets and group metadata")
+            }
+            finalOffsets.put(groupId, batch.lastOffset)
+            if (batch.isTransactional)
+              openTxnGroups.getOrElseUpdate(batch.producerId, mutable.Set[String]()).add(groupId)
+          }
+        }
+      }
+    }
+    openTxnGroups.values.foreach(_.foreach(finalOffsets.remove))
+
+    val groupsFinalAt = mutable.LongMap[ArrayBuffer[String]]()
+    finalOffsets.forKeyValue { (groupId, offset) =>
+      groupsFinalAt.getOrElseUpdate(offset, ArrayBuffer[String]()) += groupId
+    }
+    groupsFinalAt
+  }
+
+  /**
+   * Decode the batches read from an offsets partition. If there is a pool of decoding threads, consecutive ranges of
+   * batches are decoded concurrently; the decoded batches are returned in the order of the log either way.
+   */
+  private def decodeBatches(records: MemoryRecords): Seq[LoadedBatch] = {
+    val batches = records.batches.asScala.toSeq
+    loadDecodeExecutor match {
+      case Some(executor) if batches.size > 1 =>
+        val batchesPerTask = (batches.size + config.loadDecodeThreads - 1) / config.loadDecodeThreads
+        val decodeTasks = batches.grouped(batchesPerTask).map { taskBatches =>
+          executor.submit(new Callable[Seq[LoadedBatch]] {
+            override def call(): Seq[LoadedBatch] = taskBatches.map(decodeBatch)
+          })
+        }.toList
+        decodeTasks.flatMap { decodeTask =>
+          try decodeTask.get
+          catch {
+            case e: ExecutionException => throw e.getCause
+          }
         }
+      case _ =>
+        batches.map(decodeBatch)
+    }
+  }
+
+  private def decodeBatch(batch: RecordBatch): LoadedBatch = {
+    if (batch.isControlBatch) {
+      val recordIterator = batch.iterator
+      val controlRecord =
+        if (recordIterator.hasNext) Some(ControlRecordType.parse(recordIterator.next().key))
+        else None
+      LoadedControlBatch(batch.producerId, controlRecord, batch.nextOffset)
+    } else {
+      var batchBaseOffset: Option[Long] = None
+      val records = new ArrayBuffer[LoadedRecord]
+      for (record <- batch.asScala) {
+        require(record.hasKey, "Group metadata/offset entry key should not be null")
+        if (batchBaseOffset.isEmpty)
+          batchBaseOffset = Some(record.offset)
+        records += (GroupMetadataManager.readMessageKey(record.key) match {
+          case offsetKey: OffsetKey =>
+            val offsetAndMetadata =
+              if (record.hasValue) Some(GroupMetadataManager.readOffsetMessageValue(record.value))
+              else None
+            LoadedOffset(offsetKey.key, offsetAndMetadata)
+
+          case groupMetadataKey: GroupMetadataKey =>
+            val groupId = groupMetadataKey.key
+            LoadedGroupMetadata(groupId, Option(GroupMetadataManager.readGroupMessageValue(groupId, record.value, time)))
+
+          case unknownKey =>
+            throw new IllegalStateException(s"Unexpected message key $unknownKey while loading offsets and group metadata")
+        })
+      }
+      LoadedDataBatch(batch.producerId, batch.isTransactional, batchBaseOffset, records, batch.nextOffset)
     }
   }
 
@@ -767,7 +962,8 @@ class GroupMetadataManager(brokerId: Int,
                                onGroupUnloaded: GroupMetadata => Unit): Unit = {
     val topicPartition = new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition)
     info(s"Scheduling unloading of offsets and group metadata from $topicPartition")
-    scheduler.schedule(topicPartition.toString, () => removeGroupsAndOffsets(topicPartition, coordinatorEpoch, onGroupUnloaded))
+    schedulerFor(offsetsPartition).schedule(topicPartition.toString,
+      () => removeGroupsAndOffsets(topicPartition, coordinatorEpoch, onGroupUnloaded))
   }
 
   private [group] def removeGroupsAndOffsets(topicPartition: TopicPartition,
@@ -785,6 +981,7 @@ class GroupMetadataManager(brokerId: Int,
         // to prevent coordinator's check-and-get-group race condition
         ownedPartitions.remove(offsetsPartition)
         loadingPartitions.remove(offsetsPartition)
+        finalGroupsOfLoadingPartitions.remove(offsetsPartition)
 
         for (group <- groupMetadataCache.values) {
           if (partitionFor(group.groupId) == offsetsPartition) {
@@ -919,11 +1116,13 @@ class GroupMetadataManager(brokerId: Int,
    * to the log. It may be invoked when a group lock is held by the caller, for instance when delayed
    * operations are completed while appending offsets for a group. Since we need to acquire one or
    * more group metadata locks to handle transaction completion, this operation is scheduled on
-   * the scheduler thread to avoid deadlocks.
+   * the scheduler thread to avoid deadlocks. It runs after the loading of the partitions scheduled before it.
    */
   def scheduleHandleTxnCompletion(producerId: Long, completedPartitions: Set[Int], isCommit: Boolean): Unit = {
-    scheduler.schedule(s"handleTxnCompletion-$producerId", () =>
-      handleTxnCompletion(producerId, completedPartitions, isCommit))
+    completedPartitions.groupBy(schedulerFor).forKeyValue { (partitionScheduler, partitions) =>
+      partitionScheduler.schedule(s"handleTxnCompletion-$producerId", () =>
+        handleTxnCompletion(producerId, partitions, isCommit))
+    }
   }
 
   private[group] def handleTxnCompletion(producerId: Long, completedPartitions: Set[Int], isCommit: Boolean): Unit = {
@@ -977,6 +1176,8 @@ class GroupMetadataManager(brokerId: Int,
     shuttingDown.set(true)
     if (scheduler.isStarted)
       scheduler.shutdown()
+    partitionSchedulers.filter(_.isStarted).foreach(_.shutdown())
+    loadDecodeExecutor.foreach(_.shutdown())
 
     // TODO: clear the caches
   }
@@ -1038,6 +1239,7 @@ object GroupMetadataManager {
   // Metrics names
   val MetricsGroup: String = "group-coordinator-metrics"
   val LoadTimeSensor: String = "GroupPartitionLoadTime"
+  val GroupLoadTimeSensor: String = "GroupLoadTime"
 
   /**
    * Generates the key for offset commit message for given (group, topic, partition)
@@ -1359,3 +1561,12 @@ case class GroupMetadataKey(version: Short, key: String) extends BaseKey {
   override def toString: String = key
 }
 
+/* the batches and records of an offsets partition, decoded while loading it */
+private sealed trait LoadedBatch
+private case class LoadedControlBatch(producerId: Long, controlRecord: Option[ControlRecordType], nextOffset: Long) extends LoadedBatch
+private case class LoadedDataBatch(producerId: Long, isTransactional: Boolean, baseOffset: Option[Long],
+                                   records: Seq[LoadedRecord], nextOffset: Long) extends LoadedBatch
+
+private sealed trait LoadedRecord
+private case class LoadedOffset(key: GroupTopicPartition, offsetAndMetadata: Option[OffsetAndMetadata]) extends LoadedRecord
+private case class LoadedGroupMetadata(groupId: String, groupMetadata: Option[GroupMetadata]) extends LoadedRecord
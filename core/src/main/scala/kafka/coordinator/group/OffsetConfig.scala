@@ -39,6 +39,11 @@ import kafka.message.{CompressionCodec, NoCompressionCodec}
  * @param offsetsTopicMaxMessageBytes The maximum record batch size for the offset commit topic
  * @param offsetsTopicMinInSyncReplicas The minimum number of replicas that must acknowledged a write for the write to be considered successful
  * @param offsetsTopicMinCompactionLagMs The minimum time a message will stay un-compacted in the log
+ * @param loadThreads The number of threads loading offsets partitions, so that several partitions can be loaded concurrently.
+ * @param loadDecodeThreads The number of threads decoding the records of the offsets partitions being loaded, or 0 to
+ *                          decode them on the loading threads.
+ * @param loadIncrementally Whether each group of an offsets partition being loaded is made available once the last record
+ *                          changing its state is loaded, rather than once the partition is loaded.
  */
 case class OffsetConfig(maxMetadataSize: Int = OffsetConfig.DefaultMaxMetadataSize,
                         loadBufferSize: Int = OffsetConfig.DefaultLoadBufferSize,
@@ -52,7 +57,10 @@ case class OffsetConfig(maxMetadataSize: Int = OffsetConfig.DefaultMaxMetadataSi
                         offsetCommitRequiredAcks: Short = OffsetConfig.DefaultOffsetCommitRequiredAcks,
                         offsetsTopicMaxMessageBytes: Int = OffsetConfig.DefaultOffsetsTopicMaxMessageBytes,
                         offsetsTopicMinInSyncReplicas: Int = OffsetConfig.DefaultOffsetsTopicMinInSyncReplicas,
-                        offsetsTopicMinCompactionLagMs: Long = OffsetConfig.DefaultOffsetsTopicMinCompactionLagMs)
+                        offsetsTopicMinCompactionLagMs: Long = OffsetConfig.DefaultOffsetsTopicMinCompactionLagMs,
+                        loadThreads: Int = OffsetConfig.DefaultLoadThreads,
+                        loadDecodeThreads: Int = OffsetConfig.DefaultLoadDecodeThreads,
+                        loadIncrementally: Boolean = OffsetConfig.DefaultLoadIncrementally)
 
 object OffsetConfig {
   val DefaultMaxMetadataSize = 4096
@@ -68,4 +76,7 @@ object OffsetConfig {
   val DefaultOffsetsTopicMaxMessageBytes = 20 * 1024 * 1024
   val DefaultOffsetsTopicMinInSyncReplicas = 1
   val DefaultOffsetsTopicMinCompactionLagMs = 0L
+  val DefaultLoadThreads = 1
+  val DefaultLoadDecodeThreads = 0
+  val DefaultLoadIncrementally = false
 }
\ No newline at end of file
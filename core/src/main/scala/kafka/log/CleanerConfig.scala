@@ -29,6 +29,9 @@ package kafka.log
  * @param enableCleaner Allows completely disabling the log cleaner
  * @param hashAlgorithm The hash algorithm to use in key comparison.
  * @param fineGrainedLockEnable Whether the fine grained lock for calculating filthiest log is enabled
+ * @param dedupeBufferOffHeap Whether the deduplication buffer is allocated off-heap (in which case hashAlgorithm is not used)
+ * @param segmentGroupParallelism The maximum number of offset map shards built or segment groups cleaned concurrently, shared by all
+ *                                cleaner threads, and the number of shards of the offset map of each cleaner thread
  */
 case class CleanerConfig(numThreads: Int = 1,
                          dedupeBufferSize: Long = 4*1024*1024L,
@@ -39,5 +42,7 @@ case class CleanerConfig(numThreads: Int = 1,
                          backOffMs: Long = 15 * 1000,
                          enableCleaner: Boolean = true,
                          hashAlgorithm: String = "MD5",
-                         fineGrainedLockEnable: Boolean = true) {
+                         fineGrainedLockEnable: Boolean = true,
+                         dedupeBufferOffHeap: Boolean = false,
+                         segmentGroupParallelism: Int = 1) {
 }
@@ -34,6 +34,7 @@ import kafka.server.checkpoints.LeaderEpochCheckpointFile
 import kafka.server.epoch.LeaderEpochFileCache
 import kafka.server.{BrokerTopicStats, FetchDataInfo, FetchHighWatermark, FetchIsolation, FetchLogEnd, FetchTxnCommitted, LogDirFailureChannel, LogOffsetMetadata, OffsetAndEpoch, PartitionMetadataFile, RequestLocal}
 import kafka.utils._
+import org.apache.kafka.common.compress.{ZstdDictionary, ZstdFactory}
 import org.apache.kafka.common.errors._
 import org.apache.kafka.common.internals.Topic
 import org.apache.kafka.common.message.{DescribeProducersResponseData, FetchResponseData}
@@ -259,6 +260,7 @@ case object RemoteLogStorageDisabled extends LogStartOffsetIncrementReason {
  *                                  is downgraded below 2.8, a topic ID may be lost and a new ID generated upon re-upgrade.
  *                                  If the inter-broker protocol version on a ZK cluster is below 2.8, partition.metadata
  *                                  will be deleted to avoid ID conflicts upon re-upgrade.
+ * @param loadTimes The time spent loading this log from disk, reported by its metrics
  */
 @threadsafe
 class Log(@volatile private var _dir: File,
@@ -277,7 +279,9 @@ class Log(@volatile private var _dir: File,
           private[log] val logDirFailureChannel: LogDirFailureChannel,
           @volatile private var _topicId: Option[Uuid],
           val keepPartitionMetadataFile: Boolean,
-          val rlmEnabled: Boolean = false) extends Logging with KafkaMetricsGroup {
+          val rlmEnabled: Boolean = false,
+          offsetPositionCache: Option[OffsetPositionCache] = None,
+          val loadTimes: LogLoadTimes = LogLoadTimes.Empty) extends Logging with KafkaMetricsGroup {
 
   import kafka.log.Log._
 
@@ -296,6 +300,13 @@ class Log(@volatile private var _dir: File,
   /* last time it was flushed */
   private val lastFlushedTime = new AtomicLong(time.milliseconds)
 
+  // The zstd dictionary of the topic config, which is registered while the log is open so that the batches compressed
+  // with it can be decompressed
+  @volatile private var zstdDictionary: Option[ZstdDictionary] = None
+
+  /* the epoch of the positions this log puts in the offset position cache, renewed whenever the segments change */
+  @volatile private var offsetPositionCacheEpoch = OffsetPositionCache.nextEpoch()
+
   /* The earliest offset which is part of an incomplete transaction. This is used to compute the
    * last stable offset (LSO) in ReplicaManager. Note that it is possible that the "true" first unstable offset
    * gets removed from the log (through record or segment deletion). In this case, the first unstable offset
@@ -328,6 +339,7 @@ class Log(@volatile private var _dir: File,
   }
 
   locally {
+    updateZstdDictionary(config)
     initializePartitionMetadata()
     updateLocalLogStartOffset(logStartOffset)
     if (!remoteLogEnabled())
@@ -392,6 +404,7 @@ class Log(@volatile private var _dir: File,
 
   def updateConfig(newConfig: LogConfig): Unit = {
     val oldConfig = this.config
+    updateZstdDictionary(newConfig)
     this.config = newConfig
     val oldRecordVersion = oldConfig.recordVersion
     val newRecordVersion = newConfig.recordVersion
@@ -401,6 +414,28 @@ class Log(@volatile private var _dir: File,
       initializeLeaderEpochCache()
   }
 
+  /**
+   * Register the zstd dictionary of the config before unregistering the previous one, so that a dictionary kept by the
+   * new config stays registered.
+   */
+  private def updateZstdDictionary(newConfig: LogConfig): Unit = lock synchronized {
+    val oldDictionary = zstdDictionary
+    zstdDictionary = newConfig.zstdDictionary.flatMap { dictionary =>
+      try Some(ZstdDictionary.register(dictionary))
+      catch {
+        case e: IllegalArgumentException =>
+          error(s"Not compressing with the zstd dictionary of the topic config: ${e.getMessage}")
+          None
+      }
+    }
+    oldDictionary.foreach(ZstdFactory.unregister)
+  }
+
+  private def unregisterZstdDictionary(): Unit = lock synchronized {
+    zstdDictionary.foreach(ZstdFactory.unregister)
+    zstdDictionary = None
+  }
+
   private def checkIfMemoryMappedBufferClosed(): Unit = {
     if (isMemoryMappedBufferClosed)
       throw new KafkaStorageException(s"The memory mapped buffer for log of $topicPartition is already closed")
@@ -588,6 +623,10 @@ class Log(@volatile private var _dir: File,
   newGauge(LogMetricNames.LogStartOffset, () => logStartOffset, tags)
   newGauge(LogMetricNames.LogEndOffset, () => logEndOffset, tags)
   newGauge(LogMetricNames.Size, () => size, tags)
+  newGauge(LogMetricNames.LoadTimeMs, () => loadTimes.totalMs, tags)
+  newGauge(LogMetricNames.SegmentLoadTimeMs, () => loadTimes.segmentLoadMs, tags)
+  newGauge(LogMetricNames.SegmentRecoveryTimeMs, () => loadTimes.segmentRecoveryMs, tags)
+  newGauge(LogMetricNames.ProducerStateRecoveryTimeMs, () => loadTimes.producerStateRecoveryMs, tags)
 
   val producerExpireCheck = scheduler.schedule(name = "PeriodicProducerExpirationCheck", fun = () => {
     lock synchronized {
@@ -741,6 +780,7 @@ class Log(@volatile private var _dir: File,
         producerStateManager.takeSnapshot()
         segments.close()
       }
+      unregisterZstdDictionary()
     }
   }
 
@@ -786,6 +826,7 @@ class Log(@volatile private var _dir: File,
     lock synchronized {
       segments.closeHandlers()
       isMemoryMappedBufferClosed = true
+      unregisterZstdDictionary()
     }
   }
 
@@ -968,7 +1009,8 @@ class Log(@volatile private var _dir: File,
                 brokerTopicStats,
                 requestLocal.getOrElse(throw new IllegalArgumentException(
                   "requestLocal should be defined if assignOffsets is true")),
-                config.producerBatchDecompressionEnable)
+                config.producerBatchDecompressionEnable,
+                zstdDictionary)
             } catch {
               case e: IOException =>
                 throw new KafkaException(s"Error validating messages while appending to log $name", e)
@@ -1214,9 +1256,7 @@ class Log(@volatile private var _dir: File,
         // if this is a client produce request, there will be up to 5 batches which could have been duplicated.
         // If we find a duplicate, we return the metadata of the appended batch to the client.
         if (origin == AppendOrigin.Client) {
-          val maybeLastEntry = producerStateManager.lastEntry(batch.producerId)
-
-          maybeLastEntry.flatMap(_.findDuplicateBatch(batch)).foreach { duplicate =>
+          producerStateManager.findDuplicateBatch(batch).foreach { duplicate =>
             return (updatedProducers, completedTxns.toList, Some(duplicate))
           }
         }
@@ -1414,23 +1454,45 @@ class Log(@volatile private var _dir: File,
         // Do the read on the segment with a base offset less than the target offset
         // but if that segment doesn't contain any messages with an offset greater than that
         // continue to read from successive segments until we get some messages or we reach the end of the log
+        def maxPosition(segment: LogSegment): Long =
+          // Use the max offset position if it is on this segment; otherwise, the segment size is the limit.
+          if (maxOffsetMetadata.segmentBaseOffset == segment.baseOffset) maxOffsetMetadata.relativePositionInSegment
+          else segment.size
+
         var fetchDataInfo: FetchDataInfo = null
+        var fetchSegment: LogSegment = null
+
+        // Read from the position cached for the start offset, if it was resolved since the segments last changed
+        val cacheEpoch = offsetPositionCacheEpoch
+        offsetPositionCache.flatMap(_.get(topicPartition, startOffset, cacheEpoch)).foreach { cached =>
+          segments.get(cached.segmentBaseOffset).foreach { segment =>
+            if (offsetPositionCacheEpoch == cacheEpoch) {
+              fetchDataInfo = segment.readAt(startOffset, cached.offsetPosition, maxLength, maxPosition(segment), minOneMessage)
+              fetchSegment = segment
+            }
+          }
+        }
+
         while (fetchDataInfo == null && segmentOpt.isDefined) {
           val segment = segmentOpt.get
           val baseOffset = segment.baseOffset
 
-          val maxPosition =
-            // Use the max offset position if it is on this segment; otherwise, the segment size is the limit.
-            if (maxOffsetMetadata.segmentBaseOffset == segment.baseOffset) maxOffsetMetadata.relativePositionInSegment
-            else segment.size
-
-          fetchDataInfo = segment.read(startOffset, maxLength, maxPosition, minOneMessage)
-          if (fetchDataInfo != null) {
-            if (includeAbortedTxns)
-              fetchDataInfo = addAbortedTransactions(startOffset, segment, fetchDataInfo)
-          } else segmentOpt = segments.higherSegment(baseOffset)
+          if (offsetPositionCache.isEmpty) {
+            fetchDataInfo = segment.read(startOffset, maxLength, maxPosition(segment), minOneMessage)
+          } else {
+            val startOffsetAndSize = segment.translateOffset(startOffset)
+            if (startOffsetAndSize != null) {
+              offsetPositionCache.foreach(_.put(topicPartition, startOffset, cacheEpoch, baseOffset, startOffsetAndSize))
+              fetchDataInfo = segment.readAt(startOffset, startOffsetAndSize, maxLength, maxPosition(segment), minOneMessage)
+            }
+          }
+          if (fetchDataInfo != null) fetchSegment = segment
+          else segmentOpt = segments.higherSegment(baseOffset)
         }
 
+        if (fetchDataInfo != null && includeAbortedTxns)
+          fetchDataInfo = addAbortedTransactions(startOffset, fetchSegment, fetchDataInfo)
+
         if (fetchDataInfo != null) fetchDataInfo
         else {
           // okay we are beyond the end of the last segment with no data fetched although the start offset is in range,
@@ -1853,7 +1915,7 @@ class Log(@volatile private var _dir: File,
    *
    * @return The newly rolled segment
    */
-  def roll(expectedNextOffset: Option[Long] = None): LogSegment = {
+  def roll(expectedNextOffset: Option[Long] = None): LogSegment = invalidatingOffsetPositions {
     maybeHandleIOException(s"Error while rolling log segment for $topicPartition in dir ${dir.getParent}") {
       val start = time.hiResClockMs()
       lock synchronized {
@@ -1972,6 +2034,7 @@ class Log(@volatile private var _dir: File,
         Utils.delete(dir)
         // File handlers will be closed if this log is deleted
         isMemoryMappedBufferClosed = true
+        unregisterZstdDictionary()
       }
     }
   }
@@ -2003,7 +2066,7 @@ class Log(@volatile private var _dir: File,
    * @param targetOffset The offset to truncate to, an upper bound on all offsets in the log after truncation is complete.
    * @return True iff targetOffset < logEndOffset
    */
-  private[kafka] def truncateTo(targetOffset: Long): Boolean = {
+  private[kafka] def truncateTo(targetOffset: Long): Boolean = invalidatingOffsetPositions {
     //todo-tiering truncation is generally done to recover segments
     maybeHandleIOException(s"Error while truncating log to offset $targetOffset for $topicPartition in dir ${dir.getParent}") {
       if (targetOffset < 0)
@@ -2067,7 +2130,7 @@ class Log(@volatile private var _dir: File,
    *
    *  @param newOffset The new offset to start the log with
    */
-  def truncateFullyAndStartAt(newOffset: Long): Unit = {
+  def truncateFullyAndStartAt(newOffset: Long): Unit = invalidatingOffsetPositions {
     maybeHandleIOException(s"Error while truncating the entire log for $topicPartition in dir ${dir.getParent}") {
       debug(s"Truncate and start at offset $newOffset")
       lock synchronized {
@@ -2165,7 +2228,7 @@ class Log(@volatile private var _dir: File,
    */
   private def removeAndDeleteSegments(segments: Iterable[LogSegment],
                                       asyncDelete: Boolean,
-                                      reason: SegmentDeletionReason): Long = {
+                                      reason: SegmentDeletionReason): Long = invalidatingOffsetPositions {
     var bytesDeleted = 0L
     if (segments.nonEmpty) {
       lock synchronized {
@@ -2190,7 +2253,7 @@ class Log(@volatile private var _dir: File,
       config, scheduler, logDirFailureChannel, producerStateManager, this.logIdent)
   }
 
-  private[log] def replaceSegments(newSegments: Seq[LogSegment], oldSegments: Seq[LogSegment], isRecoveredSwapFile: Boolean = false): Unit = {
+  private[log] def replaceSegments(newSegments: Seq[LogSegment], oldSegments: Seq[LogSegment], isRecoveredSwapFile: Boolean = false): Unit = invalidatingOffsetPositions {
     lock synchronized {
       checkIfMemoryMappedBufferClosed()
       Log.replaceSegments(segments, newSegments, oldSegments, isRecoveredSwapFile, dir, topicPartition,
@@ -2220,6 +2283,10 @@ class Log(@volatile private var _dir: File,
     removeMetric(LogMetricNames.LogStartOffset, tags)
     removeMetric(LogMetricNames.LogEndOffset, tags)
     removeMetric(LogMetricNames.Size, tags)
+    removeMetric(LogMetricNames.LoadTimeMs, tags)
+    removeMetric(LogMetricNames.SegmentLoadTimeMs, tags)
+    removeMetric(LogMetricNames.SegmentRecoveryTimeMs, tags)
+    removeMetric(LogMetricNames.ProducerStateRecoveryTimeMs, tags)
   }
 
   /**
@@ -2235,8 +2302,29 @@ class Log(@volatile private var _dir: File,
     }
   }
 
-  private[log] def splitOverflowedSegment(segment: LogSegment): List[LogSegment] = lock synchronized {
-    Log.splitOverflowedSegment(segment, segments, dir, topicPartition, config, scheduler, logDirFailureChannel, producerStateManager, this.logIdent)
+  private[log] def splitOverflowedSegment(segment: LogSegment): List[LogSegment] = invalidatingOffsetPositions {
+    lock synchronized {
+      Log.splitOverflowedSegment(segment, segments, dir, topicPartition, config, scheduler, logDirFailureChannel, producerStateManager, this.logIdent)
+    }
+  }
+
+  /**
+   * The last modification time of the segment with the given base offset, if it is still in the log and has been rolled
+   */
+  private[kafka] def rolledSegmentLastModified(baseOffset: Long): Option[Long] = {
+    if (baseOffset == activeSegment.baseOffset) None
+    else segments.get(baseOffset).map(_.lastModified)
+  }
+
+  /**
+   * Run a change of the segments of this log, invalidating the positions it put in the offset position cache.
+   * The epoch is renewed before the change, so that a reader finding a cached position and then a changed segment
+   * sees a new epoch, and after the change, so that positions resolved during the change are not used.
+   */
+  private def invalidatingOffsetPositions[T](fun: => T): T = {
+    offsetPositionCacheEpoch = OffsetPositionCache.nextEpoch()
+    try fun
+    finally offsetPositionCacheEpoch = OffsetPositionCache.nextEpoch()
   }
 
 }
@@ -2300,7 +2388,11 @@ object Log extends Logging {
             lastShutdownClean: Boolean = true,
             topicId: Option[Uuid],
             keepPartitionMetadataFile: Boolean,
-            remoteLogEnable: Boolean = false): Log = {
+            remoteLogEnable: Boolean = false,
+            offsetPositionCache: Option[OffsetPositionCache] = None,
+            producerSnapshotMaxDeltas: Int = 0,
+            recoveryThreads: Int = 1,
+            segmentManifest: Option[Seq[LogManifestSegment]] = None): Log = {
     // create the log directory if it doesn't exist
     Files.createDirectories(dir.toPath)
     val topicPartition = Log.parseTopicPartitionName(dir)
@@ -2311,7 +2403,8 @@ object Log extends Logging {
       logDirFailureChannel,
       config.recordVersion,
       s"[Log partition=$topicPartition, dir=${dir.getParent}] ")
-    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs, time)
+    val producerStateManager = new ProducerStateManager(topicPartition, dir, maxProducerIdExpirationMs, time,
+      producerSnapshotMaxDeltas)
     val offsets = LogLoader.load(LoadLogParams(
       dir,
       topicPartition,
@@ -2325,10 +2418,13 @@ object Log extends Logging {
       recoveryPoint,
       maxProducerIdExpirationMs,
       leaderEpochCache,
-      producerStateManager))
+      producerStateManager,
+      recoveryThreads,
+      segmentManifest))
     new Log(dir, config, segments, offsets.logStartOffset, offsets.recoveryPoint, offsets.nextOffsetMetadata, scheduler,
       brokerTopicStats, time, producerIdExpirationCheckIntervalMs, topicPartition, leaderEpochCache,
-      producerStateManager, logDirFailureChannel, topicId, keepPartitionMetadataFile, remoteLogEnable)
+      producerStateManager, logDirFailureChannel, topicId, keepPartitionMetadataFile, remoteLogEnable, offsetPositionCache,
+      offsets.loadTimes)
   }
 
   /**
@@ -2945,9 +3041,14 @@ object LogMetricNames {
   val LogStartOffset: String = "LogStartOffset"
   val LogEndOffset: String = "LogEndOffset"
   val Size: String = "Size"
+  val LoadTimeMs: String = "LoadTimeMs"
+  val SegmentLoadTimeMs: String = "SegmentLoadTimeMs"
+  val SegmentRecoveryTimeMs: String = "SegmentRecoveryTimeMs"
+  val ProducerStateRecoveryTimeMs: String = "ProducerStateRecoveryTimeMs"
 
   def allMetricNames: List[String] = {
-    List(NumLogSegments, LogStartOffset, LogEndOffset, Size)
+    List(NumLogSegments, LogStartOffset, LogEndOffset, Size, LoadTimeMs, SegmentLoadTimeMs, SegmentRecoveryTimeMs,
+      ProducerStateRecoveryTimeMs)
   }
 }
 
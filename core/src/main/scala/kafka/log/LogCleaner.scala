@@ -20,7 +20,8 @@ package kafka.log
 import java.io.{File, IOException}
 import java.nio._
 import java.util.Date
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{Callable, ExecutionException, ExecutorService, Executors, TimeUnit}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong, AtomicReference}
 import kafka.common._
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.{BrokerReconfigurable, KafkaConfig, LogDirFailureChannel}
@@ -31,7 +32,7 @@ import org.apache.kafka.common.errors.{CorruptRecordException, KafkaStorageExcep
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter
 import org.apache.kafka.common.record.MemoryRecords.RecordFilter.BatchRetention
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.{BufferSupplier, Time}
+import org.apache.kafka.common.utils.{BufferSupplier, KafkaThread, Time}
 
 import scala.jdk.CollectionConverters._
 import scala.collection.mutable.ListBuffer
@@ -59,7 +60,10 @@ import scala.util.control.ControlThrowable
  * To avoid segments shrinking to very small sizes with repeated cleanings we implement a rule by which if we will merge successive segments when
  * doing a cleaning if their log and index size are less than the maximum log and index size prior to the clean beginning.
  *
- * Cleaned segments are swapped into the log as they become available.
+ * Cleaned segments are swapped into the log as they become available. If li.log.cleaner.segment.group.parallelism is larger
+ * than 1, the offset map is split into shards by key hash which are built concurrently, and the groups of segments of a single
+ * log are cleaned concurrently, both on a pool shared by all the cleaner threads, so that a single large log does not keep one
+ * cleaner thread busy for hours.
  *
  * One nuance that the cleaner must handle is log truncation. If a log is truncated while it is being cleaned the cleaning of that log is aborted.
  *
@@ -113,6 +117,13 @@ class LogCleaner(initialConfig: CleanerConfig,
 
   private[log] val cleaners = mutable.ArrayBuffer[CleanerThread]()
 
+  /* a pool shared by the cleaner threads to clean the segment groups of a single log concurrently, if enabled */
+  @volatile private var segmentGroupExecutor: Option[ExecutorService] = None
+
+  /* histograms of the time to clean a log and the number of its segment groups cleaned concurrently */
+  private val cleanTimeHist = newHistogram("log-clean-time-ms")
+  private val cleanParallelismHist = newHistogram("log-clean-parallelism")
+
   /**
    * scala 2.12 does not support maxOption so we handle the empty manually.
    * @param f to compute the result
@@ -137,6 +148,10 @@ class LogCleaner(initialConfig: CleanerConfig,
   newGauge("max-clean-time-secs",
     () => maxOverCleanerThreads(_.lastStats.elapsedSecs))
 
+  /* a metric to track the maximum number of segment groups of a log cleaned concurrently in the last cleaning from each thread */
+  newGauge("max-clean-parallelism",
+    () => maxOverCleanerThreads(_.lastStats.parallelism))
+
 
   // a metric to track delay between the time when a log is required to be compacted
   // as determined by max compaction lag and the time of last cleaner run.
@@ -154,6 +169,11 @@ class LogCleaner(initialConfig: CleanerConfig,
    */
   def startup(): Unit = {
     info("Starting the log cleaner")
+    if (config.segmentGroupParallelism > 1) {
+      val threadCounter = new AtomicInteger(0)
+      segmentGroupExecutor = Some(Executors.newFixedThreadPool(config.segmentGroupParallelism,
+        (runnable: Runnable) => KafkaThread.nonDaemon(s"kafka-log-cleaner-segment-group-${threadCounter.getAndIncrement()}", runnable)))
+    }
     (0 until config.numThreads).foreach { i =>
       val cleaner = new CleanerThread(i)
       cleaners += cleaner
@@ -168,6 +188,9 @@ class LogCleaner(initialConfig: CleanerConfig,
     info("Shutting down the log cleaner.")
     cleaners.foreach(_.shutdown())
     cleaners.clear()
+    // the cleaner threads wait for their segment groups, so there is nothing left to run
+    segmentGroupExecutor.foreach(_.shutdown())
+    segmentGroupExecutor = None
   }
 
   override def reconfigurableConfigs: Set[String] = {
@@ -295,22 +318,41 @@ class LogCleaner(initialConfig: CleanerConfig,
 
     protected override def loggerName = classOf[LogCleaner].getName
 
-    if (config.dedupeBufferSize / config.numThreads > Int.MaxValue)
-      warn("Cannot use more than 2G of cleaner buffer space per cleaner thread, ignoring excess buffer space...")
+    /* the offset map is split into one shard per thread of the segment group pool, so that it can be built concurrently */
+    private val numOffsetMapShards = if (segmentGroupExecutor.isDefined) config.segmentGroupParallelism else 1
+    private val offsetMapShardMemory = config.dedupeBufferSize / config.numThreads / numOffsetMapShards
+
+    if (!config.dedupeBufferOffHeap && offsetMapShardMemory > Int.MaxValue)
+      warn("Cannot use more than 2G of cleaner buffer space per cleaner thread and offset map shard, ignoring excess buffer space...")
+
+    private def newOffsetMap(): OffsetMap = {
+      if (config.dedupeBufferOffHeap)
+        new OffHeapOffsetMap(memory = offsetMapShardMemory)
+      else
+        new SkimpyOffsetMap(memory = math.min(offsetMapShardMemory, Int.MaxValue).toInt, hashAlgorithm = config.hashAlgorithm)
+    }
 
     val cleaner = new Cleaner(id = threadId,
-                              offsetMap = new SkimpyOffsetMap(memory = math.min(config.dedupeBufferSize / config.numThreads, Int.MaxValue).toInt,
-                                                              hashAlgorithm = config.hashAlgorithm),
+                              offsetMap = if (numOffsetMapShards > 1)
+                                            new ShardedOffsetMap(IndexedSeq.fill(numOffsetMapShards)(newOffsetMap()))
+                                          else
+                                            newOffsetMap(),
                               ioBufferSize = config.ioBufferSize / config.numThreads / 2,
                               maxIoBufferSize = config.maxMessageSize,
                               dupBufferLoadFactor = config.dedupeBufferLoadFactor,
                               throttler = throttler,
                               time = time,
-                              checkDone = checkDone)
+                              checkDone = checkDone,
+                              segmentGroupExecutor = segmentGroupExecutor)
 
     @volatile var lastStats: CleanerStats = new CleanerStats()
     @volatile var lastPreCleanStats: PreCleanStats = new PreCleanStats()
 
+    override def shutdown(): Unit = {
+      super.shutdown()
+      cleaner.offsetMap.close()
+    }
+
     private def checkDone(topicPartition: TopicPartition): Unit = {
       if (!isRunning)
         throw new ThreadShutdownException
@@ -401,6 +443,8 @@ class LogCleaner(initialConfig: CleanerConfig,
      */
     def recordStats(id: Int, name: String, from: Long, to: Long, stats: CleanerStats): Unit = {
       this.lastStats = stats
+      cleanTimeHist.update((stats.elapsedSecs * 1000).toLong)
+      cleanParallelismHist.update(stats.parallelism)
       def mb(bytes: Double) = bytes / (1024*1024)
       val message =
         "%n\tLog cleaner thread %d cleaned log %s (dirty section = [%d, %d])%n".format(id, name, from, to) +
@@ -418,7 +462,8 @@ class LogCleaner(initialConfig: CleanerConfig,
         "\tStart size: %,.1f MB (%,d messages)%n".format(mb(stats.bytesRead.toDouble), stats.messagesRead) +
         "\tEnd size: %,.1f MB (%,d messages)%n".format(mb(stats.bytesWritten.toDouble), stats.messagesWritten) +
         "\t%.1f%% size reduction (%.1f%% fewer messages)%n".format(100.0 * (1.0 - stats.bytesWritten.toDouble/stats.bytesRead),
-                                                                   100.0 * (1.0 - stats.messagesWritten.toDouble/stats.messagesRead))
+                                                                   100.0 * (1.0 - stats.messagesWritten.toDouble/stats.messagesRead)) +
+        "\tCleaned up to %d segment groups concurrently%n".format(stats.parallelism)
       info(message)
       if (lastPreCleanStats.delayedPartitions > 0) {
         info("\tCleanable partitions: %d, Delayed partitions: %d, max delay: %d".format(lastPreCleanStats.cleanablePartitions, lastPreCleanStats.delayedPartitions, lastPreCleanStats.maxCompactionDelayMs))
@@ -451,7 +496,9 @@ object LogCleaner {
       maxIoBytesPerSecond = config.logCleanerIoMaxBytesPerSecond,
       backOffMs = config.logCleanerBackoffMs,
       enableCleaner = config.logCleanerEnable,
-      fineGrainedLockEnable = config.liLogCleanerFineGrainedLockEnable)
+      fineGrainedLockEnable = config.liLogCleanerFineGrainedLockEnable,
+      dedupeBufferOffHeap = config.liLogCleanerDedupeBufferOffHeapEnable,
+      segmentGroupParallelism = config.liLogCleanerSegmentGroupParallelism)
 
   }
 
@@ -472,6 +519,9 @@ object LogCleaner {
  * @param throttler The throttler instance to use for limiting I/O rate.
  * @param time The time instance
  * @param checkDone Check if the cleaning for a partition is finished or aborted.
+ * @param segmentGroupExecutor The pool on which to build the shards of a sharded offset map and to clean the segment groups
+ *                             of a log concurrently, if any. The segment groups are only cleaned concurrently if the offset
+ *                             map supports concurrent readers.
  */
 private[log] class Cleaner(val id: Int,
                            val offsetMap: OffsetMap,
@@ -480,7 +530,8 @@ private[log] class Cleaner(val id: Int,
                            dupBufferLoadFactor: Double,
                            throttler: Throttler,
                            time: Time,
-                           checkDone: TopicPartition => Unit) extends Logging {
+                           checkDone: TopicPartition => Unit,
+                           segmentGroupExecutor: Option[ExecutorService] = None) extends Logging {
 
   protected override def loggerName = classOf[LogCleaner].getName
 
@@ -534,12 +585,17 @@ private[log] class Cleaner(val id: Int,
 
     // group the segments and clean the groups
     info("Cleaning log %s (cleaning prior to %s, discarding tombstones prior to %s)...".format(log.name, new Date(cleanableHorizonMs), new Date(deleteHorizonMs)))
-    val transactionMetadata = new CleanedTransactionMetadata
 
     val groupedSegments = groupSegmentsBySize(log.logSegments(0, endOffset), log.config.segmentSize,
       log.config.maxIndexSize, cleanable.firstUncleanableOffset)
-    for (group <- groupedSegments)
-      cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    segmentGroupExecutor match {
+      case Some(executor) if groupedSegments.size > 1 && offsetMap.concurrentReader.isDefined =>
+        cleanSegmentGroupsConcurrently(log, groupedSegments, deleteHorizonMs, stats, executor)
+      case _ =>
+        val transactionMetadata = new CleanedTransactionMetadata
+        for (group <- groupedSegments)
+          cleanSegments(log, group, offsetMap, deleteHorizonMs, stats, transactionMetadata)
+    }
 
     // record buffer utilization
     stats.bufferUtilization = offsetMap.utilization
@@ -549,6 +605,111 @@ private[log] class Cleaner(val id: Int,
     (endOffset, stats)
   }
 
+  /**
+   * Clean the groups of segments concurrently on the given executor. The transaction state that is carried from one
+   * group to the next is replayed up front, so that each group starts from the same state as in a sequential cleaning.
+   * Each group is cleaned with its own I/O buffers and its own reader of the offset map, and is swapped into the log
+   * as soon as it is cleaned.
+   *
+   * @param log The log being cleaned
+   * @param groupedSegments The groups of segments to clean, in offset order
+   * @param deleteHorizonMs The time to retain delete tombstones
+   * @param stats Collector for cleaning statistics
+   * @param executor The executor on which to clean the groups
+   */
+  private def cleanSegmentGroupsConcurrently(log: Log,
+                                             groupedSegments: List[Seq[LogSegment]],
+                                             deleteHorizonMs: Long,
+                                             stats: CleanerStats,
+                                             executor: ExecutorService): Unit = {
+    val groupTransactionMetadata = transactionMetadataAtGroupStarts(log, groupedSegments, offsetMap.latestOffset + 1)
+    val running = new AtomicInteger(0)
+    val maxRunning = new AtomicInteger(0)
+
+    val tasks = groupedSegments.zip(groupTransactionMetadata).map { case (group, transactionMetadata) => () =>
+      maxRunning.accumulateAndGet(running.incrementAndGet(), (x, y) => math.max(x, y))
+      val groupStats = new CleanerStats(time)
+      try {
+        val groupCleaner = new Cleaner(id, offsetMap, ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time, checkDone)
+        groupCleaner.cleanSegments(log, group, offsetMap.concurrentReader.get, deleteHorizonMs, groupStats, transactionMetadata)
+        groupStats
+      } finally {
+        running.decrementAndGet()
+      }
+    }
+
+    try runConcurrently(executor, tasks).foreach(stats.addGroupStats)
+    finally stats.parallelism = maxRunning.get
+  }
+
+  /**
+   * Run the given tasks on the executor and wait for all of them. Once a task has failed, the tasks which have not
+   * started yet are skipped, and the first failure is rethrown once no task is running any more, so that no task is
+   * still using the log once it is released.
+   *
+   * @param executor The executor on which to run the tasks
+   * @param tasks The tasks to run
+   * @return The results of the tasks, in order
+   */
+  private def runConcurrently[T](executor: ExecutorService, tasks: Seq[() => T]): Seq[T] = {
+    val failure = new AtomicReference[Throwable]()
+
+    val futures = tasks.map { task =>
+      executor.submit(new Callable[T] {
+        override def call(): T = {
+          if (failure.get != null)
+            throw new LogCleaningAbortedException()
+          try task()
+          catch {
+            case e: Throwable =>
+              failure.compareAndSet(null, e)
+              throw e
+          }
+        }
+      })
+    }
+
+    val results = futures.flatMap { future =>
+      try Some(future.get())
+      catch {
+        case _: ExecutionException => None // the first failure is rethrown below
+      }
+    }
+    Option(failure.get).foreach(e => throw e)
+    results
+  }
+
+  /**
+   * Replay the transaction state which `cleanSegments` carries from one group to the next, and return the state at
+   * the start of each group. This only reads the batch headers and the control records, not the records themselves.
+   *
+   * @param log The log being cleaned
+   * @param groupedSegments The groups of segments to clean, in offset order
+   * @param upperBoundOffset The first offset not covered by the offset map
+   * @return The transaction state at the start of each group
+   */
+  private[log] def transactionMetadataAtGroupStarts(log: Log,
+                                                    groupedSegments: Seq[Seq[LogSegment]],
+                                                    upperBoundOffset: Long): Seq[CleanedTransactionMetadata] = {
+    val transactionMetadata = new CleanedTransactionMetadata
+    groupedSegments.map { group =>
+      val atGroupStart = transactionMetadata.copy()
+      group.zipWithIndex.foreach { case (segment, i) =>
+        checkDone(log.topicPartition)
+        // collect the aborted transactions exactly as cleanSegments does
+        val segmentUpperBoundOffset = if (i + 1 < group.size) group(i + 1).baseOffset else upperBoundOffset
+        transactionMetadata.addAbortedTransactions(log.collectAbortedTransactions(segment.baseOffset, segmentUpperBoundOffset))
+        for (batch <- segment.log.batches.asScala) {
+          if (batch.isControlBatch)
+            transactionMetadata.onControlBatchRead(batch)
+          else
+            transactionMetadata.onBatchRead(batch)
+        }
+      }
+      atGroupStart
+    }
+  }
+
   /**
    * Clean a group of segments into a single replacement segment
    *
@@ -562,7 +723,7 @@ private[log] class Cleaner(val id: Int,
    */
   private[log] def cleanSegments(log: Log,
                                  segments: Seq[LogSegment],
-                                 map: OffsetMap,
+                                 map: OffsetMapLookup,
                                  deleteHorizonMs: Long,
                                  stats: CleanerStats,
                                  transactionMetadata: CleanedTransactionMetadata): Unit = {
@@ -640,7 +801,7 @@ private[log] class Cleaner(val id: Int,
   private[log] def cleanInto(topicPartition: TopicPartition,
                              sourceRecords: FileRecords,
                              dest: LogSegment,
-                             map: OffsetMap,
+                             map: OffsetMapLookup,
                              retainDeletesAndTxnMarkers: Boolean,
                              maxLogMessageSize: Int,
                              transactionMetadata: CleanedTransactionMetadata,
@@ -769,7 +930,7 @@ private[log] class Cleaner(val id: Int,
     }
   }
 
-  private def shouldRetainRecord(map: kafka.log.OffsetMap,
+  private def shouldRetainRecord(map: kafka.log.OffsetMapLookup,
                                  retainDeletes: Boolean,
                                  batch: RecordBatch,
                                  record: Record,
@@ -901,6 +1062,81 @@ private[log] class Cleaner(val id: Int,
     }
     info("Building offset map for log %s for %d segments in offset range [%d, %d).".format(log.name, dirty.size, start, end))
 
+    map match {
+      case shardedMap: ShardedOffsetMap =>
+        buildShardedOffsetMap(log, dirty, nextSegmentStartOffsets, start, end, shardedMap, stats)
+      case _ =>
+        buildOffsetMapForSegments(log, dirty, nextSegmentStartOffsets, start, end, map, stats)
+    }
+    info("Offset map for log %s complete.".format(log.name))
+  }
+
+  /**
+   * Build each shard of a sharded offset map from the keys of its hash range, concurrently on the segment group
+   * executor if there is one. Every shard reads the whole dirty section of the log, but only hashes and stores the keys
+   * of its own range. Once a shard is full, the other shards stop at the offset it reached, since the map only covers
+   * the offsets up to the lowest latest offset of its shards.
+   *
+   * @param log The log to use
+   * @param dirty The dirty segments
+   * @param nextSegmentStartOffsets The offset following each dirty segment
+   * @param start The offset at which dirty messages begin
+   * @param end The ending offset for the map that is being built
+   * @param map The sharded map in which to store the mappings
+   * @param stats Collector for cleaning statistics
+   */
+  private def buildShardedOffsetMap(log: Log,
+                                    dirty: Seq[LogSegment],
+                                    nextSegmentStartOffsets: Seq[Long],
+                                    start: Long,
+                                    end: Long,
+                                    map: ShardedOffsetMap,
+                                    stats: CleanerStats): Unit = {
+    val stopOffset = new AtomicLong(Long.MaxValue)
+
+    def buildShard(shard: Int, shardStats: CleanerStats): Unit = {
+      // each shard is read with its own I/O buffers, and is only full once its own slots are used
+      val shardCleaner = new Cleaner(id, map.shards(shard), ioBufferSize, maxIoBufferSize, dupBufferLoadFactor, throttler, time, checkDone)
+      shardCleaner.buildOffsetMapForSegments(log, dirty, nextSegmentStartOffsets, start, end, map.shards(shard), shardStats,
+        key => map.shardOf(key) == shard, stopOffset)
+    }
+
+    segmentGroupExecutor match {
+      case Some(executor) =>
+        val shardStats = runConcurrently(executor, map.shards.indices.map { shard => () =>
+          val shardStats = new CleanerStats(time)
+          buildShard(shard, shardStats)
+          shardStats
+        })
+        shardStats.foreach(stats.addIndexStats)
+      case None =>
+        map.shards.indices.foreach(buildShard(_, stats))
+    }
+  }
+
+  /**
+   * Add the messages of the dirty segments to the offset map, until the map is full.
+   *
+   * @param log The log to use
+   * @param dirty The dirty segments
+   * @param nextSegmentStartOffsets The offset following each dirty segment
+   * @param start The offset at which dirty messages begin
+   * @param end The ending offset for the map that is being built
+   * @param map The map in which to store the mappings
+   * @param stats Collector for cleaning statistics
+   * @param includeKey Whether a key belongs in the map, all keys unless the map is a shard
+   * @param stopOffset The offset after which no batch is added, which is lowered to the latest offset of the map if
+   *                   it gets full. It is shared by the shards of a sharded map.
+   */
+  private def buildOffsetMapForSegments(log: Log,
+                                        dirty: Seq[LogSegment],
+                                        nextSegmentStartOffsets: Seq[Long],
+                                        start: Long,
+                                        end: Long,
+                                        map: OffsetMap,
+                                        stats: CleanerStats,
+                                        includeKey: ByteBuffer => Boolean = _ => true,
+                                        stopOffset: AtomicLong = new AtomicLong(Long.MaxValue)): Unit = {
     val transactionMetadata = new CleanedTransactionMetadata
     val abortedTransactions = log.collectAbortedTransactions(start, end)
     transactionMetadata.addAbortedTransactions(abortedTransactions)
@@ -912,11 +1148,10 @@ private[log] class Cleaner(val id: Int,
       checkDone(log.topicPartition)
 
       full = buildOffsetMapForSegment(log.topicPartition, segment, map, start, nextSegmentStartOffset, log.config.maxMessageSize,
-        transactionMetadata, stats)
+        transactionMetadata, stats, includeKey, stopOffset)
       if (full)
         debug("Offset map is full, %d segments fully mapped, segment with base offset %d is partially mapped".format(dirty.indexOf(segment), segment.baseOffset))
     }
-    info("Offset map for log %s complete.".format(log.name))
   }
 
   /**
@@ -925,8 +1160,10 @@ private[log] class Cleaner(val id: Int,
    * @param segment The segment to index
    * @param map The map in which to store the key=>offset mapping
    * @param stats Collector for cleaning statistics
+   * @param includeKey Whether a key belongs in the map
+   * @param stopOffset The offset after which no batch is added, lowered to the latest offset of the map once it is full
    *
-   * @return If the map was filled whilst loading from this segment
+   * @return If the map was filled whilst loading from this segment, or the stop offset was reached
    */
   private def buildOffsetMapForSegment(topicPartition: TopicPartition,
                                        segment: LogSegment,
@@ -935,7 +1172,9 @@ private[log] class Cleaner(val id: Int,
                                        nextSegmentStartOffset: Long,
                                        maxLogMessageSize: Int,
                                        transactionMetadata: CleanedTransactionMetadata,
-                                       stats: CleanerStats): Boolean = {
+                                       stats: CleanerStats,
+                                       includeKey: ByteBuffer => Boolean,
+                                       stopOffset: AtomicLong): Boolean = {
     var position = segment.offsetIndex.lookup(startOffset).position
     val maxDesiredMapSize = (map.slots * this.dupBufferLoadFactor).toInt
     while (position < segment.log.sizeInBytes) {
@@ -953,6 +1192,10 @@ private[log] class Cleaner(val id: Int,
 
       val startPosition = position
       for (batch <- records.batches.asScala) {
+        // another shard of the map is full before this batch
+        if (batch.baseOffset > stopOffset.get)
+          return true
+
         if (batch.isControlBatch) {
           transactionMetadata.onControlBatchRead(batch)
           stats.indexMessagesRead(1)
@@ -966,11 +1209,13 @@ private[log] class Cleaner(val id: Int,
             val recordsIterator = batch.streamingIterator(decompressionBufferSupplier)
             try {
               for (record <- recordsIterator.asScala) {
-                if (record.hasKey && record.offset >= startOffset) {
-                  if (map.size < maxDesiredMapSize)
+                if (record.hasKey && record.offset >= startOffset && includeKey(record.key)) {
+                  if (map.size < maxDesiredMapSize) {
                     map.put(record.key, record.offset)
-                  else
+                  } else {
+                    stopOffset.accumulateAndGet(map.latestOffset, (x, y) => math.min(x, y))
                     return true
+                  }
                 }
                 stats.indexMessagesRead(1)
               }
@@ -1032,6 +1277,7 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
   var invalidMessagesRead = 0L
   var messagesWritten = 0L
   var bufferUtilization = 0.0d
+  var parallelism = 1
 
   def readMessages(messagesRead: Int, bytesRead: Int): Unit = {
     this.messagesRead += messagesRead
@@ -1047,6 +1293,14 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
     this.bytesWritten += bytesWritten
   }
 
+  def addGroupStats(groupStats: CleanerStats): Unit = {
+    this.messagesRead += groupStats.messagesRead
+    this.bytesRead += groupStats.bytesRead
+    this.invalidMessagesRead += groupStats.invalidMessagesRead
+    this.messagesWritten += groupStats.messagesWritten
+    this.bytesWritten += groupStats.bytesWritten
+  }
+
   def indexMessagesRead(size: Int): Unit = {
     mapMessagesRead += size
   }
@@ -1055,6 +1309,11 @@ private class CleanerStats(time: Time = Time.SYSTEM) {
     mapBytesRead += size
   }
 
+  def addIndexStats(shardStats: CleanerStats): Unit = {
+    this.mapMessagesRead += shardStats.mapMessagesRead
+    this.mapBytesRead += shardStats.mapBytesRead
+  }
+
   def indexDone(): Unit = {
     mapCompleteTime = time.milliseconds
   }
@@ -1106,6 +1365,21 @@ private[log] class CleanedTransactionMetadata {
     this.abortedTransactions ++= abortedTransactions
   }
 
+  /**
+   * A copy of the transaction state, without the cleaned index.
+   */
+  def copy(): CleanedTransactionMetadata = {
+    val copied = new CleanedTransactionMetadata
+    copied.ongoingCommittedTxns ++= ongoingCommittedTxns
+    ongoingAbortedTxns.foreach { case (producerId, abortedTxnMetadata) =>
+      val copiedAbortedTxnMetadata = new AbortedTransactionMetadata(abortedTxnMetadata.abortedTxn)
+      copiedAbortedTxnMetadata.lastObservedBatchOffset = abortedTxnMetadata.lastObservedBatchOffset
+      copied.ongoingAbortedTxns.put(producerId, copiedAbortedTxnMetadata)
+    }
+    copied.abortedTransactions ++= abortedTransactions
+    copied
+  }
+
   /**
    * Update the cleaned transaction state with a control batch that has just been traversed by the cleaner.
    * Return true if the control batch can be discarded.
@@ -22,6 +22,7 @@ import kafka.log.LogConfig.configDef
 import kafka.message.BrokerCompressionCodec
 import kafka.server.{KafkaConfig, ThrottledReplicaListValidator}
 import kafka.utils.Implicits._
+import org.apache.kafka.common.compress.ZstdDictionary
 import org.apache.kafka.common.config.ConfigDef.{ConfigKey, ValidList, Validator}
 import org.apache.kafka.common.config.{AbstractConfig, ConfigDef, ConfigException, TopicConfig}
 import org.apache.kafka.common.errors.InvalidConfigurationException
@@ -76,6 +77,7 @@ object Defaults {
   val MaxIdMapSnapshots = kafka.server.Defaults.MaxIdMapSnapshots
   val MessageDownConversionEnable = kafka.server.Defaults.MessageDownConversionEnable
   val ProducerBatchDecompressionEnable = kafka.server.Defaults.ProducerBatchDecompressionEnable
+  val ZstdDictionary = ""
 }
 
 case class LogConfig(props: java.util.Map[_, _], overriddenConfigs: Set[String] = Set.empty)
@@ -117,6 +119,8 @@ case class LogConfig(props: java.util.Map[_, _], overriddenConfigs: Set[String]
   val messageDownConversionEnable = getBoolean(LogConfig.MessageDownConversionEnableProp)
   val producerBatchDecompressionEnable = getBoolean(LogConfig.ProducerBatchDecompressionEnableProp)
   val remoteStorageEnable = getBoolean(LogConfig.RemoteLogStorageEnableProp)
+  val zstdDictionary: Option[ZstdDictionary] = Option(getString(LogConfig.ZstdDictionaryProp)).filter(_.nonEmpty)
+    .map(ZstdDictionary.fromBase64)
 
   def localRetentionMs: Long = {
     val localLogRetentionMs = getLong(LogConfig.LocalLogRetentionMsProp)
@@ -230,6 +234,7 @@ object LogConfig {
   val MessageDownConversionEnableDoc = TopicConfig.MESSAGE_DOWNCONVERSION_ENABLE_DOC
 
   val ProducerBatchDecompressionEnableProp = "producer.batch.decompression.enable"
+  val ZstdDictionaryProp = "li.zstd.dictionary"
 
   val LeaderReplicationThrottledReplicasDoc = "A list of replicas for which log replication should be throttled on " +
     "the leader side. The list should describe a set of replicas in the form " +
@@ -246,10 +251,15 @@ object LogConfig {
     "i) Batch sent by producer is greater than record format version V1  ii) Record format version of batch sent by producer " +
     "is the same as the broker message format version. iii) The relative offsets of the records in the compressed batch are " +
     "monotonically increasing by 1 starting from 0"
+  val ZstdDictionaryDoc = "A base64 encoded zstd dictionary, typically trained from the records of the topic with " +
+    "<code>kafka.tools.ZstdDictionaryTrainer</code>. The broker compresses the batches it recompresses with zstd with the " +
+    "dictionary, and decompresses the batches compressed with it. The producers and consumers of the topic load the same " +
+    "dictionary from a file with <code>li.zstd.dictionary.file</code> and <code>li.zstd.dictionary.files</code>."
 
   private[log] val ServerDefaultHeaderName = "Server Default Property"
 
-  val configsWithNoServerDefaults: Set[String] = Set(RemoteLogStorageEnableProp, LocalLogRetentionMsProp, LocalLogRetentionBytesProp);
+  val configsWithNoServerDefaults: Set[String] = Set(RemoteLogStorageEnableProp, LocalLogRetentionMsProp, LocalLogRetentionBytesProp,
+    ZstdDictionaryProp);
 
   // Package private for testing
   private[log] class LogConfigDef(base: ConfigDef) extends ConfigDef(base) {
@@ -295,6 +305,21 @@ object LogConfig {
     def serverConfigName(configName: String): Option[String] = serverDefaultConfigNames.get(configName)
   }
 
+  private object ZstdDictionaryValidator extends Validator {
+    override def ensureValid(name: String, value: Any): Unit = {
+      val encoded = value.asInstanceOf[String]
+      if (encoded != null && encoded.nonEmpty) {
+        try ZstdDictionary.fromBase64(encoded)
+        catch {
+          // the value is not part of the message, since it may be large
+          case e: IllegalArgumentException => throw new ConfigException(s"Invalid value for configuration $name: ${e.getMessage}")
+        }
+      }
+    }
+
+    override def toString: String = "a base64 encoded zstd dictionary"
+  }
+
   // Package private for testing, return a copy since it's a mutable global variable
   private[kafka] def configDefCopy: LogConfigDef = new LogConfigDef(configDef)
 
@@ -370,6 +395,7 @@ object LogConfig {
       .defineInternal(RemoteLogStorageEnableProp, BOOLEAN, Defaults.RemoteLogStorageEnable, null, MEDIUM, RemoteLogStorageEnableDoc)
       .defineInternal(LocalLogRetentionMsProp, LONG, Defaults.LocalRetentionMs, atLeast(-2), MEDIUM, LocalLogRetentionMsDoc)
       .defineInternal(LocalLogRetentionBytesProp, LONG, Defaults.LocalRetentionBytes, atLeast(-2), MEDIUM, LocalLogRetentionBytesDoc)
+      .defineInternal(ZstdDictionaryProp, STRING, Defaults.ZstdDictionary, ZstdDictionaryValidator, LOW, ZstdDictionaryDoc)
 
     logConfigDef
   }
@@ -444,6 +470,16 @@ object LogConfig {
         }
       }
     }
+
+    // the batches compressed with either of two dictionaries with the same id cannot be decompressed by a broker which
+    // hosts both topics. The dictionaries are registered by the logs, so only those of the local logs can be checked
+    Option(props.get(ZstdDictionaryProp).asInstanceOf[String]).filter(_.nonEmpty).foreach { encoded =>
+      val dictionary = ZstdDictionary.fromBase64(encoded)
+      val registered = ZstdDictionary.registered(dictionary.id)
+      if (registered != null && registered != dictionary)
+        throw new InvalidConfigurationException(s"A different zstd dictionary with id " +
+          s"${Integer.toUnsignedString(dictionary.id)} is already used by another topic")
+    }
   }
 
   /**
@@ -0,0 +1,141 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.io.{BufferedOutputStream, DataOutputStream, File, FileOutputStream}
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+import java.util.zip.CheckedOutputStream
+
+import org.apache.kafka.common.KafkaException
+import org.apache.kafka.common.utils.{Crc32C, Utils}
+
+import scala.collection.mutable
+
+/**
+ * A segment of a log as it was when the broker last shut down cleanly.
+ *
+ * @param baseOffset The base offset of the segment
+ * @param sizeInBytes The size of the log file of the segment
+ */
+case class LogManifestSegment(baseOffset: Long, sizeInBytes: Int)
+
+/**
+ * The manifest of a log directory lists the segments of its logs at a clean shutdown, so that the next startup can
+ * build the segments of a log without opening and checking their files, which are then only opened when they are
+ * first accessed.
+ *
+ * The manifest is only valid together with the clean shutdown file. It is written before the clean shutdown file and
+ * deleted when the log directory is loaded, so that it is never used for segments which may have changed since. It
+ * consists of a version, the segments of each log and a CRC of all of these:
+ *
+ * {{{
+ * Version => Int16
+ * NumLogs => Int32
+ * Logs => [LogDirName NumSegments [BaseOffset SizeInBytes]]
+ *   LogDirName => Int16 length + UTF-8 bytes
+ *   NumSegments => Int32
+ *   BaseOffset => Int64
+ *   SizeInBytes => Int32
+ * Crc => Int32 (CRC32C of all of the above)
+ * }}}
+ */
+object LogDirManifest {
+  val FileName = ".kafka_log_manifest"
+
+  private val Version: Short = 1
+  private val CrcSize = 4
+
+  def file(dir: File): File = new File(dir, FileName)
+
+  /**
+   * Write the manifest of the given closed logs of the log directory.
+   */
+  def write(dir: File, logs: Iterable[Log]): Unit = {
+    val manifestFile = file(dir)
+    val tempFile = new File(dir, FileName + ".tmp")
+    val fileOutputStream = new FileOutputStream(tempFile)
+    try {
+      val checksum = Crc32C.create()
+      val output = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOutputStream, checksum)))
+      output.writeShort(Version)
+      output.writeInt(logs.size)
+      logs.foreach { log =>
+        val name = log.dir.getName.getBytes(StandardCharsets.UTF_8)
+        output.writeShort(name.length)
+        output.write(name)
+        output.writeInt(log.numberOfSegments)
+        log.logSegments.foreach { segment =>
+          output.writeLong(segment.baseOffset)
+          output.writeInt(segment.size)
+        }
+      }
+      output.flush()
+      // the CRC covers everything written before it
+      new DataOutputStream(fileOutputStream).writeInt(checksum.getValue.toInt)
+      fileOutputStream.getChannel.force(true)
+    } finally {
+      fileOutputStream.close()
+    }
+    Utils.atomicMoveWithFallback(tempFile.toPath, manifestFile.toPath)
+  }
+
+  /**
+   * Read the manifest of the log directory, which must exist.
+   *
+   * @return The segments of each log of the log directory in order of base offset, keyed by the name of the log directory
+   * @throws KafkaException if the manifest is corrupt or of an unknown version
+   */
+  def read(dir: File): Map[String, Seq[LogManifestSegment]] = {
+    val manifestFile = file(dir)
+    val bytes = Files.readAllBytes(manifestFile.toPath)
+    if (bytes.length < 2 + 4 + CrcSize)
+      throw new KafkaException(s"Log dir manifest $manifestFile is truncated")
+    val buffer = ByteBuffer.wrap(bytes)
+    val crc = buffer.getInt(bytes.length - CrcSize)
+    val computedCrc = Crc32C.compute(bytes, 0, bytes.length - CrcSize).toInt
+    if (crc != computedCrc)
+      throw new KafkaException(s"Log dir manifest $manifestFile is corrupt: found CRC $crc but expected $computedCrc")
+
+    val version = buffer.getShort()
+    if (version != Version)
+      throw new KafkaException(s"Log dir manifest $manifestFile has unknown version $version")
+    val numLogs = buffer.getInt()
+    val logs = mutable.Map[String, Seq[LogManifestSegment]]()
+    for (_ <- 0 until numLogs) {
+      val name = new Array[Byte](java.lang.Short.toUnsignedInt(buffer.getShort()))
+      buffer.get(name)
+      val numSegments = buffer.getInt()
+      if (numSegments < 0 || numSegments.toLong * 12 > buffer.remaining)
+        throw new KafkaException(s"Log dir manifest $manifestFile has an invalid number of segments $numSegments")
+      val segments = new Array[LogManifestSegment](numSegments)
+      for (i <- 0 until numSegments)
+        segments(i) = LogManifestSegment(buffer.getLong(), buffer.getInt())
+      logs.put(new String(name, StandardCharsets.UTF_8), segments.toSeq)
+    }
+    if (buffer.remaining != CrcSize)
+      throw new KafkaException(s"Log dir manifest $manifestFile has ${buffer.remaining - CrcSize} unexpected trailing bytes")
+    logs.toMap
+  }
+
+  def deleteIfExists(dir: File): Unit = {
+    Files.deleteIfExists(file(dir).toPath)
+    Files.deleteIfExists(new File(dir, FileName + ".tmp").toPath)
+  }
+}
@@ -19,6 +19,7 @@ package kafka.log
 
 import java.io.{File, IOException}
 import java.nio.file.{Files, NoSuchFileException}
+import java.util.concurrent.{Callable, ExecutionException, Executors, Future, TimeUnit}
 import kafka.common.LogSegmentOffsetOverflowException
 import kafka.log.Log.{CleanedFileSuffix, DeletedFileSuffix, SwapFileSuffix, isIndexFile, isLogFile, offsetFromFile}
 import kafka.server.{GlobalConfig, KafkaConfig, LogDirFailureChannel, LogOffsetMetadata}
@@ -26,13 +27,28 @@ import kafka.server.epoch.LeaderEpochFileCache
 import kafka.utils.{CoreUtils, Logging, Scheduler}
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.errors.InvalidOffsetException
-import org.apache.kafka.common.utils.Time
+import org.apache.kafka.common.utils.{KafkaThread, Time}
 
 import scala.collection.{Set, mutable}
 
 case class LoadedLogOffsets(logStartOffset: Long,
                             recoveryPoint: Long,
-                            nextOffsetMetadata: LogOffsetMetadata)
+                            nextOffsetMetadata: LogOffsetMetadata,
+                            loadTimes: LogLoadTimes = LogLoadTimes.Empty)
+
+/**
+ * The time spent loading a log from disk, in milliseconds.
+ *
+ * @param segmentLoadMs The time spent finding and opening the segments, or building them from the log dir manifest
+ * @param segmentRecoveryMs The time spent validating the unflushed segments and rebuilding their indexes
+ * @param producerStateRecoveryMs The time spent rebuilding the producer state and the leader epochs
+ * @param totalMs The total time spent loading the log
+ */
+case class LogLoadTimes(segmentLoadMs: Long, segmentRecoveryMs: Long, producerStateRecoveryMs: Long, totalMs: Long)
+
+object LogLoadTimes {
+  val Empty: LogLoadTimes = LogLoadTimes(0L, 0L, 0L, 0L)
+}
 
 /**
  * @param dir The directory from which log segments need to be loaded
@@ -52,6 +68,9 @@ case class LoadedLogOffsets(logStartOffset: Long,
  *                                  considered expired
  * @param leaderEpochCache An optional LeaderEpochFileCache instance to be updated during recovery
  * @param producerStateManager The ProducerStateManager instance to be updated during recovery
+ * @param recoveryThreads The number of threads rebuilding the indexes of the unflushed segments concurrently
+ * @param segmentManifest The segments of the log in the log dir manifest written at the last clean shutdown, if any,
+ *                        which are built without opening their files if they match the files in the log directory
  */
 case class LoadLogParams(dir: File,
                          topicPartition: TopicPartition,
@@ -65,7 +84,9 @@ case class LoadLogParams(dir: File,
                          recoveryPointCheckpoint: Long,
                          maxProducerIdExpirationMs: Int,
                          leaderEpochCache: Option[LeaderEpochFileCache],
-                         producerStateManager: ProducerStateManager) {
+                         producerStateManager: ProducerStateManager,
+                         recoveryThreads: Int = 1,
+                         segmentManifest: Option[Seq[LogManifestSegment]] = None) {
   val logIdentifier: String = s"[LogLoader partition=$topicPartition, dir=${dir.getParent}] "
 }
 
@@ -89,74 +110,82 @@ object LogLoader extends Logging {
    *                                           overflow index offset
    */
   def load(params: LoadLogParams): LoadedLogOffsets = {
+    val startMs = params.time.hiResClockMs()
+    val recoveryTimes = new RecoveryTimes
+
+    // A cleanly shut down log whose files match the log dir manifest has no temporary files or interrupted swap
+    // operations, and its segments are built from the manifest without opening or checking their files.
+    val loadedFromManifest = params.hadCleanShutdown && params.segmentManifest.exists(loadSegmentsFromManifest(params, _))
+    if (!loadedFromManifest) {
+      // First pass: through the files in the log directory and remove any temporary files
+      // and find any interrupted swap operations
+      val swapFiles = removeTempFilesAndCollectSwapFiles(params)
+
+      // The remaining valid swap files must come from compaction or segment split operation. We can
+      // simply rename them to regular segment files. But, before renaming, we should figure out which
+      // segments are compacted/split and delete these segment files: this is done by calculating
+      // min/maxSwapFileOffset.
+      // We store segments that require renaming in this code block, and do the actual renaming later.
+      var minSwapFileOffset = Long.MaxValue
+      var maxSwapFileOffset = Long.MinValue
+      swapFiles.filter(f => Log.isLogFile(new File(CoreUtils.replaceSuffix(f.getPath, SwapFileSuffix, "")))).foreach { f =>
+        val baseOffset = offsetFromFile(f)
+        val segment = LogSegment.open(f.getParentFile,
+          baseOffset = baseOffset,
+          params.config,
+          time = params.time,
+          fileSuffix = Log.SwapFileSuffix)
+        info(s"${params.logIdentifier}Found log file ${f.getPath} from interrupted swap operation, which is recoverable from ${Log.SwapFileSuffix} files by renaming.")
+        minSwapFileOffset = Math.min(segment.baseOffset, minSwapFileOffset)
+        maxSwapFileOffset = Math.max(segment.readNextOffset, maxSwapFileOffset)
+      }
 
-    // First pass: through the files in the log directory and remove any temporary files
-    // and find any interrupted swap operations
-    val swapFiles = removeTempFilesAndCollectSwapFiles(params)
-
-    // The remaining valid swap files must come from compaction or segment split operation. We can
-    // simply rename them to regular segment files. But, before renaming, we should figure out which
-    // segments are compacted/split and delete these segment files: this is done by calculating
-    // min/maxSwapFileOffset.
-    // We store segments that require renaming in this code block, and do the actual renaming later.
-    var minSwapFileOffset = Long.MaxValue
-    var maxSwapFileOffset = Long.MinValue
-    swapFiles.filter(f => Log.isLogFile(new File(CoreUtils.replaceSuffix(f.getPath, SwapFileSuffix, "")))).foreach { f =>
-      val baseOffset = offsetFromFile(f)
-      val segment = LogSegment.open(f.getParentFile,
-        baseOffset = baseOffset,
-        params.config,
-        time = params.time,
-        fileSuffix = Log.SwapFileSuffix)
-      info(s"${params.logIdentifier}Found log file ${f.getPath} from interrupted swap operation, which is recoverable from ${Log.SwapFileSuffix} files by renaming.")
-      minSwapFileOffset = Math.min(segment.baseOffset, minSwapFileOffset)
-      maxSwapFileOffset = Math.max(segment.readNextOffset, maxSwapFileOffset)
-    }
-
-    // Second pass: delete segments that are between minSwapFileOffset and maxSwapFileOffset. As
-    // discussed above, these segments were compacted or split but haven't been renamed to .delete
-    // before shutting down the broker.
-    for (file <- params.dir.listFiles if file.isFile) {
-      try {
-        if (!file.getName.endsWith(SwapFileSuffix)) {
-          val offset = offsetFromFile(file)
-          if (offset >= minSwapFileOffset && offset < maxSwapFileOffset) {
-            info(s"${params.logIdentifier}Deleting segment files ${file.getName} that is compacted but has not been deleted yet.")
-            file.delete()
+      // Second pass: delete segments that are between minSwapFileOffset and maxSwapFileOffset. As
+      // discussed above, these segments were compacted or split but haven't been renamed to .delete
+      // before shutting down the broker.
+      for (file <- params.dir.listFiles if file.isFile) {
+        try {
+          if (!file.getName.endsWith(SwapFileSuffix)) {
+            val offset = offsetFromFile(file)
+            if (offset >= minSwapFileOffset && offset < maxSwapFileOffset) {
+              info(s"${params.logIdentifier}Deleting segment files ${file.getName} that is compacted but has not been deleted yet.")
+              file.delete()
+            }
           }
+        } catch {
+          // offsetFromFile with files that do not include an offset in the file name
+          case _: StringIndexOutOfBoundsException =>
+          case _: NumberFormatException =>
         }
-      } catch {
-        // offsetFromFile with files that do not include an offset in the file name
-        case _: StringIndexOutOfBoundsException =>
-        case _: NumberFormatException =>
       }
-    }
 
-    // Third pass: rename all swap files.
-    for (file <- params.dir.listFiles if file.isFile) {
-      if (file.getName.endsWith(SwapFileSuffix)) {
-        info(s"${params.logIdentifier}Recovering file ${file.getName} by renaming from ${Log.SwapFileSuffix} files.")
-        file.renameTo(new File(CoreUtils.replaceSuffix(file.getPath, Log.SwapFileSuffix, "")))
+      // Third pass: rename all swap files.
+      for (file <- params.dir.listFiles if file.isFile) {
+        if (file.getName.endsWith(SwapFileSuffix)) {
+          info(s"${params.logIdentifier}Recovering file ${file.getName} by renaming from ${Log.SwapFileSuffix} files.")
+          file.renameTo(new File(CoreUtils.replaceSuffix(file.getPath, Log.SwapFileSuffix, "")))
+        }
       }
-    }
 
 
-    // Fourth pass: load all the log and index files.
-    // We might encounter legacy log segments with offset overflow (KAFKA-6264). We need to split such segments. When
-    // this happens, restart loading segment files from scratch.
-    retryOnOffsetOverflow(params, {
-      // In case we encounter a segment with offset overflow, the retry logic will split it after which we need to retry
-      // loading of segments. In that case, we also need to close all segments that could have been left open in previous
-      // call to loadSegmentFiles().
-      params.segments.close()
-      params.segments.clear()
-      loadSegmentFiles(params)
-    })
+      // Fourth pass: load all the log and index files.
+      // We might encounter legacy log segments with offset overflow (KAFKA-6264). We need to split such segments. When
+      // this happens, restart loading segment files from scratch.
+      retryOnOffsetOverflow(params, {
+        // In case we encounter a segment with offset overflow, the retry logic will split it after which we need to retry
+        // loading of segments. In that case, we also need to close all segments that could have been left open in previous
+        // call to loadSegmentFiles().
+        params.segments.close()
+        params.segments.clear()
+        loadSegmentFiles(params)
+      })
+    }
+    val segmentLoadMs = params.time.hiResClockMs() - startMs
 
     val (newRecoveryPoint: Long, nextOffset: Long) = {
       if (!params.dir.getAbsolutePath.endsWith(Log.DeleteDirSuffix)) {
         val (newRecoveryPoint, nextOffset) = retryOnOffsetOverflow(params, {
-          recoverLog(params)
+          recoverLog(params, recoveryTimes)
         })
 
         // reset the index size of the currently active log segment to allow more entries
@@ -190,6 +219,7 @@ object LogLoader extends Logging {
     // during log recovery may have deleted some files without the LogLoader.producerStateManager instance witnessing the
     // deletion.
     params.producerStateManager.removeStraySnapshots(params.segments.baseOffsets.toSeq)
+    val rebuildStartMs = params.time.hiResClockMs()
     Log.rebuildProducerState(
       params.producerStateManager,
       params.segments,
@@ -199,12 +229,27 @@ object LogLoader extends Logging {
       params.time,
       reloadFromCleanShutdown = params.hadCleanShutdown,
       params.logIdentifier)
+    recoveryTimes.producerStateRecoveryMs += params.time.hiResClockMs() - rebuildStartMs
 
     val activeSegment = params.segments.lastSegment.get
+    val loadTimes = LogLoadTimes(segmentLoadMs, recoveryTimes.segmentRecoveryMs, recoveryTimes.producerStateRecoveryMs,
+      params.time.hiResClockMs() - startMs)
+    info(s"${params.logIdentifier}Loaded log in ${loadTimes.totalMs} ms, of which ${loadTimes.segmentLoadMs} ms " +
+      s"loading segments${if (loadedFromManifest) " from the log dir manifest" else ""}, ${loadTimes.segmentRecoveryMs} ms " +
+      s"recovering segments and ${loadTimes.producerStateRecoveryMs} ms rebuilding the producer state")
     LoadedLogOffsets(
       newLogStartOffset,
       newRecoveryPoint,
-      LogOffsetMetadata(nextOffset, activeSegment.baseOffset, activeSegment.size))
+      LogOffsetMetadata(nextOffset, activeSegment.baseOffset, activeSegment.size),
+      loadTimes)
+  }
+
+  /**
+   * The time spent recovering a log so far, in milliseconds.
+   */
+  private[log] class RecoveryTimes {
+    var segmentRecoveryMs = 0L
+    var producerStateRecoveryMs = 0L
   }
 
   /**
@@ -339,6 +384,47 @@ object LogLoader extends Logging {
     }
   }
 
+  /**
+   * Loads the segments of a cleanly shut down log from its manifest into the provided params.segments, if the files in
+   * the log directory match the manifest. The segments are built without opening or checking their files, which are
+   * opened when they are first accessed.
+   *
+   * @param params The parameters for the log being loaded from disk
+   * @param manifest The segments of the log in the log dir manifest
+   * @return true if the segments were loaded from the manifest, false if the files in the log directory do not match it
+   */
+  private def loadSegmentsFromManifest(params: LoadLogParams, manifest: Seq[LogManifestSegment]): Boolean = {
+    val baseOffsets = manifest.map(_.baseOffset).toSet
+    val logFileOffsets = mutable.Set[Long]()
+    val orphanedIndexFiles = mutable.ArrayBuffer[File]()
+    // the files are only matched by their names, which does not require accessing them
+    for (file <- params.dir.listFiles) {
+      val filename = file.getName
+      if (filename.endsWith(DeletedFileSuffix) || filename.endsWith(CleanedFileSuffix) || filename.endsWith(SwapFileSuffix)) {
+        info(s"${params.logIdentifier}Not loading segments from the log dir manifest since temporary file $filename was found")
+        return false
+      } else if (isLogFile(file)) {
+        logFileOffsets += offsetFromFile(file)
+      } else if (isIndexFile(file) && !baseOffsets.contains(offsetFromFile(file))) {
+        orphanedIndexFiles += file
+      }
+    }
+    if (manifest.isEmpty || logFileOffsets != baseOffsets) {
+      info(s"${params.logIdentifier}Not loading segments from the log dir manifest since the log files do not match it")
+      return false
+    }
+
+    orphanedIndexFiles.foreach { file =>
+      warn(s"${params.logIdentifier}Found an orphaned index file ${file.getAbsolutePath}, with no corresponding log file.")
+      Files.deleteIfExists(file.toPath)
+    }
+    manifest.foreach { segment =>
+      params.segments.add(LogSegment.openLazily(params.dir, segment.baseOffset, params.config, params.time,
+        segment.sizeInBytes))
+    }
+    true
+  }
+
   /**
    * Just recovers the given segment, without adding it to the provided params.segments.
    *
@@ -356,6 +442,18 @@ object LogLoader extends Logging {
       throw new IllegalStateException("Explicitly trigger an exception to test the log recovery logic")
     }
 
+    val producerStateManager = producerStateManagerAt(segment.baseOffset, params)
+    val bytesTruncated = segment.recover(producerStateManager, params.leaderEpochCache)
+    // once we have recovered the segment's data, take a snapshot to ensure that we won't
+    // need to reload the same segment again while recovering another segment.
+    producerStateManager.takeSnapshot()
+    bytesTruncated
+  }
+
+  /**
+   * Build an intermediate ProducerStateManager holding the producer state of the log up to the given offset.
+   */
+  private def producerStateManagerAt(offset: Long, params: LoadLogParams): ProducerStateManager = {
     val producerStateManager = new ProducerStateManager(
       params.topicPartition,
       params.dir,
@@ -365,16 +463,102 @@ object LogLoader extends Logging {
       producerStateManager,
       params.segments,
       params.logStartOffsetCheckpoint,
-      segment.baseOffset,
+      offset,
       params.config.recordVersion,
       params.time,
       reloadFromCleanShutdown = false,
       params.logIdentifier)
-    val bytesTruncated = segment.recover(producerStateManager, params.leaderEpochCache)
-    // once we have recovered the segment's data, take a snapshot to ensure that we won't
-    // need to reload the same segment again while recovering another segment.
-    producerStateManager.takeSnapshot()
-    bytesTruncated
+    producerStateManager
+  }
+
+  /**
+   * Recover the given unflushed segments of a log, like [[recoverSegment]] recovers each of them in turn, using up to
+   * params.recoveryThreads threads. The segments are validated and their indexes are rebuilt concurrently, after which
+   * their producer state and leader epochs are recovered in order from the batches collected along the way. Only as
+   * many segments as there are threads are recovered ahead of the one whose state is being recovered, so that the
+   * batches collected are bounded.
+   *
+   * @param segments The unflushed segments, in ascending order of base offset
+   * @param params The parameters for the log being loaded from disk
+   * @param recoveryTimes The times spent recovering the log, updated by this method
+   * @param onRecovered Called with each segment in order and the number of bytes truncated from it, or the exception
+   *                    thrown recovering it. Returns false if the following segments should not be recovered.
+   */
+  private def recoverSegmentsConcurrently(segments: Seq[LogSegment],
+                                          params: LoadLogParams,
+                                          recoveryTimes: RecoveryTimes)
+                                         (onRecovered: (LogSegment, Either[Exception, Int]) => Boolean): Unit = {
+    val numThreads = math.min(params.recoveryThreads, segments.size)
+    val executor = Executors.newFixedThreadPool(numThreads,
+      KafkaThread.nonDaemon(s"log-segment-recovery-${params.topicPartition}", _))
+    val startMs = params.time.hiResClockMs()
+    var stateRecoveryMs = 0L
+    // the futures of the segments following the one whose state is being recovered, in order
+    val futures = mutable.Queue[Future[RecoveredSegment]]()
+    val unsubmitted = segments.iterator
+    var stopped = false
+    def submitNext(): Unit = {
+      if (!stopped && unsubmitted.hasNext) {
+        val segment = unsubmitted.next()
+        futures.enqueue(executor.submit(new Callable[RecoveredSegment] {
+          override def call(): RecoveredSegment = segment.recoverIndexes()
+        }))
+      }
+    }
+    // the segments which are still being recovered must be done before any segment is truncated, deleted or split.
+    // The segments which are not being recovered yet are skipped, and recovered in place if they are still needed
+    def awaitRemaining(): Unit = {
+      stopped = true
+      futures.foreach(_.cancel(false))
+      executor.shutdown()
+      while (!executor.awaitTermination(1, TimeUnit.MINUTES))
+        info(s"${params.logIdentifier}Waiting for the recovery of unflushed segments to complete")
+    }
+    try {
+      (0 until numThreads).foreach(_ => submitNext())
+      var producerStateManager: ProducerStateManager = null
+      var recoverNext = true
+      val iterator = segments.iterator
+      while (recoverNext && iterator.hasNext) {
+        val segment = iterator.next()
+        // the next segment is submitted as this one is consumed, to keep the pool busy
+        val future = if (futures.nonEmpty) Some(futures.dequeue()) else None
+        submitNext()
+        info(s"${params.logIdentifier}Recovering unflushed segment ${segment.baseOffset}")
+        val result = try {
+          if (GlobalConfig.logRecoveryShouldThrowException) {
+            // we should only trigger the exception once
+            GlobalConfig.logRecoveryShouldThrowException = false
+            throw new IllegalStateException("Explicitly trigger an exception to test the log recovery logic")
+          }
+          val recovered = future match {
+            case Some(future) if !future.isCancelled =>
+              try future.get() catch {
+                case e: ExecutionException => throw e.getCause
+              }
+            case _ =>
+              segment.recoverIndexes()
+          }
+          val stateStartMs = params.time.hiResClockMs()
+          if (producerStateManager == null)
+            producerStateManager = producerStateManagerAt(segment.baseOffset, params)
+          segment.recoverState(recovered, producerStateManager, params.leaderEpochCache)
+          // like recoverSegment, take a snapshot so that no segment needs to be reloaded
+          producerStateManager.takeSnapshot()
+          stateRecoveryMs += params.time.hiResClockMs() - stateStartMs
+          Right(recovered.truncatedBytes)
+        } catch {
+          case e: Exception => Left(e)
+        }
+        if (result.fold(_ => true, _ > 0))
+          awaitRemaining()
+        recoverNext = onRecovered(segment, result)
+      }
+    } finally {
+      awaitRemaining()
+      recoveryTimes.producerStateRecoveryMs += stateRecoveryMs
+      recoveryTimes.segmentRecoveryMs += params.time.hiResClockMs() - startMs - stateRecoveryMs
+    }
   }
 
   /**
@@ -387,12 +571,13 @@ object LogLoader extends Logging {
    * called before all logs are loaded.
    *
    * @param params The parameters for the log being loaded from disk
+   * @param recoveryTimes The times spent recovering the log, updated by this method
    *
    * @return a tuple containing (newRecoveryPoint, nextOffset).
    *
    * @throws LogSegmentOffsetOverflowException if we encountered a legacy segment with offset overflow
    */
-  private[log] def recoverLog(params: LoadLogParams): (Long, Long) = {
+  private[log] def recoverLog(params: LoadLogParams, recoveryTimes: RecoveryTimes = new RecoveryTimes): (Long, Long) = {
     /** return the log end offset if valid */
     def deleteSegmentsIfLogStartGreaterThanLogEnd(): Option[Long] = {
       if (params.segments.nonEmpty) {
@@ -413,34 +598,47 @@ object LogLoader extends Logging {
 
     // If we have the clean shutdown marker, skip recovery.
     if (!params.hadCleanShutdown) {
-      val unflushed = params.segments.values(params.recoveryPointCheckpoint, Long.MaxValue).iterator
-      var truncated = false
-
-      while (unflushed.hasNext && !truncated) {
-        val segment = unflushed.next()
-        info(s"${params.logIdentifier}Recovering unflushed segment ${segment.baseOffset}")
-        val truncatedBytes: Long =
-          try {
-            recoverSegment(segment, params)
-          } catch {
-            case ooe: LogSegmentOffsetOverflowException =>
-              throw ooe
-            case e: Exception =>
-              if (e.isInstanceOf[InvalidOffsetException] || GlobalConfig.liDropCorruptedFilesEnable) {
-                val startOffset = segment.baseOffset
-                warn(s"${params.logIdentifier}Found exception during recovery. Deleting the" +
-                  s" corrupt segment and creating an empty one with starting offset $startOffset", e)
-                segment.truncateTo(startOffset).bytesTruncated
-              } else {
-                throw new IllegalStateException(s"Found corruption during log recovery and the ${KafkaConfig.LiDropCorruptedFilesEnableProp} property is set to false")
-              }
-          }
+      val unflushedSegments = params.segments.values(params.recoveryPointCheckpoint, Long.MaxValue).toList
+
+      // returns false if the remaining segments were deleted
+      def onRecovered(segment: LogSegment, result: Either[Exception, Int]): Boolean = {
+        val truncatedBytes: Long = result match {
+          case Right(truncatedBytes) => truncatedBytes
+          case Left(ooe: LogSegmentOffsetOverflowException) =>
+            throw ooe
+          case Left(e) =>
+            if (e.isInstanceOf[InvalidOffsetException] || GlobalConfig.liDropCorruptedFilesEnable) {
+              val startOffset = segment.baseOffset
+              warn(s"${params.logIdentifier}Found exception during recovery. Deleting the" +
+                s" corrupt segment and creating an empty one with starting offset $startOffset", e)
+              segment.truncateTo(startOffset).bytesTruncated
+            } else {
+              throw new IllegalStateException(s"Found corruption during log recovery and the ${KafkaConfig.LiDropCorruptedFilesEnableProp} property is set to false")
+            }
+        }
         if (truncatedBytes > 0) {
           // we had an invalid message, delete all remaining log
           warn(s"${params.logIdentifier}Corruption found in segment ${segment.baseOffset}," +
             s" truncating to offset ${segment.readNextOffset}")
-          removeAndDeleteSegmentsAsync(unflushed.toList, params)
-          truncated = true
+          removeAndDeleteSegmentsAsync(unflushedSegments.dropWhile(_ ne segment).tail, params)
+          false
+        } else true
+      }
+
+      if (params.recoveryThreads > 1 && unflushedSegments.size > 1) {
+        recoverSegmentsConcurrently(unflushedSegments, params, recoveryTimes)(onRecovered)
+      } else {
+        val unflushed = unflushedSegments.iterator
+        var recoverNext = true
+        while (unflushed.hasNext && recoverNext) {
+          val segment = unflushed.next()
+          info(s"${params.logIdentifier}Recovering unflushed segment ${segment.baseOffset}")
+          val startMs = params.time.hiResClockMs()
+          val result = try Right(recoverSegment(segment, params)) catch {
+            case e: Exception => Left(e)
+          }
+          recoveryTimes.segmentRecoveryMs += params.time.hiResClockMs() - startMs
+          recoverNext = onRecovered(segment, result)
         }
       }
     }
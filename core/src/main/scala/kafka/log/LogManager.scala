@@ -23,7 +23,7 @@ import kafka.log.LogConfig.MessageFormatVersion
 import java.io._
 import java.nio.file.Files
 import java.util.concurrent._
-import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 import kafka.log.remote.RemoteIndexCache
 import kafka.metrics.KafkaMetricsGroup
 import kafka.server.checkpoints.OffsetCheckpointFile
@@ -72,7 +72,11 @@ class LogManager(logDirs: Seq[File],
                  logDirFailureChannel: LogDirFailureChannel,
                  time: Time,
                  val keepPartitionMetadataFile: Boolean,
-                 remoteLogManagerConfig: RemoteLogManagerConfig) extends Logging with KafkaMetricsGroup {
+                 remoteLogManagerConfig: RemoteLogManagerConfig,
+                 offsetPositionCacheEntries: Int = 0,
+                 producerSnapshotMaxDeltas: Int = 0,
+                 recoveryThreadsPerLog: Int = 1,
+                 logManifestEnable: Boolean = false) extends Logging with KafkaMetricsGroup {
 
   import LogManager._
 
@@ -80,6 +84,9 @@ class LogManager(logDirs: Seq[File],
   val InitialTaskDelayMs = 30 * 1000
 
   private val logCreationOrDeletionLock = new Object
+  // the positions of recently read offsets, shared by all the logs
+  private val offsetPositionCache =
+    if (offsetPositionCacheEntries > 0) Some(new OffsetPositionCache(offsetPositionCacheEntries)) else None
   private val currentLogs = new Pool[TopicPartition, Log]()
   // Future logs are put in the directory with "-future" suffix. Future log is created when user wants to move replica
   // from one log directory to another log directory on the same broker. The directory of the future log will be renamed
@@ -263,7 +270,8 @@ class LogManager(logDirs: Seq[File],
                            recoveryPoints: Map[TopicPartition, Long],
                            logStartOffsets: Map[TopicPartition, Long],
                            defaultConfig: LogConfig,
-                           topicConfigOverrides: Map[String, LogConfig]): Log = {
+                           topicConfigOverrides: Map[String, LogConfig],
+                           segmentManifest: Option[Seq[LogManifestSegment]] = None): Log = {
     val topicPartition = Log.parseTopicPartitionName(logDir)
     val config = topicConfigOverrides.getOrElse(topicPartition.topic, defaultConfig)
     val logRecoveryPoint = recoveryPoints.getOrElse(topicPartition, 0L)
@@ -283,7 +291,11 @@ class LogManager(logDirs: Seq[File],
       lastShutdownClean = hadCleanShutdown,
       topicId = None,
       keepPartitionMetadataFile = keepPartitionMetadataFile,
-      remoteLogEnable = remoteLogManagerConfig.enableRemoteStorageSystem())
+      remoteLogEnable = remoteLogManagerConfig.enableRemoteStorageSystem(),
+      offsetPositionCache = offsetPositionCache,
+      producerSnapshotMaxDeltas = producerSnapshotMaxDeltas,
+      recoveryThreads = recoveryThreadsPerLog,
+      segmentManifest = segmentManifest)
 
     if (logDir.getName.endsWith(Log.DeleteDirSuffix)) {
       addLogToBeDeleted(log)
@@ -318,6 +330,11 @@ class LogManager(logDirs: Seq[File],
     val offlineDirs = mutable.Set.empty[(String, IOException)]
     val jobs = ArrayBuffer.empty[Seq[Future[_]]]
     var numTotalLogs = 0
+    // the time spent in each phase of loading the logs, summed over the logs
+    var manifestReadMs = 0L
+    val segmentLoadMs = new AtomicLong()
+    val segmentRecoveryMs = new AtomicLong()
+    val producerStateRecoveryMs = new AtomicLong()
 
     for (dir <- liveLogDirs) {
       val logDirAbsolutePath = dir.getAbsolutePath
@@ -338,6 +355,23 @@ class LogManager(logDirs: Seq[File],
           info(s"Attempting recovery for all logs in $logDirAbsolutePath since no clean shutdown file was found")
         }
 
+        // The manifest is only valid for the segments of the clean shutdown, so it is deleted like the clean shutdown file
+        var segmentManifests = Map[String, Seq[LogManifestSegment]]()
+        if (LogDirManifest.file(dir).exists) {
+          val manifestReadStartMs = time.hiResClockMs()
+          if (hadCleanShutdown && logManifestEnable) {
+            try {
+              segmentManifests = LogDirManifest.read(dir)
+            } catch {
+              case e: Exception =>
+                warn(s"Error occurred while reading the log dir manifest of directory $logDirAbsolutePath, " +
+                  "loading the segments of all logs from their files", e)
+            }
+          }
+          LogDirManifest.deleteIfExists(dir)
+          manifestReadMs += time.hiResClockMs() - manifestReadStartMs
+        }
+
         var recoveryPoints = Map[TopicPartition, Long]()
         try {
           recoveryPoints = this.recoveryPointCheckpoints(dir).read()
@@ -371,8 +405,11 @@ class LogManager(logDirs: Seq[File],
 
               val logLoadStartMs = time.hiResClockMs()
               val log = loadLog(logDir, hadCleanShutdown, recoveryPoints, logStartOffsets,
-                defaultConfig, topicConfigOverrides)
+                defaultConfig, topicConfigOverrides, segmentManifests.get(logDir.getName))
               val logLoadDurationMs = time.hiResClockMs() - logLoadStartMs
+              segmentLoadMs.addAndGet(log.loadTimes.segmentLoadMs)
+              segmentRecoveryMs.addAndGet(log.loadTimes.segmentRecoveryMs)
+              producerStateRecoveryMs.addAndGet(log.loadTimes.producerStateRecoveryMs)
               val currentNumLoaded = numLogsLoaded.incrementAndGet()
 
               info(s"Completed load of $log with ${log.numberOfSegments} segments in ${logLoadDurationMs}ms " +
@@ -410,7 +447,9 @@ class LogManager(logDirs: Seq[File],
       threadPools.foreach(_.shutdown())
     }
 
-    info(s"Loaded $numTotalLogs logs in ${time.hiResClockMs() - startMs}ms.")
+    info(s"Loaded $numTotalLogs logs in ${time.hiResClockMs() - startMs}ms. Summed over the logs, ${manifestReadMs}ms " +
+      s"were spent reading log dir manifests, ${segmentLoadMs.get}ms loading segments, ${segmentRecoveryMs.get}ms " +
+      s"recovering segments and ${producerStateRecoveryMs.get}ms rebuilding producer state.")
   }
 
   /**
@@ -506,6 +545,7 @@ class LogManager(logDirs: Seq[File],
     for (dir <- logDirs) {
       removeMetric("LogDirectoryOffline", Map("logDirectory" -> dir.getAbsolutePath))
     }
+    offsetPositionCache.foreach(_.close())
 
     val threadPools = ArrayBuffer.empty[ExecutorService]
     val jobs = mutable.Map.empty[File, Seq[Future[_]]]
@@ -551,6 +591,12 @@ class LogManager(logDirs: Seq[File],
           debug(s"Updating log start offsets at $dir")
           checkpointLogStartOffsetsInDir(dir, logs)
 
+          // the manifest must be written before the clean shutdown marker, which makes it valid
+          if (logManifestEnable) {
+            debug(s"Writing log dir manifest at $dir")
+            CoreUtils.swallow(LogDirManifest.write(dir, logs.values), this)
+          }
+
           // mark that the shutdown was clean by creating marker file
           debug(s"Writing clean shutdown marker at $dir")
           CoreUtils.swallow(Files.createFile(new File(dir, Log.CleanShutdownFile).toPath), this)
@@ -866,7 +912,9 @@ class LogManager(logDirs: Seq[File],
           logDirFailureChannel = logDirFailureChannel,
           topicId = topicId,
           keepPartitionMetadataFile = keepPartitionMetadataFile,
-          remoteLogEnable = remoteLogManagerConfig.enableRemoteStorageSystem())
+          remoteLogEnable = remoteLogManagerConfig.enableRemoteStorageSystem(),
+          offsetPositionCache = offsetPositionCache,
+          producerSnapshotMaxDeltas = producerSnapshotMaxDeltas)
 
         if (isFuture)
           futureLogs.put(topicPartition, log)
@@ -1291,7 +1339,11 @@ object LogManager {
       time = time,
       keepPartitionMetadataFile = keepPartitionMetadataFile,
       interBrokerProtocolVersion = config.interBrokerProtocolVersion,
-      remoteLogManagerConfig = remoteLogManagerConfig)
+      remoteLogManagerConfig = remoteLogManagerConfig,
+      offsetPositionCacheEntries = config.liLogOffsetPositionCacheEntries,
+      producerSnapshotMaxDeltas = config.liProducerSnapshotMaxDeltas,
+      recoveryThreadsPerLog = config.liLogRecoveryThreadsPerLog,
+      logManifestEnable = config.liLogManifestEnable)
   }
 
 }
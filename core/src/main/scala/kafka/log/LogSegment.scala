@@ -31,6 +31,7 @@ import org.apache.kafka.common.record.FileRecords.{LogOffsetPosition, TimestampA
 import org.apache.kafka.common.record._
 import org.apache.kafka.common.utils.{BufferSupplier, Time}
 
+import scala.collection.mutable
 import scala.jdk.CollectionConverters._
 import scala.math._
 
@@ -256,6 +257,20 @@ class LogSegment private[log] (val log: FileRecords,
     producerStateManager.updateMapEndOffset(batch.lastOffset + 1)
   }
 
+  private def updateProducerState(producerStateManager: ProducerStateManager, batch: RecoveredBatch): Unit = {
+    if (batch.producerId != RecordBatch.NO_PRODUCER_ID) {
+      val appendInfo = producerStateManager.prepareUpdate(batch.producerId, origin = AppendOrigin.Replication)
+      val maybeCompletedTxn = batch.appendTo(appendInfo)
+      producerStateManager.update(appendInfo)
+      maybeCompletedTxn.foreach { completedTxn =>
+        val lastStableOffset = producerStateManager.lastStableOffset(completedTxn)
+        updateTxnIndex(completedTxn, lastStableOffset)
+        producerStateManager.completeTxn(completedTxn)
+      }
+    }
+    producerStateManager.updateMapEndOffset(batch.lastOffset + 1)
+  }
+
   /**
    * Find the physical file position for the first message with offset >= the requested offset.
    *
@@ -300,6 +315,30 @@ class LogSegment private[log] (val log: FileRecords,
     if (startOffsetAndSize == null)
       return null
 
+    readAt(startOffset, startOffsetAndSize, maxSize, maxPosition, minOneMessage)
+  }
+
+  /**
+   * Read a message set from this segment beginning with the first offset >= startOffset, which has already been
+   * translated to the position of its batch (see `translateOffset`).
+   *
+   * @param startOffset A lower bound on the first offset to include in the message set we read
+   * @param startOffsetAndSize The offset, position and size of the batch containing the start offset
+   * @param maxSize The maximum number of bytes to include in the message set we read
+   * @param maxPosition The maximum position in the log segment that should be exposed for read
+   * @param minOneMessage If this is true, the first message will be returned even if it exceeds `maxSize` (if one exists)
+   *
+   * @return The fetched data and the offset metadata of the first message whose offset is >= startOffset
+   */
+  @threadsafe
+  def readAt(startOffset: Long,
+             startOffsetAndSize: LogOffsetPosition,
+             maxSize: Int,
+             maxPosition: Long,
+             minOneMessage: Boolean): FetchDataInfo = {
+    if (maxSize < 0)
+      throw new IllegalArgumentException(s"Invalid max size $maxSize for log read from segment $log")
+
     val startPosition = startOffsetAndSize.position
     val offsetMetadata = LogOffsetMetadata(startOffset, this.baseOffset, startPosition)
 
@@ -333,6 +372,46 @@ class LogSegment private[log] (val log: FileRecords,
    */
   @nonthreadsafe
   def recover(producerStateManager: ProducerStateManager, leaderEpochCache: Option[LeaderEpochFileCache] = None): Int = {
+    rebuildIndexes { batch =>
+      leaderEpochCache.foreach { cache =>
+        if (batch.partitionLeaderEpoch >= 0 && cache.latestEpoch.forall(batch.partitionLeaderEpoch > _))
+          cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
+      }
+      updateProducerState(producerStateManager, batch)
+    }
+  }
+
+  /**
+   * Recover the segment like [[recover]], but in two steps, of which this is the first: rebuild the offset and time
+   * indexes from the log file and lop off any invalid bytes from the end of the log and index. This does not depend on
+   * the state of the previous segments, so the segments of a log can go through this step concurrently. The second step
+   * is [[recoverState]].
+   *
+   * @return The truncated bytes and the batches needed to recover the producer state and leader epochs of the segment
+   * @throws LogSegmentOffsetOverflowException if the log segment contains an offset that causes the index offset to overflow
+   */
+  @nonthreadsafe
+  private[log] def recoverIndexes(): RecoveredSegment = {
+    val stateBatches = mutable.ArrayBuffer.empty[RecoveredBatch]
+    var lastLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH
+    var stateEndOffset: Option[Long] = None
+    val truncated = rebuildIndexes { batch =>
+      // only the batches of producers and those changing the leader epoch update the state of the log
+      if (batch.hasProducerId || batch.partitionLeaderEpoch != lastLeaderEpoch)
+        stateBatches += RecoveredBatch(batch)
+      lastLeaderEpoch = batch.partitionLeaderEpoch
+      stateEndOffset = Some(batch.lastOffset + 1)
+    }
+    RecoveredSegment(truncated, stateBatches, stateEndOffset)
+  }
+
+  /**
+   * Rebuild the offset and time indexes from the log file and lop off any invalid bytes from the end of the log and
+   * index, passing each valid batch of magic v2 or above to the given function.
+   *
+   * @return The number of bytes truncated from the log
+   */
+  private def rebuildIndexes(onStateBatch: RecordBatch => Unit): Int = {
     offsetIndex.reset()
     timeIndex.reset()
     txnIndex.reset()
@@ -357,13 +436,8 @@ class LogSegment private[log] (val log: FileRecords,
         }
         validBytes += batch.sizeInBytes()
 
-        if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) {
-          leaderEpochCache.foreach { cache =>
-            if (batch.partitionLeaderEpoch >= 0 && cache.latestEpoch.forall(batch.partitionLeaderEpoch > _))
-              cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
-          }
-          updateProducerState(producerStateManager, batch)
-        }
+        if (batch.magic >= RecordBatch.MAGIC_VALUE_V2)
+          onStateBatch(batch)
       }
     } catch {
       case e@ (_: CorruptRecordException | _: InvalidRecordException) =>
@@ -382,6 +456,28 @@ class LogSegment private[log] (val log: FileRecords,
     truncated
   }
 
+  /**
+   * The second step of [[recoverIndexes]]: update the producer state, the transaction index and the leader epochs from the
+   * batches of the segment. The segments of a log must go through this step in order.
+   *
+   * @param recovered The result of [[recoverIndexes]] for this segment
+   * @param producerStateManager Producer state corresponding to the segment's base offset
+   * @param leaderEpochCache Optionally a cache for updating the leader epoch during recovery.
+   */
+  @nonthreadsafe
+  private[log] def recoverState(recovered: RecoveredSegment,
+                                producerStateManager: ProducerStateManager,
+                                leaderEpochCache: Option[LeaderEpochFileCache]): Unit = {
+    recovered.stateBatches.foreach { batch =>
+      leaderEpochCache.foreach { cache =>
+        if (batch.partitionLeaderEpoch >= 0 && cache.latestEpoch.forall(batch.partitionLeaderEpoch > _))
+          cache.assign(batch.partitionLeaderEpoch, batch.baseOffset)
+      }
+      updateProducerState(producerStateManager, batch)
+    }
+    recovered.stateEndOffset.foreach(producerStateManager.updateMapEndOffset)
+  }
+
   private def loadLargestTimestamp(): Unit = {
     // Get the last time index entry. If the time index is empty, it will return (-1, baseOffset)
     val lastTimeIndexEntry = timeIndex.lastEntry
@@ -676,13 +772,85 @@ class LogSegment private[log] (val log: FileRecords,
 
 }
 
+/**
+ * The result of rebuilding the indexes of a segment, holding what is needed to then recover its state.
+ *
+ * @param truncatedBytes The number of invalid bytes truncated from the end of the segment
+ * @param stateBatches The valid batches which update the producer state or the leader epochs
+ * @param stateEndOffset The offset after the last valid batch of the segment updating the producer state
+ */
+private[log] case class RecoveredSegment(truncatedBytes: Int,
+                                         stateBatches: collection.Seq[RecoveredBatch],
+                                         stateEndOffset: Option[Long])
+
+/**
+ * The fields of a recovered batch which are needed to update the producer state and the leader epochs, so that the
+ * batches of a segment do not need to be kept or read again until its state is recovered.
+ */
+private[log] case class RecoveredBatch(baseOffset: Long,
+                                       lastOffset: Long,
+                                       partitionLeaderEpoch: Int,
+                                       producerId: Long,
+                                       producerEpoch: Short,
+                                       baseSequence: Int,
+                                       lastSequence: Int,
+                                       maxTimestamp: Long,
+                                       isTransactional: Boolean,
+                                       isControlBatch: Boolean,
+                                       endTxnMarker: Option[(EndTransactionMarker, Long)]) {
+
+  /**
+   * Append this batch to the given producer like [[ProducerAppendInfo.append]] appends the batch it was read from.
+   */
+  def appendTo(appendInfo: ProducerAppendInfo): Option[CompletedTxn] = {
+    if (isControlBatch) {
+      // An empty control batch means the entire transaction has been cleaned from the log, so no need to append
+      endTxnMarker.flatMap { case (marker, timestamp) =>
+        appendInfo.appendEndTxnMarker(marker, producerEpoch, baseOffset, timestamp)
+      }
+    } else {
+      appendInfo.appendDataBatch(producerEpoch, baseSequence, lastSequence, maxTimestamp,
+        LogOffsetMetadata(baseOffset), lastOffset, isTransactional)
+      None
+    }
+  }
+}
+
+private[log] object RecoveredBatch {
+  def apply(batch: RecordBatch): RecoveredBatch = {
+    val endTxnMarker = if (batch.isControlBatch && batch.hasProducerId) {
+      val recordIterator = batch.iterator
+      if (recordIterator.hasNext) {
+        val record = recordIterator.next()
+        Some((EndTransactionMarker.deserialize(record), record.timestamp))
+      } else None
+    } else None
+    RecoveredBatch(batch.baseOffset, batch.lastOffset, batch.partitionLeaderEpoch, batch.producerId,
+      batch.producerEpoch, batch.baseSequence, batch.lastSequence, batch.maxTimestamp, batch.isTransactional,
+      batch.isControlBatch, endTxnMarker)
+  }
+}
+
 object LogSegment {
 
   def open(dir: File, baseOffset: Long, config: LogConfig, time: Time, fileAlreadyExists: Boolean = false,
            initFileSize: Int = 0, preallocate: Boolean = false, fileSuffix: String = ""): LogSegment = {
+    withRecords(FileRecords.open(Log.logFile(dir, baseOffset, fileSuffix), fileAlreadyExists, initFileSize, preallocate),
+      dir, baseOffset, config, time, fileSuffix)
+  }
+
+  /**
+   * Open an existing segment of the given size without opening its log file or its offset and time indexes, which are
+   * opened when they are first accessed.
+   */
+  def openLazily(dir: File, baseOffset: Long, config: LogConfig, time: Time, sizeInBytes: Int): LogSegment =
+    withRecords(FileRecords.openLazily(Log.logFile(dir, baseOffset), sizeInBytes), dir, baseOffset, config, time, fileSuffix = "")
+
+  private def withRecords(log: FileRecords, dir: File, baseOffset: Long, config: LogConfig, time: Time,
+                          fileSuffix: String): LogSegment = {
     val maxIndexSize = config.maxIndexSize
     new LogSegment(
-      FileRecords.open(Log.logFile(dir, baseOffset, fileSuffix), fileAlreadyExists, initFileSize, preallocate),
+      log,
       LazyIndex.forOffset(Log.offsetIndexFile(dir, baseOffset, fileSuffix), baseOffset = baseOffset, maxIndexSize = maxIndexSize),
       LazyIndex.forTime(Log.timeIndexFile(dir, baseOffset, fileSuffix), baseOffset = baseOffset, maxIndexSize = maxIndexSize),
       new TransactionIndex(baseOffset, Log.transactionIndexFile(dir, baseOffset, fileSuffix)),
@@ -22,8 +22,9 @@ import kafka.common.{LongRef, RecordValidationException}
 import kafka.message.{CompressionCodec, NoCompressionCodec, ZStdCompressionCodec}
 import kafka.server.{BrokerTopicStats, RequestLocal}
 import kafka.utils.Logging
+import org.apache.kafka.common.compress.ZstdDictionary
 import org.apache.kafka.common.errors.{CorruptRecordException, InvalidTimestampException, UnsupportedCompressionTypeException, UnsupportedForMessageFormatException}
-import org.apache.kafka.common.record.{AbstractRecords, CompressionType, MemoryRecords, Record, RecordBatch, RecordConversionStats, TimestampType}
+import org.apache.kafka.common.record.{AbstractRecords, CompressionType, DefaultRecordBatch, MemoryRecords, Record, RecordBatch, RecordBatchColumns, RecordConversionStats, TimestampType}
 import org.apache.kafka.common.InvalidRecordException
 import org.apache.kafka.common.TopicPartition
 import org.apache.kafka.common.protocol.Errors
@@ -97,7 +98,8 @@ private[log] object LogValidator extends Logging {
                                                     interBrokerProtocolVersion: ApiVersion,
                                                     brokerTopicStats: BrokerTopicStats,
                                                     requestLocal: RequestLocal,
-                                                    decompressionEnable: Boolean = true): ValidationAndOffsetAssignResult = {
+                                                    decompressionEnable: Boolean = true,
+                                                    compressionDictionary: Option[ZstdDictionary] = None): ValidationAndOffsetAssignResult = {
     if (sourceCodec == NoCompressionCodec && targetCodec == NoCompressionCodec) {
       // check the magic value
       if (!records.hasMatchingMagic(magic))
@@ -110,7 +112,8 @@ private[log] object LogValidator extends Logging {
     } else {
       validateMessagesAndAssignOffsetsCompressed(records, topicPartition, offsetCounter, time, now, sourceCodec,
         targetCodec, compactedTopic, magic, timestampType, timestampDiffMaxMs, partitionLeaderEpoch, origin,
-        interBrokerProtocolVersion, brokerTopicStats, requestLocal, decompressionEnable)
+        interBrokerProtocolVersion, brokerTopicStats, requestLocal, decompressionEnable,
+        compressionDictionary = compressionDictionary)
     }
   }
 
@@ -209,8 +212,8 @@ private[log] object LogValidator extends Logging {
       }
     }
 
-    validateKey(record, batchIndex, topicPartition, compactedTopic, brokerTopicStats).orElse {
-      validateTimestamp(batch, record, batchIndex, now, timestampType, timestampDiffMaxMs)
+    validateKey(record.hasKey, batchIndex, topicPartition, compactedTopic, brokerTopicStats).orElse {
+      validateTimestamp(batch, record.timestamp, record.offset, record, batchIndex, now, timestampType, timestampDiffMaxMs)
     }
   }
 
@@ -354,6 +357,8 @@ private[log] object LogValidator extends Logging {
    * 1. Source and target compression codec are different
    * 2. When the target magic is not equal to batches' magic, meaning format conversion is needed.
    * 3. When the target magic is equal to V0, meaning absolute offsets need to be re-assigned.
+   * 4. When the inner offsets of the records are not sequential. The offsets of v2 records are relative to the base
+   *    offset of their batch, which is rewritten in place, so for v2 only the offset deltas need to be sequential.
    */
   def validateMessagesAndAssignOffsetsCompressed(records: MemoryRecords,
                                                  topicPartition: TopicPartition,
@@ -371,7 +376,9 @@ private[log] object LogValidator extends Logging {
                                                  interBrokerProtocolVersion: ApiVersion,
                                                  brokerTopicStats: BrokerTopicStats,
                                                  requestLocal: RequestLocal,
-                                                 decompressionEnable: Boolean): ValidationAndOffsetAssignResult = {
+                                                 decompressionEnable: Boolean,
+                                                 columnarValidation: Boolean = true,
+                                                 compressionDictionary: Option[ZstdDictionary] = None): ValidationAndOffsetAssignResult = {
 
     if (targetCodec == ZStdCompressionCodec && interBrokerProtocolVersion < KAFKA_2_1_IV0)
       throw new UnsupportedCompressionTypeException("Produce requests to inter.broker.protocol.version < 2.1 broker " +
@@ -390,6 +397,8 @@ private[log] object LogValidator extends Logging {
     var maxTimestamp = RecordBatch.NO_TIMESTAMP
     val expectedInnerOffset = new LongRef(0)
     val validatedRecords = new mutable.ArrayBuffer[Record]
+    // the records validated from their columns are not added to the validated records
+    var numValidatedRecords = 0
 
     var uncompressedSizeInBytes = 0
 
@@ -417,8 +426,30 @@ private[log] object LogValidator extends Logging {
       validateBatch(topicPartition, firstBatch, batch, origin, toMagic, brokerTopicStats)
       uncompressedSizeInBytes += AbstractRecords.recordBatchHeaderSizeInBytes(toMagic, batch.compressionType())
 
+      // if we are on version 2 and beyond, and we know we are going for in place assignment, the records are only
+      // validated, so only the fields needed for that are parsed into columns, without materializing the records
+      val validatedColumns = batch match {
+        case defaultBatch: DefaultRecordBatch if decompressBatch && inPlaceAssignment && columnarValidation =>
+          val columns = requestLocal.recordBatchColumns
+          columns.read(defaultBatch, requestLocal.bufferSupplier)
+          // records whose offset deltas are not sequential are rewritten, which requires the full records
+          if (columns.hasSequentialOffsetDeltas) {
+            validateRecordColumns(defaultBatch, columns, topicPartition, now, timestampType, timestampDiffMaxMs,
+              compactedTopic, brokerTopicStats)
+            expectedInnerOffset.addAndGet(columns.numRecords)
+            maxTimestamp = math.max(maxTimestamp, columns.maxTimestamp)
+            uncompressedSizeInBytes += columns.totalSizeInBytes
+            numValidatedRecords += columns.numRecords
+            true
+          } else {
+            inPlaceAssignment = false
+            false
+          }
+        case _ => false
+      }
+
       // The following inner block are not indented to make the hotfix cherry-picking easier
-      if (decompressBatch || !inPlaceAssignment) {
+      if ((decompressBatch || !inPlaceAssignment) && !validatedColumns) {
       // if we are on version 2 and beyond, and we know we are going for in place assignment,
       // then we can optimize the iterator to skip key / value / headers since they would not be used at all
       val recordsIterator = if (inPlaceAssignment && firstBatch.magic >= RecordBatch.MAGIC_VALUE_V2)
@@ -442,8 +473,10 @@ private[log] object LogValidator extends Logging {
                 // Some older clients do not implement the V1 internal offsets correctly.
                 // Historically the broker handled this by rewriting the batches rather
                 // than rejecting the request. We must continue this handling here to avoid
-                // breaking these clients.
-                if (record.offset != expectedOffset)
+                // breaking these clients. The base offset of a v2 batch is rewritten in place, so only the
+                // offset deltas of its records need to be the expected ones.
+                val innerOffset = if (batch.magic >= RecordBatch.MAGIC_VALUE_V2) record.offset - batch.baseOffset else record.offset
+                if (innerOffset != expectedOffset)
                   inPlaceAssignment = false
               }
               None
@@ -455,6 +488,7 @@ private[log] object LogValidator extends Logging {
             case None =>
               uncompressedSizeInBytes += record.sizeInBytes()
               validatedRecords += record
+              numValidatedRecords += 1
           }
          batchIndex += 1
         }
@@ -475,19 +509,22 @@ private[log] object LogValidator extends Logging {
       }
       buildRecordsAndAssignOffsets(toMagic, offsetCounter, time, timestampType, CompressionType.forId(targetCodec.codec),
         now, validatedRecords, producerId, producerEpoch, sequence, isTransactional, partitionLeaderEpoch,
-        uncompressedSizeInBytes)
+        uncompressedSizeInBytes, compressionDictionary)
     } else {
       // we can update the batch only and write the compressed payload as is;
       // again we assume only one record batch within the compressed set
       val batch = records.batches.iterator.next()
       val lastOffset = if (decompressBatch)
-        offsetCounter.addAndGet(validatedRecords.size) - 1
+        offsetCounter.addAndGet(numValidatedRecords) - 1
       else {
         // batch.countOrNull() will never be null as the following line is execteud
         // for record format version V2.
         offsetCounter.addAndGet(batch.countOrNull().longValue()) - 1
       }
 
+      // the offsets of a compressed v2 batch with a base offset other than 0 used to be reassigned by recompressing it
+      val recompressionAvoided = decompressBatch && sourceCodec != NoCompressionCodec &&
+        batch.magic >= RecordBatch.MAGIC_VALUE_V2 && batch.baseOffset != 0
       batch.setLastOffset(lastOffset)
 
       if (timestampType == TimestampType.LOG_APPEND_TIME)
@@ -502,6 +539,13 @@ private[log] object LogValidator extends Logging {
       if (toMagic >= RecordBatch.MAGIC_VALUE_V2)
         batch.setPartitionLeaderEpoch(partitionLeaderEpoch)
 
+      if (recompressionAvoided) {
+        Seq(brokerTopicStats.topicStats(topicPartition.topic), brokerTopicStats.allTopicsStats).foreach { stats =>
+          stats.recompressionsAvoidedRate.mark()
+          stats.recompressionBytesAvoidedRate.mark(uncompressedSizeInBytes)
+        }
+      }
+
       val recordConversionStats = new RecordConversionStats(uncompressedSizeInBytes, 0, 0)
       ValidationAndOffsetAssignResult(validatedRecords = records,
         maxTimestamp = maxTimestamp,
@@ -524,7 +568,8 @@ private[log] object LogValidator extends Logging {
                                            baseSequence: Int,
                                            isTransactional: Boolean,
                                            partitionLeaderEpoch: Int,
-                                           uncompressedSizeInBytes: Int): ValidationAndOffsetAssignResult = {
+                                           uncompressedSizeInBytes: Int,
+                                           compressionDictionary: Option[ZstdDictionary]): ValidationAndOffsetAssignResult = {
     val startNanos = time.nanoseconds
     val estimatedSize = AbstractRecords.estimateSizeInBytes(magic, offsetCounter.value, compressionType,
       validatedRecords.asJava)
@@ -532,7 +577,8 @@ private[log] object LogValidator extends Logging {
     // cardinality is low, so don't use it here
     val buffer = ByteBuffer.allocate(estimatedSize)
     val builder = MemoryRecords.builder(buffer, magic, compressionType, timestampType, offsetCounter.value,
-      logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch)
+      logAppendTime, producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch,
+      compressionDictionary.orNull)
 
     validatedRecords.foreach { record =>
       builder.appendWithOffset(offsetCounter.getAndIncrement(), record)
@@ -559,29 +605,62 @@ private[log] object LogValidator extends Logging {
       recompressApplied = true)
   }
 
-  private def validateKey(record: Record,
+  private def validateKey(hasKey: Boolean,
                           batchIndex: Int,
                           topicPartition: TopicPartition,
                           compactedTopic: Boolean,
                           brokerTopicStats: BrokerTopicStats): Option[ApiRecordError] = {
-    if (compactedTopic && !record.hasKey) {
+    if (compactedTopic && !hasKey) {
       brokerTopicStats.allTopicsStats.noKeyCompactedTopicRecordsPerSec.mark()
       Some(ApiRecordError(Errors.INVALID_RECORD, new RecordError(batchIndex,
         s"Compacted topic cannot accept message without key in topic partition $topicPartition.")))
     } else None
   }
 
+  /**
+   * Validate the keys and timestamps of the records of a batch from their columns, like validateRecord does for v2 records.
+   */
+  private def validateRecordColumns(batch: RecordBatch,
+                                    columns: RecordBatchColumns,
+                                    topicPartition: TopicPartition,
+                                    now: Long,
+                                    timestampType: TimestampType,
+                                    timestampDiffMaxMs: Long,
+                                    compactedTopic: Boolean,
+                                    brokerTopicStats: BrokerTopicStats): Unit = {
+    val keysValid = !compactedTopic || columns.allRecordsHaveKeys
+    val timestampsValid = batch.timestampType != TimestampType.LOG_APPEND_TIME &&
+      (timestampType != TimestampType.CREATE_TIME || columns.timestampsWithin(now, timestampDiffMaxMs))
+    // the errors of the individual records are only found if there are any
+    if (!keysValid || !timestampsValid) {
+      val recordErrors = new ArrayBuffer[ApiRecordError](0)
+      for (batchIndex <- 0 until columns.numRecords) {
+        val offset = batch.baseOffset + columns.offsetDelta(batchIndex)
+        validateKey(columns.hasKey(batchIndex), batchIndex, topicPartition, compactedTopic, brokerTopicStats).orElse {
+          validateTimestamp(batch, columns.timestamp(batchIndex), offset, s"with offset $offset", batchIndex, now,
+            timestampType, timestampDiffMaxMs)
+        }.foreach(recordErrors += _)
+      }
+      processRecordErrors(recordErrors)
+    }
+  }
+
+  /**
+   * @param record A description of the record, for the error of a record with the LogAppendTime timestamp type
+   */
   private def validateTimestamp(batch: RecordBatch,
-                                record: Record,
+                                timestamp: Long,
+                                offset: Long,
+                                record: Any,
                                 batchIndex: Int,
                                 now: Long,
                                 timestampType: TimestampType,
                                 timestampDiffMaxMs: Long): Option[ApiRecordError] = {
     if (timestampType == TimestampType.CREATE_TIME
-      && record.timestamp != RecordBatch.NO_TIMESTAMP
-      && math.abs(record.timestamp - now) > timestampDiffMaxMs)
+      && timestamp != RecordBatch.NO_TIMESTAMP
+      && math.abs(timestamp - now) > timestampDiffMaxMs)
       Some(ApiRecordError(Errors.INVALID_TIMESTAMP, new RecordError(batchIndex,
-        s"Timestamp ${record.timestamp} of message with offset ${record.offset} is " +
+        s"Timestamp $timestamp of message with offset $offset is " +
           s"out of range. The timestamp should be within [${now - timestampDiffMaxMs}, " +
           s"${now + timestampDiffMaxMs}]")))
     else if (batch.timestampType == TimestampType.LOG_APPEND_TIME)
@@ -0,0 +1,344 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.nio.{ByteBuffer, ByteOrder}
+
+import kafka.utils._
+import org.apache.kafka.common.utils.ByteBufferUnmapper
+
+/**
+ * An hash table used for deduplicating the log, backed by direct (off-heap) memory.
+ *
+ * Like [[SkimpyOffsetMap]] it stores a hash of the key as a proxy for the key, but it uses the non-cryptographic
+ * 128-bit MurmurHash3 (x64 variant) instead of a message digest, which is several times cheaper to compute and is still
+ * wide enough for collisions to be negligible. The memory is split into chunks of at most 1 GB, so the map is not limited
+ * by the 2 GB size of a single `ByteBuffer` and a large dirty section can be deduplicated in a single pass without
+ * putting pressure on the heap. Collisions are resolved by double hashing for the first few probes, then by linear probing.
+ * This hash table does not support deletes.
+ *
+ * The memory is only released when the map is closed (or when it is garbage collected).
+ *
+ * @param memory The amount of memory this map can use
+ * @param maxChunkBytes The maximum size of each chunk of memory backing the map
+ */
+@nonthreadsafe
+class OffHeapOffsetMap(val memory: Long, maxChunkBytes: Int = 1 << 30) extends OffsetMap {
+  import OffHeapOffsetMap._
+
+  require(memory >= BytesPerEntry, s"The offset map needs at least $BytesPerEntry bytes of memory, provided $memory")
+  require(maxChunkBytes >= BytesPerEntry, s"The offset map chunks need at least $BytesPerEntry bytes, provided $maxChunkBytes")
+
+  /**
+   * The maximum number of entries this map can contain
+   */
+  val slots: Int = math.min(memory / BytesPerEntry, Int.MaxValue.toLong).toInt
+
+  private val slotsPerChunk = maxChunkBytes / BytesPerEntry
+
+  private val chunks: Array[ByteBuffer] = {
+    val numChunks = (slots - 1) / slotsPerChunk + 1
+    Array.tabulate(numChunks) { i =>
+      val chunkSlots = if (i == numChunks - 1) slots - i * slotsPerChunk else slotsPerChunk
+      ByteBuffer.allocateDirect(chunkSlots * BytesPerEntry)
+    }
+  }
+
+  /* the hash of the last key put or looked up by the owner of the map */
+  private val keyHash = new KeyHash
+
+  /* number of entries put into the map */
+  private var entries = 0
+
+  /* number of lookups on the map */
+  private var lookups = 0L
+
+  /* the number of probes for all lookups */
+  private var probes = 0L
+
+  /* the latest offset written into the map */
+  private var lastOffset = -1L
+
+  private var closed = false
+
+  /**
+   * Associate this offset to the given key.
+   * @param key The key
+   * @param offset The offset
+   */
+  override def put(key: ByteBuffer, offset: Long): Unit = {
+    require(entries < slots, "Attempt to add a new entry to a full offset map.")
+    lookups += 1
+    keyHash.hash(key)
+    // probe until we find the first empty slot
+    var attempt = 0
+    var slot = slotOf(keyHash, -1, attempt)
+    probes += 1
+    while (!isEmpty(slot)) {
+      if (hashMatches(slot, keyHash)) {
+        // we found an existing entry, overwrite it and return (size does not change)
+        chunkOf(slot).putLong(positionOf(slot) + 16, offset)
+        lastOffset = offset
+        return
+      }
+      attempt += 1
+      slot = slotOf(keyHash, slot, attempt)
+      probes += 1
+    }
+    // found an empty slot, update it--size grows by 1
+    val chunk = chunkOf(slot)
+    val position = positionOf(slot)
+    chunk.putLong(position, keyHash.high)
+    chunk.putLong(position + 8, keyHash.low)
+    chunk.putLong(position + 16, offset)
+    lastOffset = offset
+    entries += 1
+  }
+
+  /**
+   * Get the offset associated with this key.
+   * @param key The key
+   * @return The offset associated with this key or -1 if the key is not found
+   */
+  override def get(key: ByteBuffer): Long = {
+    lookups += 1
+    keyHash.hash(key)
+    val offset = lookup(keyHash)
+    probes += keyHash.lookupProbes
+    offset
+  }
+
+  /**
+   * Search for the given hash by repeated probing until we find it or we find an empty slot.
+   * Once we are probing linearly, we are done after visiting every slot once. The number of probes is left in the hash.
+   * @return The offset associated with the hash or -1 if the hash is not found
+   */
+  private def lookup(keyHash: KeyHash): Long = {
+    val maxAttempts = slots.toLong + HashedProbes
+    var attempt = 0L
+    var slot = slotOf(keyHash, -1, 0)
+    while (attempt < maxAttempts) {
+      keyHash.lookupProbes = attempt + 1
+      if (isEmpty(slot))
+        return -1L
+      if (hashMatches(slot, keyHash))
+        return chunkOf(slot).getLong(positionOf(slot) + 16)
+      attempt += 1
+      slot = slotOf(keyHash, slot, math.min(attempt, Int.MaxValue).toInt)
+    }
+    -1L
+  }
+
+  /**
+   * Forget all the entries of the map.
+   */
+  override def clear(): Unit = {
+    this.entries = 0
+    this.lookups = 0L
+    this.probes = 0L
+    this.lastOffset = -1L
+    chunks.foreach { chunk =>
+      chunk.clear()
+      while (chunk.hasRemaining)
+        chunk.put(Zeros, 0, math.min(Zeros.length, chunk.remaining))
+      chunk.clear()
+    }
+  }
+
+  /**
+   * Release the off-heap memory of this map. The map must not be used after it is closed.
+   */
+  override def close(): Unit = {
+    if (!closed) {
+      closed = true
+      chunks.foreach(ByteBufferUnmapper.unmap("offset map", _))
+    }
+  }
+
+  /**
+   * A reader with its own hash state. Lookups only read the chunks, so any number of readers can be used
+   * concurrently as long as the map is not modified.
+   */
+  override def concurrentReader: Option[OffsetMapLookup] = Some(new OffsetMapLookup {
+    private val readerKeyHash = new KeyHash
+
+    override def get(key: ByteBuffer): Long = {
+      readerKeyHash.hash(key)
+      lookup(readerKeyHash)
+    }
+    override def latestOffset: Long = OffHeapOffsetMap.this.latestOffset
+  })
+
+  /**
+   * The number of entries put into the map (note that not all may remain)
+   */
+  override def size: Int = entries
+
+  /**
+   * The rate of collisions in the lookups
+   */
+  def collisionRate: Double =
+    (this.probes - this.lookups) / this.lookups.toDouble
+
+  /**
+   * The latest offset put into the map
+   */
+  override def latestOffset: Long = lastOffset
+
+  override def updateLatestOffset(offset: Long): Unit = {
+    lastOffset = offset
+  }
+
+  private def chunkOf(slot: Int): ByteBuffer = chunks(slot / slotsPerChunk)
+
+  private def positionOf(slot: Int): Int = (slot % slotsPerChunk) * BytesPerEntry
+
+  /**
+   * Check that there is no entry in the given slot. No key hashes to zero, see `KeyHash`.
+   */
+  private def isEmpty(slot: Int): Boolean = {
+    val chunk = chunkOf(slot)
+    val position = positionOf(slot)
+    chunk.getLong(position) == 0 && chunk.getLong(position + 8) == 0
+  }
+
+  private def hashMatches(slot: Int, keyHash: KeyHash): Boolean = {
+    val chunk = chunkOf(slot)
+    val position = positionOf(slot)
+    chunk.getLong(position) == keyHash.high && chunk.getLong(position + 8) == keyHash.low
+  }
+
+  /**
+   * Calculate the slot of the ith probe. The first probes use both halves of the hash (double hashing),
+   * then if all of those fail we degrade to linear probing from the previous slot.
+   * @param keyHash The hash of the key to find the slot for
+   * @param previousSlot The slot of the (i-1)th probe
+   * @param attempt The ith probe
+   * @return The slot at which the ith probing for the given hash would reside
+   */
+  private def slotOf(keyHash: KeyHash, previousSlot: Int, attempt: Int): Int = {
+    if (attempt < HashedProbes)
+      java.lang.Math.floorMod(keyHash.high + attempt * (keyHash.low | 1L), slots.toLong).toInt
+    else if (previousSlot == slots - 1)
+      0
+    else
+      previousSlot + 1
+  }
+
+}
+
+object OffHeapOffsetMap {
+  /**
+   * The number of bytes of space each entry uses (a 16 byte hash plus an 8 byte offset)
+   */
+  val BytesPerEntry = 24
+
+  private val HashedProbes = 8
+  private val Zeros = new Array[Byte](64 * 1024)
+
+  private val Seed = 0L
+  private val C1 = 0x87c37b91114253d5L
+  private val C2 = 0x4cf5ad432745937fL
+
+  /**
+   * The 128-bit MurmurHash3 (x64 variant) of a key, kept in two mutable halves to avoid allocating for each key.
+   */
+  private final class KeyHash {
+    var high = 0L
+    var low = 0L
+    /* the number of probes of the last lookup of this hash */
+    var lookupProbes = 0L
+
+    /**
+     * Hash the remaining bytes of the key, without changing its position.
+     * @param key The key to hash
+     */
+    def hash(key: ByteBuffer): Unit = {
+      val start = key.position
+      val length = key.remaining
+      val bigEndian = key.order == ByteOrder.BIG_ENDIAN
+      var h1 = Seed
+      var h2 = Seed
+
+      val numBlocks = length / 16
+      var i = 0
+      while (i < numBlocks) {
+        val blockStart = start + i * 16
+        h1 ^= mixK1(readLongLittleEndian(key, blockStart, bigEndian))
+        h1 = java.lang.Long.rotateLeft(h1, 27) + h2
+        h1 = h1 * 5 + 0x52dce729
+        h2 ^= mixK2(readLongLittleEndian(key, blockStart + 8, bigEndian))
+        h2 = java.lang.Long.rotateLeft(h2, 31) + h1
+        h2 = h2 * 5 + 0x38495ab5
+        i += 1
+      }
+
+      val tailStart = start + numBlocks * 16
+      val tailLength = length & 15
+      var k1 = 0L
+      var k2 = 0L
+      var j = tailLength - 1
+      while (j >= 0) {
+        val b = (key.get(tailStart + j) & 0xff).toLong
+        if (j >= 8)
+          k2 ^= b << ((j - 8) * 8)
+        else
+          k1 ^= b << (j * 8)
+        j -= 1
+      }
+      if (tailLength > 8)
+        h2 ^= mixK2(k2)
+      if (tailLength > 0)
+        h1 ^= mixK1(k1)
+
+      h1 ^= length
+      h2 ^= length
+      h1 += h2
+      h2 += h1
+      h1 = fmix(h1)
+      h2 = fmix(h2)
+      h1 += h2
+      h2 += h1
+
+      // an all-zero hash marks an empty slot
+      if (h1 == 0 && h2 == 0)
+        h1 = 1
+      high = h1
+      low = h2
+    }
+  }
+
+  private def readLongLittleEndian(buffer: ByteBuffer, index: Int, bigEndian: Boolean): Long = {
+    val value = buffer.getLong(index)
+    if (bigEndian) java.lang.Long.reverseBytes(value) else value
+  }
+
+  private def mixK1(k: Long): Long = java.lang.Long.rotateLeft(k * C1, 31) * C2
+
+  private def mixK2(k: Long): Long = java.lang.Long.rotateLeft(k * C2, 33) * C1
+
+  private def fmix(k: Long): Long = {
+    var h = k
+    h ^= h >>> 33
+    h *= 0xff51afd7ed558ccdL
+    h ^= h >>> 33
+    h *= 0xc4ceb9fe1a85ec53L
+    h ^= h >>> 33
+    h
+  }
+}
@@ -23,15 +23,80 @@ import java.nio.ByteBuffer
 import kafka.utils._
 import org.apache.kafka.common.utils.Utils
 
-trait OffsetMap {
+/**
+ * The lookups of an offset map, which is all the cleaning of a segment needs.
+ */
+trait OffsetMapLookup {
+  def get(key: ByteBuffer): Long
+  def latestOffset: Long
+}
+
+trait OffsetMap extends OffsetMapLookup {
   def slots: Int
   def put(key: ByteBuffer, offset: Long): Unit
-  def get(key: ByteBuffer): Long
   def updateLatestOffset(offset: Long): Unit
   def clear(): Unit
   def size: Int
   def utilization: Double = size.toDouble / slots
-  def latestOffset: Long
+  def close(): Unit = {}
+
+  /**
+   * A read-only view of this map which can be used from another thread, concurrently with other such views,
+   * as long as the map itself is not modified in the meantime. None if the map does not support concurrent reads.
+   */
+  def concurrentReader: Option[OffsetMapLookup] = None
+}
+
+/**
+ * An offset map split into shards by ranges of the key hash, so that each shard can be built from the keys of its own
+ * range, concurrently with the other shards. Each shard fills up on its own, so the map covers the offsets up to the
+ * lowest latest offset of its shards.
+ * @param shards The maps holding the keys of each range of the key hash
+ */
+@nonthreadsafe
+class ShardedOffsetMap(val shards: IndexedSeq[OffsetMap]) extends OffsetMap {
+  require(shards.nonEmpty, "A sharded offset map needs at least one shard")
+
+  def numShards: Int = shards.size
+
+  def shardOf(key: ByteBuffer): Int = ShardedOffsetMap.shardOf(key, shards.size)
+
+  override def slots: Int = shards.map(_.slots).sum
+
+  override def put(key: ByteBuffer, offset: Long): Unit = shards(shardOf(key)).put(key, offset)
+
+  override def get(key: ByteBuffer): Long = shards(shardOf(key)).get(key)
+
+  override def updateLatestOffset(offset: Long): Unit = shards.foreach(_.updateLatestOffset(offset))
+
+  override def latestOffset: Long = shards.map(_.latestOffset).min
+
+  override def clear(): Unit = shards.foreach(_.clear())
+
+  override def size: Int = shards.map(_.size).sum
+
+  override def close(): Unit = shards.foreach(_.close())
+
+  override def concurrentReader: Option[OffsetMapLookup] = {
+    val readers = shards.map(_.concurrentReader)
+    if (readers.forall(_.isDefined)) {
+      Some(new OffsetMapLookup {
+        private val shardReaders = readers.map(_.get)
+        override def get(key: ByteBuffer): Long = shardReaders(shardOf(key)).get(key)
+        override def latestOffset: Long = shardReaders.map(_.latestOffset).min
+      })
+    } else {
+      None
+    }
+  }
+}
+
+object ShardedOffsetMap {
+  /**
+   * The shard of a key, which is the range of the key hash it falls into. The key hash is independent of the hash
+   * used within the shards, so that the keys of a shard are still spread over all of its slots.
+   */
+  def shardOf(key: ByteBuffer, numShards: Int): Int = (((key.hashCode & 0xffffffffL) * numShards) >>> 32).toInt
 }
 
 /**
@@ -121,7 +186,20 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
    */
   override def get(key: ByteBuffer): Long = {
     lookups += 1
-    hashInto(key, hash1)
+    lookup(key, digest, bytes, hash1, hash2, countProbes = true)
+  }
+
+  /**
+   * Look up the key using the given digest, view of the map buffer and hash buffers, so that concurrent readers
+   * do not share any mutable state.
+   */
+  private def lookup(key: ByteBuffer,
+                     digest: MessageDigest,
+                     buffer: ByteBuffer,
+                     keyHash: Array[Byte],
+                     slotHash: Array[Byte],
+                     countProbes: Boolean): Long = {
+    hashInto(key, keyHash, digest)
     // search for the hash of this key by repeated probing until we find the hash we are looking for or we find an empty slot
     var attempt = 0
     var pos = 0
@@ -131,15 +209,29 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
     do {
      if(attempt >= maxAttempts)
         return -1L
-      pos = positionOf(hash1, attempt)
-      bytes.position(pos)
+      pos = positionOf(keyHash, attempt, countProbes)
+      buffer.position(pos)
       if(isEmpty(pos))
         return -1L
-      bytes.get(hash2)
+      buffer.get(slotHash)
       attempt += 1
-    } while(!Arrays.equals(hash1, hash2))
-    bytes.getLong()
+    } while(!Arrays.equals(keyHash, slotHash))
+    buffer.getLong()
   }
+
+  /**
+   * A reader with its own digest, hash buffers and view of the map buffer, so any number of readers can be used
+   * concurrently as long as the map is not modified.
+   */
+  override def concurrentReader: Option[OffsetMapLookup] = Some(new OffsetMapLookup {
+    private val readerDigest = MessageDigest.getInstance(hashAlgorithm)
+    private val readerBytes = bytes.duplicate()
+    private val keyHash = new Array[Byte](hashSize)
+    private val slotHash = new Array[Byte](hashSize)
+
+    override def get(key: ByteBuffer): Long = lookup(key, readerDigest, readerBytes, keyHash, slotHash, countProbes = false)
+    override def latestOffset: Long = SkimpyOffsetMap.this.latestOffset
+  })
   
   /**
    * Change the salt used for key hashing making all existing keys unfindable.
@@ -179,10 +271,11 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
    * @param attempt The ith probe
    * @return The byte offset in the buffer at which the ith probing for the given hash would reside
    */
-  private def positionOf(hash: Array[Byte], attempt: Int): Int = {
+  private def positionOf(hash: Array[Byte], attempt: Int, countProbes: Boolean = true): Int = {
     val probe = CoreUtils.readInt(hash, math.min(attempt, hashSize - 4)) + math.max(0, attempt - hashSize + 4)
     val slot = Utils.abs(probe) % slots
-    this.probes += 1
+    if (countProbes)
+      this.probes += 1
     slot * bytesPerEntry
   }
   
@@ -190,8 +283,9 @@ class SkimpyOffsetMap(val memory: Int, val hashAlgorithm: String = "MD5") extend
    * The offset at which we have stored the given key
    * @param key The key to hash
    * @param buffer The buffer to store the hash into
+   * @param digest The digest instance to hash with
    */
-  private def hashInto(key: ByteBuffer, buffer: Array[Byte]): Unit = {
+  private def hashInto(key: ByteBuffer, buffer: Array[Byte], digest: MessageDigest = this.digest): Unit = {
     key.mark()
     digest.update(key)
     key.reset()
@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.log
+
+import java.util
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.threadsafe
+import org.apache.kafka.common.TopicPartition
+import org.apache.kafka.common.record.FileRecords.LogOffsetPosition
+
+/**
+ * A bounded LRU cache of the positions of recently read offsets, shared by all the logs of a broker.
+ *
+ * Resolving the position of an offset in a segment takes a lookup in the offset index and a scan of the batch headers
+ * from the indexed position, which reads from the segment file. Lagging consumers tend to read the same offsets over
+ * and over, so [[Log.read]] first looks the start offset up in this cache.
+ *
+ * An entry is only valid for the epoch of the log it was resolved in. A log takes a new epoch whenever its segments
+ * change (roll, deletion, truncation or replacement), which invalidates all its entries at once; the stale entries are
+ * evicted as less recently used ones. Epochs are unique across logs, so the entries of a log are never mistaken for
+ * those of another log of the same partition (e.g. a future log).
+ *
+ * The cache is split into a number of stripes, each an access ordered map guarded by its own lock.
+ *
+ * @param maxEntries The maximum number of entries over all stripes
+ * @param numStripes The number of stripes
+ */
+@threadsafe
+class OffsetPositionCache(val maxEntries: Int, numStripes: Int = 16) extends KafkaMetricsGroup {
+  import OffsetPositionCache._
+
+  require(maxEntries > 0, s"The offset position cache needs a positive number of entries, provided $maxEntries")
+
+  private val stripes = {
+    val stripeCount = math.min(numStripes, maxEntries)
+    Array.tabulate(stripeCount) { i =>
+      val stripeEntries = maxEntries / stripeCount + (if (i < maxEntries % stripeCount) 1 else 0)
+      new Stripe(stripeEntries)
+    }
+  }
+
+  private val hitMeter = newMeter("OffsetPositionCacheHitsPerSec", "hits", TimeUnit.SECONDS)
+  private val missMeter = newMeter("OffsetPositionCacheMissesPerSec", "misses", TimeUnit.SECONDS)
+  newGauge("OffsetPositionCacheSize", () => size)
+
+  /**
+   * Get the position of the given offset if it was resolved in the given epoch of the log of the partition.
+   *
+   * @return The base offset of the segment and the position of the batch containing the offset, or None
+   */
+  def get(topicPartition: TopicPartition, offset: Long, epoch: Long): Option[CachedOffsetPosition] = {
+    val key = Key(topicPartition, offset)
+    val cached = stripeOf(key).get(key)
+    if (cached != null && cached.epoch == epoch) {
+      hitMeter.mark()
+      Some(cached)
+    } else {
+      missMeter.mark()
+      None
+    }
+  }
+
+  /**
+   * Cache the position of the given offset, resolved in the given epoch of the log of the partition.
+   */
+  def put(topicPartition: TopicPartition, offset: Long, epoch: Long, segmentBaseOffset: Long,
+          offsetPosition: LogOffsetPosition): Unit = {
+    val key = Key(topicPartition, offset)
+    stripeOf(key).put(key, CachedOffsetPosition(epoch, segmentBaseOffset, offsetPosition))
+  }
+
+  /**
+   * The number of entries in the cache, including the entries of past epochs which have not been evicted yet.
+   */
+  def size: Int = stripes.map(_.size).sum
+
+  def close(): Unit = {
+    removeMetric("OffsetPositionCacheHitsPerSec")
+    removeMetric("OffsetPositionCacheMissesPerSec")
+    removeMetric("OffsetPositionCacheSize")
+  }
+
+  private def stripeOf(key: Key): Stripe = stripes((key.hashCode & Int.MaxValue) % stripes.length)
+}
+
+object OffsetPositionCache {
+  private val epochs = new AtomicLong(0)
+
+  /**
+   * A new epoch for a log, different from all the epochs taken so far.
+   */
+  def nextEpoch(): Long = epochs.incrementAndGet()
+
+  private case class Key(topicPartition: TopicPartition, offset: Long)
+
+  private class Stripe(maxEntries: Int) {
+    private val entries = new util.LinkedHashMap[Key, CachedOffsetPosition](16, 0.75f, true) {
+      override def removeEldestEntry(eldest: util.Map.Entry[Key, CachedOffsetPosition]): Boolean = size > maxEntries
+    }
+
+    def get(key: Key): CachedOffsetPosition = synchronized(entries.get(key))
+
+    def put(key: Key, value: CachedOffsetPosition): Unit = synchronized(entries.put(key, value))
+
+    def size: Int = synchronized(entries.size)
+  }
+}
+
+/**
+ * The position of an offset resolved in the given epoch of a log: the base offset of its segment and the offset,
+ * position and size of the batch containing it.
+ */
+case class CachedOffsetPosition(epoch: Long, segmentBaseOffset: Long, offsetPosition: LogOffsetPosition)
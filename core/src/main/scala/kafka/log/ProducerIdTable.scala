@@ -0,0 +1,397 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import java.util
+
+import kafka.utils.nonthreadsafe
+import org.apache.kafka.common.record.{DefaultRecordBatch, RecordBatch}
+
+import scala.collection.mutable
+
+/**
+ * The state of the producers of a partition, stored compactly.
+ *
+ * A partition may have hundreds of thousands of producers. Kept as a map of producer id to [[ProducerStateEntry]],
+ * each of them costs a map entry, the entry, its queue, up to five [[BatchMetadata]] and a boxed option. Here the state
+ * is instead kept in parallel arrays of primitives, which are an open addressing hash table keyed by producer id, with
+ * linear probing. The metadata of the retained batches of a producer is kept in consecutive slots of the batch arrays,
+ * from the batch with the lowest sequence. A [[ProducerStateEntry]] is only built when one is read, and is a copy which
+ * does not follow later updates of the table.
+ *
+ * The table also flags the producers which were put or updated since the flags were last cleared, which are the
+ * producers written to a delta snapshot.
+ */
+@nonthreadsafe
+private[log] class ProducerIdTable {
+  import ProducerIdTable._
+
+  private var count = 0
+  private var numChanged = 0
+  // the producer id of each slot, or EmptySlot
+  private var producerIds = new Array[Long](0)
+  private var producerEpochs = new Array[Short](0)
+  private var coordinatorEpochs = new Array[Int](0)
+  private var lastTimestamps = new Array[Long](0)
+  private var txnFirstOffsets = new Array[Long](0)
+  private var changed = new Array[Boolean](0)
+  // the number of retained batches of each slot, whose metadata starts at NumBatches * slot in the batch arrays
+  private var numBatches = new Array[Byte](0)
+  private var batchLastSeqs = new Array[Int](0)
+  private var batchLastOffsets = new Array[Long](0)
+  private var batchOffsetDeltas = new Array[Int](0)
+  private var batchTimestamps = new Array[Long](0)
+
+  def size: Int = count
+
+  def isEmpty: Boolean = count == 0
+
+  def numChangedProducers: Int = numChanged
+
+  def contains(producerId: Long): Boolean = slotOf(producerId) >= 0
+
+  def get(producerId: Long): Option[ProducerStateEntry] = {
+    val slot = slotOf(producerId)
+    if (slot < 0) None else Some(entryAt(slot))
+  }
+
+  /**
+   * Replace the state of the producer of the given entry with it.
+   */
+  def put(entry: ProducerStateEntry): Unit = {
+    val slot = slotFor(entry.producerId)
+    producerEpochs(slot) = entry.producerEpoch
+    numBatches(slot) = 0
+    entry.batchMetadata.foreach(addBatch(slot, _))
+    updateTxnState(slot, entry)
+  }
+
+  /**
+   * Apply the appends of the given entry to the state of its producer, as [[ProducerStateEntry.update]] does.
+   */
+  def update(nextEntry: ProducerStateEntry): Unit = {
+    val slot = slotOf(nextEntry.producerId)
+    if (slot < 0)
+      put(nextEntry)
+    else {
+      if (producerEpochs(slot) != nextEntry.producerEpoch) {
+        numBatches(slot) = 0
+        producerEpochs(slot) = nextEntry.producerEpoch
+      }
+      nextEntry.batchMetadata.foreach(addBatch(slot, _))
+      updateTxnState(slot, nextEntry)
+      markChanged(slot)
+    }
+  }
+
+  /**
+   * @return true if the producer was in the table
+   */
+  def remove(producerId: Long): Boolean = {
+    val slot = slotOf(producerId)
+    if (slot < 0)
+      false
+    else {
+      producerIds(slot) = EmptySlot
+      clearChanged(slot)
+      count -= 1
+      closeGap(slot)
+      // expiration may remove most producers at once, whose slots are released
+      if (producerIds.length > MinCapacity && count * 8 < producerIds.length)
+        rebuild(math.max(MinCapacity, producerIds.length / 4))
+      true
+    }
+  }
+
+  def clear(): Unit = {
+    count = 0
+    numChanged = 0
+    allocate(0)
+  }
+
+  def clearChanged(): Unit = {
+    if (numChanged > 0) {
+      util.Arrays.fill(changed, false)
+      numChanged = 0
+    }
+  }
+
+  /**
+   * Find the retained batch of the producer of the given batch which has its epoch and sequence range, if any.
+   */
+  def findDuplicateBatch(batch: RecordBatch): Option[BatchMetadata] = {
+    val slot = slotOf(batch.producerId)
+    if (slot < 0 || producerEpochs(slot) != batch.producerEpoch)
+      None
+    else {
+      val firstSeq = batch.baseSequence
+      val lastSeq = batch.lastSequence
+      var index = slot * NumBatches
+      val end = index + numBatches(slot)
+      while (index < end) {
+        if (batchLastSeqs(index) == lastSeq &&
+            DefaultRecordBatch.decrementSequence(lastSeq, batchOffsetDeltas(index)) == firstSeq)
+          return Some(batchAt(index))
+        index += 1
+      }
+      None
+    }
+  }
+
+  def foreach(fun: ProducerStateEntry => Unit): Unit = foreachSlot(onlyChanged = false)(slot => fun(entryAt(slot)))
+
+  /**
+   * Apply the function to the used slots, or to those of the changed producers, which can then be read with the slot
+   * accessors without building entries.
+   */
+  def foreachSlot(onlyChanged: Boolean)(fun: Int => Unit): Unit = {
+    var slot = 0
+    while (slot < producerIds.length) {
+      if (producerIds(slot) != EmptySlot && (!onlyChanged || changed(slot)))
+        fun(slot)
+      slot += 1
+    }
+  }
+
+  def producerIdAt(slot: Int): Long = producerIds(slot)
+
+  def producerEpochAt(slot: Int): Short = producerEpochs(slot)
+
+  def coordinatorEpochAt(slot: Int): Int = coordinatorEpochs(slot)
+
+  def lastTimestampAt(slot: Int): Long = lastTimestamps(slot)
+
+  /**
+   * @return The first offset of the ongoing transaction of the producer, or -1 if there is none
+   */
+  def currentTxnFirstOffsetAt(slot: Int): Long = txnFirstOffsets(slot)
+
+  def lastSeqAt(slot: Int): Int =
+    if (numBatches(slot) == 0) RecordBatch.NO_SEQUENCE else batchLastSeqs(lastBatchIndex(slot))
+
+  def lastDataOffsetAt(slot: Int): Long =
+    if (numBatches(slot) == 0) -1L else batchLastOffsets(lastBatchIndex(slot))
+
+  def lastOffsetDeltaAt(slot: Int): Int =
+    if (numBatches(slot) == 0) 0 else batchOffsetDeltas(lastBatchIndex(slot))
+
+  private def lastBatchIndex(slot: Int): Int = slot * NumBatches + numBatches(slot) - 1
+
+  private def batchAt(index: Int): BatchMetadata =
+    BatchMetadata(batchLastSeqs(index), batchLastOffsets(index), batchOffsetDeltas(index), batchTimestamps(index))
+
+  private def entryAt(slot: Int): ProducerStateEntry = {
+    val batches = mutable.Queue.empty[BatchMetadata]
+    var index = slot * NumBatches
+    val end = index + numBatches(slot)
+    while (index < end) {
+      batches += batchAt(index)
+      index += 1
+    }
+    val txnFirstOffset = txnFirstOffsets(slot)
+    new ProducerStateEntry(producerIds(slot), batches, producerEpochs(slot), coordinatorEpochs(slot),
+      lastTimestamps(slot), if (txnFirstOffset == NoTxnFirstOffset) None else Some(txnFirstOffset))
+  }
+
+  private def updateTxnState(slot: Int, entry: ProducerStateEntry): Unit = {
+    coordinatorEpochs(slot) = entry.coordinatorEpoch
+    lastTimestamps(slot) = entry.lastTimestamp
+    txnFirstOffsets(slot) = entry.currentTxnFirstOffset.getOrElse(NoTxnFirstOffset)
+  }
+
+  private def addBatch(slot: Int, batch: BatchMetadata): Unit = {
+    val first = slot * NumBatches
+    var retained: Int = numBatches(slot)
+    if (retained == NumBatches) {
+      // drop the batch with the lowest sequence
+      System.arraycopy(batchLastSeqs, first + 1, batchLastSeqs, first, NumBatches - 1)
+      System.arraycopy(batchLastOffsets, first + 1, batchLastOffsets, first, NumBatches - 1)
+      System.arraycopy(batchOffsetDeltas, first + 1, batchOffsetDeltas, first, NumBatches - 1)
+      System.arraycopy(batchTimestamps, first + 1, batchTimestamps, first, NumBatches - 1)
+      retained -= 1
+    }
+    val index = first + retained
+    batchLastSeqs(index) = batch.lastSeq
+    batchLastOffsets(index) = batch.lastOffset
+    batchOffsetDeltas(index) = batch.offsetDelta
+    batchTimestamps(index) = batch.timestamp
+    numBatches(slot) = (retained + 1).toByte
+  }
+
+  private def markChanged(slot: Int): Unit = {
+    if (!changed(slot)) {
+      changed(slot) = true
+      numChanged += 1
+    }
+  }
+
+  private def clearChanged(slot: Int): Unit = {
+    if (changed(slot)) {
+      changed(slot) = false
+      numChanged -= 1
+    }
+  }
+
+  private def slotOf(producerId: Long): Int = {
+    if (count == 0)
+      -1
+    else {
+      val mask = producerIds.length - 1
+      var slot = hashSlot(producerId)
+      while (producerIds(slot) != EmptySlot && producerIds(slot) != producerId)
+        slot = (slot + 1) & mask
+      if (producerIds(slot) == producerId && producerId != EmptySlot) slot else -1
+    }
+  }
+
+  /**
+   * The slot of the given producer, which is added with no batches if it is not in the table, flagged as changed.
+   */
+  private def slotFor(producerId: Long): Int = {
+    var slot = slotOf(producerId)
+    if (slot < 0) {
+      if (producerId == EmptySlot)
+        throw new IllegalArgumentException(s"Invalid producer id $producerId")
+      if ((count + 1) * 4 > producerIds.length * 3)
+        rebuild(math.max(MinCapacity, producerIds.length * 2))
+      slot = freeSlot(producerId)
+      producerIds(slot) = producerId
+      numBatches(slot) = 0
+      count += 1
+    }
+    markChanged(slot)
+    slot
+  }
+
+  private def hashSlot(producerId: Long): Int =
+    ((producerId * 0x9E3779B97F4A7C15L) >>> (64 - Integer.numberOfTrailingZeros(producerIds.length))).toInt
+
+  private def freeSlot(producerId: Long): Int = {
+    val mask = producerIds.length - 1
+    var slot = hashSlot(producerId)
+    while (producerIds(slot) != EmptySlot)
+      slot = (slot + 1) & mask
+    slot
+  }
+
+  /**
+   * Move the entries which probed past a slot that was just emptied, so that every entry stays reachable from the
+   * slot it hashes to.
+   */
+  private def closeGap(emptied: Int): Unit = {
+    val mask = producerIds.length - 1
+    var gap = emptied
+    var slot = (gap + 1) & mask
+    while (producerIds(slot) != EmptySlot) {
+      // the entry may move to the gap unless it hashes to a slot between the gap and its own slot
+      if (((slot - hashSlot(producerIds(slot))) & mask) >= ((slot - gap) & mask)) {
+        copySlot(producerIds, slot, gap)
+        changed(slot) = false
+        producerIds(slot) = EmptySlot
+        gap = slot
+      }
+      slot = (slot + 1) & mask
+    }
+  }
+
+  private def copySlot(fromProducerIds: Array[Long], from: Int, to: Int): Unit = {
+    copySlot(fromProducerIds, producerEpochs, coordinatorEpochs, lastTimestamps, txnFirstOffsets, changed, numBatches,
+      batchLastSeqs, batchLastOffsets, batchOffsetDeltas, batchTimestamps, from, to)
+  }
+
+  private def copySlot(fromProducerIds: Array[Long],
+                       fromProducerEpochs: Array[Short],
+                       fromCoordinatorEpochs: Array[Int],
+                       fromLastTimestamps: Array[Long],
+                       fromTxnFirstOffsets: Array[Long],
+                       fromChanged: Array[Boolean],
+                       fromNumBatches: Array[Byte],
+                       fromBatchLastSeqs: Array[Int],
+                       fromBatchLastOffsets: Array[Long],
+                       fromBatchOffsetDeltas: Array[Int],
+                       fromBatchTimestamps: Array[Long],
+                       from: Int,
+                       to: Int): Unit = {
+    producerIds(to) = fromProducerIds(from)
+    producerEpochs(to) = fromProducerEpochs(from)
+    coordinatorEpochs(to) = fromCoordinatorEpochs(from)
+    lastTimestamps(to) = fromLastTimestamps(from)
+    txnFirstOffsets(to) = fromTxnFirstOffsets(from)
+    changed(to) = fromChanged(from)
+    numBatches(to) = fromNumBatches(from)
+    System.arraycopy(fromBatchLastSeqs, from * NumBatches, batchLastSeqs, to * NumBatches, NumBatches)
+    System.arraycopy(fromBatchLastOffsets, from * NumBatches, batchLastOffsets, to * NumBatches, NumBatches)
+    System.arraycopy(fromBatchOffsetDeltas, from * NumBatches, batchOffsetDeltas, to * NumBatches, NumBatches)
+    System.arraycopy(fromBatchTimestamps, from * NumBatches, batchTimestamps, to * NumBatches, NumBatches)
+  }
+
+  private def allocate(capacity: Int): Unit = {
+    producerIds = Array.fill(capacity)(EmptySlot)
+    producerEpochs = new Array[Short](capacity)
+    coordinatorEpochs = new Array[Int](capacity)
+    lastTimestamps = new Array[Long](capacity)
+    txnFirstOffsets = new Array[Long](capacity)
+    changed = new Array[Boolean](capacity)
+    numBatches = new Array[Byte](capacity)
+    batchLastSeqs = new Array[Int](capacity * NumBatches)
+    batchLastOffsets = new Array[Long](capacity * NumBatches)
+    batchOffsetDeltas = new Array[Int](capacity * NumBatches)
+    batchTimestamps = new Array[Long](capacity * NumBatches)
+  }
+
+  /**
+   * Reallocate the slots with the given capacity, which is a power of two larger than the number of producers.
+   */
+  private def rebuild(capacity: Int): Unit = {
+    val oldProducerIds = producerIds
+    val oldProducerEpochs = producerEpochs
+    val oldCoordinatorEpochs = coordinatorEpochs
+    val oldLastTimestamps = lastTimestamps
+    val oldTxnFirstOffsets = txnFirstOffsets
+    val oldChanged = changed
+    val oldNumBatches = numBatches
+    val oldBatchLastSeqs = batchLastSeqs
+    val oldBatchLastOffsets = batchLastOffsets
+    val oldBatchOffsetDeltas = batchOffsetDeltas
+    val oldBatchTimestamps = batchTimestamps
+    allocate(capacity)
+
+    var oldSlot = 0
+    while (oldSlot < oldProducerIds.length) {
+      val producerId = oldProducerIds(oldSlot)
+      if (producerId != EmptySlot) {
+        copySlot(oldProducerIds, oldProducerEpochs, oldCoordinatorEpochs, oldLastTimestamps, oldTxnFirstOffsets,
+          oldChanged, oldNumBatches, oldBatchLastSeqs, oldBatchLastOffsets, oldBatchOffsetDeltas, oldBatchTimestamps,
+          oldSlot, freeSlot(producerId))
+      }
+      oldSlot += 1
+    }
+  }
+
+  override def toString: String = {
+    val entries = new mutable.ArrayBuffer[String](count)
+    foreach(entries += _.toString)
+    entries.mkString("ProducerIdTable(", ", ", ")")
+  }
+}
+
+private[log] object ProducerIdTable {
+  private val EmptySlot = RecordBatch.NO_PRODUCER_ID
+  private val NoTxnFirstOffset = -1L
+  private val NumBatches = ProducerStateEntry.NumBatchesToRetain
+  private val MinCapacity = 8
+}
@@ -16,8 +16,8 @@
  */
 package kafka.log
 
-import java.io.File
-import java.nio.ByteBuffer
+import java.io.{File, IOException}
+import java.nio.{BufferUnderflowException, ByteBuffer}
 import java.nio.channels.FileChannel
 import java.nio.file.{Files, NoSuchFileException, StandardOpenOption}
 import java.util.concurrent.ConcurrentSkipListMap
@@ -345,8 +345,17 @@ private[log] class ProducerAppendInfo(val topicPartition: TopicPartition,
   }
 }
 
+/**
+ * The producers of a snapshot file. A delta snapshot only holds the producers which changed, and the ids of those
+ * which were removed, since the snapshot at its base offset.
+ */
+case class ProducerSnapshot(baseOffset: Option[Long],
+                            removedProducerIds: Seq[Long],
+                            entries: Iterable[ProducerStateEntry])
+
 object ProducerStateManager {
   private val ProducerSnapshotVersion: Short = 1
+  private val DeltaProducerSnapshotVersion: Short = 2
   private val VersionField = "version"
   private val CrcField = "crc"
   private val ProducerIdField = "producer_id"
@@ -362,6 +371,12 @@ object ProducerStateManager {
   private val VersionOffset = 0
   private val CrcOffset = VersionOffset + 2
   private val ProducerEntriesOffset = CrcOffset + 4
+  // the base offset of a delta snapshot follows the crc, and the removed producer ids and the entries follow it
+  private val BaseOffsetOffset = ProducerEntriesOffset
+  private val DeltaHeaderSize = BaseOffsetOffset + 8
+  private val NoBaseOffset = -1L
+  // the size of an entry of ProducerSnapshotEntrySchema
+  private val EntrySize = 8 + 2 + 4 + 8 + 4 + 8 + 4 + 8
 
   val ProducerSnapshotEntrySchema = new Schema(
     new Field(ProducerIdField, Type.INT64, "The producer ID"),
@@ -377,9 +392,18 @@ object ProducerStateManager {
     new Field(CrcField, Type.UNSIGNED_INT32, "CRC of the snapshot data"),
     new Field(ProducerEntriesField, new ArrayOf(ProducerSnapshotEntrySchema), "The entries in the producer table"))
 
-  def readSnapshot(file: File): Iterable[ProducerStateEntry] = {
+  def readSnapshot(file: File): Iterable[ProducerStateEntry] = readSnapshotFile(file).entries
+
+  def readSnapshotFile(file: File): ProducerSnapshot = {
+    val buffer = Files.readAllBytes(file.toPath)
+    if (buffer.length >= CrcOffset && ByteBuffer.wrap(buffer).getShort(VersionOffset) == DeltaProducerSnapshotVersion)
+      readDeltaSnapshot(buffer)
+    else
+      ProducerSnapshot(None, Seq.empty, readFullSnapshot(buffer))
+  }
+
+  private def readFullSnapshot(buffer: Array[Byte]): Iterable[ProducerStateEntry] = {
     try {
-      val buffer = Files.readAllBytes(file.toPath)
       val struct = PidSnapshotMapSchema.read(ByteBuffer.wrap(buffer))
 
       val version = struct.getShort(VersionField)
@@ -394,21 +418,15 @@ object ProducerStateManager {
 
       struct.getArray(ProducerEntriesField).map { producerEntryObj =>
         val producerEntryStruct = producerEntryObj.asInstanceOf[Struct]
-        val producerId = producerEntryStruct.getLong(ProducerIdField)
-        val producerEpoch = producerEntryStruct.getShort(ProducerEpochField)
-        val seq = producerEntryStruct.getInt(LastSequenceField)
-        val offset = producerEntryStruct.getLong(LastOffsetField)
-        val timestamp = producerEntryStruct.getLong(TimestampField)
-        val offsetDelta = producerEntryStruct.getInt(OffsetDeltaField)
-        val coordinatorEpoch = producerEntryStruct.getInt(CoordinatorEpochField)
-        val currentTxnFirstOffset = producerEntryStruct.getLong(CurrentTxnFirstOffsetField)
-        val lastAppendedDataBatches = mutable.Queue.empty[BatchMetadata]
-        if (offset >= 0)
-          lastAppendedDataBatches += BatchMetadata(seq, offset, offsetDelta, timestamp)
-
-        val newEntry = new ProducerStateEntry(producerId, lastAppendedDataBatches, producerEpoch,
-          coordinatorEpoch, timestamp, if (currentTxnFirstOffset >= 0) Some(currentTxnFirstOffset) else None)
-        newEntry
+        newEntry(
+          producerId = producerEntryStruct.getLong(ProducerIdField),
+          producerEpoch = producerEntryStruct.getShort(ProducerEpochField),
+          seq = producerEntryStruct.getInt(LastSequenceField),
+          offset = producerEntryStruct.getLong(LastOffsetField),
+          offsetDelta = producerEntryStruct.getInt(OffsetDeltaField),
+          timestamp = producerEntryStruct.getLong(TimestampField),
+          coordinatorEpoch = producerEntryStruct.getInt(CoordinatorEpochField),
+          currentTxnFirstOffset = producerEntryStruct.getLong(CurrentTxnFirstOffsetField))
       }
     } catch {
       case e: SchemaException =>
@@ -416,34 +434,124 @@ object ProducerStateManager {
     }
   }
 
-  private def writeSnapshot(file: File, entries: mutable.Map[Long, ProducerStateEntry]): Unit = {
-    val struct = new Struct(PidSnapshotMapSchema)
-    struct.set(VersionField, ProducerSnapshotVersion)
-    struct.set(CrcField, 0L) // we'll fill this after writing the entries
-    val entriesArray = entries.map {
-      case (producerId, entry) =>
-        val producerEntryStruct = struct.instance(ProducerEntriesField)
-        producerEntryStruct.set(ProducerIdField, producerId)
-          .set(ProducerEpochField, entry.producerEpoch)
-          .set(LastSequenceField, entry.lastSeq)
-          .set(LastOffsetField, entry.lastDataOffset)
-          .set(OffsetDeltaField, entry.lastOffsetDelta)
-          .set(TimestampField, entry.lastTimestamp)
-          .set(CoordinatorEpochField, entry.coordinatorEpoch)
-          .set(CurrentTxnFirstOffsetField, entry.currentTxnFirstOffset.getOrElse(-1L))
-        producerEntryStruct
-    }.toArray
-    struct.set(ProducerEntriesField, entriesArray)
-
-    val buffer = ByteBuffer.allocate(struct.sizeOf)
-    struct.writeTo(buffer)
+  private def readDeltaSnapshot(bytes: Array[Byte]): ProducerSnapshot = {
+    try {
+      val buffer = ByteBuffer.wrap(bytes)
+      val crc = ByteUtils.readUnsignedInt(buffer, CrcOffset)
+      val computedCrc = Crc32C.compute(bytes, ProducerEntriesOffset, bytes.length - ProducerEntriesOffset)
+      if (crc != computedCrc)
+        throw new CorruptSnapshotException(s"Snapshot is corrupt (CRC is no longer valid). " +
+          s"Stored crc: $crc. Computed crc: $computedCrc")
+
+      buffer.position(BaseOffsetOffset)
+      val baseOffset = buffer.getLong()
+      val removedProducerIds = Array.fill(readCount(buffer, 8))(buffer.getLong())
+      val entries = Array.fill(readCount(buffer, EntrySize)) {
+        newEntry(
+          producerId = buffer.getLong(),
+          producerEpoch = buffer.getShort(),
+          seq = buffer.getInt(),
+          offset = buffer.getLong(),
+          offsetDelta = buffer.getInt(),
+          timestamp = buffer.getLong(),
+          coordinatorEpoch = buffer.getInt(),
+          currentTxnFirstOffset = buffer.getLong())
+      }
+      if (buffer.hasRemaining)
+        throw new CorruptSnapshotException(s"Snapshot has ${buffer.remaining} unexpected trailing bytes")
+      ProducerSnapshot(if (baseOffset == NoBaseOffset) None else Some(baseOffset), removedProducerIds, entries)
+    } catch {
+      case _: BufferUnderflowException =>
+        throw new CorruptSnapshotException("Snapshot is truncated")
+    }
+  }
+
+  private def readCount(buffer: ByteBuffer, elementSize: Int): Int = {
+    val count = buffer.getInt()
+    if (count < 0 || count.toLong * elementSize > buffer.remaining)
+      throw new CorruptSnapshotException(s"Snapshot has an invalid number of elements $count")
+    count
+  }
+
+  private def newEntry(producerId: Long,
+                       producerEpoch: Short,
+                       seq: Int,
+                       offset: Long,
+                       offsetDelta: Int,
+                       timestamp: Long,
+                       coordinatorEpoch: Int,
+                       currentTxnFirstOffset: Long): ProducerStateEntry = {
+    val lastAppendedDataBatches = mutable.Queue.empty[BatchMetadata]
+    if (offset >= 0)
+      lastAppendedDataBatches += BatchMetadata(seq, offset, offsetDelta, timestamp)
+
+    new ProducerStateEntry(producerId, lastAppendedDataBatches, producerEpoch,
+      coordinatorEpoch, timestamp, if (currentTxnFirstOffset >= 0) Some(currentTxnFirstOffset) else None)
+  }
+
+  /**
+   * Read the base offset of the given snapshot file if it is a delta snapshot.
+   */
+  private[log] def readSnapshotBaseOffset(file: File): Option[Long] = {
+    try {
+      val channel = FileChannel.open(file.toPath, StandardOpenOption.READ)
+      try {
+        val header = ByteBuffer.allocate(DeltaHeaderSize)
+        while (header.hasRemaining && channel.read(header) >= 0) {}
+        if (header.hasRemaining || header.getShort(VersionOffset) != DeltaProducerSnapshotVersion)
+          None
+        else
+          Some(header.getLong(BaseOffsetOffset)).filter(_ != NoBaseOffset)
+      } finally {
+        channel.close()
+      }
+    } catch {
+      case _: IOException => None
+    }
+  }
+
+  /**
+   * Write a snapshot of the given producers. A full snapshot is written in the version readable by all brokers, the
+   * entries are written directly in the layout of [[PidSnapshotMapSchema]].
+   *
+   * @param baseOffset The offset of the snapshot the given producers changed since, if this is a delta snapshot
+   * @param removedProducerIds The producers removed since the base snapshot
+   * @param onlyChanged Whether only the producers flagged as changed in the table are written
+   */
+  private def writeSnapshot(file: File,
+                            baseOffset: Option[Long],
+                            removedProducerIds: collection.Set[Long],
+                            producers: ProducerIdTable,
+                            onlyChanged: Boolean): Unit = {
+    val numEntries = if (onlyChanged) producers.numChangedProducers else producers.size
+    val headerSize = if (baseOffset.isDefined) DeltaHeaderSize + 4 + 8 * removedProducerIds.size else ProducerEntriesOffset
+    val buffer = ByteBuffer.allocate(headerSize + 4 + EntrySize * numEntries)
+    buffer.putShort(if (baseOffset.isDefined) DeltaProducerSnapshotVersion else ProducerSnapshotVersion)
+    buffer.putInt(0) // we'll fill the crc after writing the entries
+    baseOffset.foreach { offset =>
+      buffer.putLong(offset)
+      buffer.putInt(removedProducerIds.size)
+      removedProducerIds.foreach(buffer.putLong)
+    }
+    buffer.putInt(numEntries)
+    producers.foreachSlot(onlyChanged) { slot =>
+      buffer.putLong(producers.producerIdAt(slot))
+        .putShort(producers.producerEpochAt(slot))
+        .putInt(producers.lastSeqAt(slot))
+        .putLong(producers.lastDataOffsetAt(slot))
+        .putInt(producers.lastOffsetDeltaAt(slot))
+        .putLong(producers.lastTimestampAt(slot))
+        .putInt(producers.coordinatorEpochAt(slot))
+        .putLong(producers.currentTxnFirstOffsetAt(slot))
+    }
     buffer.flip()
 
     // now fill in the CRC
     val crc = Crc32C.compute(buffer, ProducerEntriesOffset, buffer.limit() - ProducerEntriesOffset)
     ByteUtils.writeUnsignedInt(buffer, CrcOffset, crc)
 
-    val fileChannel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+    val fileChannel = FileChannel.open(file.toPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+      StandardOpenOption.TRUNCATE_EXISTING)
     try {
       fileChannel.write(buffer)
       fileChannel.force(true)
@@ -479,12 +587,19 @@ object ProducerStateManager {
  * age. This ensures that producer ids will not be expired until either the max expiration time has been reached,
  * or if the topic also is configured for deletion, the segment containing the last written offset has
  * been deleted.
+ *
+ * If maxDeltaSnapshots is positive, a snapshot may be written as a delta of the previous snapshot, holding only the
+ * producers which changed since, for at most that many snapshots in a row. The snapshots a delta is based on are
+ * retained for as long as any snapshot based on them is, so that every retained snapshot can be loaded.
+ *
+ * The producers are kept in a [[ProducerIdTable]], and a [[ProducerStateEntry]] is only built when one is read.
  */
 @nonthreadsafe
 class ProducerStateManager(val topicPartition: TopicPartition,
                            @volatile var _logDir: File,
                            val maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
-                           val time: Time = Time.SYSTEM) extends Logging {
+                           val time: Time = Time.SYSTEM,
+                           val maxDeltaSnapshots: Int = 0) extends Logging {
   import ProducerStateManager._
   import java.util
 
@@ -494,10 +609,17 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     loadSnapshots()
   }
 
-  private val producers = mutable.Map.empty[Long, ProducerStateEntry]
+  private val producers = new ProducerIdTable
   private var lastMapOffset = 0L
   private var lastSnapOffset = 0L
 
+  // the producers removed since the snapshot at deltaBaseOffset, which is the latest snapshot written or loaded, and
+  // the number of delta snapshots which were written in a row up to it. The producers changed since are flagged in
+  // the table.
+  private val removedProducers = mutable.HashSet.empty[Long]
+  private var deltaBaseOffset: Option[Long] = None
+  private var numDeltaSnapshots = 0
+
   // ongoing transactions sorted by the first offset of the transaction
   private val ongoingTxns = new util.TreeMap[Long, TxnMetadata]
 
@@ -531,10 +653,11 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    */
   private[log] def removeStraySnapshots(segmentBaseOffsets: Seq[Long]): Unit = {
     val maxSegmentBaseOffset = if (segmentBaseOffsets.isEmpty) None else Some(segmentBaseOffsets.max)
-    val baseOffsets = segmentBaseOffsets.toSet
+    val ss = loadSnapshots()
+    // the snapshots the others are based on are needed to load them
+    val baseOffsets = segmentBaseOffsets.toSet ++ deltaBaseOffsets(ss, ss.values().asScala)
     var latestStraySnapshot: Option[SnapshotFile] = None
 
-    val ss = loadSnapshots()
     for (snapshot <- ss.values().asScala) {
       val key = snapshot.offset
       latestStraySnapshot match {
@@ -604,7 +727,11 @@ class ProducerStateManager(val topicPartition: TopicPartition,
   /**
    * Get a copy of the active producers
    */
-  def activeProducers: immutable.Map[Long, ProducerStateEntry] = producers.toMap
+  def activeProducers: immutable.Map[Long, ProducerStateEntry] = {
+    val activeProducers = immutable.Map.newBuilder[Long, ProducerStateEntry]
+    producers.foreach(entry => activeProducers += entry.producerId -> entry)
+    activeProducers.result()
+  }
 
   def isEmpty: Boolean = producers.isEmpty && unreplicatedTxns.isEmpty
 
@@ -614,41 +741,133 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         case Some(snapshot) =>
           try {
             info(s"Loading producer state from snapshot file '$snapshot'")
-            val loadedProducers = readSnapshot(snapshot.file).filter { producerEntry => !isProducerExpired(currentTime, producerEntry) }
-            loadedProducers.foreach(loadProducerEntry)
+            val numDeltas = readSnapshotChain(snapshot, producers)
+            val expiredProducerIds = expiredProducers(currentTime)
+            expiredProducerIds.foreach(producers.remove)
+            producers.foreachSlot(onlyChanged = false) { slot =>
+              val txnFirstOffset = producers.currentTxnFirstOffsetAt(slot)
+              if (txnFirstOffset >= 0)
+                ongoingTxns.put(txnFirstOffset, new TxnMetadata(producers.producerIdAt(slot), txnFirstOffset))
+            }
             lastSnapOffset = snapshot.offset
             lastMapOffset = lastSnapOffset
+            // the next delta snapshot is based on this one, which still holds the expired producers
+            resetDeltaTracking(Some(snapshot.offset), numDeltas)
+            expiredProducerIds.foreach(markRemoved)
             return
           } catch {
             case e: CorruptSnapshotException =>
               warn(s"Failed to load producer snapshot from '${snapshot.file}': ${e.getMessage}")
+              producers.clear()
               removeAndDeleteSnapshot(snapshot.offset)
           }
         case None =>
           lastSnapOffset = logStartOffset
           lastMapOffset = logStartOffset
+          resetDeltaTracking(None, 0)
           return
       }
     }
   }
 
+  /**
+   * Read the producers of the given snapshot into the given empty table, applying it to the snapshots it is based on
+   * if it is a delta snapshot.
+   *
+   * @return The number of delta snapshots read
+   */
+  private def readSnapshotChain(snapshot: SnapshotFile, loadedProducers: ProducerIdTable): Int = {
+    val snapshotProducers = readSnapshotFile(snapshot.file)
+    val numDeltas = snapshotProducers.baseOffset match {
+      case None => 0
+      case Some(baseOffset) =>
+        val baseSnapshot = Option(snapshots.get(baseOffset)).filter(_ => baseOffset < snapshot.offset).getOrElse {
+          throw new CorruptSnapshotException(s"Snapshot is a delta of the missing snapshot at offset $baseOffset")
+        }
+        val numBaseDeltas = readSnapshotChain(baseSnapshot, loadedProducers)
+        snapshotProducers.removedProducerIds.foreach(loadedProducers.remove)
+        numBaseDeltas + 1
+    }
+    snapshotProducers.entries.foreach(loadedProducers.put)
+    numDeltas
+  }
+
+  private def deltaSnapshotsEnabled: Boolean = maxDeltaSnapshots > 0
+
+  // the table flags the producer as changed
+  private def markChanged(producerId: Long): Unit = {
+    if (deltaSnapshotsEnabled)
+      removedProducers.remove(producerId)
+  }
+
+  private def markRemoved(producerId: Long): Unit = {
+    if (deltaSnapshotsEnabled)
+      removedProducers.add(producerId)
+  }
+
+  private def resetDeltaTracking(baseOffset: Option[Long], numDeltas: Int): Unit = {
+    producers.clearChanged()
+    removedProducers.clear()
+    deltaBaseOffset = if (deltaSnapshotsEnabled) baseOffset else None
+    numDeltaSnapshots = numDeltas
+  }
+
+  /**
+   * The offsets of the snapshots any of the retained snapshots is based on, directly or through other deltas, which
+   * must be retained with them. The snapshots are only read when delta snapshots are enabled; otherwise a delta
+   * snapshot left from when they were enabled loses its base snapshots like any other snapshot, and is then treated
+   * as corrupt.
+   */
+  private def deltaBaseOffsets(snapshots: ConcurrentSkipListMap[java.lang.Long, SnapshotFile],
+                               retained: Iterable[SnapshotFile]): Set[Long] = {
+    if (!deltaSnapshotsEnabled)
+      return Set.empty
+    val baseOffsets = mutable.Set.empty[Long]
+    retained.foreach { retainedSnapshot =>
+      var snapshot = Option(retainedSnapshot)
+      while (snapshot.isDefined) {
+        val current = snapshot.get
+        // a chain already walked from another retained snapshot is not read again
+        snapshot = readSnapshotBaseOffset(current.file).filter(_ < current.offset).flatMap { baseOffset =>
+          if (baseOffsets.add(baseOffset)) Option(snapshots.get(baseOffset)) else None
+        }
+      }
+    }
+    baseOffsets.toSet
+  }
+
   // visible for testing
   private[log] def loadProducerEntry(entry: ProducerStateEntry): Unit = {
     val producerId = entry.producerId
-    producers.put(producerId, entry)
+    producers.put(entry)
+    markChanged(producerId)
     entry.currentTxnFirstOffset.foreach { offset =>
       ongoingTxns.put(offset, new TxnMetadata(producerId, offset))
     }
   }
 
-  private def isProducerExpired(currentTimeMs: Long, producerState: ProducerStateEntry): Boolean =
-    producerState.currentTxnFirstOffset.isEmpty && currentTimeMs - producerState.lastTimestamp >= maxProducerIdExpirationMs
+  /**
+   * The ids of the producers without an ongoing transaction which have been idle longer than the configured maximum
+   * expiration timeout.
+   */
+  private def expiredProducers(currentTimeMs: Long): Seq[Long] = {
+    val expiredProducerIds = mutable.ArrayBuffer.empty[Long]
+    producers.foreachSlot(onlyChanged = false) { slot =>
+      if (producers.currentTxnFirstOffsetAt(slot) < 0 &&
+          currentTimeMs - producers.lastTimestampAt(slot) >= maxProducerIdExpirationMs)
+        expiredProducerIds += producers.producerIdAt(slot)
+    }
+    expiredProducerIds
+  }
 
   /**
    * Expire any producer ids which have been idle longer than the configured maximum expiration timeout.
    */
   def removeExpiredProducers(currentTimeMs: Long): Unit = {
-    producers --= producers.filter { case (_, lastEntry) => isProducerExpired(currentTimeMs, lastEntry) }.keySet
+    expiredProducers(currentTimeMs).foreach { producerId =>
+      producers.remove(producerId)
+      markRemoved(producerId)
+    }
   }
 
   /**
@@ -660,9 +879,15 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    * to the high watermark.
    */
   def truncateAndReload(logStartOffset: Long, logEndOffset: Long, currentTimeMs: Long): Unit = {
-    // remove all out of range snapshots
+    // remove all out of range snapshots, except for those the remaining snapshots are based on
+    snapshots.values().asScala.foreach { snapshot =>
+      if (snapshot.offset > logEndOffset) {
+        removeAndDeleteSnapshot(snapshot.offset)
+      }
+    }
+    val baseOffsets = deltaBaseOffsets(snapshots, snapshots.tailMap(logStartOffset, false).values().asScala)
     snapshots.values().asScala.foreach { snapshot =>
-      if (snapshot.offset > logEndOffset || snapshot.offset <= logStartOffset) {
+      if (snapshot.offset <= logStartOffset && !baseOffsets.contains(snapshot.offset)) {
         removeAndDeleteSnapshot(snapshot.offset)
       }
     }
@@ -694,14 +919,8 @@ class ProducerStateManager(val topicPartition: TopicPartition,
         s"for partition $topicPartition")
 
     trace(s"Updated producer ${appendInfo.producerId} state to $appendInfo")
-    val updatedEntry = appendInfo.toEntry
-    producers.get(appendInfo.producerId) match {
-      case Some(currentEntry) =>
-        currentEntry.update(updatedEntry)
-
-      case None =>
-        producers.put(appendInfo.producerId, updatedEntry)
-    }
+    producers.update(appendInfo.toEntry)
+    markChanged(appendInfo.producerId)
 
     appendInfo.startedTransactions.foreach { txn =>
       ongoingTxns.put(txn.firstOffset.messageOffset, txn)
@@ -713,10 +932,16 @@ class ProducerStateManager(val topicPartition: TopicPartition,
   }
 
   /**
-   * Get the last written entry for the given producer id.
+   * Get the last written entry for the given producer id. The entry is a copy, which is not updated by later appends.
    */
   def lastEntry(producerId: Long): Option[ProducerStateEntry] = producers.get(producerId)
 
+  /**
+   * Find the retained batch of the producer of the given batch which has its epoch and sequence range, if any,
+   * without building the entry of the producer.
+   */
+  def findDuplicateBatch(batch: RecordBatch): Option[BatchMetadata] = producers.findDuplicateBatch(batch)
+
   /**
    * Take a snapshot at the current end offset if one does not already exist.
    */
@@ -725,8 +950,22 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     if (lastMapOffset > lastSnapOffset) {
       val snapshotFile = SnapshotFile(Log.producerSnapshotFile(_logDir, lastMapOffset))
       val start = time.hiResClockMs()
-      writeSnapshot(snapshotFile.file, producers)
-      info(s"Wrote producer snapshot at offset $lastMapOffset with ${producers.size} producer ids in ${time.hiResClockMs() - start} ms.")
+      // a delta is only worth writing while it is much smaller than the full snapshot
+      val baseOffset = deltaBaseOffset.filter { offset =>
+        numDeltaSnapshots < maxDeltaSnapshots && offset < lastMapOffset && snapshots.containsKey(offset) &&
+          (producers.numChangedProducers + removedProducers.size) * 2 < producers.size
+      }
+      baseOffset match {
+        case Some(offset) =>
+          writeSnapshot(snapshotFile.file, Some(offset), removedProducers, producers, onlyChanged = true)
+          info(s"Wrote producer snapshot at offset $lastMapOffset as a delta of the snapshot at offset $offset with " +
+            s"${producers.numChangedProducers} changed and ${removedProducers.size} removed producer ids in ${time.hiResClockMs() - start} ms.")
+          resetDeltaTracking(Some(lastMapOffset), numDeltaSnapshots + 1)
+        case None =>
+          writeSnapshot(snapshotFile.file, None, Set.empty, producers, onlyChanged = false)
+          info(s"Wrote producer snapshot at offset $lastMapOffset with ${producers.size} producer ids in ${time.hiResClockMs() - start} ms.")
+          resetDeltaTracking(Some(lastMapOffset), 0)
+      }
 
       snapshots.put(snapshotFile.offset, snapshotFile)
 
@@ -735,8 +974,27 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     }
   }
 
+  /**
+   * Get the snapshot file at the given offset, which is written as a full snapshot first if it is a delta snapshot so
+   * that it can be read without the snapshots it is based on. The header is only read while delta snapshots are
+   * enabled.
+   */
   def fetchSnapshot(offset:Long): Option[File] = {
-    Option(snapshots.get(offset)).map(_.file)
+    Option(snapshots.get(offset)).map { snapshot =>
+      if (deltaSnapshotsEnabled && readSnapshotBaseOffset(snapshot.file).isDefined) {
+        try {
+          val snapshotProducers = new ProducerIdTable
+          readSnapshotChain(snapshot, snapshotProducers)
+          val tmpFile = new File(snapshot.file.getAbsolutePath + ".tmp")
+          writeSnapshot(tmpFile, None, Set.empty, snapshotProducers, onlyChanged = false)
+          Utils.atomicMoveWithFallback(tmpFile.toPath, snapshot.file.toPath)
+        } catch {
+          case e: CorruptSnapshotException =>
+            warn(s"Failed to write the delta producer snapshot '${snapshot.file}' as a full snapshot: ${e.getMessage}")
+        }
+      }
+      snapshot.file
+    }
   }
 
   /**
@@ -797,6 +1055,7 @@ class ProducerStateManager(val topicPartition: TopicPartition,
     snapshots.values().asScala.foreach { snapshot =>
       removeAndDeleteSnapshot(snapshot.offset)
     }
+    resetDeltaTracking(None, 0)
     lastSnapOffset = 0L
     lastMapOffset = offset
   }
@@ -827,8 +1086,10 @@ class ProducerStateManager(val topicPartition: TopicPartition,
 
   @threadsafe
   def deleteSnapshotsBefore(offset: Long): Unit = {
+    val baseOffsets = deltaBaseOffsets(snapshots, snapshots.tailMap(offset).values().asScala)
     snapshots.subMap(0, offset).values().asScala.foreach { snapshot =>
-      removeAndDeleteSnapshot(snapshot.offset)
+      if (!baseOffsets.contains(snapshot.offset))
+        removeAndDeleteSnapshot(snapshot.offset)
     }
   }
 
@@ -857,6 +1118,10 @@ class ProducerStateManager(val topicPartition: TopicPartition,
    *       SnapshotFile rename will be ignored and None will be returned.
    */
   private[log] def removeAndMarkSnapshotForDeletion(snapshotOffset: Long): Option[SnapshotFile] = {
+    // the snapshots the others are based on are retained with them
+    val retained = snapshots.values().asScala.filter(_.offset != snapshotOffset)
+    if (deltaBaseOffsets(snapshots, retained).contains(snapshotOffset))
+      return None
     Option(snapshots.remove(snapshotOffset)).flatMap { snapshot => {
       // If the file cannot be renamed, it likely means that the file was deleted already.
       // This can happen due to the way we construct an intermediate producer state manager
@@ -32,13 +32,13 @@ import kafka.network.Processor._
 import kafka.network.RequestChannel.{CloseConnectionResponse, EndThrottlingResponse, NoOpResponse, SendResponse, StartThrottlingResponse}
 import kafka.network.SocketServer._
 import kafka.security.CredentialProvider
-import kafka.server.{ApiVersionManager, BrokerReconfigurable, KafkaConfig, Observer}
+import kafka.server.{ApiVersionManager, BrokerReconfigurable, Defaults, KafkaConfig, Observer}
 import kafka.utils.Implicits._
 import kafka.utils._
 import org.apache.kafka.common.config.ConfigException
 import org.apache.kafka.common.config.internals.QuotaConfigs
 import org.apache.kafka.common.errors.InvalidRequestException
-import org.apache.kafka.common.memory.{MemoryPool, RecyclingMemoryPool, SimpleMemoryPool}
+import org.apache.kafka.common.memory.{MemoryPool, RecyclingMemoryPool, SimpleMemoryPool, SizeClassedMemoryPool, StripedRecyclingMemoryPool}
 import org.apache.kafka.common.metrics._
 import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing
 import org.apache.kafka.common.metrics.stats.{Avg, CumulativeSum, Max, Meter, Percentile, Percentiles, Rate}
@@ -101,7 +101,16 @@ class SocketServer(val config: KafkaConfig,
   // At current stage, we do not know the max decrypted request size, temporarily set it to 10MB.
   memoryPoolAllocationSensor.add(new Percentiles(400, 0.0, 10485760, BucketSizing.CONSTANT, percentiles:_*))
   private val memoryPool = if (config.queuedMaxBytes > 0) new SimpleMemoryPool(config.queuedMaxBytes, config.socketRequestMaxBytes, false, memoryPoolUsageSensor, memoryPoolAllocationSensor)
-                           else if (config.socketRequestCommonBytes > 0) new RecyclingMemoryPool(config.socketRequestCommonBytes, config.socketRequestBufferCacheSize, memoryPoolAllocationSensor)
+                           else if (config.socketRequestCommonBytes > 0) config.socketRequestBufferCacheType match {
+                             case Defaults.SocketRequestBufferCacheTypeStriped =>
+                               new StripedRecyclingMemoryPool(config.socketRequestCommonBytes, config.socketRequestBufferCacheSize, memoryPoolAllocationSensor)
+                             case Defaults.SocketRequestBufferCacheTypeSizeClassed =>
+                               new SizeClassedMemoryPool(math.min(config.socketRequestBufferCacheMinClassBytes, config.socketRequestCommonBytes),
+                                 config.socketRequestCommonBytes, config.socketRequestBufferCacheSize, config.socketRequestBufferCacheMaxBytes,
+                                 memoryPoolAllocationSensor, metrics, MetricsGroup)
+                             case _ =>
+                               new RecyclingMemoryPool(config.socketRequestCommonBytes, config.socketRequestBufferCacheSize, memoryPoolAllocationSensor)
+                           }
                            else MemoryPool.NONE
   // data-plane
   private val dataPlaneProcessors = new ConcurrentHashMap[Int, Processor]()
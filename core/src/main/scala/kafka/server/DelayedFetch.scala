@@ -17,7 +17,7 @@
 
 package kafka.server
 
-import java.util.concurrent.TimeUnit
+import java.util.concurrent.{CompletableFuture, TimeUnit}
 
 import kafka.metrics.KafkaMetricsGroup
 import org.apache.kafka.common.TopicPartition
@@ -66,11 +66,34 @@ class DelayedFetch(delayMs: Long,
                    replicaManager: ReplicaManager,
                    quota: ReplicaQuota,
                    clientMetadata: Option[ClientMetadata],
-                   responseCallback: Seq[(TopicPartition, FetchPartitionData)] => Unit)
-  extends DelayedOperation(delayMs) {
+                   responseCallback: Seq[(TopicPartition, FetchPartitionData)] => Unit,
+                   readAhead: Option[CompletableFuture[Void]] = None)
+  extends DelayedOperation(delayMs) with ProgressIndexedOperation {
 
   import DelayedOperation._
 
+  // the end offset this fetch waits for on each partition, which is the offset following its fetch offset
+  private lazy val thresholdsByKey: Map[Any, ProgressThreshold] = {
+    val progressType = fetchMetadata.fetchIsolation match {
+      case FetchLogEnd => Some(DelayedFetch.LogEndOffsetProgress)
+      case FetchHighWatermark => Some(DelayedFetch.HighWatermarkProgress)
+      // the last stable offset also moves on transaction markers and aborts, check on every event
+      case FetchTxnCommitted => None
+    }
+    progressType.map { progressType =>
+      fetchMetadata.fetchPartitionStatus.collect {
+        case (topicPartition, fetchStatus) if fetchStatus.startOffsetMetadata != LogOffsetMetadata.UnknownOffsetMetadata =>
+          TopicPartitionOperationKey(topicPartition) -> ProgressThreshold(progressType, fetchStatus.startOffsetMetadata.messageOffset + 1)
+      }.toMap[Any, ProgressThreshold]
+    }.getOrElse(Map.empty)
+  }
+
+  /**
+   * Until the end offset of a partition moves past the fetch offset, no data can be returned from it. The other
+   * conditions (Cases A to F and H) come with leadership, log or replica changes, which check all the operations.
+   */
+  override def progressThreshold(key: Any): Option[ProgressThreshold] = thresholdsByKey.get(key)
+
   /**
    * The operation can be completed if:
    *
@@ -83,8 +106,13 @@ class DelayedFetch(delayMs: Long,
    * Case G: The accumulated bytes from all the fetching partitions exceeds the minimum bytes
    * Case H: A diverging epoch was found, return response to trigger truncation
    * Upon completion, should return whatever data is available for each valid partition
+   *
+   * If the data of the fetch is being read ahead (see LogReadAhead), none of the cases apply until it is done.
    */
   override def tryComplete(): Boolean = {
+    if (readAhead.exists(!_.isDone))
+      return false
+
     var accumulatedSize = 0
     fetchMetadata.fetchPartitionStatus.foreach {
       case (topicPartition, fetchStatus) =>
@@ -195,6 +223,12 @@ class DelayedFetch(delayMs: Long,
   }
 }
 
+object DelayedFetch {
+  // the kinds of progress a delayed fetch waits for, see ProgressIndexedOperation
+  val LogEndOffsetProgress = 0
+  val HighWatermarkProgress = 1
+}
+
 object DelayedFetchMetrics extends KafkaMetricsGroup {
   private val FetcherTypeKey = "fetcherType"
   val followerExpiredRequestMeter = newMeter("ExpiresPerSec", "requests", TimeUnit.SECONDS, tags = Map(FetcherTypeKey -> "follower"))
@@ -28,6 +28,7 @@ import kafka.utils.timer._
 
 import scala.collection._
 import scala.collection.mutable.ListBuffer
+import scala.jdk.CollectionConverters._
 
 object DelayedOperation extends Logging {
 
@@ -133,6 +134,27 @@ abstract class DelayedOperation(override val delayMs: Long,
   }
 }
 
+/**
+ * The progress a delayed operation waits for on one of its watch keys before it can possibly be completed, e.g. the
+ * log end offset of a partition moving past the fetch offset of a delayed fetch.
+ *
+ * @param progressType the kind of progress, defined by the operation (e.g. log end offset or high watermark)
+ * @param threshold the progress from which the operation may be completed
+ */
+case class ProgressThreshold(progressType: Int, threshold: Long)
+
+/**
+ * A delayed operation which can tell what progress it waits for on its watch keys. A purgatory indexing its watchers
+ * only tries to complete such an operation on a key when progress of the right kind reaching its threshold is reported
+ * with checkAndCompleteOnProgress, or on any checkAndComplete.
+ */
+trait ProgressIndexedOperation {
+  /**
+   * The progress this operation waits for on the given key, or None if any event on the key may complete it
+   */
+  def progressThreshold(key: Any): Option[ProgressThreshold]
+}
+
 object DelayedOperationPurgatory {
 
   private val Shards = 512 // Shard the watcher list to reduce lock contention
@@ -141,22 +163,28 @@ object DelayedOperationPurgatory {
                                    brokerId: Int = 0,
                                    purgeInterval: Int = 1000,
                                    reaperEnabled: Boolean = true,
-                                   timerEnabled: Boolean = true): DelayedOperationPurgatory[T] = {
-    val timer = new SystemTimer(purgatoryName)
-    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled)
+                                   timerEnabled: Boolean = true,
+                                   lockFreeTimer: Boolean = false,
+                                   indexedWatchers: Boolean = false): DelayedOperationPurgatory[T] = {
+    val timer = if (lockFreeTimer) new LockFreeTimer(purgatoryName) else new SystemTimer(purgatoryName)
+    new DelayedOperationPurgatory[T](purgatoryName, timer, brokerId, purgeInterval, reaperEnabled, timerEnabled, indexedWatchers)
   }
 
 }
 
 /**
  * A helper purgatory class for bookkeeping delayed operations with a timeout, and expiring timed out operations.
+ *
+ * With indexedWatchers, the operations implementing [[ProgressIndexedOperation]] are watched by the progress they wait
+ * for, so that reporting progress on a key only tries to complete the operations whose threshold has been reached.
  */
 final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: String,
                                                              timeoutTimer: Timer,
                                                              brokerId: Int = 0,
                                                              purgeInterval: Int = 1000,
                                                              reaperEnabled: Boolean = true,
-                                                             timerEnabled: Boolean = true)
+                                                             timerEnabled: Boolean = true,
+                                                             indexedWatchers: Boolean = false)
         extends Logging with KafkaMetricsGroup {
   /* a list of operation watching keys */
   private class WatcherList {
@@ -187,6 +215,9 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
   private val metricsTags = Map("delayedOperation" -> purgatoryName)
   newGauge("PurgatorySize", () => watched, metricsTags)
   newGauge("NumDelayedOperations", () => numDelayed, metricsTags)
+  // the number of operations checkAndComplete tries to complete, and the number of them which cannot be completed yet
+  private val tryCompleteMeter = newMeter("TryCompletePerSec", "operations", TimeUnit.SECONDS, metricsTags)
+  private val wastedTryCompleteMeter = newMeter("WastedTryCompletePerSec", "operations", TimeUnit.SECONDS, metricsTags)
 
   if (reaperEnabled)
     expirationReaper.start()
@@ -270,6 +301,24 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     numCompleted
   }
 
+  /**
+   * Check if some delayed operations can be completed with the given watch key after the given progress on the key,
+   * and if yes complete them. With indexed watchers, only the operations waiting for this kind of progress up to the
+   * given value and the operations which are not indexed are checked, otherwise this is the same as checkAndComplete(key).
+   *
+   * @return the number of completed operations during this process
+   */
+  def checkAndCompleteOnProgress(key: Any, progressType: Int, progress: Long): Int = {
+    val wl = watcherList(key)
+    val watchers = inLock(wl.watchersLock) { wl.watchersByKey.get(key) }
+    val numCompleted = if (watchers == null)
+      0
+    else
+      watchers.tryCompleteWatched(progressType, progress)
+    debug(s"Request key $key unblocked $numCompleted $purgatoryName operations on progress $progress of type $progressType")
+    numCompleted
+  }
+
   /**
    * Return the total size of watch lists the purgatory. Since an operation may be watched
    * on multiple lists, and some of its watched entries may still be in the watch lists
@@ -335,54 +384,127 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     timeoutTimer.shutdown()
     removeMetric("PurgatorySize", metricsTags)
     removeMetric("NumDelayedOperations", metricsTags)
+    removeMetric("TryCompletePerSec", metricsTags)
+    removeMetric("WastedTryCompletePerSec", metricsTags)
   }
 
   /**
-   * A linked list of watched delayed operations based on some key
+   * A linked list of watched delayed operations based on some key. With indexed watchers, the operations waiting for
+   * some progress on the key are kept apart, in lists sorted by the progress they wait for.
    */
   private class Watchers(val key: Any) {
     private[this] val operations = new ConcurrentLinkedQueue[T]()
 
+    // the indexed operations by progress type, then by threshold. Empty lists are only removed, and lists only
+    // created, while holding the watchers lock of the key
+    private[this] val indexedOperations = new ConcurrentHashMap[Int, ConcurrentSkipListMap[Long, ConcurrentLinkedQueue[T]]]()
+
     // count the current number of watched operations. This is O(n), so use isEmpty() if possible
-    def countWatched: Int = operations.size
+    def countWatched: Int = operations.size + indexedLists.map(_.size).sum
 
-    def isEmpty: Boolean = operations.isEmpty
+    def isEmpty: Boolean = operations.isEmpty && indexedOperations.values.asScala.forall(_.isEmpty)
 
     // add the element to watch
     def watch(t: T): Unit = {
-      operations.add(t)
+      val threshold = t match {
+        case indexed: ProgressIndexedOperation if indexedWatchers => indexed.progressThreshold(key)
+        case _ => None
+      }
+      threshold match {
+        case Some(ProgressThreshold(progressType, value)) =>
+          indexedOperations.computeIfAbsent(progressType, _ => new ConcurrentSkipListMap[Long, ConcurrentLinkedQueue[T]]())
+            .computeIfAbsent(value, _ => new ConcurrentLinkedQueue[T]())
+            .add(t)
+        case None =>
+          operations.add(t)
+      }
     }
 
     // traverse the list and try to complete some watched elements
     def tryCompleteWatched(): Int = {
+      val completed = tryCompleteOperations(operations) +
+        indexedOperations.values.asScala.iterator.map(tryCompleteIndexed(_, Long.MaxValue)).sum
+
+      if (isEmpty)
+        removeKeyIfEmpty(key, this)
+
+      completed
+    }
+
+    // traverse the list and the indexed lists up to the given progress, and try to complete some watched elements
+    def tryCompleteWatched(progressType: Int, progress: Long): Int = {
+      var completed = tryCompleteOperations(operations)
+      val byThreshold = indexedOperations.get(progressType)
+      if (byThreshold != null)
+        completed += tryCompleteIndexed(byThreshold, progress)
+
+      if (isEmpty)
+        removeKeyIfEmpty(key, this)
+
+      completed
+    }
+
+    private def tryCompleteIndexed(byThreshold: ConcurrentSkipListMap[Long, ConcurrentLinkedQueue[T]], progress: Long): Int = {
       var completed = 0
+      var emptied = false
+      val iter = byThreshold.headMap(progress, true).values.iterator
+      while (iter.hasNext) {
+        val ops = iter.next()
+        completed += tryCompleteOperations(ops)
+        emptied ||= ops.isEmpty
+      }
+      if (emptied)
+        removeEmptyLists(byThreshold)
+      completed
+    }
 
-      val iter = operations.iterator()
+    private def tryCompleteOperations(ops: ConcurrentLinkedQueue[T]): Int = {
+      var completed = 0
+      var tried = 0
+
+      val iter = ops.iterator()
       while (iter.hasNext) {
         val curr = iter.next()
         if (curr.isCompleted) {
           // another thread has completed this operation, just remove it
           iter.remove()
-        } else if (curr.safeTryComplete()) {
-          iter.remove()
-          completed += 1
+        } else {
+          tried += 1
+          if (curr.safeTryComplete()) {
+            iter.remove()
+            completed += 1
+          }
         }
       }
 
-      if (operations.isEmpty)
-        removeKeyIfEmpty(key, this)
-
+      if (tried > 0) {
+        tryCompleteMeter.mark(tried)
+        if (tried > completed)
+          wastedTryCompleteMeter.mark(tried - completed)
+      }
       completed
     }
 
+    // remove the empty indexed lists, holding the watchers lock so that no operation is added to a removed list
+    private def removeEmptyLists(byThreshold: ConcurrentSkipListMap[Long, ConcurrentLinkedQueue[T]]): Unit = {
+      inLock(watcherList(key).watchersLock) {
+        byThreshold.entrySet.removeIf(_.getValue.isEmpty)
+      }
+    }
+
+    private def indexedLists: Iterable[ConcurrentLinkedQueue[T]] =
+      indexedOperations.values.asScala.flatMap(_.values.asScala)
+
     def cancel(): List[T] = {
-      val iter = operations.iterator()
       val cancelled = new ListBuffer[T]()
-      while (iter.hasNext) {
-        val curr = iter.next()
-        curr.cancel()
-        iter.remove()
-        cancelled += curr
+      (Iterator(operations) ++ indexedLists).foreach { ops =>
+        val iter = ops.iterator()
+        while (iter.hasNext) {
+          val curr = iter.next()
+          curr.cancel()
+          iter.remove()
+          cancelled += curr
+        }
       }
       cancelled.toList
     }
@@ -391,16 +513,19 @@ final class DelayedOperationPurgatory[T <: DelayedOperation](purgatoryName: Stri
     def purgeCompleted(): Int = {
       var purged = 0
 
-      val iter = operations.iterator()
-      while (iter.hasNext) {
-        val curr = iter.next()
-        if (curr.isCompleted) {
-          iter.remove()
-          purged += 1
+      (Iterator(operations) ++ indexedLists).foreach { ops =>
+        val iter = ops.iterator()
+        while (iter.hasNext) {
+          val curr = iter.next()
+          if (curr.isCompleted) {
+            iter.remove()
+            purged += 1
+          }
         }
       }
+      indexedOperations.values.forEach(byThreshold => removeEmptyLists(byThreshold))
 
-      if (operations.isEmpty)
+      if (isEmpty)
         removeKeyIfEmpty(key, this)
 
       purged
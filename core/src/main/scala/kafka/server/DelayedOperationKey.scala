@@ -60,3 +60,8 @@ case class GroupSyncKey(groupId: String) extends DelayedOperationKey {
 case class TopicKey(topic: String) extends DelayedOperationKey {
   override def keyLabel: String = topic
 }
+
+/* used by delayed-fetch operations waiting for their data to be read ahead */
+case class ReadAheadOperationKey(readId: Long) extends DelayedOperationKey {
+  override def keyLabel: String = "read-ahead-%d".format(readId)
+}
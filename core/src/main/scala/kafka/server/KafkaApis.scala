@@ -1189,8 +1189,13 @@ class KafkaApis(val requestChannel: RequestChannel,
     errorUnavailableEndpoints: Boolean,
     errorUnavailableListeners: Boolean
   ): Seq[MetadataResponseTopic] = {
-    val topicResponses = metadataCache.getTopicMetadata(topics, listenerName,
-      errorUnavailableEndpoints, errorUnavailableListeners)
+    val topicResponses = metadataCache match {
+      case zkMetadataCache: ZkMetadataCache if !excludePartitions =>
+        zkMetadataCache.getSerializedTopicMetadata(topics, listenerName, request.header.apiVersion,
+          errorUnavailableEndpoints, errorUnavailableListeners)
+      case _ =>
+        metadataCache.getTopicMetadata(topics, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
     if (excludePartitions) {
       val topicsOnlyMetadata = new ArrayBuffer[MetadataResponseTopic](topics.size)
       for (t <- topicResponses) {
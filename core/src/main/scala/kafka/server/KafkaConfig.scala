@@ -113,6 +113,12 @@ object Defaults {
   val SocketRequestMaxBytes: Int = 100 * 1024 * 1024
   val SocketRequestCommonBytes: Int = -1
   val SocketRequestBufferCacheSize: Int = 0
+  val SocketRequestBufferCacheTypeQueue = "queue"
+  val SocketRequestBufferCacheTypeStriped = "striped"
+  val SocketRequestBufferCacheTypeSizeClassed = "size-classed"
+  val SocketRequestBufferCacheType = SocketRequestBufferCacheTypeQueue
+  val SocketRequestBufferCacheMinClassBytes: Int = 1024
+  val SocketRequestBufferCacheMaxBytes: Long = Long.MaxValue
   val RequestMaxLocalTimeMs = Long.MaxValue
   val MaxConnectionsPerIp: Int = Int.MaxValue
   val MaxConnectionsPerIpOverrides: String = ""
@@ -330,8 +336,22 @@ object Defaults {
   val LiAsyncFetcherEnabled = false
   val LiNumControllerInitThreads = 1
   val LiLogCleanerFineGrainedLockEnabled = true
+  val LiLogCleanerDedupeBufferOffHeapEnabled = false
+  val LiLogCleanerSegmentGroupParallelism = 1
   val LiDropCorruptedFilesEnabled = false
   val LiConsumerFetchSampleRatio = 0.01
+  val LiPurgatoryLockFreeTimerEnabled = false
+  val LiFetchPurgatoryIndexedEnabled = false
+  val LiLogOffsetPositionCacheEntries = 0
+  val LiFetchReadAheadThreads = 0
+  val LiFetchReadAheadColdSegmentAgeMs = 10 * 60 * 1000L
+  val LiOffsetsLoadThreads = 1
+  val LiOffsetsLoadDecodeThreads = 0
+  val LiOffsetsLoadIncrementalEnable = false
+  val LiMetadataResponseCacheMaxEntries = 0
+  val LiProducerSnapshotMaxDeltas = 0
+  val LiLogRecoveryThreadsPerLog = 1
+  val LiLogManifestEnable = false
 }
 
 object KafkaConfig {
@@ -449,8 +469,22 @@ object KafkaConfig {
   val LiAlterIsrEnableProp = "li.alter.isr.enable"
   val LiNumControllerInitThreadsProp = "li.num.controller.init.threads"
   val LiLogCleanerFineGrainedLockEnableProp = "li.log.cleaner.fine.grained.lock.enable"
+  val LiLogCleanerDedupeBufferOffHeapEnableProp = "li.log.cleaner.dedupe.buffer.off.heap.enable"
+  val LiLogCleanerSegmentGroupParallelismProp = "li.log.cleaner.segment.group.parallelism"
   val LiDropCorruptedFilesEnableProp = "li.drop.corrupted.files.enable"
   val LiConsumerFetchSampleRatioProp = "li.consumer.fetch.sample.ratio"
+  val LiPurgatoryLockFreeTimerEnableProp = "li.purgatory.lock.free.timer.enable"
+  val LiFetchPurgatoryIndexedEnableProp = "li.fetch.purgatory.indexed.enable"
+  val LiLogOffsetPositionCacheEntriesProp = "li.log.offset.position.cache.entries"
+  val LiFetchReadAheadThreadsProp = "li.fetch.read.ahead.threads"
+  val LiFetchReadAheadColdSegmentAgeMsProp = "li.fetch.read.ahead.cold.segment.age.ms"
+  val LiOffsetsLoadThreadsProp = "li.offsets.load.threads"
+  val LiOffsetsLoadDecodeThreadsProp = "li.offsets.load.decode.threads"
+  val LiOffsetsLoadIncrementalEnableProp = "li.offsets.load.incremental.enable"
+  val LiMetadataResponseCacheMaxEntriesProp = "li.metadata.response.cache.max.entries"
+  val LiProducerSnapshotMaxDeltasProp = "li.producer.snapshot.max.deltas"
+  val LiLogRecoveryThreadsPerLogProp = "li.log.recovery.threads.per.log"
+  val LiLogManifestEnableProp = "li.log.manifest.enable"
   val AllowPreferredControllerFallbackProp = "allow.preferred.controller.fallback"
   val UnofficialClientLoggingEnableProp = "unofficial.client.logging.enable"
   val UnofficialClientCacheTtlProp = "unofficial.client.cache.ttl"
@@ -474,6 +508,9 @@ object KafkaConfig {
   val SocketRequestMaxBytesProp = "socket.request.max.bytes"
   val SocketRequestCommonBytesProp = "socket.request.common.bytes"
   val SocketRequestBufferCacheSizeProp = "socket.request.buffer.cache.size"
+  val SocketRequestBufferCacheTypeProp = "socket.request.buffer.cache.type"
+  val SocketRequestBufferCacheMinClassBytesProp = "socket.request.buffer.cache.min.class.bytes"
+  val SocketRequestBufferCacheMaxBytesProp = "socket.request.buffer.cache.max.bytes"
   val MaxConnectionsPerIpProp = "max.connections.per.ip"
   val MaxConnectionsPerIpOverridesProp = "max.connections.per.ip.overrides"
   val MaxConnectionsProp = "max.connections"
@@ -790,10 +827,44 @@ object KafkaConfig {
   val LiUpdateMetadataDelayMsDoc = "Specifies how long a UpdateMetadata request with partitions should be delayed before its processing can start. This config is purely for testing the LiCombinedControl feature and should not be enabled in a production environment."
   val LiDropCorruptedFilesEnableDoc = "Specifies whether the broker should delete corrupted files during startup."
   val LiConsumerFetchSampleRatioDoc = "Specifies the ratio of consumer Fetch requests to sample, which must be a number in the range [0.0, 1.0]. For now, the sampling is used to derive the age of consumed data."
+  val LiLogOffsetPositionCacheEntriesDoc = "The maximum number of recently read offsets, over all the logs of the broker, whose position in " +
+    "their segment is cached so that reading from them again skips the offset index lookup and the scan of the segment. " +
+    "If 0, the positions are not cached."
+  val LiFetchReadAheadThreadsDoc = "The number of I/O threads reading ahead the data of fetches which is predicted to miss the page cache, before " +
+    "the fetches are completed. If 0, the data of all the fetches is read when their responses are sent."
+  val LiFetchReadAheadColdSegmentAgeMsDoc = "The time since the last modification of a rolled log segment after which the data fetched from it is predicted " +
+    "to miss the page cache and is read ahead. Only used if " + LiFetchReadAheadThreadsProp + " is positive."
+  val LiOffsetsLoadThreadsDoc = "The number of threads loading the offsets topic partitions a broker becomes the group coordinator of, " +
+    "so that several partitions are loaded concurrently. The loading and unloading of a partition always happen on the same thread."
+  val LiOffsetsLoadDecodeThreadsDoc = "The number of threads decoding the records of the offsets topic partitions being loaded, shared by all the " +
+    "partitions. If 0, the records are decoded by the threads loading the partitions."
+  val LiOffsetsLoadIncrementalEnableDoc = "Whether each group of an offsets topic partition being loaded is made available as soon as the " +
+    "last record which changes its state has been loaded, rather than once the whole partition is loaded. This reads the partition twice, " +
+    "first to find the last record of each group."
+  val LiMetadataResponseCacheMaxEntriesDoc = "The maximum number of serialized topics kept in the cache of metadata response topics, by listener and request " +
+    "version. A cached topic is sent without being built or serialized again until its metadata changes. 0 disables the cache."
+  val LiProducerSnapshotMaxDeltasDoc = "The maximum number of consecutive producer state snapshots of a partition which only hold the producers changed " +
+    "since the previous snapshot, before a full snapshot is written again. 0 only writes full snapshots. Brokers of versions " +
+    "which cannot read these delta snapshots rebuild the producer state from the log."
+  val LiLogRecoveryThreadsPerLogDoc = "The number of threads per log recovering its unflushed segments after an unclean shutdown. The segments are validated and " +
+    "their indexes rebuilt concurrently, after which their producer state is rebuilt in order. If 1, the segments are recovered one after the other."
+  val LiLogManifestEnableDoc = "Whether a manifest of the segments of the logs in each log directory is written at a clean shutdown. The next startup " +
+    "then builds the segments of the logs whose files match the manifest without opening and checking their files, which are opened " +
+    "when they are first accessed. The segment files must not be changed while the broker is shut down."
+  val LiFetchPurgatoryIndexedEnableDoc = "Specifies whether the fetch purgatory indexes delayed fetches by the offset they wait for on each partition, so that " +
+    "an append to a partition only checks the fetches which can now return data from it, instead of all the fetches waiting on the partition. " +
+    "Fetches with read_committed isolation are always checked."
+  val LiPurgatoryLockFreeTimerEnableDoc = "Specifies whether the produce and fetch purgatories use a timer in which adding and cancelling delayed operations never takes a lock, instead of the default timer which takes a read lock on every addition and locks its buckets."
   val LiDropFetchFollowerEnableDoc = "Specifies whether a leader should drop Fetch requests from followers. This config is used to simulate a slow leader and test the leader initiated leadership transfer"
   val LiAlterIsrEnabledDoc = "Specifies whether the brokers should use the AlterISR request to propagate ISR changes to the controller. If set to false, brokers will propagate the updates via Zookeeper."
   val LiNumControllerInitThreadsDoc = "Number of threads (and Zookeeper clients + connections) to be used while recursing the topic-partitions tree in Zookeeper during controller startup/failover."
   val LiLogCleanerFineGrainedLockEnableDoc = "Specifies whether the log cleaner should use fine grained locks when calculating the filthiest log to clean"
+  val LiLogCleanerDedupeBufferOffHeapEnableDoc = "Specifies whether the log cleaner dedupe buffer should be allocated off-heap and hash keys " +
+    "with MurmurHash3 instead of a message digest. An off-heap dedupe buffer is not limited to 2G per cleaner thread."
+  val LiLogCleanerSegmentGroupParallelismDoc = "The number of threads, shared by all log cleaner threads, which build the dedupe buffer " +
+    "and clean the segment groups of a single log concurrently. If larger than 1, the dedupe buffer of each cleaner thread is split into " +
+    "that many shards by key hash, each built by one of these threads. If 1, each log is cleaned by its cleaner thread alone. Each " +
+    "concurrent shard or segment group uses its own I/O buffers."
   // Although AllowPreferredControllerFallback is expected to be configured dynamically at per cluster level, providing a static configuration entry
   // here allows its value to be obtained without holding the dynamic broker configuration lock.
   val AllowPreferredControllerFallbackDoc = "Specifies whether a non-preferred controller node (broker) is allowed to become the controller." +
@@ -856,6 +927,14 @@ object KafkaConfig {
   val SocketRequestMaxBytesDoc = "The maximum number of bytes in a socket request"
   val SocketRequestCommonBytesDoc = "The common size in bytes of a socket request"
   val SocketRequestBufferCacheSizeDoc = "The maximal number of cache slot recycling memory pool will keep"
+  val SocketRequestBufferCacheTypeDoc = "The buffer cache used by the recycling memory pool. <code>queue</code> keeps the buffers " +
+    "in a single blocking queue shared by all network threads, while <code>striped</code> spreads them over lock-free per-thread " +
+    "stripes to avoid contention between network threads. Both only recycle buffers between half and the full common request size. " +
+    "<code>size-classed</code> recycles buffers of any size up to the common request size in power-of-two size classes, each " +
+    s"holding up to $SocketRequestBufferCacheSizeProp buffers. Only used when $SocketRequestCommonBytesProp is positive."
+  val SocketRequestBufferCacheMinClassBytesDoc = "The size in bytes of the smallest size class of the size-classed recycling memory pool. " +
+    "Smaller requests are served from this class."
+  val SocketRequestBufferCacheMaxBytesDoc = "The maximal number of bytes the size-classed recycling memory pool keeps cached over all size classes."
   val MaxConnectionsPerIpDoc = "The maximum number of connections we allow from each ip address. This can be set to 0 if there are overrides " +
     s"configured using $MaxConnectionsPerIpOverridesProp property. New connections from the ip address are dropped if the limit is reached."
   val MaxConnectionsPerIpOverridesDoc = "A comma-separated list of per-ip or hostname overrides to the default maximum number of connections. " +
@@ -1238,8 +1317,22 @@ object KafkaConfig {
       .define(LiAlterIsrEnableProp, BOOLEAN, Defaults.LiAlterIsrEnabled, HIGH, LiAlterIsrEnabledDoc)
       .define(LiNumControllerInitThreadsProp, INT, Defaults.LiNumControllerInitThreads, atLeast(1), LOW, LiNumControllerInitThreadsDoc)
       .define(LiLogCleanerFineGrainedLockEnableProp, BOOLEAN, Defaults.LiLogCleanerFineGrainedLockEnabled, LOW, LiLogCleanerFineGrainedLockEnableDoc)
+      .define(LiLogCleanerDedupeBufferOffHeapEnableProp, BOOLEAN, Defaults.LiLogCleanerDedupeBufferOffHeapEnabled, LOW, LiLogCleanerDedupeBufferOffHeapEnableDoc)
+      .define(LiLogCleanerSegmentGroupParallelismProp, INT, Defaults.LiLogCleanerSegmentGroupParallelism, atLeast(1), LOW, LiLogCleanerSegmentGroupParallelismDoc)
       .define(LiDropCorruptedFilesEnableProp, BOOLEAN, Defaults.LiDropCorruptedFilesEnabled, HIGH, LiDropCorruptedFilesEnableDoc)
       .define(LiConsumerFetchSampleRatioProp, DOUBLE, Defaults.LiConsumerFetchSampleRatio, between(0.0, 1.0), LOW, LiConsumerFetchSampleRatioDoc)
+      .define(LiPurgatoryLockFreeTimerEnableProp, BOOLEAN, Defaults.LiPurgatoryLockFreeTimerEnabled, LOW, LiPurgatoryLockFreeTimerEnableDoc)
+      .define(LiFetchPurgatoryIndexedEnableProp, BOOLEAN, Defaults.LiFetchPurgatoryIndexedEnabled, LOW, LiFetchPurgatoryIndexedEnableDoc)
+      .define(LiLogOffsetPositionCacheEntriesProp, INT, Defaults.LiLogOffsetPositionCacheEntries, atLeast(0), LOW, LiLogOffsetPositionCacheEntriesDoc)
+      .define(LiFetchReadAheadThreadsProp, INT, Defaults.LiFetchReadAheadThreads, atLeast(0), LOW, LiFetchReadAheadThreadsDoc)
+      .define(LiFetchReadAheadColdSegmentAgeMsProp, LONG, Defaults.LiFetchReadAheadColdSegmentAgeMs, atLeast(0), LOW, LiFetchReadAheadColdSegmentAgeMsDoc)
+      .define(LiOffsetsLoadThreadsProp, INT, Defaults.LiOffsetsLoadThreads, atLeast(1), LOW, LiOffsetsLoadThreadsDoc)
+      .define(LiOffsetsLoadDecodeThreadsProp, INT, Defaults.LiOffsetsLoadDecodeThreads, atLeast(0), LOW, LiOffsetsLoadDecodeThreadsDoc)
+      .define(LiOffsetsLoadIncrementalEnableProp, BOOLEAN, Defaults.LiOffsetsLoadIncrementalEnable, LOW, LiOffsetsLoadIncrementalEnableDoc)
+      .define(LiMetadataResponseCacheMaxEntriesProp, INT, Defaults.LiMetadataResponseCacheMaxEntries, atLeast(0), LOW, LiMetadataResponseCacheMaxEntriesDoc)
+      .define(LiProducerSnapshotMaxDeltasProp, INT, Defaults.LiProducerSnapshotMaxDeltas, atLeast(0), LOW, LiProducerSnapshotMaxDeltasDoc)
+      .define(LiLogRecoveryThreadsPerLogProp, INT, Defaults.LiLogRecoveryThreadsPerLog, atLeast(1), LOW, LiLogRecoveryThreadsPerLogDoc)
+      .define(LiLogManifestEnableProp, BOOLEAN, Defaults.LiLogManifestEnable, LOW, LiLogManifestEnableDoc)
       .define(AllowPreferredControllerFallbackProp, BOOLEAN, Defaults.AllowPreferredControllerFallback, HIGH, AllowPreferredControllerFallbackDoc)
       .define(UnofficialClientLoggingEnableProp, BOOLEAN, Defaults.UnofficialClientLoggingEnable, LOW, UnofficialClientLoggingEnableDoc)
       .define(UnofficialClientCacheTtlProp, LONG, Defaults.UnofficialClientCacheTtl, LOW, UnofficialClientCacheTtlDoc)
@@ -1263,6 +1356,11 @@ object KafkaConfig {
       .define(SocketRequestMaxBytesProp, INT, Defaults.SocketRequestMaxBytes, atLeast(1), HIGH, SocketRequestMaxBytesDoc)
       .define(SocketRequestCommonBytesProp, INT, Defaults.SocketRequestCommonBytes, MEDIUM, SocketRequestCommonBytesDoc)
       .define(SocketRequestBufferCacheSizeProp, INT, Defaults.SocketRequestBufferCacheSize, atLeast(0), MEDIUM, SocketRequestBufferCacheSizeDoc)
+      .define(SocketRequestBufferCacheTypeProp, STRING, Defaults.SocketRequestBufferCacheType,
+        in(Defaults.SocketRequestBufferCacheTypeQueue, Defaults.SocketRequestBufferCacheTypeStriped, Defaults.SocketRequestBufferCacheTypeSizeClassed),
+        LOW, SocketRequestBufferCacheTypeDoc)
+      .define(SocketRequestBufferCacheMinClassBytesProp, INT, Defaults.SocketRequestBufferCacheMinClassBytes, atLeast(1), LOW, SocketRequestBufferCacheMinClassBytesDoc)
+      .define(SocketRequestBufferCacheMaxBytesProp, LONG, Defaults.SocketRequestBufferCacheMaxBytes, atLeast(0), LOW, SocketRequestBufferCacheMaxBytesDoc)
       .define(MaxConnectionsPerIpProp, INT, Defaults.MaxConnectionsPerIp, atLeast(0), MEDIUM, MaxConnectionsPerIpDoc)
       .define(MaxConnectionsPerIpOverridesProp, STRING, Defaults.MaxConnectionsPerIpOverrides, MEDIUM, MaxConnectionsPerIpOverridesDoc)
       .define(MaxConnectionsProp, INT, Defaults.MaxConnections, atLeast(0), MEDIUM, MaxConnectionsDoc)
@@ -1782,8 +1880,22 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   def liAlterIsrEnable = getBoolean(KafkaConfig.LiAlterIsrEnableProp)
   def liNumControllerInitThreads = getInt(KafkaConfig.LiNumControllerInitThreadsProp)
   def liLogCleanerFineGrainedLockEnable = getBoolean(KafkaConfig.LiLogCleanerFineGrainedLockEnableProp)
+  def liLogCleanerDedupeBufferOffHeapEnable = getBoolean(KafkaConfig.LiLogCleanerDedupeBufferOffHeapEnableProp)
+  def liLogCleanerSegmentGroupParallelism = getInt(KafkaConfig.LiLogCleanerSegmentGroupParallelismProp)
   val liDropCorruptedFilesEnable = getBoolean(KafkaConfig.LiDropCorruptedFilesEnableProp)
   val liConsumerFetchSampleRatio = getDouble(KafkaConfig.LiConsumerFetchSampleRatioProp)
+  val liPurgatoryLockFreeTimerEnable = getBoolean(KafkaConfig.LiPurgatoryLockFreeTimerEnableProp)
+  val liFetchPurgatoryIndexedEnable = getBoolean(KafkaConfig.LiFetchPurgatoryIndexedEnableProp)
+  val liLogOffsetPositionCacheEntries = getInt(KafkaConfig.LiLogOffsetPositionCacheEntriesProp)
+  val liFetchReadAheadThreads = getInt(KafkaConfig.LiFetchReadAheadThreadsProp)
+  val liFetchReadAheadColdSegmentAgeMs = getLong(KafkaConfig.LiFetchReadAheadColdSegmentAgeMsProp)
+  val liOffsetsLoadThreads = getInt(KafkaConfig.LiOffsetsLoadThreadsProp)
+  val liOffsetsLoadDecodeThreads = getInt(KafkaConfig.LiOffsetsLoadDecodeThreadsProp)
+  val liOffsetsLoadIncrementalEnable = getBoolean(KafkaConfig.LiOffsetsLoadIncrementalEnableProp)
+  val liMetadataResponseCacheMaxEntries = getInt(KafkaConfig.LiMetadataResponseCacheMaxEntriesProp)
+  val liProducerSnapshotMaxDeltas = getInt(KafkaConfig.LiProducerSnapshotMaxDeltasProp)
+  val liLogRecoveryThreadsPerLog = getInt(KafkaConfig.LiLogRecoveryThreadsPerLogProp)
+  val liLogManifestEnable = getBoolean(KafkaConfig.LiLogManifestEnableProp)
   def unofficialClientLoggingEnable = getBoolean(KafkaConfig.UnofficialClientLoggingEnableProp)
   def unofficialClientCacheTtl = getLong(KafkaConfig.UnofficialClientCacheTtlProp)
   def expectedClientSoftwareNames = getList(KafkaConfig.ExpectedClientSoftwareNamesProp)
@@ -1816,6 +1928,9 @@ class KafkaConfig(val props: java.util.Map[_, _], doLog: Boolean, dynamicConfigO
   val socketRequestMaxBytes = getInt(KafkaConfig.SocketRequestMaxBytesProp)
   val socketRequestCommonBytes = getInt(KafkaConfig.SocketRequestCommonBytesProp)
   val socketRequestBufferCacheSize = getInt(KafkaConfig.SocketRequestBufferCacheSizeProp)
+  val socketRequestBufferCacheType = getString(KafkaConfig.SocketRequestBufferCacheTypeProp)
+  val socketRequestBufferCacheMinClassBytes = getInt(KafkaConfig.SocketRequestBufferCacheMinClassBytesProp)
+  val socketRequestBufferCacheMaxBytes = getLong(KafkaConfig.SocketRequestBufferCacheMaxBytesProp)
   val requestMaxLocalTimeMs = getLong(KafkaConfig.RequestMaxLocalTimeMsProp)
   val maxConnectionsPerIp = getInt(KafkaConfig.MaxConnectionsPerIpProp)
   val maxConnectionsPerIpOverrides: Map[String, Int] =
@@ -237,7 +237,9 @@ class BrokerTopicMetrics(name: Option[String]) extends KafkaMetricsGroup {
     BrokerTopicStats.NoKeyCompactedTopicRecordsPerSec -> MeterWrapper(BrokerTopicStats.NoKeyCompactedTopicRecordsPerSec, "requests"),
     BrokerTopicStats.InvalidMagicNumberRecordsPerSec -> MeterWrapper(BrokerTopicStats.InvalidMagicNumberRecordsPerSec, "requests"),
     BrokerTopicStats.InvalidMessageCrcRecordsPerSec -> MeterWrapper(BrokerTopicStats.InvalidMessageCrcRecordsPerSec, "requests"),
-    BrokerTopicStats.InvalidOffsetOrSequenceRecordsPerSec -> MeterWrapper(BrokerTopicStats.InvalidOffsetOrSequenceRecordsPerSec, "requests")
+    BrokerTopicStats.InvalidOffsetOrSequenceRecordsPerSec -> MeterWrapper(BrokerTopicStats.InvalidOffsetOrSequenceRecordsPerSec, "requests"),
+    BrokerTopicStats.RecompressionsAvoidedPerSec -> MeterWrapper(BrokerTopicStats.RecompressionsAvoidedPerSec, "batches"),
+    BrokerTopicStats.RecompressionBytesAvoidedPerSec -> MeterWrapper(BrokerTopicStats.RecompressionBytesAvoidedPerSec, "bytes")
   ).asJava)
   if (name.isEmpty) {
     metricTypeMap.put(BrokerTopicStats.ReplicationBytesInPerSec, MeterWrapper(BrokerTopicStats.ReplicationBytesInPerSec, "bytes"))
@@ -307,6 +309,10 @@ class BrokerTopicMetrics(name: Option[String]) extends KafkaMetricsGroup {
 
   def invalidOffsetOrSequenceRecordsPerSec: Meter = metricTypeMap.get(BrokerTopicStats.InvalidOffsetOrSequenceRecordsPerSec).meter()
 
+  def recompressionsAvoidedRate: Meter = metricTypeMap.get(BrokerTopicStats.RecompressionsAvoidedPerSec).meter()
+
+  def recompressionBytesAvoidedRate: Meter = metricTypeMap.get(BrokerTopicStats.RecompressionBytesAvoidedPerSec).meter()
+
   def remoteBytesOutRate: Meter = metricTypeMap.get(BrokerTopicStats.RemoteBytesOutPerSec).meter()
 
   def remoteBytesInRate: Meter = metricTypeMap.get(BrokerTopicStats.RemoteBytesInPerSec).meter()
@@ -359,6 +365,9 @@ object BrokerTopicStats {
   val InvalidMagicNumberRecordsPerSec = "InvalidMagicNumberRecordsPerSec"
   val InvalidMessageCrcRecordsPerSec = "InvalidMessageCrcRecordsPerSec"
   val InvalidOffsetOrSequenceRecordsPerSec = "InvalidOffsetOrSequenceRecordsPerSec"
+  // Compressed batches whose offsets were assigned in place instead of by recompressing them, and their uncompressed size
+  val RecompressionsAvoidedPerSec = "RecompressionsAvoidedPerSec"
+  val RecompressionBytesAvoidedPerSec = "RecompressionBytesAvoidedPerSec"
 
   private val valueFactory = (k: String) => new BrokerTopicMetrics(Some(k))
 }
@@ -406,6 +415,8 @@ class BrokerTopicStats extends Logging {
       topicMetrics.closeMetric(BrokerTopicStats.FailedProduceRequestsPerSec)
       topicMetrics.closeMetric(BrokerTopicStats.TotalProduceRequestsPerSec)
       topicMetrics.closeMetric(BrokerTopicStats.ProduceMessageConversionsPerSec)
+      topicMetrics.closeMetric(BrokerTopicStats.RecompressionsAvoidedPerSec)
+      topicMetrics.closeMetric(BrokerTopicStats.RecompressionBytesAvoidedPerSec)
       topicMetrics.closeMetric(BrokerTopicStats.RemoteBytesOutPerSec)
       topicMetrics.closeMetric(BrokerTopicStats.FailedRemoteWriteRequestsPerSec)
       topicMetrics.closeMetric(BrokerTopicStats.ReplicationBytesOutPerSec)
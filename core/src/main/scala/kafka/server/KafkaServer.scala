@@ -299,7 +299,7 @@ class KafkaServer(
         logManager.startup(zkClient.getAllTopicsInCluster())
         remoteLogManager = createRemoteLogManager(remoteLogManagerConfig)
 
-        metadataCache = MetadataCache.zkMetadataCache(config.brokerId)
+        metadataCache = MetadataCache.zkMetadataCache(config.brokerId, config.liMetadataResponseCacheMaxEntries)
         // Enable delegation token cache for all SCRAM mechanisms to simplify dynamic update.
         // This keeps the cache up-to-date if new SCRAM mechanisms are enabled dynamically.
         tokenCache = new DelegationTokenCache(ScramMechanism.mechanismNames)
@@ -853,6 +853,9 @@ class KafkaServer(
         if (kafkaController != null)
           CoreUtils.swallow(kafkaController.shutdown(), this)
 
+        if (metadataCache != null)
+          CoreUtils.swallow(metadataCache.close(), this)
+
         if (featureChangeListener != null)
           CoreUtils.swallow(featureChangeListener.close(), this)
 
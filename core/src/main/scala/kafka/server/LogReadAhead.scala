@@ -0,0 +1,138 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.concurrent.{ArrayBlockingQueue, CompletableFuture, RejectedExecutionException, ThreadPoolExecutor, TimeUnit}
+
+import kafka.log.Log
+import kafka.metrics.KafkaMetricsGroup
+import kafka.utils.Logging
+import org.apache.kafka.common.record.FileRecords
+import org.apache.kafka.common.utils.{KafkaThread, Time}
+
+/**
+ * Reads ahead the log data of fetches which are predicted to miss the page cache, on a dedicated pool of I/O threads.
+ *
+ * A fetch of a lagging replica or consumer reads from segments which were rolled long ago and are likely evicted from
+ * the page cache. Sending them would block a request handler or network thread on the disk, so the data read for such
+ * a fetch is first read through once by an I/O thread, which brings it into the page cache, and the fetch is completed
+ * as a [[DelayedFetch]] when this is done.
+ *
+ * The data is predicted to be cold when it is read from a rolled segment which was last modified more than
+ * `coldSegmentAgeMs` ago.
+ *
+ * @param numThreads The number of I/O threads reading ahead
+ * @param coldSegmentAgeMs The time since the last modification of a rolled segment after which its data is predicted cold
+ * @param time The time source
+ */
+class LogReadAhead(numThreads: Int, coldSegmentAgeMs: Long, time: Time) extends Logging with KafkaMetricsGroup {
+  import LogReadAhead._
+
+  this.logIdent = "[LogReadAhead] "
+
+  private val readIds = new AtomicLong(0)
+
+  private val executor = {
+    val threadCounter = new AtomicInteger(0)
+    new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue[Runnable](numThreads * MaxQueuedReadsPerThread),
+      (runnable: Runnable) => KafkaThread.daemon(s"log-read-ahead-${threadCounter.getAndIncrement()}", runnable))
+  }
+
+  private val buffers = ThreadLocal.withInitial[ByteBuffer](() => ByteBuffer.allocateDirect(ReadBufferSize))
+
+  // the time to read the fetches served from the page cache, and to read ahead and serve the other fetches
+  val hotFetchTimeHist = newHistogram("HotFetchTimeMs")
+  val coldFetchTimeHist = newHistogram("ColdFetchTimeMs")
+  private val readAheadTimeHist = newHistogram("ReadAheadTimeMs")
+  private val readAheadBytesRate = newMeter("ReadAheadBytesPerSec", "bytes", TimeUnit.SECONDS)
+  private val rejectedReadAheadRate = newMeter("RejectedReadAheadsPerSec", "reads", TimeUnit.SECONDS)
+
+  /**
+   * The records of the given read of the log if they are predicted not to be in the page cache.
+   */
+  def coldRecords(log: Log, info: FetchDataInfo, now: Long): Option[FileRecords] = info.records match {
+    case records: FileRecords if records.sizeInBytes > 0 &&
+        log.rolledSegmentLastModified(info.fetchOffsetMetadata.segmentBaseOffset).exists(now - _ > coldSegmentAgeMs) =>
+      Some(records)
+    case _ => None
+  }
+
+  /**
+   * Read the given records ahead on an I/O thread.
+   *
+   * @return The key the read is completed under and a future completed when it is done, or None if too many reads are
+   *         already queued
+   */
+  def readAhead(records: Seq[FileRecords]): Option[(ReadAheadOperationKey, CompletableFuture[Void])] = {
+    val key = ReadAheadOperationKey(readIds.incrementAndGet())
+    val future = new CompletableFuture[Void]
+    try {
+      executor.execute(() => {
+        try read(records)
+        finally future.complete(null)
+      })
+      Some(key -> future)
+    } catch {
+      case _: RejectedExecutionException =>
+        rejectedReadAheadRate.mark()
+        None
+    }
+  }
+
+  private def read(records: Seq[FileRecords]): Unit = {
+    val start = time.hiResClockMs()
+    val buffer = buffers.get
+    records.foreach { fileRecords =>
+      try {
+        var position = 0
+        var endOfFile = false
+        while (!endOfFile && position < fileRecords.sizeInBytes) {
+          buffer.clear()
+          buffer.limit(math.min(buffer.capacity, fileRecords.sizeInBytes - position))
+          fileRecords.readInto(buffer, position)
+          position += buffer.remaining
+          endOfFile = !buffer.hasRemaining
+        }
+        readAheadBytesRate.mark(position)
+      } catch {
+        // the segment may have been deleted since the fetch, the fetch will find out when it is completed
+        case e: IOException => debug(s"Failed to read ahead $fileRecords", e)
+      }
+    }
+    readAheadTimeHist.update(time.hiResClockMs() - start)
+  }
+
+  def shutdown(): Unit = {
+    // do not interrupt the reads, an interrupted read closes the channel of the segment
+    executor.shutdown()
+    removeMetric("HotFetchTimeMs")
+    removeMetric("ColdFetchTimeMs")
+    removeMetric("ReadAheadTimeMs")
+    removeMetric("ReadAheadBytesPerSec")
+    removeMetric("RejectedReadAheadsPerSec")
+  }
+}
+
+object LogReadAhead {
+  private val ReadBufferSize = 64 * 1024
+  private val MaxQueuedReadsPerThread = 256
+}
@@ -83,8 +83,8 @@ trait MetadataCache {
 }
 
 object MetadataCache {
-  def zkMetadataCache(brokerId: Int): ZkMetadataCache = {
-    new ZkMetadataCache(brokerId)
+  def zkMetadataCache(brokerId: Int, responseCacheMaxEntries: Int = 0): ZkMetadataCache = {
+    new ZkMetadataCache(brokerId, responseCacheMaxEntries)
   }
 
   def kRaftMetadataCache(brokerId: Int): KRaftMetadataCache = {
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.nio.ByteBuffer
+import java.util.concurrent.{ConcurrentHashMap, TimeUnit}
+
+import kafka.metrics.KafkaMetricsGroup
+import org.apache.kafka.common.Uuid
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic
+import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.protocol.{MessageSizeAccumulator, MessageUtil, ObjectSerializationCache, Writable}
+
+/**
+ * A cache of the topics of metadata responses, serialized by listener and response version.
+ *
+ * Clients repeatedly request the metadata of the same topics, which rarely changes. A cached topic is written to a
+ * response as its serialized bytes, without being built or serialized again, for as long as the state it was built from
+ * is the current one. That state is identified by the partition states of the topic and the alive nodes of the metadata
+ * cache, which are replaced rather than modified when they change, and by the topic id.
+ *
+ * @param maxEntries The maximum number of cached topics; further topics are built for every response
+ */
+class MetadataResponseCache(maxEntries: Int) extends KafkaMetricsGroup {
+  import MetadataResponseCache._
+
+  private val topics = new ConcurrentHashMap[TopicKey, SerializedTopic]
+
+  private val hitRate = newMeter("MetadataResponseCacheHitsPerSec", "topics", TimeUnit.SECONDS)
+  private val missRate = newMeter("MetadataResponseCacheMissesPerSec", "topics", TimeUnit.SECONDS)
+  private val bytesSavedRate = newMeter("MetadataResponseCacheBytesSavedPerSec", "bytes", TimeUnit.SECONDS)
+  newGauge("MetadataResponseCacheSize", () => topics.size)
+
+  /**
+   * Get the given topic for a metadata response, from the cache if it was built from the given state, or else build it.
+   *
+   * @param partitionStates The partition states of the topic in the metadata cache
+   * @param aliveNodes The alive nodes of the metadata cache
+   * @param topicId The id of the topic
+   * @param build Build the topic from the given state
+   * @return A topic which can be added to a single metadata response
+   */
+  def getTopicMetadata(topic: String,
+                       listenerName: ListenerName,
+                       version: Short,
+                       partitionStates: AnyRef,
+                       aliveNodes: AnyRef,
+                       topicId: Uuid)(build: => MetadataResponseTopic): MetadataResponseTopic = {
+    val key = TopicKey(topic, listenerName, version)
+    val cached = topics.get(key)
+    val serializedTopic = if (cached != null && cached.isBuiltFrom(partitionStates, aliveNodes, topicId)) {
+      hitRate.mark()
+      bytesSavedRate.mark(cached.sizeInBytes)
+      cached
+    } else {
+      missRate.mark()
+      val serializedTopic = new SerializedTopic(build, version, partitionStates, aliveNodes, topicId)
+      if (cached != null || topics.size < maxEntries)
+        topics.put(key, serializedTopic)
+      serializedTopic
+    }
+    serializedTopic.responseTopic()
+  }
+
+  /**
+   * Remove the cached topics of the given deleted topics, which would otherwise never be replaced.
+   */
+  def removeTopics(deletedTopics: collection.Set[String]): Unit = {
+    if (deletedTopics.nonEmpty)
+      topics.keySet.removeIf(key => deletedTopics.contains(key.topic))
+  }
+
+  def size: Int = topics.size
+
+  def close(): Unit = {
+    removeMetric("MetadataResponseCacheHitsPerSec")
+    removeMetric("MetadataResponseCacheMissesPerSec")
+    removeMetric("MetadataResponseCacheBytesSavedPerSec")
+    removeMetric("MetadataResponseCacheSize")
+  }
+}
+
+object MetadataResponseCache {
+  private case class TopicKey(topic: String, listenerName: ListenerName, version: Short)
+
+  private class SerializedTopic(topic: MetadataResponseTopic,
+                                version: Short,
+                                partitionStates: AnyRef,
+                                aliveNodes: AnyRef,
+                                topicId: Uuid) {
+    private val serialized = MessageUtil.toByteBuffer(topic, version)
+
+    def sizeInBytes: Int = serialized.remaining
+
+    def isBuiltFrom(partitionStates: AnyRef, aliveNodes: AnyRef, topicId: Uuid): Boolean =
+      (this.partitionStates eq partitionStates) && (this.aliveNodes eq aliveNodes) && this.topicId == topicId
+
+    // a topic is linked into the topics of the response it is added to, so every response needs its own
+    def responseTopic(): MetadataResponseTopic = new SerializedMetadataResponseTopic(topic, version, serialized)
+  }
+
+  /**
+   * A topic of a metadata response which is written as its serialized bytes when it is written at the version it was
+   * serialized at and has not been changed since.
+   */
+  private[server] class SerializedMetadataResponseTopic(topic: MetadataResponseTopic,
+                                                        serializedVersion: Short,
+                                                        serialized: ByteBuffer) extends MetadataResponseTopic {
+    setErrorCode(topic.errorCode)
+    setName(topic.name)
+    setTopicId(topic.topicId)
+    setIsInternal(topic.isInternal)
+    setPartitions(topic.partitions)
+    setTopicAuthorizedOperations(topic.topicAuthorizedOperations)
+
+    // the response may still set the authorized operations of the topic
+    private def isSerializedAt(version: Short): Boolean =
+      version == serializedVersion && topicAuthorizedOperations == topic.topicAuthorizedOperations &&
+        errorCode == topic.errorCode
+
+    override def addSize(size: MessageSizeAccumulator, cache: ObjectSerializationCache, version: Short): Unit = {
+      if (isSerializedAt(version))
+        size.addZeroCopyBytes(serialized.remaining)
+      else
+        super.addSize(size, cache, version)
+    }
+
+    override def write(writable: Writable, cache: ObjectSerializationCache, version: Short): Unit = {
+      if (isSerializedAt(version))
+        writable.writeByteBuffer(serialized)
+      else
+        super.write(writable, cache, version)
+    }
+  }
+}
@@ -225,10 +225,13 @@ class ReplicaManager(val config: KafkaConfig,
       quotaManagers, brokerTopicStats, metadataCache, logDirFailureChannel,
       DelayedOperationPurgatory[DelayedProduce](
         purgatoryName = "Produce", brokerId = config.brokerId,
-        purgeInterval = config.producerPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.producerPurgatoryPurgeIntervalRequests,
+        lockFreeTimer = config.liPurgatoryLockFreeTimerEnable),
       DelayedOperationPurgatory[DelayedFetch](
         purgatoryName = "Fetch", brokerId = config.brokerId,
-        purgeInterval = config.fetchPurgatoryPurgeIntervalRequests),
+        purgeInterval = config.fetchPurgatoryPurgeIntervalRequests,
+        lockFreeTimer = config.liPurgatoryLockFreeTimerEnable,
+        indexedWatchers = config.liFetchPurgatoryIndexedEnable),
       DelayedOperationPurgatory[DelayedDeleteRecords](
         purgatoryName = "DeleteRecords", brokerId = config.brokerId,
         purgeInterval = config.deleteRecordsPurgatoryPurgeIntervalRequests),
@@ -291,6 +294,12 @@ class ReplicaManager(val config: KafkaConfig,
   val failedIsrUpdatesRate: Meter = newMeter("FailedIsrUpdatesPerSec", "failedUpdates", TimeUnit.SECONDS)
   val recompressionCount = newGauge("recompressionCount", () => recompressedBatchCount.get())
 
+  // reads ahead the data of fetches predicted to miss the page cache, see fetchMessages
+  private val logReadAhead: Option[LogReadAhead] = if (config.liFetchReadAheadThreads > 0)
+    Some(new LogReadAhead(config.liFetchReadAheadThreads, config.liFetchReadAheadColdSegmentAgeMs, time))
+  else
+    None
+
   def underReplicatedPartitionCount: Int = leaderPartitionsIterator.count(_.isUnderReplicated)
 
   def startHighWatermarkCheckPointThread(): Unit = {
@@ -662,15 +671,24 @@ class ReplicaManager(val config: KafkaConfig,
           localProduceResults.foreach {
             case (topicPartition, result) =>
               val requestKey = TopicPartitionOperationKey(topicPartition)
+              // the log end offset is at least past the appended records, the fetches waiting for later
+              // offsets are completed by later appends
+              val logEndOffset = result.info.lastOffset + 1
               result.info.leaderHwChange match {
                 case LeaderHwChange.Increased =>
                   // some delayed operations may be unblocked after HW changed
                   delayedProducePurgatory.checkAndComplete(requestKey)
-                  delayedFetchPurgatory.checkAndComplete(requestKey)
+                  onlinePartition(topicPartition).flatMap(_.leaderLogIfLocal) match {
+                    case Some(log) =>
+                      delayedFetchPurgatory.checkAndCompleteOnProgress(requestKey, DelayedFetch.LogEndOffsetProgress, logEndOffset)
+                      delayedFetchPurgatory.checkAndCompleteOnProgress(requestKey, DelayedFetch.HighWatermarkProgress, log.highWatermark)
+                    case None =>
+                      delayedFetchPurgatory.checkAndComplete(requestKey)
+                  }
                   delayedDeleteRecordsPurgatory.checkAndComplete(requestKey)
                 case LeaderHwChange.Same =>
                   // probably unblock some follower fetch requests since log end offset has been updated
-                  delayedFetchPurgatory.checkAndComplete(requestKey)
+                  delayedFetchPurgatory.checkAndCompleteOnProgress(requestKey, DelayedFetch.LogEndOffsetProgress, logEndOffset)
                 case LeaderHwChange.None =>
                   // nothing
               }
@@ -1101,6 +1119,7 @@ class ReplicaManager(val config: KafkaConfig,
       }
     }
 
+    val fetchStartMs = time.hiResClockMs()
     val logReadResults = readFromLog()
 
     // check if this fetch request can be satisfied right away
@@ -1108,11 +1127,18 @@ class ReplicaManager(val config: KafkaConfig,
     var errorReadingData = false
     var remoteFetchInfo: Option[RemoteStorageFetchInfo] = None // The 1st topic-partition that has to be read from remote storage
     var hasDivergingEpoch = false
+    val coldRecords = new mutable.ArrayBuffer[FileRecords] // the data read which is predicted to miss the page cache
     val logReadResultMap = new mutable.HashMap[TopicPartition, LogReadResult]
+    val now = time.milliseconds
     logReadResults.foreach { case (topicPartition, logReadResult) =>
       brokerTopicStats.topicStats(topicPartition.topic).totalFetchRequestRate.mark()
       brokerTopicStats.allTopicsStats.totalFetchRequestRate.mark()
 
+      logReadAhead.foreach { readAhead =>
+        if (logReadResult.error == Errors.NONE)
+          getLog(topicPartition).flatMap(readAhead.coldRecords(_, logReadResult.info, now)).foreach(coldRecords += _)
+      }
+
       if (logReadResult.error != Errors.NONE)
         errorReadingData = true
       if (remoteFetchInfo.isEmpty && logReadResult.info.delayedRemoteStorageFetch.isDefined)
@@ -1123,16 +1149,28 @@ class ReplicaManager(val config: KafkaConfig,
       logReadResultMap.put(topicPartition, logReadResult)
     }
 
+    // read the cold data ahead on an I/O thread and complete the fetch when it is done, rather than
+    // have it read while the response is sent
+    val readAhead =
+      if (timeout > 0 && coldRecords.nonEmpty && !errorReadingData && !hasDivergingEpoch && remoteFetchInfo.isEmpty)
+        logReadAhead.flatMap(_.readAhead(coldRecords))
+      else
+        None
+
     // respond immediately if 1) fetch request does not want to wait
     //                        2) fetch request does not require any data
     //                        3) has enough data to respond
     //                        4) some error happens while reading data
     //                        5) we found a diverging epoch
-    if (timeout <= 0 || fetchInfos.isEmpty || bytesReadable >= fetchMinBytes || errorReadingData || hasDivergingEpoch) {
+    // unless its data is being read ahead
+    if (readAhead.isEmpty &&
+        (timeout <= 0 || fetchInfos.isEmpty || bytesReadable >= fetchMinBytes || errorReadingData || hasDivergingEpoch)) {
       val fetchPartitionData = logReadResults.map { case (tp, result) =>
         val isReassignmentFetch = isFromFollower && isAddingReplica(tp, replicaId)
         tp -> result.toFetchPartitionData(isReassignmentFetch)
       }
+      if (coldRecords.isEmpty)
+        logReadAhead.foreach(_.hotFetchTimeHist.update(time.hiResClockMs() - fetchStartMs))
       responseCallback(fetchPartitionData)
     } else {
       // construct the fetch results from the read results
@@ -1179,17 +1217,31 @@ class ReplicaManager(val config: KafkaConfig,
         delayedRemoteFetchPurgatory.tryCompleteElseWatch(remoteFetch, Seq(key))
       } else {
         // If there is not enough data to respond and there is no remote data, we will let the fetch request
-        // to wait for new data.
-        val delayedFetch = new DelayedFetch(timeout, fetchMetadata, this, quota, clientMetadata,
-          responseCallback)
+        // to wait for new data, or for its data to be read ahead.
+        val delayedFetch = readAhead match {
+          case Some((_, readAheadResult)) =>
+            val coldFetchCallback = (fetchPartitionData: Seq[(TopicPartition, FetchPartitionData)]) => {
+              logReadAhead.foreach(_.coldFetchTimeHist.update(time.hiResClockMs() - fetchStartMs))
+              responseCallback(fetchPartitionData)
+            }
+            new DelayedFetch(timeout, fetchMetadata, this, quota, clientMetadata, coldFetchCallback, Some(readAheadResult))
+          case None =>
+            new DelayedFetch(timeout, fetchMetadata, this, quota, clientMetadata, responseCallback)
+        }
 
-        // create a list of (topic, partition) pairs to use as keys for this delayed fetch operation
-        val delayedFetchKeys = fetchPartitionStatus.map { case (tp, _) => TopicPartitionOperationKey(tp) }
+        // create a list of (topic, partition) pairs to use as keys for this delayed fetch operation,
+        // and the key of the read ahead if any
+        val delayedFetchKeys = fetchPartitionStatus.map { case (tp, _) => TopicPartitionOperationKey(tp) } ++
+          readAhead.map { case (readAheadKey, _) => readAheadKey }
 
         // try to complete the request immediately, otherwise put it into the purgatory;
         // this is because while the delayed fetch operation is being created, new requests
         // may arrive and hence make this operation completable.
         delayedFetchPurgatory.tryCompleteElseWatch(delayedFetch, delayedFetchKeys)
+
+        readAhead.foreach { case (readAheadKey, readAheadResult) =>
+          readAheadResult.thenRun(() => delayedFetchPurgatory.checkAndComplete(readAheadKey))
+        }
       }
     }
   }
@@ -2158,6 +2210,7 @@ class ReplicaManager(val config: KafkaConfig,
     delayedDeleteRecordsPurgatory.shutdown()
     delayedElectLeaderPurgatory.shutdown()
     delayedRemoteFetchPurgatory.shutdown()
+    logReadAhead.foreach(_.shutdown())
     if (checkpointHW)
       checkpointHighWatermarks()
     replicaSelectorOpt.foreach(_.close)
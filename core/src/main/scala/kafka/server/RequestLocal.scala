@@ -17,6 +17,7 @@
 
 package kafka.server
 
+import org.apache.kafka.common.record.RecordBatchColumns
 import org.apache.kafka.common.utils.BufferSupplier
 
 object RequestLocal {
@@ -33,5 +34,21 @@ object RequestLocal {
  * can be used (see RequestLocal.withThreadConfinedCaching).
  */
 case class RequestLocal(bufferSupplier: BufferSupplier) {
+  private var cachedRecordBatchColumns: RecordBatchColumns = _
+
+  /**
+   * The columns into which the records of a batch are read to validate them, which are reused unless this instance is
+   * shared by threads, like `RequestLocal.NoCaching`.
+   */
+  def recordBatchColumns: RecordBatchColumns = {
+    if (bufferSupplier eq BufferSupplier.NO_CACHING)
+      new RecordBatchColumns
+    else {
+      if (cachedRecordBatchColumns == null)
+        cachedRecordBatchColumns = new RecordBatchColumns
+      cachedRecordBatchColumns
+    }
+  }
+
   def close(): Unit = bufferSupplier.close()
 }
@@ -23,7 +23,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock
 
 import kafka.admin.BrokerMetadata
 
-import scala.collection.{Seq, Set, mutable}
+import scala.collection.{Seq, Set, immutable, mutable}
 import scala.jdk.CollectionConverters._
 import kafka.cluster.{Broker, EndPoint}
 import kafka.api._
@@ -45,15 +45,19 @@ import org.apache.kafka.common.security.auth.SecurityProtocol
  *  A cache for the state (e.g., current leader) of each partition. This cache is updated through
  *  UpdateMetadataRequest from the controller. Every broker maintains the same cache, asynchronously.
  */
-class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
+class ZkMetadataCache(brokerId: Int, responseCacheMaxEntries: Int = 0) extends MetadataCache with Logging {
 
   private val partitionMetadataLock = new ReentrantReadWriteLock()
+  private val responseCache =
+    if (responseCacheMaxEntries > 0) Some(new MetadataResponseCache(responseCacheMaxEntries)) else None
   //this is the cache state. every MetadataSnapshot instance is immutable, and updates (performed under a lock)
-  //replace the value with a completely new one. this means reads (which are not under any lock) need to grab
-  //the value of this var (into a val) ONCE and retain that read copy for the duration of their operation.
+  //replace the value with a new one, which shares the state of the topics the update does not touch with the
+  //previous one. this means reads (which are not under any lock) need to grab the value of this var (into a val)
+  //ONCE and retain that read copy for the duration of their operation.
   //multiple reads of this value risk getting different snapshots.
-  @volatile private var metadataSnapshot: MetadataSnapshot = MetadataSnapshot(partitionStates = mutable.AnyRefMap.empty,
-    topicIds = Map.empty, controllerId = None, aliveBrokers = mutable.LongMap.empty, aliveNodes = mutable.LongMap.empty)
+  @volatile private var metadataSnapshot: MetadataSnapshot = MetadataSnapshot(partitionStates = immutable.HashMap.empty,
+    topicIds = Map.empty, topicNames = Map.empty, controllerId = None, aliveBrokers = mutable.LongMap.empty,
+    aliveNodes = mutable.LongMap.empty, aliveNodesByListener = Map.empty)
 
   this.logIdent = s"[MetadataCache brokerId=$brokerId] "
   private val stateChangeLogger = new StateChangeLogger(brokerId, inControllerContext = false, None)
@@ -62,16 +66,15 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
   // we should be careful about adding additional logic here. Relatedly, `brokers` is
   // `List[Integer]` instead of `List[Int]` to avoid a collection copy.
   // filterUnavailableEndpoints exists to support v0 MetadataResponses
-  private def maybeFilterAliveReplicas(snapshot: MetadataSnapshot,
+  private def maybeFilterAliveReplicas(listenerNodes: mutable.LongMap[Node],
                                        brokers: java.util.List[Integer],
-                                       listenerName: ListenerName,
                                        filterUnavailableEndpoints: Boolean): java.util.List[Integer] = {
     if (!filterUnavailableEndpoints) {
       brokers
     } else {
-      val res = new util.ArrayList[Integer](math.min(snapshot.aliveBrokers.size, brokers.size))
+      val res = new util.ArrayList[Integer](math.min(listenerNodes.size, brokers.size))
       for (brokerId <- brokers.asScala) {
-        if (hasAliveEndpoint(snapshot, brokerId, listenerName))
+        if (listenerNodes.contains(brokerId.longValue))
           res.add(brokerId)
       }
       res
@@ -84,17 +87,18 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
   private def getPartitionMetadata(snapshot: MetadataSnapshot, topic: String, listenerName: ListenerName, errorUnavailableEndpoints: Boolean,
                                    errorUnavailableListeners: Boolean): Option[Iterable[MetadataResponsePartition]] = {
     snapshot.partitionStates.get(topic).map { partitions =>
+      val listenerNodes = snapshot.aliveNodesByListener.getOrElse(listenerName, EmptyListenerNodes)
       partitions.map { case (partitionId, partitionState) =>
         val topicPartition = new TopicPartition(topic, partitionId.toInt)
         val leaderBrokerId = partitionState.leader
         val leaderEpoch = partitionState.leaderEpoch
-        val maybeLeader = getAliveEndpoint(snapshot, leaderBrokerId, listenerName)
+        val maybeLeader = Option(listenerNodes.getOrNull(leaderBrokerId))
 
         val replicas = partitionState.replicas
-        val filteredReplicas = maybeFilterAliveReplicas(snapshot, replicas, listenerName, errorUnavailableEndpoints)
+        val filteredReplicas = maybeFilterAliveReplicas(listenerNodes, replicas, errorUnavailableEndpoints)
 
         val isr = partitionState.isr
-        val filteredIsr = maybeFilterAliveReplicas(snapshot, isr, listenerName, errorUnavailableEndpoints)
+        val filteredIsr = maybeFilterAliveReplicas(listenerNodes, isr, errorUnavailableEndpoints)
 
         val offlineReplicas = partitionState.offlineReplicas
 
@@ -144,25 +148,6 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
     }
   }
 
-  /**
-   * Check whether a broker is alive and has a registered listener matching the provided name.
-   * This method was added to avoid unnecessary allocations in [[maybeFilterAliveReplicas]], which is
-   * a hotspot in metadata handling.
-   */
-  private def hasAliveEndpoint(snapshot: MetadataSnapshot, brokerId: Int, listenerName: ListenerName): Boolean = {
-    snapshot.aliveNodes.get(brokerId).exists(_.contains(listenerName))
-  }
-
-  /**
-   * Get the endpoint matching the provided listener if the broker is alive. Note that listeners can
-   * be added dynamically, so a broker with a missing listener could be a transient error.
-   *
-   * @return None if broker is not alive or if the broker does not have a listener named `listenerName`.
-   */
-  private def getAliveEndpoint(snapshot: MetadataSnapshot, brokerId: Int, listenerName: ListenerName): Option[Node] = {
-    snapshot.aliveNodes.get(brokerId).flatMap(_.get(listenerName))
-  }
-
   // errorUnavailableEndpoints exists to support v0 MetadataResponses
   def getTopicMetadata(topics: Set[String],
                        listenerName: ListenerName,
@@ -170,14 +155,45 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
                        errorUnavailableListeners: Boolean = false): Seq[MetadataResponseTopic] = {
     val snapshot = metadataSnapshot
     topics.toSeq.flatMap { topic =>
-      getPartitionMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
-        new MetadataResponseTopic()
-          .setErrorCode(Errors.NONE.code)
-          .setName(topic)
-          .setTopicId(snapshot.topicIds.getOrElse(topic, Uuid.ZERO_UUID))
-          .setIsInternal(Topic.isInternal(topic))
-          .setPartitions(partitionMetadata.toBuffer.asJava)
-      }
+      getTopicMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
+  }
+
+  /**
+   * Get the metadata of the given topics like [[getTopicMetadata]], for a metadata response of the given version. The
+   * topics are taken from the cache of serialized metadata response topics when it is enabled, and only serialized
+   * again when their state changes.
+   */
+  def getSerializedTopicMetadata(topics: Set[String],
+                                 listenerName: ListenerName,
+                                 version: Short,
+                                 errorUnavailableEndpoints: Boolean,
+                                 errorUnavailableListeners: Boolean): Seq[MetadataResponseTopic] = {
+    responseCache match {
+      case Some(cache) =>
+        val snapshot = metadataSnapshot
+        topics.toSeq.flatMap { topic =>
+          snapshot.partitionStates.get(topic).map { partitionStates =>
+            val topicId = snapshot.topicIds.getOrElse(topic, Uuid.ZERO_UUID)
+            cache.getTopicMetadata(topic, listenerName, version, partitionStates, snapshot.aliveNodesByListener, topicId) {
+              getTopicMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).get
+            }
+          }
+        }
+      case None =>
+        getTopicMetadata(topics, listenerName, errorUnavailableEndpoints, errorUnavailableListeners)
+    }
+  }
+
+  private def getTopicMetadata(snapshot: MetadataSnapshot, topic: String, listenerName: ListenerName,
+                               errorUnavailableEndpoints: Boolean, errorUnavailableListeners: Boolean): Option[MetadataResponseTopic] = {
+    getPartitionMetadata(snapshot, topic, listenerName, errorUnavailableEndpoints, errorUnavailableListeners).map { partitionMetadata =>
+      new MetadataResponseTopic()
+        .setErrorCode(Errors.NONE.code)
+        .setName(topic)
+        .setTopicId(snapshot.topicIds.getOrElse(topic, Uuid.ZERO_UUID))
+        .setIsInternal(Topic.isInternal(topic))
+        .setPartitions(partitionMetadata.toBuffer.asJava)
     }
   }
 
@@ -204,6 +220,10 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
     topics.diff(metadataSnapshot.partitionStates.keySet)
   }
 
+  def getTopicId(topicName: String): Uuid = metadataSnapshot.topicIds.getOrElse(topicName, Uuid.ZERO_UUID)
+
+  def getTopicName(topicId: Uuid): Option[String] = metadataSnapshot.topicNames.get(topicId)
+
   override def hasAliveBroker(brokerId: Int): Boolean = metadataSnapshot.aliveBrokers.contains(brokerId)
 
   override def getAliveBrokers(): Iterable[BrokerMetadata] = {
@@ -218,14 +238,6 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
     metadataSnapshot.aliveBrokers.values.flatMap(_.getNode(listenerName))
   }
 
-  private def addOrUpdatePartitionInfo(partitionStates: mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
-                                       topic: String,
-                                       partitionId: Int,
-                                       stateInfo: UpdateMetadataPartitionState): Unit = {
-    val infos = partitionStates.getOrElseUpdate(topic, mutable.LongMap.empty)
-    infos(partitionId) = stateInfo
-  }
-
   def getPartitionInfo(topic: String, partitionId: Int): Option[UpdateMetadataPartitionState] = {
     metadataSnapshot.partitionStates.get(topic).flatMap(_.get(partitionId))
   }
@@ -305,6 +317,7 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
 
       val aliveBrokers = new mutable.LongMap[Broker](metadataSnapshot.aliveBrokers.size)
       val aliveNodes = new mutable.LongMap[collection.Map[ListenerName, Node]](metadataSnapshot.aliveNodes.size)
+      val aliveNodesByListener = new mutable.HashMap[ListenerName, mutable.LongMap[Node]]
       val controllerIdOpt = updateMetadataRequest.controllerId match {
         case id if id < 0 => None
         case id => Some(id)
@@ -319,7 +332,9 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
         broker.endpoints.forEach { ep =>
           val listenerName = new ListenerName(ep.listener)
           endPoints += new EndPoint(ep.host, ep.port, listenerName, SecurityProtocol.forId(ep.securityProtocol))
-          nodes.put(listenerName, new Node(broker.id, ep.host, ep.port))
+          val node = new Node(broker.id, ep.host, ep.port)
+          nodes.put(listenerName, node)
+          aliveNodesByListener.getOrElseUpdate(listenerName, new mutable.LongMap[Node]).update(broker.id, node)
         }
         aliveBrokers(broker.id) = Broker(broker.id, endPoints, Option(broker.rack))
         aliveNodes(broker.id) = nodes.asScala
@@ -329,24 +344,41 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
         if (!aliveNodes.values.forall(_.keySet == listeners))
           error(s"Listeners are not identical across brokers: $aliveNodes")
       }
-
-      val newTopicIds = updateMetadataRequest.topicStates().asScala
-        .map(topicState => (topicState.topicName(), topicState.topicId()))
-        .filter(_._2 != Uuid.ZERO_UUID).toMap
-      val topicIds = mutable.Map.empty[String, Uuid]
-      topicIds ++= metadataSnapshot.topicIds
-      topicIds ++= newTopicIds
+      // the cached metadata response topics are built from the alive brokers, keep them when they have not changed
+      val brokersUnchanged = aliveBrokers == metadataSnapshot.aliveBrokers && aliveNodes == metadataSnapshot.aliveNodes
+      val (newAliveBrokers, newAliveNodes, newAliveNodesByListener) =
+        if (brokersUnchanged) (metadataSnapshot.aliveBrokers, metadataSnapshot.aliveNodes, metadataSnapshot.aliveNodesByListener)
+        else (aliveBrokers, aliveNodes, aliveNodesByListener)
+
+      var topicIds = metadataSnapshot.topicIds
+      var topicNames = metadataSnapshot.topicNames
+      updateMetadataRequest.topicStates.forEach { topicState =>
+        val topicId = topicState.topicId
+        if (topicId != Uuid.ZERO_UUID) {
+          topicIds.get(topicState.topicName).foreach(oldTopicId => topicNames -= oldTopicId)
+          topicIds += topicState.topicName -> topicId
+          topicNames += topicId -> topicState.topicName
+        }
+      }
 
       val deletedPartitions = new mutable.ArrayBuffer[TopicPartition]
       if (!updateMetadataRequest.partitionStates.iterator.hasNext) {
-        metadataSnapshot = MetadataSnapshot(metadataSnapshot.partitionStates, topicIds.toMap, controllerIdOpt, aliveBrokers, aliveNodes)
+        metadataSnapshot = MetadataSnapshot(metadataSnapshot.partitionStates, topicIds, topicNames, controllerIdOpt,
+          newAliveBrokers, newAliveNodes, newAliveNodesByListener)
       } else {
-        //since kafka may do partial metadata updates, we start by copying the previous state
-        val partitionStates = new mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]](metadataSnapshot.partitionStates.size)
-        metadataSnapshot.partitionStates.forKeyValue { (topic, oldPartitionStates) =>
-          val copy = new mutable.LongMap[UpdateMetadataPartitionState](oldPartitionStates.size)
-          copy ++= oldPartitionStates
-          partitionStates(topic) = copy
+        //since kafka may do partial metadata updates, the partition states of the topics the update touches are
+        //copied from the previous state, and those of the other topics are shared with it
+        var partitionStates = metadataSnapshot.partitionStates
+        val updatedTopics = new mutable.HashMap[String, mutable.LongMap[UpdateMetadataPartitionState]]
+        def updatedPartitionStates(topic: String): Option[mutable.LongMap[UpdateMetadataPartitionState]] = {
+          updatedTopics.get(topic).orElse {
+            partitionStates.get(topic).map { oldPartitionStates =>
+              val copy = new mutable.LongMap[UpdateMetadataPartitionState](oldPartitionStates.size)
+              copy ++= oldPartitionStates
+              updatedTopics(topic) = copy
+              copy
+            }
+          }
         }
 
         val traceEnabled = stateChangeLogger.isTraceEnabled
@@ -357,23 +389,41 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
           // per-partition logging here can be very expensive due going through all partitions in the cluster
           val tp = new TopicPartition(state.topicName, state.partitionIndex)
           if (state.leader == LeaderAndIsr.LeaderDuringDelete) {
-            removePartitionInfo(partitionStates, topicIds, tp.topic, tp.partition)
+            updatedPartitionStates(tp.topic).foreach(_.remove(tp.partition))
             if (traceEnabled)
               stateChangeLogger.trace(s"Deleted partition $tp from metadata cache in response to UpdateMetadata " +
                 s"request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
             deletedPartitions += tp
           } else {
-            addOrUpdatePartitionInfo(partitionStates, tp.topic, tp.partition, state)
+            val infos = updatedPartitionStates(tp.topic).getOrElse {
+              val infos = new mutable.LongMap[UpdateMetadataPartitionState]
+              updatedTopics(tp.topic) = infos
+              infos
+            }
+            infos(tp.partition) = state
             if (traceEnabled)
               stateChangeLogger.trace(s"Cached leader info $state for partition $tp in response to " +
                 s"UpdateMetadata request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
           }
         }
+        val deletedTopics = new mutable.HashSet[String]
+        updatedTopics.forKeyValue { (topic, infos) =>
+          if (infos.isEmpty) {
+            partitionStates -= topic
+            topicIds.get(topic).foreach(topicId => topicNames -= topicId)
+            topicIds -= topic
+            deletedTopics += topic
+          } else {
+            partitionStates += topic -> infos
+          }
+        }
+        responseCache.foreach(_.removeTopics(deletedTopics))
         val cachedPartitionsCount = newStates.size - deletedPartitions.size
         stateChangeLogger.info(s"Add $cachedPartitionsCount partitions and deleted ${deletedPartitions.size} partitions from metadata cache " +
           s"in response to UpdateMetadata request sent by controller $controllerId epoch $controllerEpoch with correlation id $correlationId")
 
-        metadataSnapshot = MetadataSnapshot(partitionStates, topicIds.toMap, controllerIdOpt, aliveBrokers, aliveNodes)
+        metadataSnapshot = MetadataSnapshot(partitionStates, topicIds, topicNames, controllerIdOpt, newAliveBrokers,
+          newAliveNodes, newAliveNodesByListener)
       }
       deletedPartitions
     }
@@ -385,22 +435,24 @@ class ZkMetadataCache(brokerId: Int) extends MetadataCache with Logging {
 
   def contains(tp: TopicPartition): Boolean = getPartitionInfo(tp.topic, tp.partition).isDefined
 
-  private def removePartitionInfo(partitionStates: mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
-                                  topicIds: mutable.Map[String, Uuid], topic: String, partitionId: Int): Boolean = {
-    partitionStates.get(topic).exists { infos =>
-      infos.remove(partitionId)
-      if (infos.isEmpty) {
-        partitionStates.remove(topic)
-        topicIds.remove(topic)
-      }
-      true
-    }
+  def close(): Unit = {
+    responseCache.foreach(_.close())
   }
 
-  case class MetadataSnapshot(partitionStates: mutable.AnyRefMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
+  /**
+   * The state of the cache. The partition states of the topics are shared between successive snapshots, and are never
+   * modified once they are in a snapshot.
+   *
+   * @param aliveNodesByListener The nodes of the alive brokers by listener, which spares looking up the listener for
+   *                             every replica when building a metadata response
+   */
+  case class MetadataSnapshot(partitionStates: immutable.HashMap[String, mutable.LongMap[UpdateMetadataPartitionState]],
                               topicIds: Map[String, Uuid],
+                              topicNames: Map[Uuid, String],
                               controllerId: Option[Int],
                               aliveBrokers: mutable.LongMap[Broker],
-                              aliveNodes: mutable.LongMap[collection.Map[ListenerName, Node]])
+                              aliveNodes: mutable.LongMap[collection.Map[ListenerName, Node]],
+                              aliveNodesByListener: collection.Map[ListenerName, mutable.LongMap[Node]])
 
+  private val EmptyListenerNodes = new mutable.LongMap[Node](0)
 }
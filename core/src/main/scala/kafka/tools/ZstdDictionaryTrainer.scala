@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.tools
+
+import java.io.File
+import java.nio.file.{Files, Paths}
+
+import kafka.log.LogConfig
+import kafka.utils.{CommandDefaultOptions, CommandLineUtils, Exit}
+import org.apache.kafka.common.compress.ZstdFactory
+import org.apache.kafka.common.record.FileRecords
+import org.apache.kafka.common.utils.Utils
+
+import scala.collection.mutable.ArrayBuffer
+import scala.jdk.CollectionConverters._
+import scala.util.Random
+
+/**
+ * A tool which trains a zstd dictionary from a sample of the record values in log segments of a topic. The dictionary
+ * is written to a file for the producers and consumers of the topic, and printed in the form of the topic config.
+ */
+object ZstdDictionaryTrainer {
+
+  def main(args: Array[String]): Unit = {
+    val opts = new ZstdDictionaryTrainerOptions(args)
+    CommandLineUtils.printHelpAndExitIfNeeded(opts, "This tool trains a zstd dictionary from a sample of the record " +
+      "values in log segments of a topic.")
+    opts.checkArgs()
+
+    val samples = sampleValues(opts.files.map(new File(_)), opts.maxSamples)
+    if (samples.isEmpty) {
+      System.err.println(s"There are no record values in ${opts.files.mkString(", ")} to train a dictionary from")
+      Exit.exit(1)
+    }
+    val dictionary = ZstdFactory.trainDictionary(samples.asJava, opts.maxDictionaryBytes)
+    Files.write(Paths.get(opts.outputFile), dictionary.bytes)
+    println(s"Trained $dictionary from ${samples.size} record values and wrote it to ${opts.outputFile}")
+    println(s"${LogConfig.ZstdDictionaryProp}=${dictionary.toBase64}")
+  }
+
+  /**
+   * Get a uniform sample of the values of the records in the given log segment files.
+   */
+  private[tools] def sampleValues(files: Seq[File], maxSamples: Int): Seq[Array[Byte]] = {
+    val samples = new ArrayBuffer[Array[Byte]](maxSamples)
+    val random = new Random
+    var numValues = 0L
+    files.foreach { file =>
+      val fileRecords = FileRecords.open(file, false)
+      try {
+        fileRecords.batches.forEach { batch =>
+          if (!batch.isControlBatch) {
+            batch.forEach { record =>
+              if (record.hasValue) {
+                numValues += 1
+                // reservoir sampling, which replaces a random sample with the value with decreasing probability
+                if (samples.size < maxSamples)
+                  samples += Utils.toArray(record.value)
+                else {
+                  val index = (random.nextDouble() * numValues).toLong
+                  if (index < maxSamples)
+                    samples(index.toInt) = Utils.toArray(record.value)
+                }
+              }
+            }
+          }
+        }
+      } finally {
+        fileRecords.closeHandlers()
+      }
+    }
+    samples
+  }
+
+  private class ZstdDictionaryTrainerOptions(args: Array[String]) extends CommandDefaultOptions(args) {
+    val filesOpt = parser.accepts("files", "REQUIRED: The comma separated list of log segment files of the topic to sample.")
+      .withRequiredArg
+      .describedAs("file1, file2, ...")
+      .ofType(classOf[String])
+    val outputOpt = parser.accepts("output", "REQUIRED: The file to write the dictionary to.")
+      .withRequiredArg
+      .describedAs("file")
+      .ofType(classOf[String])
+    val maxSamplesOpt = parser.accepts("max-samples", "The maximum number of record values to train the dictionary from.")
+      .withRequiredArg
+      .describedAs("count")
+      .ofType(classOf[java.lang.Integer])
+      .defaultsTo(100000)
+    val maxDictionaryBytesOpt = parser.accepts("max-dictionary-bytes", "The maximum size of the dictionary.")
+      .withRequiredArg
+      .describedAs("size")
+      .ofType(classOf[java.lang.Integer])
+      .defaultsTo(64 * 1024)
+    options = parser.parse(args : _*)
+
+    lazy val files = options.valueOf(filesOpt).split(",").map(_.trim).toSeq
+    lazy val outputFile = options.valueOf(outputOpt)
+    lazy val maxSamples = options.valueOf(maxSamplesOpt).intValue()
+    lazy val maxDictionaryBytes = options.valueOf(maxDictionaryBytesOpt).intValue()
+
+    def checkArgs(): Unit = CommandLineUtils.checkRequiredArgs(parser, options, filesOpt, outputOpt)
+  }
+}
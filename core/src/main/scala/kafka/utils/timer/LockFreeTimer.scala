@@ -0,0 +1,343 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.utils.timer
+
+import java.util.PriorityQueue
+import java.util.concurrent.atomic.{AtomicInteger, AtomicReference}
+import java.util.concurrent.locks.{LockSupport, ReentrantLock}
+import java.util.concurrent.{Executors, TimeUnit}
+
+import kafka.utils.{nonthreadsafe, threadsafe}
+import org.apache.kafka.common.utils.{KafkaThread, Time}
+
+/*
+ * A hierarchical timing wheel like SystemTimer, in which adding and cancelling tasks never takes a lock.
+ *
+ * Added tasks are pushed onto a lock-free stack (a CAS on its head). The timing wheels, their buckets and the queue of
+ * bucket expirations are only ever touched by the thread advancing the clock, which first moves the added tasks into
+ * their buckets. A task is cancelled by atomically clearing the task of its entry: the entry is not unlinked from its
+ * bucket right away but dropped when the bucket expires, or when the advancing thread compacts a bucket in which most
+ * entries have been cancelled. Since the task is cleared, a lingering entry does not hold on to a delayed request.
+ *
+ * While waiting for the next bucket to expire, the advancing thread is woken up by the addition of a task which
+ * expires earlier, so that short delays are honoured even if advanceClock waits for a long time.
+ *
+ * advanceClock is meant to be called by a single thread, such as the purgatory reaper. Concurrent calls are serialized.
+ */
+@threadsafe
+class LockFreeTimer(executorName: String,
+                    tickMs: Long = 1,
+                    wheelSize: Int = 20,
+                    startMs: Long = Time.SYSTEM.hiResClockMs) extends Timer {
+  import LockFreeTimer._
+
+  // timeout timer
+  private[this] val taskExecutor = Executors.newFixedThreadPool(1,
+    (runnable: Runnable) => KafkaThread.nonDaemon("executor-" + executorName, runnable))
+
+  private[this] val taskCounter = new AtomicInteger(0)
+
+  // entries added since the clock was last advanced, linked through LockFreeTimerEntry.nextAdded
+  private[this] val addedEntries = new AtomicReference[LockFreeTimerEntry]()
+
+  // only used by the thread advancing the clock
+  private[this] val bucketQueue = new PriorityQueue[LockFreeTimerBucket](
+    (x: LockFreeTimerBucket, y: LockFreeTimerBucket) => java.lang.Long.compare(x.expirationMs, y.expirationMs))
+  private[this] val timingWheel = new LockFreeTimingWheel(tickMs, wheelSize, startMs, bucketQueue)
+  private[this] val advanceLock = new ReentrantLock()
+
+  // the time of the wheel, tasks expiring before the next tick run right away
+  @volatile private[this] var currentTimeMs = timingWheel.currentTimeMs
+  // the time the advancing thread waits until, NotWaiting if it is not waiting
+  @volatile private[this] var waitingUntilMs = NotWaiting
+  @volatile private[this] var waitingThread: Thread = null
+
+  def add(timerTask: TimerTask): Unit = {
+    val expirationMs = timerTask.delayMs + Time.SYSTEM.hiResClockMs
+    val entry = new LockFreeTimerEntry(timerTask, expirationMs, taskCounter)
+    if (expirationMs < currentTimeMs + tickMs) {
+      // Already expired
+      val task = entry.expire()
+      if (task != null)
+        taskExecutor.submit(task)
+    } else {
+      var head = addedEntries.get
+      entry.nextAdded = head
+      while (!addedEntries.compareAndSet(head, entry)) {
+        head = addedEntries.get
+        entry.nextAdded = head
+      }
+      // wake up the advancing thread if it waits beyond the expiration of this task
+      if (expirationMs < waitingUntilMs)
+        LockSupport.unpark(waitingThread)
+    }
+  }
+
+  /*
+   * Advances the clock if there is an expired bucket. If there isn't any expired bucket when called,
+   * waits up to timeoutMs before giving up.
+   */
+  def advanceClock(timeoutMs: Long): Boolean = {
+    advanceLock.lock()
+    try {
+      val deadlineMs = Time.SYSTEM.hiResClockMs + timeoutMs
+      var advanced = false
+      var done = false
+      while (!done) {
+        addAddedEntries()
+        val nowMs = Time.SYSTEM.hiResClockMs
+        val nextBucket = bucketQueue.peek()
+        if (nextBucket != null && nextBucket.expirationMs <= nowMs) {
+          var bucket = nextBucket
+          while (bucket != null && bucket.expirationMs <= nowMs) {
+            bucketQueue.poll()
+            timingWheel.advanceClock(bucket.expirationMs)
+            currentTimeMs = timingWheel.currentTimeMs
+            bucket.flush(addEntry)
+            bucket = bucketQueue.peek()
+          }
+          advanced = true
+          done = true
+        } else if (nowMs >= deadlineMs) {
+          done = true
+        } else {
+          val wakeUpMs = if (nextBucket == null) deadlineMs else math.min(nextBucket.expirationMs, deadlineMs)
+          waitFor(nowMs, wakeUpMs)
+        }
+      }
+      timingWheel.compactBuckets()
+      advanced
+    } finally {
+      advanceLock.unlock()
+    }
+  }
+
+  private def waitFor(nowMs: Long, wakeUpMs: Long): Unit = {
+    waitingThread = Thread.currentThread
+    waitingUntilMs = wakeUpMs
+    // an adder either sees waitingUntilMs and unparks this thread, or pushed its entry before we check here
+    if (addedEntries.get == null)
+      LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wakeUpMs - nowMs))
+    waitingUntilMs = NotWaiting
+  }
+
+  // Move the entries added since the last call into the timing wheels, in the order they were added
+  private def addAddedEntries(): Unit = {
+    var stacked = addedEntries.getAndSet(null)
+    var entry: LockFreeTimerEntry = null
+    while (stacked != null) {
+      val next = stacked.nextAdded
+      stacked.nextAdded = entry
+      entry = stacked
+      stacked = next
+    }
+    while (entry != null) {
+      val next = entry.nextAdded
+      entry.nextAdded = null
+      addEntry(entry)
+      entry = next
+    }
+  }
+
+  private def addEntry(entry: LockFreeTimerEntry): Unit = {
+    if (!timingWheel.add(entry)) {
+      // Already expired or cancelled
+      val timerTask = entry.expire()
+      if (timerTask != null)
+        taskExecutor.submit(timerTask)
+    }
+  }
+
+  def size: Int = taskCounter.get
+
+  override def shutdown(): Unit = {
+    taskExecutor.shutdown()
+  }
+
+}
+
+private[timer] object LockFreeTimer {
+  private[timer] val NotWaiting = Long.MinValue
+  // buckets are compacted once at least half of their entries, and at least this many, have been cancelled
+  private[timer] val MinCancelledEntriesToCompact = 64
+}
+
+@nonthreadsafe
+private[timer] class LockFreeTimingWheel(tickMs: Long, wheelSize: Int, startMs: Long, queue: PriorityQueue[LockFreeTimerBucket]) {
+
+  private[this] val interval = tickMs * wheelSize
+  private[this] val buckets = Array.fill(wheelSize)(new LockFreeTimerBucket)
+
+  private[this] var currentTime = startMs - (startMs % tickMs) // rounding down to multiple of tickMs
+
+  private[this] var overflowWheel: LockFreeTimingWheel = null
+
+  def currentTimeMs: Long = currentTime
+
+  def add(entry: LockFreeTimerEntry): Boolean = {
+    val expiration = entry.expirationMs
+
+    if (entry.cancelled) {
+      // Cancelled
+      false
+    } else if (expiration < currentTime + tickMs) {
+      // Already expired
+      false
+    } else if (expiration < currentTime + interval) {
+      // Put in its own bucket
+      val virtualId = expiration / tickMs
+      val bucket = buckets((virtualId % wheelSize.toLong).toInt)
+      bucket.add(entry)
+
+      // Set the bucket expiration time, the bucket needs to be enqueued if it was an expired bucket
+      if (bucket.expirationMs != virtualId * tickMs) {
+        bucket.expirationMs = virtualId * tickMs
+        queue.offer(bucket)
+      }
+      true
+    } else {
+      // Out of the interval. Put it into the parent timer
+      if (overflowWheel == null)
+        overflowWheel = new LockFreeTimingWheel(interval, wheelSize, currentTime, queue)
+      overflowWheel.add(entry)
+    }
+  }
+
+  // Try to advance the clock
+  def advanceClock(timeMs: Long): Unit = {
+    if (timeMs >= currentTime + tickMs) {
+      currentTime = timeMs - (timeMs % tickMs)
+
+      // Try to advance the current time of the overflow wheel if present
+      if (overflowWheel != null) overflowWheel.advanceClock(currentTime)
+    }
+  }
+
+  // Unlink the cancelled entries of the buckets in which many entries have been cancelled
+  def compactBuckets(): Unit = {
+    buckets.foreach(_.maybeCompact())
+    if (overflowWheel != null) overflowWheel.compactBuckets()
+  }
+}
+
+/*
+ * A singly linked list of entries owned by the thread advancing the clock. Other threads only count the entries
+ * they cancel.
+ */
+@nonthreadsafe
+private[timer] class LockFreeTimerBucket {
+  import LockFreeTimer._
+
+  private[this] var head: LockFreeTimerEntry = null
+  private[this] var tail: LockFreeTimerEntry = null
+  private[this] var size = 0
+  private[timer] val cancelledEntries = new AtomicInteger(0)
+
+  var expirationMs = -1L
+
+  def add(entry: LockFreeTimerEntry): Unit = {
+    entry.bucket = this
+    if (tail == null) head = entry else tail.nextInBucket = entry
+    tail = entry
+    size += 1
+  }
+
+  // Remove all entries and apply the supplied function to each of the entries which are not cancelled
+  def flush(f: LockFreeTimerEntry => Unit): Unit = {
+    var entry = head
+    head = null
+    tail = null
+    size = 0
+    cancelledEntries.set(0)
+    expirationMs = -1L
+    while (entry != null) {
+      val next = entry.nextInBucket
+      entry.nextInBucket = null
+      entry.bucket = null
+      if (!entry.cancelled)
+        f(entry)
+      entry = next
+    }
+  }
+
+  def maybeCompact(): Unit = {
+    val cancelled = cancelledEntries.get
+    if (cancelled >= MinCancelledEntriesToCompact && cancelled * 2 >= size) {
+      var removed = 0
+      var previous: LockFreeTimerEntry = null
+      var entry = head
+      while (entry != null) {
+        val next = entry.nextInBucket
+        if (entry.cancelled) {
+          if (previous == null) head = next else previous.nextInBucket = next
+          entry.nextInBucket = null
+          entry.bucket = null
+          removed += 1
+        } else {
+          previous = entry
+        }
+        entry = next
+      }
+      tail = previous
+      size -= removed
+      cancelledEntries.addAndGet(-removed)
+    }
+  }
+}
+
+private[timer] class LockFreeTimerEntry(task: TimerTask, val expirationMs: Long, taskCounter: AtomicInteger) extends TimerEntry {
+  // the task, until the entry is cancelled or expires
+  private[this] val timerTask = new AtomicReference[TimerTask](task)
+
+  // only used by the thread adding the entry and by the thread advancing the clock
+  var nextAdded: LockFreeTimerEntry = null
+  var nextInBucket: LockFreeTimerEntry = null
+  // the bucket of the entry, read by cancelling threads to count the cancelled entries of the bucket
+  @volatile var bucket: LockFreeTimerBucket = null
+
+  taskCounter.incrementAndGet()
+  // if this timerTask is already held by an existing timer task entry,
+  // setTimerTaskEntry will remove it.
+  task.setTimerTaskEntry(this)
+
+  def cancelled: Boolean = {
+    val task = timerTask.get
+    task == null || (task.getTimerTaskEntry ne this)
+  }
+
+  // Cancel the entry, the bucket unlinks it lazily
+  def remove(): Unit = {
+    if (release() != null) {
+      val currentBucket = bucket
+      if (currentBucket != null)
+        currentBucket.cancelledEntries.incrementAndGet()
+    }
+  }
+
+  // Take the task of the entry to run it, returns null if the entry was cancelled
+  def expire(): TimerTask = {
+    val task = release()
+    if (task != null && (task.getTimerTaskEntry eq this)) task else null
+  }
+
+  private def release(): TimerTask = {
+    val task = timerTask.getAndSet(null)
+    if (task != null)
+      taskCounter.decrementAndGet()
+    task
+  }
+}
@@ -20,7 +20,7 @@ trait TimerTask extends Runnable {
 
   val delayMs: Long // timestamp in millisecond
 
-  private[this] var timerTaskEntry: TimerTaskEntry = null
+  private[this] var timerTaskEntry: TimerEntry = null
 
   def cancel(): Unit = {
     synchronized {
@@ -29,7 +29,7 @@ trait TimerTask extends Runnable {
     }
   }
 
-  private[timer] def setTimerTaskEntry(entry: TimerTaskEntry): Unit = {
+  private[timer] def setTimerTaskEntry(entry: TimerEntry): Unit = {
     synchronized {
       // if this timerTask is already held by an existing timer task entry,
       // we will remove such an entry first.
@@ -40,6 +40,13 @@ trait TimerTask extends Runnable {
     }
   }
 
-  private[timer] def getTimerTaskEntry: TimerTaskEntry = timerTaskEntry
+  private[timer] def getTimerTaskEntry: TimerEntry = timerTaskEntry
 
 }
+
+/**
+ * The entry of a task in a timer, through which a cancelled task removes itself from the timer
+ */
+private[timer] trait TimerEntry {
+  def remove(): Unit
+}
@@ -126,7 +126,7 @@ private[timer] class TimerTaskList(taskCounter: AtomicInteger) extends Delayed {
 
 }
 
-private[timer] class TimerTaskEntry(val timerTask: TimerTask, val expirationMs: Long) extends Ordered[TimerTaskEntry] {
+private[timer] class TimerTaskEntry(val timerTask: TimerTask, val expirationMs: Long) extends Ordered[TimerTaskEntry] with TimerEntry {
 
   @volatile
   var list: TimerTaskList = null
@@ -138,7 +138,7 @@ private[timer] class TimerTaskEntry(val timerTask: TimerTask, val expirationMs:
   if (timerTask != null) timerTask.setTimerTaskEntry(this)
 
   def cancelled: Boolean = {
-    timerTask.getTimerTaskEntry != this
+    timerTask.getTimerTaskEntry ne this
   }
 
   def remove(): Unit = {
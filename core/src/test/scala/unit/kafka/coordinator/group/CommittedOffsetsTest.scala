@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.coordinator.group
+
+import java.util.Optional
+
+import kafka.common.OffsetAndMetadata
+import org.apache.kafka.common.TopicPartition
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+
+import scala.collection.mutable
+
+class CommittedOffsetsTest {
+  private val offsets = new CommittedOffsets
+
+  @Test
+  def testPutAndGet(): Unit = {
+    val withAllFields = CommitRecordMetadataAndOffset(Some(15L),
+      OffsetAndMetadata(37L, Optional.of[Integer](5), "metadata", 1000L, Some(2000L)))
+    val withoutOptionalFields = CommitRecordMetadataAndOffset(None,
+      OffsetAndMetadata(38L, Optional.empty[Integer](), OffsetAndMetadata.NoMetadata, 1001L, None))
+
+    val foo3 = new TopicPartition("foo", 3)
+    val foo0 = new TopicPartition("foo", 0)
+    offsets.put(foo3, withAllFields)
+    offsets.put(foo0, withoutOptionalFields)
+
+    assertEquals(2, offsets.size)
+    assertEquals(Some(withAllFields), offsets.get(foo3))
+    assertEquals(Some(withoutOptionalFields), offsets.get(foo0))
+    assertEquals(Some(withAllFields.offsetAndMetadata), offsets.offsetAndMetadata(foo3))
+    assertFalse(offsets.contains(new TopicPartition("foo", 1)))
+    assertFalse(offsets.contains(new TopicPartition("foo", 100)))
+    assertFalse(offsets.contains(new TopicPartition("bar", 3)))
+    assertEquals(None, offsets.get(new TopicPartition("bar", 0)))
+
+    // overwriting an offset does not change the size
+    offsets.put(foo3, withoutOptionalFields)
+    assertEquals(2, offsets.size)
+    assertEquals(Some(withoutOptionalFields), offsets.get(foo3))
+  }
+
+  @Test
+  def testRemove(): Unit = {
+    val offset = CommitRecordMetadataAndOffset(Some(1L), OffsetAndMetadata(10L, "", 1000L))
+    val foo0 = new TopicPartition("foo", 0)
+    val foo1 = new TopicPartition("foo", 1)
+    offsets.put(foo0, offset)
+    offsets.put(foo1, offset)
+
+    assertEquals(Some(offset), offsets.remove(foo0))
+    assertEquals(None, offsets.remove(foo0))
+    assertEquals(1, offsets.size)
+    assertEquals(Seq(foo1), offsets.topicPartitions)
+
+    assertEquals(Some(offset), offsets.remove(foo1))
+    assertTrue(offsets.isEmpty)
+    assertEquals(Seq.empty, offsets.topicPartitions)
+  }
+
+  @Test
+  def testInvalidPartitions(): Unit = {
+    val offset = CommitRecordMetadataAndOffset(Some(1L), OffsetAndMetadata(10L, "", 1000L))
+    val negative = new TopicPartition("foo", -1)
+    val huge = new TopicPartition("foo", Int.MaxValue)
+    offsets.put(negative, offset)
+    offsets.put(huge, offset)
+
+    assertEquals(2, offsets.size)
+    assertEquals(Some(offset), offsets.get(negative))
+    assertEquals(Some(offset), offsets.get(huge))
+    assertEquals(Some(offset), offsets.remove(huge))
+    assertEquals(1, offsets.size)
+  }
+
+  @Test
+  def testSparsePartitions(): Unit = {
+    val expected = mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]()
+    for (partition <- Seq(60000, 0, 1000, 1001, 30000, 65535, 2)) {
+      val topicPartition = new TopicPartition("foo", partition)
+      val offset = CommitRecordMetadataAndOffset(None, OffsetAndMetadata(partition.toLong, "", 1000L))
+      offsets.put(topicPartition, offset)
+      expected.put(topicPartition, offset)
+    }
+    // removals must leave the partitions which were probed past reachable
+    for (partition <- Seq(1000, 60000)) {
+      val topicPartition = new TopicPartition("foo", partition)
+      assertEquals(expected.remove(topicPartition), offsets.remove(topicPartition))
+    }
+
+    assertEquals(expected.size, offsets.size)
+    expected.foreach { case (topicPartition, offset) => assertEquals(Some(offset), offsets.get(topicPartition)) }
+    assertFalse(offsets.contains(new TopicPartition("foo", 1000)))
+    assertEquals(expected.keySet, offsets.topicPartitions.toSet)
+
+    // the table grows with the number of partitions
+    for (partition <- 0 until 100) {
+      val topicPartition = new TopicPartition("foo", partition)
+      val offset = CommitRecordMetadataAndOffset(None, OffsetAndMetadata(partition.toLong, "", 1000L))
+      offsets.put(topicPartition, offset)
+      expected.put(topicPartition, offset)
+    }
+    expected.foreach { case (topicPartition, offset) => assertEquals(Some(offset), offsets.get(topicPartition)) }
+    assertEquals(expected.keySet, offsets.topicPartitions.toSet)
+  }
+
+  @Test
+  def testForeach(): Unit = {
+    val expected = (for (topic <- Seq("foo", "bar"); partition <- 0 until 20 by 3)
+      yield new TopicPartition(topic, partition) ->
+        CommitRecordMetadataAndOffset(Some(partition.toLong), OffsetAndMetadata(partition * 10L, s"$topic", 1000L))).toMap
+    expected.foreach { case (topicPartition, offset) => offsets.put(topicPartition, offset) }
+
+    val found = mutable.Map[TopicPartition, CommitRecordMetadataAndOffset]()
+    offsets.foreach { (topicPartition, offset) => found.put(topicPartition, offset) }
+    assertEquals(expected, found)
+    assertEquals(expected.keySet, offsets.topicPartitions.toSet)
+  }
+}
@@ -343,6 +343,135 @@ class GroupMetadataManagerTest {
     assertFalse(group.hasPendingOffsetCommitsFromProducer(producerId))
   }
 
+  @Test
+  def testConcurrentLoadOfSeveralPartitions(): Unit = {
+    val numPartitions = 4
+    val abortedProducerId = 1000L
+    val pendingProducerId = 1001L
+    val producerEpoch: Short = 2
+    val groupEpoch = 2
+
+    val gmm = new GroupMetadataManager(0, ApiVersion.latestVersion,
+      offsetConfig.copy(loadThreads = 2, loadDecodeThreads = 2), replicaManager, time, metrics)
+    gmm.startup(() => numPartitions, false)
+    try {
+      // a group of each offsets partition, so that the transaction completion finds it in its partition
+      val groupIds = (0 until numPartitions).map { offsetsPartition =>
+        Iterator.from(0).map(i => s"group-$i").find(gmm.partitionFor(_) == offsetsPartition).get
+      }
+      val committedOffsets = groupIds.indices.map(i => new TopicPartition("foo", i) -> (10L + i)).toMap
+      val abortedOffsets = groupIds.indices.map(i => new TopicPartition("foo", i) -> (20L + i)).toMap
+      val pendingOffsets = groupIds.indices.map(i => new TopicPartition("bar", i) -> (30L + i)).toMap
+
+      groupIds.zipWithIndex.foreach { case (partitionGroupId, offsetsPartition) =>
+        val topicPartition = new TopicPartition("foo", offsetsPartition)
+        val pendingTopicPartition = new TopicPartition("bar", offsetsPartition)
+        val buffer = ByteBuffer.allocate(1024)
+        var nextOffset = 0
+        nextOffset += appendConsumerOffsetCommit(buffer, nextOffset,
+          Map(topicPartition -> committedOffsets(topicPartition)), partitionGroupId)
+        nextOffset += appendTransactionalOffsetCommits(buffer, abortedProducerId, producerEpoch, nextOffset,
+          Map(topicPartition -> abortedOffsets(topicPartition)), partitionGroupId)
+        nextOffset += completeTransactionalOffsetCommit(buffer, abortedProducerId, producerEpoch, nextOffset, isCommit = false)
+        nextOffset += appendTransactionalOffsetCommits(buffer, pendingProducerId, producerEpoch, nextOffset,
+          Map(pendingTopicPartition -> pendingOffsets(pendingTopicPartition)), partitionGroupId)
+        buffer.flip()
+        expectGroupMetadataLoad(new TopicPartition(Topic.GROUP_METADATA_TOPIC_NAME, offsetsPartition), 0,
+          MemoryRecords.readableRecords(buffer))
+      }
+      EasyMock.replay(replicaManager)
+
+      val loadedGroupIds = new java.util.concurrent.ConcurrentLinkedQueue[String]
+      (0 until numPartitions).foreach { offsetsPartition =>
+        gmm.scheduleLoadGroupAndOffsets(offsetsPartition, groupEpoch, group => loadedGroupIds.add(group.groupId))
+      }
+      // the marker of the pending transaction is written while the partitions are loading, so its completion must
+      // only run once the pending offsets of each partition are loaded
+      gmm.scheduleHandleTxnCompletion(pendingProducerId, (0 until numPartitions).toSet, isCommit = true)
+
+      TestUtils.waitUntilTrue(() => groupIds.forall { partitionGroupId =>
+        gmm.getGroup(partitionGroupId).exists(!_.hasPendingOffsetCommitsFromProducer(pendingProducerId))
+      }, "The transaction completion should be applied to the loaded groups")
+      assertEquals(groupIds.sorted, loadedGroupIds.asScala.toSeq.sorted)
+
+      groupIds.zipWithIndex.foreach { case (partitionGroupId, offsetsPartition) =>
+        val group = gmm.getGroup(partitionGroupId).get
+        assertEquals(Empty, group.currentState)
+        val topicPartition = new TopicPartition("foo", offsetsPartition)
+        val pendingTopicPartition = new TopicPartition("bar", offsetsPartition)
+        // the aborted offset is discarded by its marker, and the pending offset is committed by the completion
+        assertEquals(2, group.allOffsets.size)
+        assertEquals(Some(committedOffsets(topicPartition)), group.offset(topicPartition).map(_.offset))
+        assertEquals(Some(pendingOffsets(pendingTopicPartition)), group.offset(pendingTopicPartition).map(_.offset))
+        assertFalse(group.hasPendingOffsetCommitsFromProducer(abortedProducerId))
+      }
+    } finally {
+      gmm.shutdown()
+    }
+  }
+
+  @Test
+  def testIncrementalLoad(): Unit = {
+    val producerId = 1000L
+    val pendingProducerId = 1001L
+    val producerEpoch: Short = 2
+    val groupEpoch = 2
+
+    val gmm = new GroupMetadataManager(0, ApiVersion.latestVersion, offsetConfig.copy(loadIncrementally = true),
+      replicaManager, time, metrics)
+    gmm.startup(() => numOffsetsPartitions, false)
+    try {
+      val groupIds = Iterator.from(0).map(i => s"group-$i").filter(gmm.partitionFor(_) == groupPartitionId).take(4).toSeq
+      val Seq(committedGroupId, txnGroupId, laterGroupId, pendingGroupId) = groupIds
+      val foo0 = new TopicPartition("foo", 0)
+      val foo1 = new TopicPartition("foo", 1)
+
+      val buffer = ByteBuffer.allocate(2048)
+      var nextOffset = 0
+      nextOffset += appendConsumerOffsetCommit(buffer, nextOffset, Map(foo0 -> 10L), committedGroupId)
+      nextOffset += appendTransactionalOffsetCommits(buffer, producerId, producerEpoch, nextOffset, Map(foo0 -> 20L), txnGroupId)
+      nextOffset += appendTransactionalOffsetCommits(buffer, pendingProducerId, producerEpoch, nextOffset,
+        Map(foo0 -> 40L), pendingGroupId)
+      nextOffset += appendConsumerOffsetCommit(buffer, nextOffset, Map(foo0 -> 30L), laterGroupId)
+      nextOffset += completeTransactionalOffsetCommit(buffer, producerId, producerEpoch, nextOffset, isCommit = true)
+      nextOffset += appendConsumerOffsetCommit(buffer, nextOffset, Map(foo1 -> 11L), committedGroupId)
+      buffer.flip()
+
+      // the partition is read once to find the last batch of each group, and once to load it
+      expectGroupMetadataLoad(groupTopicPartition, 0, MemoryRecords.readableRecords(buffer), numReads = 2)
+      EasyMock.replay(replicaManager)
+
+      val loadedGroupIds = mutable.ArrayBuffer[String]()
+      val loadingGroupIds = mutable.ArrayBuffer[Seq[String]]()
+      gmm.loadGroupsAndOffsets(groupTopicPartition, groupEpoch, { group =>
+        loadedGroupIds += group.groupId
+        loadingGroupIds += groupIds.filter(gmm.isGroupLoading)
+      }, 0L)
+
+      // each group is available once its last record, or the marker of its transaction, is loaded, while the group
+      // with a transaction still open is only available with the whole partition
+      assertEquals(Seq(laterGroupId, txnGroupId, committedGroupId, pendingGroupId), loadedGroupIds)
+      assertEquals(Seq(
+        groupIds,
+        Seq(committedGroupId, txnGroupId, pendingGroupId),
+        Seq(committedGroupId, pendingGroupId),
+        Seq(pendingGroupId)
+      ), loadingGroupIds)
+      assertEquals(Seq.empty, groupIds.filter(gmm.isGroupLoading))
+      assertEquals(groupIds, groupIds.filter(gmm.isGroupLocal))
+
+      def committedOffsets(groupId: String): Map[TopicPartition, Long] =
+        gmm.getGroup(groupId).get.allOffsets.map { case (topicPartition, offset) => topicPartition -> offset.offset }
+      assertEquals(Map(foo0 -> 10L, foo1 -> 11L), committedOffsets(committedGroupId))
+      assertEquals(Map(foo0 -> 20L), committedOffsets(txnGroupId))
+      assertEquals(Map(foo0 -> 30L), committedOffsets(laterGroupId))
+      assertEquals(Map.empty, committedOffsets(pendingGroupId))
+      assertTrue(gmm.getGroup(pendingGroupId).get.hasPendingOffsetCommitsFromProducer(pendingProducerId))
+    } finally {
+      gmm.shutdown()
+    }
+  }
+
   @Test
   def testLoadWithCommittedAndAbortedAndPendingTransactionalOffsetCommits(): Unit = {
     val groupMetadataTopicPartition = groupTopicPartition
@@ -574,18 +703,20 @@ class GroupMetadataManagerTest {
     assertTrue(groupMetadataManager.groupNotExists(groupId))
   }
 
-  private def appendConsumerOffsetCommit(buffer: ByteBuffer, baseOffset: Long, offsets: Map[TopicPartition, Long]) = {
+  private def appendConsumerOffsetCommit(buffer: ByteBuffer, baseOffset: Long, offsets: Map[TopicPartition, Long],
+                                         groupId: String = groupId) = {
     val builder = MemoryRecords.builder(buffer, CompressionType.NONE, TimestampType.LOG_APPEND_TIME, baseOffset)
-    val commitRecords = createCommittedOffsetRecords(offsets)
+    val commitRecords = createCommittedOffsetRecords(offsets, groupId)
     commitRecords.foreach(builder.append)
     builder.build()
     offsets.size
   }
 
   private def appendTransactionalOffsetCommits(buffer: ByteBuffer, producerId: Long, producerEpoch: Short,
-                                               baseOffset: Long, offsets: Map[TopicPartition, Long]): Int = {
+                                               baseOffset: Long, offsets: Map[TopicPartition, Long],
+                                               groupId: String = groupId): Int = {
     val builder = MemoryRecords.builder(buffer, CompressionType.NONE, baseOffset, producerId, producerEpoch, 0, true)
-    val commitRecords = createCommittedOffsetRecords(offsets)
+    val commitRecords = createCommittedOffsetRecords(offsets, groupId)
     commitRecords.foreach(builder.append)
     builder.build()
     offsets.size
@@ -2511,10 +2642,11 @@ class GroupMetadataManagerTest {
 
   private def expectGroupMetadataLoad(groupMetadataTopicPartition: TopicPartition,
                                       startOffset: Long,
-                                      records: MemoryRecords): Unit = {
+                                      records: MemoryRecords,
+                                      numReads: Int = 1): Unit = {
     val logMock: Log =  EasyMock.mock(classOf[Log])
     EasyMock.expect(replicaManager.getLog(groupMetadataTopicPartition)).andStubReturn(Some(logMock))
-    val endOffset = expectGroupMetadataLoad(logMock, startOffset, records)
+    val endOffset = expectGroupMetadataLoad(logMock, startOffset, records, numReads)
     EasyMock.expect(replicaManager.getLogEndOffset(groupMetadataTopicPartition)).andStubReturn(Some(endOffset))
     EasyMock.replay(logMock)
   }
@@ -2526,7 +2658,8 @@ class GroupMetadataManagerTest {
    */
   private def expectGroupMetadataLoad(logMock: Log,
                                       startOffset: Long,
-                                      records: MemoryRecords): Long = {
+                                      records: MemoryRecords,
+                                      numReads: Int = 1): Long = {
     val endOffset = startOffset + records.records.asScala.size
     val fileRecordsMock: FileRecords = EasyMock.mock(classOf[FileRecords])
 
@@ -2536,6 +2669,7 @@ class GroupMetadataManagerTest {
       isolation = EasyMock.eq(FetchLogEnd),
       minOneMessage = EasyMock.eq(true)))
       .andReturn(FetchDataInfo(LogOffsetMetadata(startOffset), fileRecordsMock))
+      .times(numReads)
 
     EasyMock.expect(fileRecordsMock.sizeInBytes()).andStubReturn(records.sizeInBytes)
 
@@ -2547,7 +2681,7 @@ class GroupMetadataManagerTest {
         buffer.put(records.buffer.duplicate)
         buffer.flip()
       }
-    })
+    }).times(numReads)
 
     EasyMock.replay(fileRecordsMock)
 
@@ -22,7 +22,7 @@ import java.nio._
 import java.nio.charset.StandardCharsets
 import java.nio.file.Paths
 import java.util.Properties
-import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.{CountDownLatch, ExecutorService, Executors, TimeUnit}
 
 import kafka.common._
 import kafka.server.{BrokerTopicStats, LogDirFailureChannel}
@@ -579,6 +579,111 @@ class LogCleanerTest {
     assertEquals(List(0, 1), lastOffsetsPerBatchInLog(log))
   }
 
+  @Test
+  def testCommittedTransactionSpanningSegmentsWithConcurrentSegmentGroups(): Unit = {
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val tp = new TopicPartition("test", 0)
+      val cleaner = makeCleaner(Int.MaxValue, segmentGroupExecutor = Some(executor))
+      val logProps = new Properties()
+      logProps.put(LogConfig.SegmentBytesProp, 128: java.lang.Integer)
+      val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+      val producerEpoch = 0.toShort
+      val producerId = 1L
+
+      val appendTransaction = appendTransactionalAsLeader(log, producerId, producerEpoch)
+      appendTransaction(Seq(1))
+      log.roll()
+
+      log.appendAsLeader(commitMarker(producerId, producerEpoch), leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+      log.roll()
+
+      // The marker is in another segment group, the record and the marker should still remain after cleaning
+      cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+      assertEquals(List(0, 1), offsetsInLog(log))
+      assertEquals(List(0, 1), lastOffsetsPerBatchInLog(log))
+    } finally executor.shutdown()
+  }
+
+  @Test
+  def testAbortedTransactionSpanningSegmentsWithConcurrentSegmentGroups(): Unit = {
+    val executor = Executors.newFixedThreadPool(2)
+    try {
+      val tp = new TopicPartition("test", 0)
+      val cleaner = makeCleaner(Int.MaxValue, segmentGroupExecutor = Some(executor))
+      val logProps = new Properties()
+      logProps.put(LogConfig.SegmentBytesProp, 128: java.lang.Integer)
+      val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+      val producerEpoch = 0.toShort
+      val producerId = 1L
+
+      val appendTransaction = appendTransactionalAsLeader(log, producerId, producerEpoch)
+      appendTransaction(Seq(1))
+      log.roll()
+
+      log.appendAsLeader(abortMarker(producerId, producerEpoch), leaderEpoch = 0, origin = AppendOrigin.Coordinator)
+      log.roll()
+
+      // The marker group must see the aborted transaction replayed from the previous group
+      cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+      assertEquals(List(1), offsetsInLog(log))
+      assertEquals(List(0, 1), lastOffsetsPerBatchInLog(log))
+
+      cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+      assertEquals(List(1), offsetsInLog(log))
+      assertEquals(List(0, 1), lastOffsetsPerBatchInLog(log))
+    } finally executor.shutdown()
+  }
+
+  @Test
+  def testCleanWithConcurrentSegmentGroups(): Unit = {
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val tp = new TopicPartition("test", 0)
+      val cleaner = makeCleaner(Int.MaxValue, segmentGroupExecutor = Some(executor))
+      val logProps = new Properties()
+      logProps.put(LogConfig.SegmentBytesProp, 1024: java.lang.Integer)
+      val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+
+      // write the same ten keys over and over until we have a few segment groups
+      while (log.numberOfSegments < 8)
+        log.appendAsLeader(record(log.logEndOffset.toInt % 10, log.logEndOffset.toInt), leaderEpoch = 0)
+      log.roll()
+      val logEndOffset = log.logEndOffset
+
+      // only the last occurrence of each key should remain, and every group should be cleaned
+      val (_, stats) = cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+      assertEquals((logEndOffset - 10 until logEndOffset).toList, offsetsInLog(log).toList)
+      assertEquals(logEndOffset, stats.messagesRead)
+      assertEquals(10, stats.messagesWritten)
+      assertTrue(stats.parallelism >= 1 && stats.parallelism <= 4, s"Unexpected parallelism ${stats.parallelism}")
+    } finally executor.shutdown()
+  }
+
+  @Test
+  def testCleanWithShardedOffsetMap(): Unit = {
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      val tp = new TopicPartition("test", 0)
+      val cleaner = makeCleaner(1000, segmentGroupExecutor = Some(executor), numOffsetMapShards = 4)
+      val logProps = new Properties()
+      logProps.put(LogConfig.SegmentBytesProp, 1024: java.lang.Integer)
+      val log = makeLog(config = LogConfig.fromProps(logConfig.originals, logProps))
+
+      // write the same hundred keys over and over until we have a few segment groups
+      while (log.numberOfSegments < 8)
+        log.appendAsLeader(record(log.logEndOffset.toInt % 100, log.logEndOffset.toInt), leaderEpoch = 0)
+      log.roll()
+      val logEndOffset = log.logEndOffset
+
+      // only the last occurrence of each key should remain
+      val (endOffset, stats) = cleaner.doClean(LogToClean(tp, log, 0L, log.activeSegment.baseOffset), deleteHorizonMs = Long.MaxValue)
+      assertEquals(logEndOffset, endOffset)
+      assertEquals((logEndOffset - 100 until logEndOffset).toList, offsetsInLog(log).toList)
+      assertEquals(4 * logEndOffset, stats.mapMessagesRead)
+    } finally executor.shutdown()
+  }
+
   @Test
   def testAbortMarkerRemoval(): Unit = {
     val tp = new TopicPartition("test", 0)
@@ -1350,6 +1455,48 @@ class LogCleanerTest {
     checkRange(map, segments(3).baseOffset.toInt, log.logEndOffset.toInt)
   }
 
+  @Test
+  def testBuildShardedOffsetMap(): Unit = {
+    val log = makeLog()
+    writeToLog(log, (0 until 500) zip (0 until 500))
+    val end = log.activeSegment.baseOffset
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      for (segmentGroupExecutor <- Seq(None, Some(executor))) {
+        val map = new ShardedOffsetMap(IndexedSeq.fill(4)(new FakeOffsetMap(1000)))
+        val stats = new CleanerStats()
+        makeCleaner(Int.MaxValue, segmentGroupExecutor = segmentGroupExecutor).buildOffsetMap(log, 0, end, map, stats)
+        assertEquals(end - 1, map.latestOffset)
+        assertEquals(end.toInt, map.size)
+        for (i <- 0 until end.toInt) {
+          assertEquals(i.toLong, map.get(key(i)), "Should find all the keys")
+          assertEquals(1, map.shards.count(_.get(key(i)) >= 0), "Each key should be in a single shard")
+        }
+        // every shard reads the whole dirty section
+        assertEquals(4 * end, stats.mapMessagesRead)
+      }
+    } finally executor.shutdown()
+  }
+
+  @Test
+  def testBuildShardedOffsetMapStopsWhenAShardIsFull(): Unit = {
+    val log = makeLog()
+    writeToLog(log, (0 until 500) zip (0 until 500))
+    val end = log.activeSegment.baseOffset
+    val executor = Executors.newFixedThreadPool(4)
+    try {
+      // each shard is full once it holds 30 keys
+      val map = new ShardedOffsetMap(IndexedSeq.fill(4)(new FakeOffsetMap(40)))
+      makeCleaner(Int.MaxValue, segmentGroupExecutor = Some(executor)).buildOffsetMap(log, 0, end, map, new CleanerStats())
+      val endOffset = map.latestOffset + 1
+      assertTrue(endOffset < end, s"The map should not cover the whole log, but covers up to $endOffset")
+      assertTrue(map.shards.exists(_.size == 30), "At least one shard should be full")
+      // the map covers all the keys up to the lowest latest offset of its shards
+      for (i <- 0 until endOffset.toInt)
+        assertEquals(i.toLong, map.get(key(i)), "Should find all the keys up to the end offset")
+    } finally executor.shutdown()
+  }
+
   @Test
   def testSegmentWithOffsetOverflow(): Unit = {
     val cleaner = makeCleaner(Int.MaxValue)
@@ -1737,6 +1884,7 @@ class LogCleanerTest {
     try {
       checkGauge("max-buffer-utilization-percent")
       checkGauge("max-clean-time-secs")
+      checkGauge("max-clean-parallelism")
       checkGauge("max-compaction-delay-secs")
     } finally logCleaner.shutdown()
   }
@@ -1783,15 +1931,20 @@ class LogCleanerTest {
       producerIdExpirationCheckIntervalMs = LogManager.ProducerIdExpirationCheckIntervalMs,
       logDirFailureChannel = new LogDirFailureChannel(10), topicId = None, keepPartitionMetadataFile = true)
 
-  private def makeCleaner(capacity: Int, checkDone: TopicPartition => Unit = _ => (), maxMessageSize: Int = 64*1024) =
+  private def makeCleaner(capacity: Int, checkDone: TopicPartition => Unit = _ => (), maxMessageSize: Int = 64*1024,
+                          segmentGroupExecutor: Option[ExecutorService] = None, numOffsetMapShards: Int = 1) =
     new Cleaner(id = 0,
-                offsetMap = new FakeOffsetMap(capacity),
+                offsetMap = if (numOffsetMapShards > 1)
+                              new ShardedOffsetMap(IndexedSeq.fill(numOffsetMapShards)(new FakeOffsetMap(capacity)))
+                            else
+                              new FakeOffsetMap(capacity),
                 ioBufferSize = maxMessageSize,
                 maxIoBufferSize = maxMessageSize,
                 dupBufferLoadFactor = 0.75,
                 throttler = throttler,
                 time = time,
-                checkDone = checkDone)
+                checkDone = checkDone,
+                segmentGroupExecutor = segmentGroupExecutor)
 
   private def writeToLog(log: Log, seq: Iterable[(Int, Int)]): Iterable[Long] = {
     for ((key, value) <- seq)
@@ -1894,5 +2047,7 @@ class FakeOffsetMap(val slots: Int) extends OffsetMap {
     lastOffset = offset
   }
 
+  override def concurrentReader: Option[OffsetMapLookup] = Some(this)
+
   override def toString: String = map.toString
 }
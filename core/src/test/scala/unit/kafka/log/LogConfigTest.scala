@@ -89,6 +89,8 @@ class LogConfigTest {
       case LogConfig.RemoteLogStorageEnableProp => assertPropertyInvalid(name, "not_a_boolean")
       case LogConfig.LocalLogRetentionMsProp => assertPropertyInvalid(name, "not_a_number", "-3")
       case LogConfig.LocalLogRetentionBytesProp => assertPropertyInvalid(name, "not_a_number", "-3")
+      // not base64, and the base64 encoding of 8 bytes without the dictionary magic number
+      case LogConfig.ZstdDictionaryProp => assertPropertyInvalid(name, "not_base64!", "AAAAAAAAAAA=")
 
       case _ => assertPropertyInvalid(name, "not_a_number", "-1")
     })
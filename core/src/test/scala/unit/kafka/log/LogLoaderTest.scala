@@ -175,9 +175,12 @@ class LogLoaderTest {
                         time: Time = mockTime,
                         maxProducerIdExpirationMs: Int = 60 * 60 * 1000,
                         producerIdExpirationCheckIntervalMs: Int = LogManager.ProducerIdExpirationCheckIntervalMs,
-                        lastShutdownClean: Boolean = true): Log = {
+                        lastShutdownClean: Boolean = true,
+                        recoveryThreads: Int = 1,
+                        segmentManifest: Option[Seq[LogManifestSegment]] = None): Log = {
     LogTestUtils.createLog(dir, config, brokerTopicStats, scheduler, time, logStartOffset, recoveryPoint,
-      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lastShutdownClean)
+      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lastShutdownClean, recoveryThreads = recoveryThreads,
+      segmentManifest = segmentManifest)
   }
 
   private def createLogWithOffsetOverflow(logConfig: LogConfig): (Log, LogSegment) = {
@@ -1418,6 +1421,149 @@ class LogLoaderTest {
     assertEquals(List(new AbortedTxn(pid1, 0L, 29L, 8L), new AbortedTxn(pid2, 8L, 74L, 36L)), abortedTransactions)
   }
 
+  @Test
+  def testConcurrentSegmentRecovery(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 128 * 5)
+    val log = createLog(logDir, logConfig)
+    val epoch = 0.toShort
+
+    val appendPid1 = LogTestUtils.appendTransactionalAsLeader(log, 1L, epoch, mockTime)
+    val appendPid2 = LogTestUtils.appendTransactionalAsLeader(log, 2L, epoch, mockTime)
+    val appendPid3 = LogTestUtils.appendIdempotentAsLeader(log, 3L, epoch, mockTime)
+    appendPid1(5)
+    LogTestUtils.appendNonTransactionalAsLeader(log, 3)
+    appendPid2(2)
+    appendPid3(4)
+    appendPid1(10)
+    LogTestUtils.appendEndTxnMarkerAsLeader(log, 1L, epoch, ControlRecordType.ABORT, mockTime.milliseconds())
+    appendPid2(6)
+    appendPid3(8)
+    LogTestUtils.appendEndTxnMarkerAsLeader(log, 2L, epoch, ControlRecordType.COMMIT, mockTime.milliseconds())
+    for (leaderEpoch <- 1 to 3)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "value".getBytes), leaderEpoch = leaderEpoch)
+    appendPid1(4)
+
+    val logEndOffset = log.logEndOffset
+    val abortedTransactions = LogTestUtils.allAbortedTransactions(log).toList
+    val epochEntries = log.leaderEpochCache.get.epochEntries.toList
+    val producers = log.activeProducersWithLastSequence
+    assertTrue(log.logSegments.size > 3)
+    log.leaderEpochCache.get.truncateFromEnd(1)
+    log.logSegments.foreach(_.txnIndex.deleteIfExists())
+    log.close()
+    LogTestUtils.deleteProducerSnapshotFiles(logDir)
+
+    val recoveredLog = createLog(logDir, logConfig, lastShutdownClean = false, recoveryThreads = 4)
+    assertEquals(logEndOffset, recoveredLog.logEndOffset)
+    assertEquals(abortedTransactions, LogTestUtils.allAbortedTransactions(recoveredLog).toList)
+    assertEquals(epochEntries, recoveredLog.leaderEpochCache.get.epochEntries.toList)
+    assertEquals(producers, recoveredLog.activeProducersWithLastSequence)
+    recoveredLog.close()
+  }
+
+  @Test
+  def testConcurrentSegmentRecoveryOfMoreSegmentsThanThreads(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 128 * 2)
+    val log = createLog(logDir, logConfig)
+    val epoch = 0.toShort
+
+    // only a couple of segments are recovered ahead of the one whose producer state is being recovered
+    val appendPids = (1L to 3L).map(LogTestUtils.appendIdempotentAsLeader(log, _, epoch, mockTime))
+    for (i <- 0 until 30)
+      appendPids(i % appendPids.size)(1 + i % 4)
+
+    val logEndOffset = log.logEndOffset
+    val producers = log.activeProducersWithLastSequence
+    assertTrue(log.logSegments.size > 8)
+    log.close()
+    LogTestUtils.deleteProducerSnapshotFiles(logDir)
+
+    val recoveredLog = createLog(logDir, logConfig, lastShutdownClean = false, recoveryThreads = 2)
+    assertEquals(logEndOffset, recoveredLog.logEndOffset)
+    assertEquals(producers, recoveredLog.activeProducersWithLastSequence)
+    recoveredLog.close()
+  }
+
+  @Test
+  def testConcurrentSegmentRecoveryDeletesSegmentsAfterCorruption(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 1000, indexIntervalBytes = 1)
+    val log = createLog(logDir, logConfig)
+    for (_ <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = mockTime.milliseconds), leaderEpoch = 0)
+    val segments = log.logSegments.toList
+    assertTrue(segments.size > 4)
+    val corruptSegment = segments(2)
+    val corruptSegmentEndOffset = corruptSegment.readNextOffset
+    log.close()
+
+    // the segments after the corrupt segment are deleted even though they were recovered concurrently
+    TestUtils.appendNonsenseToFile(corruptSegment.log.file, 100)
+    val recoveredLog = createLog(logDir, logConfig, lastShutdownClean = false, recoveryThreads = 4)
+    assertEquals(corruptSegmentEndOffset, recoveredLog.logEndOffset)
+    assertEquals(segments.take(3).map(_.baseOffset), recoveredLog.logSegments.map(_.baseOffset).toList)
+    recoveredLog.close()
+  }
+
+  @Test
+  def testLoadSegmentsFromManifest(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 1000, indexIntervalBytes = 1)
+    val log = createLog(logDir, logConfig)
+    for (_ <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = mockTime.milliseconds), leaderEpoch = 0)
+    val logEndOffset = log.logEndOffset
+    val segments = log.logSegments.map(segment => (segment.baseOffset, segment.size)).toList
+    assertTrue(segments.size > 3)
+    log.close()
+    LogDirManifest.write(logDir.getParentFile, Seq(log))
+
+    val manifest = LogDirManifest.read(logDir.getParentFile)
+    assertEquals(Set(logDir.getName), manifest.keySet)
+    assertEquals(segments, manifest(logDir.getName).map(segment => (segment.baseOffset, segment.sizeInBytes)).toList)
+
+    // the segments before the active segment are not opened when the log is loaded
+    val loadedLog = createLog(logDir, logConfig, segmentManifest = manifest.get(logDir.getName))
+    assertEquals(logEndOffset, loadedLog.logEndOffset)
+    assertEquals(segments, loadedLog.logSegments.map(segment => (segment.baseOffset, segment.size)).toList)
+    val inactiveSegments = loadedLog.logSegments.toList.init
+    assertTrue(inactiveSegments.forall(!_.log.isOpened))
+
+    // the other segments are opened when they are read
+    val firstSegment = inactiveSegments.head
+    assertEquals(firstSegment.baseOffset, firstSegment.read(firstSegment.baseOffset, 1000).records.batches.iterator.next().baseOffset)
+    assertTrue(firstSegment.log.isOpened)
+    loadedLog.close()
+  }
+
+  @Test
+  def testLoadSegmentsFromFilesIfManifestDoesNotMatch(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 1000, indexIntervalBytes = 1)
+    val log = createLog(logDir, logConfig)
+    for (_ <- 0 until 100)
+      log.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = mockTime.milliseconds), leaderEpoch = 0)
+    val logEndOffset = log.logEndOffset
+    log.close()
+    LogDirManifest.write(logDir.getParentFile, Seq(log))
+    val manifest = LogDirManifest.read(logDir.getParentFile).get(logDir.getName)
+
+    // a roll after the manifest was written adds a segment which is not in the manifest
+    val rolledLog = createLog(logDir, logConfig)
+    rolledLog.roll()
+    rolledLog.appendAsLeader(TestUtils.singletonRecords(value = "test".getBytes, timestamp = mockTime.milliseconds), leaderEpoch = 0)
+    val numSegments = rolledLog.numberOfSegments
+    rolledLog.close()
+
+    val loadedLog = createLog(logDir, logConfig, segmentManifest = manifest)
+    assertEquals(logEndOffset + 1, loadedLog.logEndOffset)
+    assertEquals(numSegments, loadedLog.numberOfSegments)
+    assertTrue(loadedLog.logSegments.forall(_.log.isOpened))
+    loadedLog.close()
+
+    // the manifest is not used after an unclean shutdown
+    val recoveredLog = createLog(logDir, logConfig, lastShutdownClean = false, segmentManifest = manifest)
+    assertTrue(recoveredLog.logSegments.forall(_.log.isOpened))
+    recoveredLog.close()
+  }
+
   @Test
   def testRecoverOnlyLastSegment(): Unit = {
     val logConfig = LogTestUtils.createLogConfig(segmentBytes = 128 * 5)
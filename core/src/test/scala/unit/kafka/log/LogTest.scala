@@ -1961,6 +1961,47 @@ class LogTest {
       "A read should now return the last message in the log")
   }
 
+  @Test
+  def testReadWithOffsetPositionCache(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 72, indexIntervalBytes = 1)
+    val cache = new OffsetPositionCache(maxEntries = 100)
+    try {
+      val log = createLog(logDir, logConfig, offsetPositionCache = Some(cache))
+      val messageIds = ((0 until 50) ++ (50 until 200 by 7)).toArray
+      val records = messageIds.map(id => new SimpleRecord(id.toString.getBytes))
+      for (i <- records.indices)
+        log.appendAsFollower(MemoryRecords.withRecords(messageIds(i), CompressionType.NONE, 0, records(i)))
+
+      def checkReads(): Unit = {
+        for (i <- 50 until messageIds.max) {
+          val idx = messageIds.indexWhere(_ >= i)
+          val read = LogTestUtils.readLog(log, i, 100).records.records.iterator.next()
+          assertEquals(messageIds(idx), read.offset, "Offset read should match message id.")
+          assertEquals(records(idx), new SimpleRecord(read), "Message should match appended.")
+        }
+      }
+
+      // the first reads resolve and cache the positions, the second reads use them
+      checkReads()
+      assertTrue(cache.size > 0)
+      checkReads()
+
+      // truncation changes the segments, the positions cached before must not be used for the new records
+      log.truncateTo(100)
+      val newRecords = (100 until 120).map(id => new SimpleRecord(s"new-$id".getBytes))
+      newRecords.zipWithIndex.foreach { case (record, i) =>
+        log.appendAsFollower(MemoryRecords.withRecords(100L + i, CompressionType.NONE, 0, record))
+      }
+      for (i <- 100 until 120) {
+        val read = LogTestUtils.readLog(log, i, 100).records.records.iterator.next()
+        assertEquals(i, read.offset)
+        assertEquals(newRecords(i - 100), new SimpleRecord(read))
+      }
+    } finally {
+      cache.close()
+    }
+  }
+
   @Test
   def testLogRollAfterLogHandlerClosed(): Unit = {
     val logConfig = LogTestUtils.createLogConfig()
@@ -3934,9 +3975,11 @@ class LogTest {
                         lastShutdownClean: Boolean = true,
                         topicId: Option[Uuid] = None,
                         keepPartitionMetadataFile: Boolean = true,
-                        remoteLogEnable: Boolean = false): Log = {
+                        remoteLogEnable: Boolean = false,
+                        offsetPositionCache: Option[OffsetPositionCache] = None): Log = {
     LogTestUtils.createLog(dir, config, brokerTopicStats, scheduler, time, logStartOffset, recoveryPoint,
-      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lastShutdownClean, topicId = topicId, keepPartitionMetadataFile = keepPartitionMetadataFile, remoteLogEnable = remoteLogEnable)
+      maxProducerIdExpirationMs, producerIdExpirationCheckIntervalMs, lastShutdownClean, topicId = topicId, keepPartitionMetadataFile = keepPartitionMetadataFile, remoteLogEnable = remoteLogEnable,
+      offsetPositionCache = offsetPositionCache)
   }
 
   private def createLogWithOffsetOverflow(logConfig: LogConfig): (Log, LogSegment) = {
@@ -90,7 +90,10 @@ object LogTestUtils {
                 lastShutdownClean: Boolean = true,
                 topicId: Option[Uuid] = None,
                 keepPartitionMetadataFile: Boolean = true,
-                remoteLogEnable: Boolean = false): Log = {
+                remoteLogEnable: Boolean = false,
+                offsetPositionCache: Option[OffsetPositionCache] = None,
+                recoveryThreads: Int = 1,
+                segmentManifest: Option[Seq[LogManifestSegment]] = None): Log = {
     Log(dir = dir,
       config = config,
       logStartOffset = logStartOffset,
@@ -104,7 +107,10 @@ object LogTestUtils {
       lastShutdownClean = lastShutdownClean,
       topicId = topicId,
       keepPartitionMetadataFile = keepPartitionMetadataFile,
-      remoteLogEnable = remoteLogEnable)
+      remoteLogEnable = remoteLogEnable,
+      offsetPositionCache = offsetPositionCache,
+      recoveryThreads = recoveryThreads,
+      segmentManifest = segmentManifest)
   }
 
   /**
@@ -25,10 +25,11 @@ import kafka.message._
 import kafka.metrics.KafkaYammerMetrics
 import kafka.server.{BrokerTopicStats, RequestLocal}
 import kafka.utils.TestUtils.meterCount
+import org.apache.kafka.common.compress.{ZstdDictionary, ZstdFactory}
 import org.apache.kafka.common.errors.{InvalidTimestampException, UnsupportedCompressionTypeException, UnsupportedForMessageFormatException}
 import org.apache.kafka.common.record._
-import org.apache.kafka.common.utils.Time
-import org.apache.kafka.common.{InvalidRecordException, TopicPartition}
+import org.apache.kafka.common.utils.{Time, Utils}
+import org.apache.kafka.common.{InvalidRecordException, KafkaException, TopicPartition}
 import org.apache.kafka.test.TestUtils
 import org.junit.jupiter.api.Assertions._
 import org.junit.jupiter.api.Test
@@ -465,6 +466,46 @@ class LogValidatorTest {
     checkRecompression(RecordBatch.MAGIC_VALUE_V2)
   }
 
+  @Test
+  def testRecompressionWithZstdDictionary(): Unit = {
+    val values = (0 until 1000).map { i =>
+      s"""{"memberId":$i,"pageKey":"profile_view_${i % 7}","trackingId":"${Integer.toHexString(i * 31)}"}""".getBytes
+    }
+    val dictionary = ZstdDictionary.register(ZstdFactory.trainDictionary(values.asJava, 4 * 1024))
+    try {
+      val records = MemoryRecords.withRecords(CompressionType.GZIP, values.take(10).map(new SimpleRecord(_)): _*)
+      val validatedRecords = LogValidator.validateMessagesAndAssignOffsets(records,
+        topicPartition,
+        offsetCounter = new LongRef(0),
+        time = time,
+        now = System.currentTimeMillis(),
+        sourceCodec = GZIPCompressionCodec,
+        targetCodec = ZStdCompressionCodec,
+        magic = RecordBatch.MAGIC_VALUE_V2,
+        compactedTopic = false,
+        timestampType = TimestampType.CREATE_TIME,
+        timestampDiffMaxMs = 1000L,
+        partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+        origin = AppendOrigin.Client,
+        interBrokerProtocolVersion = ApiVersion.latestVersion,
+        brokerTopicStats = brokerTopicStats,
+        requestLocal = RequestLocal.withThreadConfinedCaching,
+        compressionDictionary = Some(dictionary)).validatedRecords
+
+      val batch = validatedRecords.batches.asScala.head
+      assertTrue(batch.isValid)
+      assertEquals(CompressionType.ZSTD, batch.compressionType)
+      assertEquals(values.take(10).map(_.toSeq), batch.asScala.map(record => Utils.toArray(record.value).toSeq).toSeq)
+
+      // the batch was compressed with the dictionary, so it cannot be decompressed once the dictionary is unregistered
+      ZstdFactory.unregister(dictionary)
+      assertThrows(classOf[KafkaException], () => batch.iterator)
+    } finally {
+      if (ZstdDictionary.registered(dictionary.id) != null)
+        ZstdFactory.unregister(dictionary)
+    }
+  }
+
   @Test
   def testCreateTimeUpConversionV0ToV1(): Unit = {
     checkCreateTimeUpConversionFromV0(RecordBatch.MAGIC_VALUE_V1)
@@ -1403,6 +1444,80 @@ class LogValidatorTest {
     assertEquals(6, e.recordErrors.size)
   }
 
+  @Test
+  def testColumnarValidationOfCompressedRecords(): Unit = {
+    val now = System.currentTimeMillis()
+    val records = createRecords(RecordBatch.MAGIC_VALUE_V2, now, CompressionType.GZIP)
+    val columnarResult = validateCompressedMessages(records, now, compactedTopic = false, columnarValidation = true)
+    val recordResult = validateCompressedMessages(records, now, compactedTopic = false, columnarValidation = false)
+
+    assertEquals(recordResult.maxTimestamp, columnarResult.maxTimestamp)
+    assertEquals(recordResult.shallowOffsetOfMaxTimestamp, columnarResult.shallowOffsetOfMaxTimestamp)
+    assertEquals(recordResult.recordConversionStats.temporaryMemoryBytes,
+      columnarResult.recordConversionStats.temporaryMemoryBytes)
+    assertFalse(columnarResult.recompressApplied)
+    checkOffsets(columnarResult.validatedRecords, 0)
+  }
+
+  @Test
+  def testColumnarValidationOfCompressedRecordsWithNonSequentialInnerOffsets(): Unit = {
+    // the offset range of the batch matches its count, but not the offsets of its records
+    val builder = MemoryRecords.builder(ByteBuffer.allocate(512), RecordBatch.MAGIC_VALUE_V2, CompressionType.GZIP,
+      TimestampType.CREATE_TIME, 0L)
+    Seq(0L, 0L, 2L).foreach(offset => builder.appendUncheckedWithOffset(offset, new SimpleRecord("hello".getBytes)))
+    val records = builder.build()
+    val result = validateCompressedMessages(records, System.currentTimeMillis(), compactedTopic = false,
+      columnarValidation = true)
+
+    // the inner offsets are rewritten, which requires rebuilding the batch
+    assertTrue(result.recompressApplied)
+    checkOffsets(result.validatedRecords, 0)
+  }
+
+  @Test
+  def testCompressedV2BatchWithNonZeroBaseOffsetIsNotRecompressed(): Unit = {
+    val now = System.currentTimeMillis()
+    val topicStats = brokerTopicStats.topicStats(topicPartition.topic)
+    Seq(true, false).foreach { columnarValidation =>
+      val builder = MemoryRecords.builder(ByteBuffer.allocate(512), RecordBatch.MAGIC_VALUE_V2, CompressionType.GZIP,
+        TimestampType.CREATE_TIME, 5L)
+      builder.append(now, "a".getBytes, "hello".getBytes)
+      builder.append(now, "b".getBytes, "there".getBytes)
+      val records = builder.build()
+      val recompressionsAvoided = topicStats.recompressionsAvoidedRate.count
+
+      val result = validateCompressedMessages(records, now, compactedTopic = false, columnarValidation)
+
+      assertFalse(result.recompressApplied)
+      assertSame(records, result.validatedRecords)
+      checkOffsets(result.validatedRecords, 0)
+      assertEquals(recompressionsAvoided + 1, topicStats.recompressionsAvoidedRate.count)
+    }
+    assertTrue(brokerTopicStats.allTopicsStats.recompressionBytesAvoidedRate.count > 0)
+  }
+
+  @Test
+  def testColumnarValidationOfCompressedRecordsWithoutKeysForCompactedTopic(): Unit = {
+    val now = System.currentTimeMillis()
+    val records = createRecords(RecordBatch.MAGIC_VALUE_V2, now, CompressionType.GZIP)
+    Seq(true, false).foreach { columnarValidation =>
+      val e = assertThrows(classOf[RecordValidationException],
+        () => validateCompressedMessages(records, now, compactedTopic = true, columnarValidation))
+      assertTrue(e.invalidException.isInstanceOf[InvalidRecordException])
+      assertEquals(Seq(0, 1, 2), e.recordErrors.map(_.batchIndex))
+    }
+  }
+
+  @Test
+  def testColumnarValidationOfCompressedRecordsWithInvalidTimestamps(): Unit = {
+    val now = System.currentTimeMillis()
+    val records = createRecords(RecordBatch.MAGIC_VALUE_V2, now - 1001L, CompressionType.GZIP)
+    val e = assertThrows(classOf[RecordValidationException],
+      () => validateCompressedMessages(records, now, compactedTopic = false, columnarValidation = true))
+    assertTrue(e.invalidException.isInstanceOf[InvalidTimestampException])
+    assertEquals(3, e.recordErrors.size)
+  }
+
   private def testBatchWithoutRecordsNotAllowed(sourceCodec: CompressionCodec, targetCodec: CompressionCodec): Unit = {
     val offset = 1234567
     val (producerId, producerEpoch, baseSequence, isTransactional, partitionLeaderEpoch) =
@@ -1431,6 +1546,30 @@ class LogValidatorTest {
       requestLocal = RequestLocal.withThreadConfinedCaching))
   }
 
+  private def validateCompressedMessages(records: MemoryRecords,
+                                         now: Long,
+                                         compactedTopic: Boolean,
+                                         columnarValidation: Boolean): ValidationAndOffsetAssignResult = {
+    LogValidator.validateMessagesAndAssignOffsetsCompressed(records,
+      topicPartition,
+      offsetCounter = new LongRef(0),
+      time = time,
+      now = now,
+      sourceCodec = GZIPCompressionCodec,
+      targetCodec = GZIPCompressionCodec,
+      compactedTopic = compactedTopic,
+      toMagic = RecordBatch.MAGIC_VALUE_V2,
+      timestampType = TimestampType.CREATE_TIME,
+      timestampDiffMaxMs = 1000L,
+      partitionLeaderEpoch = RecordBatch.NO_PARTITION_LEADER_EPOCH,
+      origin = AppendOrigin.Client,
+      interBrokerProtocolVersion = ApiVersion.latestVersion,
+      brokerTopicStats = brokerTopicStats,
+      requestLocal = RequestLocal.withThreadConfinedCaching,
+      decompressionEnable = true,
+      columnarValidation = columnarValidation)
+  }
+
   private def createRecords(magicValue: Byte,
                             timestamp: Long = RecordBatch.NO_TIMESTAMP,
                             codec: CompressionType): MemoryRecords = {
@@ -57,7 +57,104 @@ class OffsetMapTest {
     assertEquals(map.get(key(i-1L)), i-1L)
   }
 
+  @Test
+  def testOffHeapBasicValidation(): Unit = {
+    for (items <- Seq(10, 100, 1000, 5000)) {
+      val map = new OffHeapOffsetMap(items * 2 * OffHeapOffsetMap.BytesPerEntry)
+      try validateMap(map, items)
+      finally map.close()
+    }
+  }
+
+  @Test
+  def testOffHeapMultipleChunks(): Unit = {
+    // 10 entries per chunk, so the map spans many chunks and the last one is partial
+    val map = new OffHeapOffsetMap(1005 * OffHeapOffsetMap.BytesPerEntry, maxChunkBytes = 10 * OffHeapOffsetMap.BytesPerEntry)
+    try {
+      assertEquals(1005, map.slots)
+      validateMap(map, 900)
+    } finally map.close()
+  }
+
+  @Test
+  def testOffHeapClear(): Unit = {
+    val map = new OffHeapOffsetMap(4000)
+    try {
+      for (i <- 0 until 10)
+        map.put(key(i), i)
+      map.put(key(3), 30)
+      assertEquals(10, map.size)
+      assertEquals(30L, map.latestOffset)
+      assertEquals(30L, map.get(key(3)))
+      map.clear()
+      assertEquals(0, map.size)
+      for (i <- 0 until 10)
+        assertEquals(-1L, map.get(key(i)))
+    } finally map.close()
+  }
+
+  @Test
+  def testOffHeapGetWhenFull(): Unit = {
+    val map = new OffHeapOffsetMap(4096)
+    try {
+      var i = 37L  //any value would do
+      while (map.size < map.slots) {
+        map.put(key(i), i)
+        i = i + 1L
+      }
+      assertEquals(-1L, map.get(key(i)))
+      assertEquals(i - 1L, map.get(key(i - 1L)))
+      assertThrows(classOf[IllegalArgumentException], () => map.put(key(i), i))
+    } finally map.close()
+  }
+
+  @Test
+  def testOffHeapKeyPositionUnchanged(): Unit = {
+    val map = new OffHeapOffsetMap(4096)
+    try {
+      // a key longer than one 16 byte block, read from the middle of a direct buffer in little endian order
+      val bytes = "some-prefix/a-key-that-spans-more-than-one-block".getBytes
+      val buffer = ByteBuffer.allocateDirect(bytes.length).order(ByteOrder.LITTLE_ENDIAN)
+      buffer.put(bytes).flip().position(12)
+      map.put(buffer, 42L)
+      assertEquals(12, buffer.position)
+      assertEquals(42L, map.get(ByteBuffer.wrap(bytes, 12, bytes.length - 12)))
+    } finally map.close()
+  }
+
+  @Test
+  def testShardedMap(): Unit = {
+    val map = new ShardedOffsetMap(IndexedSeq.fill(4)(new SkimpyOffsetMap(4000)))
+    validateMap(map, 200)
+    assertEquals(map.shards.map(_.slots).sum, map.slots)
+    for (i <- 0 until 200) {
+      val shard = map.shardOf(key(i))
+      assertTrue(shard >= 0 && shard < 4)
+      assertEquals(i.toLong, map.shards(shard).get(key(i)))
+    }
+    assertTrue(map.shards.forall(_.size > 0), "The keys should be spread over all the shards")
+
+    // the map only covers the offsets up to the lowest latest offset of its shards
+    map.shards.head.updateLatestOffset(50L)
+    map.shards(1).updateLatestOffset(300L)
+    assertEquals(50L, map.latestOffset)
+    assertEquals(50L, map.concurrentReader.get.latestOffset)
+    assertEquals(42L, map.concurrentReader.get.get(key(42)))
+
+    map.clear()
+    assertEquals(0, map.size)
+    assertEquals(-1L, map.get(key(42)))
+  }
+
   def key(key: Long) = ByteBuffer.wrap(key.toString.getBytes)
+
+  def validateMap(map: OffsetMap, items: Int): Unit = {
+    for (i <- 0 until items)
+      map.put(key(i), i)
+    for (i <- 0 until items)
+      assertEquals(i.toLong, map.get(key(i)))
+    assertEquals(items, map.size)
+  }
   
   def validateMap(items: Int, loadFactor: Double = 0.5): SkimpyOffsetMap = {
     val map = new SkimpyOffsetMap((items/loadFactor * 24).toInt)
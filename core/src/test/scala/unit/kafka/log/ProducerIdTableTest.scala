@@ -0,0 +1,150 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.log
+
+import org.apache.kafka.common.record.{CompressionType, MemoryRecords, RecordBatch, SimpleRecord}
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+
+import scala.collection.mutable
+
+class ProducerIdTableTest {
+  private val table = new ProducerIdTable
+
+  private def entry(producerId: Long,
+                    epoch: Short,
+                    batches: Seq[BatchMetadata],
+                    coordinatorEpoch: Int = -1,
+                    currentTxnFirstOffset: Option[Long] = None): ProducerStateEntry = {
+    val lastTimestamp = batches.lastOption.map(_.timestamp).getOrElse(RecordBatch.NO_TIMESTAMP)
+    new ProducerStateEntry(producerId, mutable.Queue(batches: _*), epoch, coordinatorEpoch, lastTimestamp,
+      currentTxnFirstOffset)
+  }
+
+  private def assertEntry(expected: ProducerStateEntry, actual: Option[ProducerStateEntry]): Unit = {
+    assertTrue(actual.isDefined)
+    assertEquals(expected.producerId, actual.get.producerId)
+    assertEquals(expected.producerEpoch, actual.get.producerEpoch)
+    assertEquals(expected.coordinatorEpoch, actual.get.coordinatorEpoch)
+    assertEquals(expected.lastTimestamp, actual.get.lastTimestamp)
+    assertEquals(expected.currentTxnFirstOffset, actual.get.currentTxnFirstOffset)
+    assertEquals(expected.batchMetadata.toSeq, actual.get.batchMetadata.toSeq)
+  }
+
+  @Test
+  def testPutAndGet(): Unit = {
+    val transactional = entry(5L, 2, Seq(BatchMetadata(3, 10L, 3, 1000L)), coordinatorEpoch = 7,
+      currentTxnFirstOffset = Some(7L))
+    val withoutBatches = entry(6L, 0, Seq.empty)
+    table.put(transactional)
+    table.put(withoutBatches)
+
+    assertEquals(2, table.size)
+    assertEntry(transactional, table.get(5L))
+    assertEntry(withoutBatches, table.get(6L))
+    assertEquals(RecordBatch.NO_SEQUENCE, table.get(6L).get.lastSeq)
+    assertEquals(None, table.get(7L))
+    assertFalse(table.contains(RecordBatch.NO_PRODUCER_ID))
+    assertThrows(classOf[IllegalArgumentException], () => table.put(entry(RecordBatch.NO_PRODUCER_ID, 0, Seq.empty)))
+
+    // the entries read are copies
+    table.get(5L).get.addBatch(2, 4, 11L, 0, 1001L)
+    assertEntry(transactional, table.get(5L))
+
+    // putting an entry replaces the state of its producer
+    table.put(entry(5L, 0, Seq.empty))
+    assertEquals(2, table.size)
+    assertEntry(entry(5L, 0, Seq.empty), table.get(5L))
+  }
+
+  @Test
+  def testUpdate(): Unit = {
+    val batches = (0 until 7).map(i => BatchMetadata(i, i.toLong, 0, i.toLong))
+    table.update(entry(1L, 0, batches.take(3)))
+    table.update(entry(1L, 0, batches.drop(3), coordinatorEpoch = 2, currentTxnFirstOffset = Some(3L)))
+
+    // only the latest batches are retained
+    val expected = entry(1L, 0, batches.takeRight(ProducerStateEntry.NumBatchesToRetain), coordinatorEpoch = 2,
+      currentTxnFirstOffset = Some(3L))
+    assertEntry(expected, table.get(1L))
+
+    // a new epoch drops the batches of the previous epoch
+    table.update(entry(1L, 1, Seq.empty))
+    assertEntry(entry(1L, 1, Seq.empty), table.get(1L))
+  }
+
+  @Test
+  def testFindDuplicateBatch(): Unit = {
+    table.put(entry(1L, 3, Seq(BatchMetadata(4, 14L, 4, 1000L), BatchMetadata(9, 19L, 4, 1000L))))
+
+    def batch(producerId: Long, epoch: Short, baseSequence: Int, numRecords: Int): RecordBatch = {
+      val records = (0 until numRecords).map(i => new SimpleRecord(i.toString.getBytes))
+      MemoryRecords.withIdempotentRecords(CompressionType.NONE, producerId, epoch, baseSequence, records: _*)
+        .batches.iterator.next()
+    }
+
+    assertEquals(Some(BatchMetadata(9, 19L, 4, 1000L)), table.findDuplicateBatch(batch(1L, 3, 5, 5)))
+    assertEquals(Some(BatchMetadata(4, 14L, 4, 1000L)), table.findDuplicateBatch(batch(1L, 3, 0, 5)))
+    assertEquals(None, table.findDuplicateBatch(batch(1L, 3, 5, 4)))
+    assertEquals(None, table.findDuplicateBatch(batch(1L, 2, 5, 5)))
+    assertEquals(None, table.findDuplicateBatch(batch(2L, 3, 5, 5)))
+  }
+
+  @Test
+  def testRemoveKeepsCollidingProducersReachable(): Unit = {
+    val producerIds = (0L until 1000L).map(_ * 1024)
+    producerIds.foreach(producerId => table.put(entry(producerId, 0, Seq(BatchMetadata(0, producerId, 0, 0L)))))
+    assertEquals(producerIds.size, table.size)
+
+    val (removed, retained) = producerIds.partition(_ % 3 == 0)
+    removed.foreach(producerId => assertTrue(table.remove(producerId)))
+    assertFalse(table.remove(0L))
+    assertEquals(retained.size, table.size)
+    removed.foreach(producerId => assertFalse(table.contains(producerId)))
+    retained.foreach(producerId => assertEquals(producerId, table.get(producerId).get.lastDataOffset))
+
+    // removing most producers releases their slots, which keeps the others reachable
+    retained.drop(10).foreach(table.remove)
+    assertEquals(10, table.size)
+    retained.take(10).foreach(producerId => assertEquals(producerId, table.get(producerId).get.lastDataOffset))
+
+    table.clear()
+    assertTrue(table.isEmpty)
+    assertEquals(None, table.get(retained.head))
+  }
+
+  @Test
+  def testChangedProducers(): Unit = {
+    (1L to 5L).foreach(producerId => table.put(entry(producerId, 0, Seq.empty)))
+    assertEquals(5, table.numChangedProducers)
+    table.clearChanged()
+    assertEquals(0, table.numChangedProducers)
+
+    table.update(entry(2L, 0, Seq(BatchMetadata(0, 10L, 0, 0L))))
+    table.put(entry(6L, 0, Seq.empty))
+    table.put(entry(3L, 0, Seq.empty))
+    table.remove(3L)
+    assertEquals(2, table.numChangedProducers)
+
+    val changed = mutable.Set.empty[Long]
+    table.foreachSlot(onlyChanged = true)(slot => changed += table.producerIdAt(slot))
+    assertEquals(Set(2L, 6L), changed)
+    val all = mutable.Set.empty[Long]
+    table.foreachSlot(onlyChanged = false)(slot => all += table.producerIdAt(slot))
+    assertEquals(Set(1L, 2L, 4L, 5L, 6L), all)
+  }
+}
@@ -851,6 +851,108 @@ class ProducerStateManagerTest {
     }
   }
 
+  @Test
+  def testDeltaSnapshots(): Unit = {
+    val stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, maxDeltaSnapshots = 2)
+    val epoch = 0.toShort
+    (1L to 5L).foreach(producerId => append(stateManager, producerId, epoch, 0, producerId - 1))
+    append(stateManager, 6L, epoch, 0, 5L, timestamp = 0L)
+    stateManager.takeSnapshot()
+    assertEquals(None, ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 6L)).baseOffset)
+
+    // only the changed and expired producers are written to the delta snapshot
+    stateManager.removeExpiredProducers(time.milliseconds())
+    append(stateManager, 1L, epoch, 1, 6L)
+    stateManager.takeSnapshot()
+    val delta = ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 7L))
+    assertEquals(Some(6L), delta.baseOffset)
+    assertEquals(Seq(6L), delta.removedProducerIds)
+    assertEquals(Seq(1L), delta.entries.map(_.producerId).toSeq)
+
+    append(stateManager, 2L, epoch, 1, 7L)
+    stateManager.takeSnapshot()
+    assertEquals(Some(7L), ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 8L)).baseOffset)
+
+    // the snapshots the latest snapshot is based on are retained
+    stateManager.deleteSnapshotsBefore(8L)
+    assertEquals(Set(6L, 7L, 8L), currentSnapshotOffsets)
+
+    val reloadedStateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, maxDeltaSnapshots = 2)
+    reloadedStateManager.truncateAndReload(0L, 8L, time.milliseconds())
+    assertEquals(stateManager.activeProducers.keySet, reloadedStateManager.activeProducers.keySet)
+    assertEquals(Set(1L, 2L, 3L, 4L, 5L), reloadedStateManager.activeProducers.keySet)
+    assertEquals(1, reloadedStateManager.activeProducers(1L).lastSeq)
+    assertEquals(1, reloadedStateManager.activeProducers(2L).lastSeq)
+    assertEquals(0, reloadedStateManager.activeProducers(3L).lastSeq)
+
+    // at most maxDeltaSnapshots deltas are written in a row
+    append(reloadedStateManager, 3L, epoch, 1, 8L)
+    reloadedStateManager.takeSnapshot()
+    assertEquals(None, ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 9L)).baseOffset)
+    reloadedStateManager.deleteSnapshotsBefore(9L)
+    assertEquals(Set(9L), currentSnapshotOffsets)
+  }
+
+  @Test
+  def testDeltaSnapshotWithMissingBase(): Unit = {
+    val stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, maxDeltaSnapshots = 1)
+    val epoch = 0.toShort
+    (1L to 5L).foreach(producerId => append(stateManager, producerId, epoch, 0, producerId - 1))
+    stateManager.takeSnapshot()
+    append(stateManager, 1L, epoch, 1, 5L)
+    stateManager.takeSnapshot()
+    assertEquals(Some(5L), ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 6L)).baseOffset)
+
+    // the delta cannot be loaded without its base, so it is deleted and the state is rebuilt from the log
+    Files.delete(Log.producerSnapshotFile(logDir, 5L).toPath)
+    val reloadedStateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, maxDeltaSnapshots = 1)
+    reloadedStateManager.truncateAndReload(0L, 6L, time.milliseconds())
+    assertTrue(reloadedStateManager.activeProducers.isEmpty)
+    assertEquals(Set(), currentSnapshotOffsets)
+    assertEquals(0L, reloadedStateManager.mapEndOffset)
+  }
+
+  @Test
+  def testTruncateAndReloadToDeltaSnapshotAfterRetention(): Unit = {
+    val stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, maxDeltaSnapshots = 1)
+    val epoch = 0.toShort
+    (1L to 5L).foreach(producerId => append(stateManager, producerId, epoch, 0, producerId - 1))
+    stateManager.takeSnapshot()
+    append(stateManager, 1L, epoch, 1, 5L)
+    stateManager.takeSnapshot()
+    append(stateManager, 2L, epoch, 1, 6L)
+    stateManager.takeSnapshot()
+    assertEquals(Some(5L), ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 6L)).baseOffset)
+    assertEquals(None, ProducerStateManager.readSnapshotFile(Log.producerSnapshotFile(logDir, 7L)).baseOffset)
+
+    // the base of a retained delta is retained, even though the latest snapshot is a full snapshot
+    stateManager.deleteSnapshotsBefore(6L)
+    assertEquals(Set(5L, 6L, 7L), currentSnapshotOffsets)
+
+    // truncating below the full snapshot loads the delta
+    stateManager.truncateAndReload(0L, 6L, time.milliseconds())
+    assertEquals(Set(5L, 6L), currentSnapshotOffsets)
+    assertEquals(6L, stateManager.mapEndOffset)
+    assertEquals(Set(1L, 2L, 3L, 4L, 5L), stateManager.activeProducers.keySet)
+    assertEquals(1, stateManager.activeProducers(1L).lastSeq)
+    assertEquals(0, stateManager.activeProducers(2L).lastSeq)
+  }
+
+  @Test
+  def testFetchDeltaSnapshotWritesFullSnapshot(): Unit = {
+    val stateManager = new ProducerStateManager(partition, logDir, maxPidExpirationMs, time, maxDeltaSnapshots = 1)
+    val epoch = 0.toShort
+    (1L to 5L).foreach(producerId => append(stateManager, producerId, epoch, 0, producerId - 1))
+    stateManager.takeSnapshot()
+    append(stateManager, 1L, epoch, 1, 5L)
+    stateManager.takeSnapshot()
+
+    val snapshot = ProducerStateManager.readSnapshotFile(stateManager.fetchSnapshot(6L).get)
+    assertEquals(None, snapshot.baseOffset)
+    assertEquals(Set(1L, 2L, 3L, 4L, 5L), snapshot.entries.map(_.producerId).toSet)
+    assertEquals(Some(1), snapshot.entries.find(_.producerId == 1L).map(_.lastSeq))
+  }
+
   @Test
   def testAppendEmptyControlBatch(): Unit = {
     val producerId = 23423L
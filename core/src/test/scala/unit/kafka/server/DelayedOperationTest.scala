@@ -101,6 +101,68 @@ class DelayedOperationTest {
     assertEquals(0, purgatory.checkAndComplete("test2"), "Nothing satisfied")
   }
 
+  @Test
+  def testIndexedRequestSatisfaction(): Unit = {
+    val indexedPurgatory = DelayedOperationPurgatory[DelayedOperation](purgatoryName = "mock-indexed", indexedWatchers = true)
+    try {
+      val r1 = new MockIndexedOperation(100000L, Some(ProgressThreshold(0, 10L)))
+      val r2 = new MockIndexedOperation(100000L, Some(ProgressThreshold(1, 10L)))
+      val r3 = new MockIndexedOperation(100000L, None)
+      assertFalse(indexedPurgatory.tryCompleteElseWatch(r1, Array("test1")), "r1 not satisfied and hence watched")
+      assertFalse(indexedPurgatory.tryCompleteElseWatch(r2, Array("test1")), "r2 not satisfied and hence watched")
+      assertFalse(indexedPurgatory.tryCompleteElseWatch(r3, Array("test1")), "r3 not satisfied and hence watched")
+      assertEquals(3, indexedPurgatory.watched)
+
+      r1.completable = true
+      r2.completable = true
+      r3.completable = true
+      assertEquals(1, indexedPurgatory.checkAndCompleteOnProgress("test1", 0, 9L), "Only r3 is checked below the threshold of r1")
+      assertEquals(2, r1.tryCompleteCalls, "r1 should not have been checked")
+      assertEquals(1, indexedPurgatory.checkAndCompleteOnProgress("test1", 0, 10L), "r1 satisfied at its threshold")
+      assertFalse(r2.isCompleted, "r2 waits for another kind of progress")
+      assertEquals(2, r2.tryCompleteCalls, "r2 should not have been checked")
+      assertEquals(1, indexedPurgatory.checkAndComplete("test1"), "r2 satisfied by a check of all operations")
+      assertEquals(0, indexedPurgatory.watched)
+    } finally {
+      indexedPurgatory.shutdown()
+    }
+  }
+
+  @Test
+  def testIndexedRequestPurgeAndCancel(): Unit = {
+    val indexedPurgatory = DelayedOperationPurgatory[DelayedOperation](purgatoryName = "mock-indexed", indexedWatchers = true)
+    try {
+      val r1 = new MockIndexedOperation(100000L, Some(ProgressThreshold(0, 10L)))
+      val r2 = new MockIndexedOperation(100000L, Some(ProgressThreshold(0, 20L)))
+      val r3 = new MockIndexedOperation(100000L, Some(ProgressThreshold(0, 20L)))
+      indexedPurgatory.tryCompleteElseWatch(r1, Array("test1"))
+      indexedPurgatory.tryCompleteElseWatch(r2, Array("test1"))
+      indexedPurgatory.tryCompleteElseWatch(r3, Array("test1", "test2"))
+      assertEquals(4, indexedPurgatory.watched)
+
+      // completed operations are removed once their threshold is reached
+      r2.completable = true
+      r2.tryComplete()
+      indexedPurgatory.checkAndCompleteOnProgress("test1", 0, 15L)
+      assertEquals(4, indexedPurgatory.watched)
+      indexedPurgatory.checkAndCompleteOnProgress("test1", 0, 20L)
+      assertEquals(3, indexedPurgatory.watched)
+
+      assertEquals(Set(r1, r3), indexedPurgatory.cancelForKey("test1").toSet)
+      assertEquals(1, indexedPurgatory.watched)
+    } finally {
+      indexedPurgatory.shutdown()
+    }
+  }
+
+  @Test
+  def testProgressCheckWithoutIndex(): Unit = {
+    val r1 = new MockIndexedOperation(100000L, Some(ProgressThreshold(0, 10L)))
+    assertFalse(purgatory.tryCompleteElseWatch(r1, Array("test1")), "r1 not satisfied and hence watched")
+    r1.completable = true
+    assertEquals(1, purgatory.checkAndCompleteOnProgress("test1", 0, 0L), "All operations are checked without an index")
+  }
+
   @Test
   def testRequestExpiry(): Unit = {
     val expiration = 20L
@@ -367,6 +429,18 @@ class DelayedOperationTest {
     future
   }
 
+  class MockIndexedOperation(delayMs: Long, threshold: Option[ProgressThreshold])
+    extends MockDelayedOperation(delayMs) with ProgressIndexedOperation {
+    var tryCompleteCalls = 0
+
+    override def progressThreshold(key: Any): Option[ProgressThreshold] = threshold
+
+    override def tryComplete() = {
+      tryCompleteCalls += 1
+      super.tryComplete()
+    }
+  }
+
   class MockDelayedOperation(delayMs: Long,
                              lockOpt: Option[ReentrantLock] = None,
                              val responseLockOpt: Option[ReentrantLock] = None)
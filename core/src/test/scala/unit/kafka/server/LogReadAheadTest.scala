@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.concurrent.TimeUnit
+
+import kafka.log.{Log, LogTestUtils}
+import kafka.utils.{MockTime, TestUtils}
+import org.apache.kafka.common.record.FileRecords
+import org.apache.kafka.common.utils.Utils
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, BeforeEach, Test}
+
+class LogReadAheadTest {
+  private val time = new MockTime()
+  private val tmpDir = TestUtils.tempDir()
+  private val logDir = TestUtils.randomPartitionLogDir(tmpDir)
+  private val coldSegmentAgeMs = 60 * 1000L
+  private var log: Log = _
+  private var readAhead: LogReadAhead = _
+
+  @BeforeEach
+  def setUp(): Unit = {
+    val logConfig = LogTestUtils.createLogConfig(segmentBytes = 1024)
+    log = LogTestUtils.createLog(logDir, logConfig, new BrokerTopicStats, time.scheduler, time)
+    while (log.numberOfSegments < 3)
+      log.appendAsLeader(TestUtils.singletonRecords(value = TestUtils.randomBytes(100)), leaderEpoch = 0)
+    readAhead = new LogReadAhead(numThreads = 2, coldSegmentAgeMs, time)
+  }
+
+  @AfterEach
+  def tearDown(): Unit = {
+    readAhead.shutdown()
+    log.close()
+    Utils.delete(tmpDir)
+  }
+
+  @Test
+  def testColdRecords(): Unit = {
+    val firstSegment = log.logSegments.head
+    val fromFirstSegment = LogTestUtils.readLog(log, 0, 1024)
+    val fromActiveSegment = LogTestUtils.readLog(log, log.activeSegment.baseOffset, 1024)
+
+    // the first segment was modified recently
+    firstSegment.lastModified = time.milliseconds
+    assertEquals(None, readAhead.coldRecords(log, fromFirstSegment, time.milliseconds))
+
+    time.sleep(coldSegmentAgeMs + 1)
+    assertEquals(Some(fromFirstSegment.records), readAhead.coldRecords(log, fromFirstSegment, time.milliseconds))
+    // the active segment is never predicted cold
+    log.activeSegment.lastModified = 0L
+    assertEquals(None, readAhead.coldRecords(log, fromActiveSegment, time.milliseconds))
+  }
+
+  @Test
+  def testReadAhead(): Unit = {
+    val records = log.logSegments.take(2).map(segment => LogTestUtils.readLog(log, segment.baseOffset, 1024).records)
+      .collect { case fileRecords: FileRecords => fileRecords }.toSeq
+    assertEquals(2, records.size)
+
+    val (firstKey, firstResult) = readAhead.readAhead(records).get
+    val (secondKey, secondResult) = readAhead.readAhead(records).get
+    assertNotEquals(firstKey, secondKey)
+    firstResult.get(15, TimeUnit.SECONDS)
+    secondResult.get(15, TimeUnit.SECONDS)
+  }
+}
@@ -27,6 +27,7 @@ import org.apache.kafka.common.record.RecordBatch
 import org.apache.kafka.common.requests.UpdateMetadataRequest
 import org.apache.kafka.common.security.auth.SecurityProtocol
 import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
 import org.junit.jupiter.params.ParameterizedTest
 import org.junit.jupiter.params.provider.MethodSource
 import java.util.Collections
@@ -630,4 +631,54 @@ class MetadataCacheTest {
     assertEquals(Seq(expectedNode0, expectedNode1), partitionInfo.inSyncReplicas.toSeq)
     assertEquals(Seq(expectedNode1), partitionInfo.offlineReplicas.toSeq)
   }
+
+  @Test
+  def testPartialUpdateKeepsUntouchedTopics(): Unit = {
+    val cache = MetadataCache.zkMetadataCache(1)
+    val listenerName = ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT)
+    val brokers = Seq(new UpdateMetadataBroker()
+      .setId(0)
+      .setEndpoints(Seq(new UpdateMetadataEndpoint()
+        .setHost("foo")
+        .setPort(9092)
+        .setSecurityProtocol(SecurityProtocol.PLAINTEXT.id)
+        .setListener(listenerName.value)).asJava))
+    val fooId = Uuid.randomUuid()
+    val barId = Uuid.randomUuid()
+
+    def partitionState(topic: String, partition: Int, leader: Int, leaderEpoch: Int): UpdateMetadataPartitionState = {
+      new UpdateMetadataPartitionState()
+        .setTopicName(topic)
+        .setPartitionIndex(partition)
+        .setControllerEpoch(1)
+        .setLeader(leader)
+        .setLeaderEpoch(leaderEpoch)
+        .setIsr(asList[Integer](0))
+        .setZkVersion(0)
+        .setReplicas(asList[Integer](0))
+    }
+
+    def update(partitionStates: Seq[UpdateMetadataPartitionState], topicIds: Map[String, Uuid]): Unit = {
+      val updateMetadataRequest = new UpdateMetadataRequest.Builder(ApiKeys.UPDATE_METADATA.latestVersion, 2, 1,
+        brokerEpoch, brokerEpoch, partitionStates.asJava, brokers.asJava, topicIds.asJava).build()
+      cache.updateMetadata(0, updateMetadataRequest)
+    }
+
+    update(Seq(partitionState("foo", 0, 0, 0), partitionState("foo", 1, 0, 0), partitionState("bar", 0, 0, 0)),
+      Map("foo" -> fooId, "bar" -> barId))
+    val fooPartition1 = cache.getPartitionInfo("foo", 1).get
+    assertEquals(Some("bar"), cache.getTopicName(barId))
+
+    update(Seq(partitionState("foo", 0, 0, 1), partitionState("bar", 0, LeaderAndIsr.LeaderDuringDelete, 1)),
+      Map("foo" -> fooId))
+    assertEquals(Some(1), cache.getPartitionInfo("foo", 0).map(_.leaderEpoch))
+    assertSame(fooPartition1, cache.getPartitionInfo("foo", 1).get)
+    assertEquals(Set("foo"), cache.getAllTopics())
+    assertEquals(Uuid.ZERO_UUID, cache.getTopicId("bar"))
+    assertEquals(None, cache.getTopicName(barId))
+    assertEquals(fooId, cache.getTopicId("foo"))
+    assertEquals(Some("foo"), cache.getTopicName(fooId))
+    assertEquals(Seq(0, 1), cache.getTopicMetadata(Set("foo"), listenerName).head.partitions.asScala
+      .map(_.partitionIndex).sorted)
+  }
 }
@@ -0,0 +1,106 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.server
+
+import java.util.Collections
+
+import org.apache.kafka.common.Uuid
+import org.apache.kafka.common.message.MetadataResponseData.{MetadataResponsePartition, MetadataResponseTopic}
+import org.apache.kafka.common.network.ListenerName
+import org.apache.kafka.common.protocol.{ApiKeys, MessageUtil}
+import org.apache.kafka.common.requests.MetadataResponse
+import org.apache.kafka.common.security.auth.SecurityProtocol
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, Test}
+
+import scala.jdk.CollectionConverters._
+
+class MetadataResponseCacheTest {
+  private val cache = new MetadataResponseCache(maxEntries = 2)
+  private val listenerName = ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT)
+  private val version = ApiKeys.METADATA.latestVersion
+  private val topicId = Uuid.randomUuid()
+  private var numBuilt = 0
+
+  @AfterEach
+  def tearDown(): Unit = {
+    cache.close()
+  }
+
+  private def topic(name: String, leader: Int): MetadataResponseTopic = {
+    numBuilt += 1
+    new MetadataResponseTopic()
+      .setName(name)
+      .setTopicId(topicId)
+      .setPartitions(Collections.singletonList(new MetadataResponsePartition()
+        .setPartitionIndex(0)
+        .setLeaderId(leader)
+        .setReplicaNodes(List[Integer](leader).asJava)
+        .setIsrNodes(List[Integer](leader).asJava)))
+  }
+
+  @Test
+  def testSerializedTopics(): Unit = {
+    val partitionStates = new Object
+    val aliveNodes = new Object
+    val topics = Seq("foo", "bar").map { name =>
+      cache.getTopicMetadata(name, listenerName, version, partitionStates, aliveNodes, topicId)(topic(name, 1))
+    }
+    val expected = Seq(topic("foo", 1), topic("bar", 1))
+    assertEquals(expected, topics)
+
+    // the topics are written as their serialized bytes
+    val response = MetadataResponse.prepareResponse(version, 0, Collections.emptyList(), "cluster", 0, topics.asJava, 0)
+    val parsed = MetadataResponse.parse(MessageUtil.toByteBuffer(response.data, version), version)
+    assertEquals(expected, parsed.data.topics.asScala.toSeq)
+
+    // and are serialized again when they are written at another version or changed
+    assertEquals(MessageUtil.toByteBuffer(expected.head, 1.toShort), MessageUtil.toByteBuffer(topics.head, 1.toShort))
+    topics.head.setTopicAuthorizedOperations(3)
+    assertEquals(MessageUtil.toByteBuffer(expected.head.duplicate.setTopicAuthorizedOperations(3), version),
+      MessageUtil.toByteBuffer(topics.head, version))
+  }
+
+  @Test
+  def testTopicsRebuiltWhenStateChanges(): Unit = {
+    val partitionStates = new Object
+    val aliveNodes = new Object
+
+    def getTopicMetadata(name: String, partitionStates: AnyRef, aliveNodes: AnyRef, topicId: Uuid, leader: Int): MetadataResponseTopic =
+      cache.getTopicMetadata(name, listenerName, version, partitionStates, aliveNodes, topicId)(topic(name, leader))
+
+    getTopicMetadata("foo", partitionStates, aliveNodes, topicId, 1)
+    getTopicMetadata("foo", partitionStates, aliveNodes, topicId, 1)
+    assertEquals(1, numBuilt)
+
+    assertEquals(2, getTopicMetadata("foo", new Object, aliveNodes, topicId, 2).partitions.get(0).leaderId)
+    assertEquals(3, getTopicMetadata("foo", partitionStates, new Object, topicId, 3).partitions.get(0).leaderId)
+    assertEquals(4, getTopicMetadata("foo", partitionStates, aliveNodes, Uuid.randomUuid(), 4).partitions.get(0).leaderId)
+    assertEquals(4, numBuilt)
+
+    // topics beyond the maximum number of entries are not cached
+    getTopicMetadata("bar", partitionStates, aliveNodes, topicId, 1)
+    getTopicMetadata("baz", partitionStates, aliveNodes, topicId, 1)
+    getTopicMetadata("baz", partitionStates, aliveNodes, topicId, 1)
+    assertEquals(7, numBuilt)
+    assertEquals(2, cache.size)
+
+    cache.removeTopics(Set("foo"))
+    assertEquals(1, cache.size)
+  }
+}
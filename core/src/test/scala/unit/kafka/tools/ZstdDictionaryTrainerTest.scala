@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package kafka.tools
+
+import java.io.File
+
+import kafka.utils.TestUtils
+import org.apache.kafka.common.compress.ZstdDictionary
+import org.apache.kafka.common.record.{CompressionType, ControlRecordType, EndTransactionMarker, FileRecords, MemoryRecords, SimpleRecord}
+import org.apache.kafka.common.utils.Utils
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.{AfterEach, Test}
+
+class ZstdDictionaryTrainerTest {
+
+  val tmpDir = TestUtils.tempDir()
+
+  @AfterEach
+  def tearDown(): Unit = {
+    Utils.delete(tmpDir)
+  }
+
+  private def value(i: Int): Array[Byte] =
+    s"""{"memberId":$i,"pageKey":"profile_view_${i % 7}","trackingId":"${Integer.toHexString(i * 31)}"}""".getBytes
+
+  /**
+   * Write a segment with the values in the given range, split between an uncompressed and a compressed batch, along
+   * with a record without a value and a transaction marker which should not be sampled.
+   */
+  private def writeSegment(name: String, values: Range): File = {
+    val file = new File(tmpDir, name)
+    val fileRecords = FileRecords.open(file)
+    try {
+      val (first, second) = values.splitAt(values.size / 2)
+      fileRecords.append(MemoryRecords.withRecords(CompressionType.NONE, first.map(i => new SimpleRecord(value(i))): _*))
+      fileRecords.append(MemoryRecords.withRecords(CompressionType.NONE, new SimpleRecord("key".getBytes, null)))
+      fileRecords.append(MemoryRecords.withEndTransactionMarker(1L, 0.toShort,
+        new EndTransactionMarker(ControlRecordType.COMMIT, 0)))
+      fileRecords.append(MemoryRecords.withRecords(CompressionType.GZIP, second.map(i => new SimpleRecord(value(i))): _*))
+      fileRecords.flush()
+    } finally {
+      fileRecords.close()
+    }
+    file
+  }
+
+  @Test
+  def testSampleAllValues(): Unit = {
+    val files = Seq(writeSegment("0.log", 0 until 10), writeSegment("10.log", 10 until 20))
+    val samples = ZstdDictionaryTrainer.sampleValues(files, 100)
+    assertEquals((0 until 20).map(value(_).toSeq), samples.map(_.toSeq))
+  }
+
+  @Test
+  def testSampleIsBounded(): Unit = {
+    val files = Seq(writeSegment("0.log", 0 until 1000))
+    val samples = ZstdDictionaryTrainer.sampleValues(files, 50)
+    assertEquals(50, samples.size)
+    val values = (0 until 1000).map(value(_).toSeq).toSet
+    samples.foreach(sample => assertTrue(values.contains(sample.toSeq)))
+    assertEquals(50, samples.map(_.toSeq).toSet.size, "Each value should be sampled at most once")
+  }
+
+  @Test
+  def testTrainDictionary(): Unit = {
+    val segment = writeSegment("0.log", 0 until 1000)
+    val output = new File(tmpDir, "dictionary")
+    ZstdDictionaryTrainer.main(Array("--files", segment.getPath, "--output", output.getPath,
+      "--max-dictionary-bytes", "4096"))
+    val dictionary = ZstdDictionary.readFrom(output.toPath)
+    assertTrue(dictionary.bytes.length <= 4096)
+    assertNotEquals(0, dictionary.id)
+  }
+}
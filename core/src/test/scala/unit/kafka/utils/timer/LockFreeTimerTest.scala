@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package kafka.utils.timer
+
+import java.util.concurrent.{Callable, CountDownLatch, Executors, TimeUnit}
+
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+
+import scala.collection.mutable.ArrayBuffer
+
+class LockFreeTimerTest extends TimerTest {
+
+  override protected def createTimer(): Timer = new LockFreeTimer("test", tickMs = 1, wheelSize = 3)
+
+  @Test
+  def testCancelledTaskDoesNotRun(): Unit = {
+    val output = new ArrayBuffer[Int]()
+    val cancelledLatch = new CountDownLatch(1)
+    val latch = new CountDownLatch(1)
+    val cancelled = new TestTask(5, 1, cancelledLatch, output)
+    timer.add(cancelled)
+    timer.add(new TestTask(10, 2, latch, output))
+    assertEquals(2, timer.size)
+
+    cancelled.cancel()
+    assertEquals(1, timer.size)
+
+    while (latch.getCount > 0)
+      timer.advanceClock(100)
+    assertTrue(latch.await(3, TimeUnit.SECONDS))
+    assertEquals(Seq(2), output.toSeq)
+    assertEquals(1, cancelledLatch.getCount)
+    assertEquals(0, timer.size)
+  }
+
+  @Test
+  def testReaddedTaskRunsOnce(): Unit = {
+    val output = new ArrayBuffer[Int]()
+    val latch = new CountDownLatch(1)
+    val task = new TestTask(5, 1, latch, output)
+    timer.add(task)
+    // adding the task again replaces its previous entry
+    timer.add(task)
+    assertEquals(1, timer.size)
+
+    while (latch.getCount > 0)
+      timer.advanceClock(100)
+    assertEquals(Seq(1), output.toSeq)
+    assertEquals(0, timer.size)
+  }
+
+  @Test
+  def testTaskAddedWhileAdvancingIsNotDelayed(): Unit = {
+    val output = new ArrayBuffer[Int]()
+    val latch = new CountDownLatch(1)
+    // a far away task, the advancing thread waits for it
+    timer.add(new TestTask(60000, 1, new CountDownLatch(1), output))
+
+    val executor = Executors.newSingleThreadExecutor()
+    try {
+      val advance = executor.submit(new Callable[Boolean] {
+        override def call(): Boolean = timer.advanceClock(30000)
+      })
+      Thread.sleep(50)
+      timer.add(new TestTask(10, 2, latch, output))
+      // the advancing thread is woken up by the task expiring earlier
+      assertTrue(advance.get(10, TimeUnit.SECONDS))
+      assertTrue(latch.await(10, TimeUnit.SECONDS))
+      assertEquals(Seq(2), output.toSeq)
+    } finally executor.shutdownNow()
+  }
+
+  @Test
+  def testConcurrentAddAndCancel(): Unit = {
+    val numThreads = 4
+    val tasksPerThread = 2000
+    val output = new ArrayBuffer[Int]()
+    val latch = new CountDownLatch(numThreads * tasksPerThread / 2)
+    val executor = Executors.newFixedThreadPool(numThreads)
+    try {
+      val futures = (0 until numThreads).map { thread =>
+        executor.submit(new Runnable {
+          override def run(): Unit = {
+            (0 until tasksPerThread).foreach { i =>
+              val id = thread * tasksPerThread + i
+              // cancel every other task, before it can expire
+              val cancel = i % 2 == 1
+              val task = new TestTask(if (cancel) 60000 else i % 50, id, latch, output)
+              timer.add(task)
+              if (cancel)
+                task.cancel()
+            }
+          }
+        })
+      }
+      while (latch.getCount > 0 || futures.exists(!_.isDone))
+        timer.advanceClock(10)
+      futures.foreach(_.get)
+
+      val expected = for (thread <- 0 until numThreads; i <- 0 until tasksPerThread if i % 2 == 0)
+        yield thread * tasksPerThread + i
+      assertEquals(expected.sorted, output.synchronized(output.toSeq.sorted))
+      assertEquals(0, timer.size)
+    } finally executor.shutdownNow()
+  }
+}
@@ -26,7 +26,7 @@ import scala.collection.mutable.ArrayBuffer
 
 class TimerTest {
 
-  private class TestTask(override val delayMs: Long, id: Int, latch: CountDownLatch, output: ArrayBuffer[Int]) extends TimerTask {
+  protected class TestTask(override val delayMs: Long, id: Int, latch: CountDownLatch, output: ArrayBuffer[Int]) extends TimerTask {
     private[this] val completed = new AtomicBoolean(false)
     def run(): Unit = {
       if (completed.compareAndSet(false, true)) {
@@ -36,11 +36,13 @@ class TimerTest {
     }
   }
 
-  private[this] var timer: Timer = null
+  protected var timer: Timer = null
+
+  protected def createTimer(): Timer = new SystemTimer("test", tickMs = 1, wheelSize = 3)
 
   @BeforeEach
   def setup(): Unit = {
-    timer = new SystemTimer("test", tickMs = 1, wheelSize = 3)
+    timer = createTimer()
   }
 
   @AfterEach
@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.consumer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.MockClient;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.consumer.internals.ConsumerMetadata;
+import org.apache.kafka.clients.consumer.internals.ConsumerNetworkClient;
+import org.apache.kafka.clients.consumer.internals.Fetcher;
+import org.apache.kafka.clients.consumer.internals.FetcherMetricsRegistry;
+import org.apache.kafka.clients.consumer.internals.SubscriptionState;
+import org.apache.kafka.common.IsolationLevel;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.internals.ClusterResourceListeners;
+import org.apache.kafka.common.message.FetchResponseData;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.protocol.Errors;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.requests.FetchResponse;
+import org.apache.kafka.common.requests.RequestTestUtils;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.MockTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.apache.kafka.common.requests.FetchMetadata.INVALID_SESSION_ID;
+
+/**
+ * Measures the records fetched per second by a fetcher which returns either deserialized records, as for
+ * {@code KafkaConsumer.poll}, or views of the fetched batches, as for {@code KafkaConsumer.pollBatches}. Each
+ * invocation completes one fetch of {@code batchCount} batches from a mock client. Run with {@code -prof gc} to
+ * compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class FetcherBatchesBenchmark {
+    private static final TopicPartition TP = new TopicPartition("test", 0);
+
+    @Param(value = {"NONE", "LZ4"})
+    private String compressionType = "NONE";
+
+    @Param(value = {"10", "500"})
+    private int recordsPerBatch = 10;
+
+    @Param(value = {"100"})
+    private int batchCount = 100;
+
+    @Param(value = {"100"})
+    private int valueSize = 100;
+
+    private MockTime time;
+    private Metrics metrics;
+    private SubscriptionState subscriptions;
+    private MockClient client;
+    private ConsumerNetworkClient consumerClient;
+    private Fetcher<byte[], byte[]> fetcher;
+    private ByteBuffer fetchedBuffer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        LogContext logContext = new LogContext();
+        time = new MockTime();
+        metrics = new Metrics(time);
+        subscriptions = new SubscriptionState(logContext, OffsetResetStrategy.EARLIEST);
+        ConsumerMetadata metadata = new ConsumerMetadata(0, Long.MAX_VALUE, false, false, subscriptions, logContext,
+            new ClusterResourceListeners(), metrics);
+        client = new MockClient(time, metadata);
+        consumerClient = new ConsumerNetworkClient(logContext, client, metadata, time, 100, 1000, Integer.MAX_VALUE);
+        fetcher = new Fetcher<>(logContext, consumerClient, 1, Integer.MAX_VALUE, 0, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            true, "", false, new ByteArrayDeserializer(), new ByteArrayDeserializer(), metadata, subscriptions, metrics,
+            new FetcherMetricsRegistry("consumer"), time, 100, 30000, IsolationLevel.READ_UNCOMMITTED, new ApiVersions());
+
+        subscriptions.assignFromUser(Collections.singleton(TP));
+        client.updateMetadata(RequestTestUtils.metadataUpdateWith(1, Collections.singletonMap(TP.topic(), 1)));
+
+        Random random = new Random(0);
+        byte[] value = new byte[valueSize];
+        ByteBuffer buffer = ByteBuffer.allocate(batchCount * recordsPerBatch * (valueSize + 64));
+        for (int i = 0; i < batchCount; i++) {
+            MemoryRecordsBuilder builder = MemoryRecords.builder(buffer, CompressionType.forName(compressionType),
+                TimestampType.CREATE_TIME, (long) i * recordsPerBatch);
+            for (int j = 0; j < recordsPerBatch; j++) {
+                random.nextBytes(value);
+                builder.append(time.milliseconds(), null, value);
+            }
+            builder.close();
+        }
+        buffer.flip();
+        fetchedBuffer = buffer;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fetcher.close();
+        metrics.close();
+    }
+
+    private void fetch() {
+        subscriptions.seek(TP, 0);
+        fetcher.sendFetches();
+        LinkedHashMap<TopicPartition, FetchResponseData.PartitionData> partitions = new LinkedHashMap<>();
+        partitions.put(TP, new FetchResponseData.PartitionData()
+            .setPartitionIndex(TP.partition())
+            .setHighWatermark((long) batchCount * recordsPerBatch)
+            .setLogStartOffset(0)
+            .setRecords(MemoryRecords.readableRecords(fetchedBuffer.duplicate())));
+        client.prepareResponse(FetchResponse.of(Errors.NONE, 0, INVALID_SESSION_ID, partitions));
+        consumerClient.poll(time.timer(0));
+    }
+
+    @Benchmark
+    public void fetchedRecords(Blackhole bh) {
+        fetch();
+        for (List<ConsumerRecord<byte[], byte[]>> records : fetcher.fetchedRecords().values()) {
+            for (ConsumerRecord<byte[], byte[]> record : records)
+                bh.consume(record);
+        }
+    }
+
+    @Benchmark
+    public void fetchedBatches(Blackhole bh) {
+        fetch();
+        for (List<RecordBatch> batches : fetcher.fetchedBatches().values()) {
+            for (RecordBatch batch : batches)
+                bh.consume(batch);
+        }
+    }
+}
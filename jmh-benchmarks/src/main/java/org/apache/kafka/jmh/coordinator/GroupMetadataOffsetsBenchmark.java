@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.coordinator;
+
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import kafka.common.OffsetAndMetadata;
+import kafka.coordinator.group.CommitRecordMetadataAndOffset;
+import kafka.coordinator.group.CommittedOffsets;
+import kafka.coordinator.group.Empty$;
+import kafka.coordinator.group.GroupMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import scala.Option;
+import scala.collection.immutable.Map;
+import scala.collection.mutable.HashMap;
+
+/**
+ * Measures the lookup and commit throughput of the committed offsets of a {@link GroupMetadata}, which are stored in a
+ * {@link CommittedOffsets}.
+ *
+ * The {@link #main} method compares the heap retained by the committed offsets stored in a {@link CommittedOffsets} and
+ * in a map of {@link TopicPartition} to {@link CommitRecordMetadataAndOffset}, as they were stored before.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GroupMetadataOffsetsBenchmark {
+    @Param({"10", "100"})
+    private int numTopics;
+
+    @Param({"10", "100"})
+    private int partitionsPerTopic;
+
+    private GroupMetadata group;
+    private TopicPartition[] topicPartitions;
+    private int index = 0;
+    private long offset = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        group = new GroupMetadata("group", Empty$.MODULE$, Time.SYSTEM);
+        topicPartitions = topicPartitions(numTopics, partitionsPerTopic);
+        for (TopicPartition topicPartition : topicPartitions) {
+            commit(topicPartition);
+        }
+    }
+
+    private static TopicPartition[] topicPartitions(int numTopics, int partitionsPerTopic) {
+        TopicPartition[] topicPartitions = new TopicPartition[numTopics * partitionsPerTopic];
+        for (int topic = 0; topic < numTopics; topic++) {
+            for (int partition = 0; partition < partitionsPerTopic; partition++) {
+                topicPartitions[topic * partitionsPerTopic + partition] = new TopicPartition("topic-" + topic, partition);
+            }
+        }
+        return topicPartitions;
+    }
+
+    private static CommitRecordMetadataAndOffset commitRecord(long batchOffset, long offset) {
+        return new CommitRecordMetadataAndOffset(Option.<Object>apply(batchOffset),
+            new OffsetAndMetadata(offset, Optional.of(5), "", offset, Option.empty()));
+    }
+
+    private void commit(TopicPartition topicPartition) {
+        offset++;
+        CommitRecordMetadataAndOffset commitRecord = commitRecord(offset, offset);
+        group.prepareOffsetCommit(new Map.Map1<>(topicPartition, commitRecord.offsetAndMetadata()));
+        group.onOffsetCommitAppend(topicPartition, commitRecord);
+    }
+
+    private TopicPartition nextTopicPartition() {
+        index = (index + 1) % topicPartitions.length;
+        return topicPartitions[index];
+    }
+
+    @Benchmark
+    public void commitOffset() {
+        commit(nextTopicPartition());
+    }
+
+    @Benchmark
+    public Option<OffsetAndMetadata> getOffset() {
+        return group.offset(nextTopicPartition());
+    }
+
+    @Benchmark
+    public void getAllOffsets(Blackhole blackhole) {
+        blackhole.consume(group.allOffsets());
+    }
+
+    /**
+     * Print the heap retained per committed offset by the compact and the map representations.
+     */
+    public static void main(String[] args) {
+        int numTopics = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int partitionsPerTopic = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        TopicPartition[] topicPartitions = topicPartitions(numTopics, partitionsPerTopic);
+
+        long before = usedHeap();
+        CommittedOffsets compact = new CommittedOffsets();
+        for (int i = 0; i < topicPartitions.length; i++) {
+            // copy the topic partitions like loading the offsets topic does
+            TopicPartition topicPartition = topicPartitions[i];
+            compact.put(new TopicPartition(topicPartition.topic(), topicPartition.partition()), commitRecord(i, i));
+        }
+        long compactBytes = usedHeap() - before;
+
+        before = usedHeap();
+        HashMap<TopicPartition, CommitRecordMetadataAndOffset> map = new HashMap<>();
+        for (int i = 0; i < topicPartitions.length; i++) {
+            TopicPartition topicPartition = topicPartitions[i];
+            map.put(new TopicPartition(new String(topicPartition.topic()), topicPartition.partition()), commitRecord(i, i));
+        }
+        long mapBytes = usedHeap() - before;
+
+        System.out.printf("%d offsets: %d bytes per offset in a CommittedOffsets, %d bytes per offset in a map%n",
+            topicPartitions.length, compactBytes / topicPartitions.length, mapBytes / topicPartitions.length);
+        // keep both alive until they are measured
+        if (compact.size() != map.size()) {
+            throw new IllegalStateException("Different number of offsets");
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
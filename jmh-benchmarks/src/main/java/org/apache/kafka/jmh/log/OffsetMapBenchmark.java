@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import kafka.log.OffHeapOffsetMap;
+import kafka.log.OffsetMap;
+import kafka.log.SkimpyOffsetMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares put and get throughput of the heap {@link SkimpyOffsetMap} (MD5) and the {@link OffHeapOffsetMap} (MurmurHash3)
+ * used by the log cleaner to deduplicate keys.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OffsetMapBenchmark {
+    private static final int NUM_KEYS = 1_000_000;
+
+    @Param({"skimpy", "off-heap"})
+    private String mapType;
+
+    @Param({"16", "64"})
+    private int keySize;
+
+    private OffsetMap offsetMap;
+    private ByteBuffer[] keys;
+    private int index = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // keep the map half full, as the cleaner does not fill it past its load factor
+        int memory = 2 * NUM_KEYS * 24;
+        if (mapType.equals("off-heap")) {
+            offsetMap = new OffHeapOffsetMap(memory, 1 << 30);
+        } else {
+            offsetMap = new SkimpyOffsetMap(memory, "MD5");
+        }
+        keys = new ByteBuffer[NUM_KEYS];
+        StringBuilder padding = new StringBuilder();
+        while (padding.length() < keySize) {
+            padding.append('k');
+        }
+        for (int i = 0; i < NUM_KEYS; i++) {
+            String key = i + padding.toString();
+            keys[i] = ByteBuffer.wrap(key.substring(0, keySize).getBytes(StandardCharsets.UTF_8));
+        }
+        for (int i = 0; i < NUM_KEYS; i++) {
+            offsetMap.put(keys[i], i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        offsetMap.close();
+    }
+
+    private ByteBuffer nextKey() {
+        index = (index + 1) % NUM_KEYS;
+        return keys[index];
+    }
+
+    @Benchmark
+    public void put() {
+        offsetMap.put(nextKey(), index);
+    }
+
+    @Benchmark
+    public long get() {
+        return offsetMap.get(nextKey());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import kafka.log.AppendOrigin;
+import kafka.log.ProducerAppendInfo;
+import kafka.log.ProducerStateManager;
+import kafka.server.LogOffsetMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.common.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the validation of appends against the producer state of a partition, and the time to write its producer
+ * snapshots, which are written as deltas of the previous snapshot if maxDeltaSnapshots is positive.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ProducerStateManagerBenchmark {
+    private static final short EPOCH = 0;
+
+    @Param({"1000", "100000"})
+    private int numProducers;
+
+    @Param({"0", "10"})
+    private int maxDeltaSnapshots;
+
+    // the number of producers which append between two snapshots
+    @Param({"10", "1000"})
+    private int appendsPerSnapshot;
+
+    private File logDir;
+    private ProducerStateManager stateManager;
+    private int[] sequences;
+    private int index = 0;
+    private long offset = 0;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        logDir = Files.createTempDirectory("producer-state").toFile();
+        stateManager = new ProducerStateManager(new TopicPartition("topic", 0), logDir, Integer.MAX_VALUE,
+            Time.SYSTEM, maxDeltaSnapshots);
+        sequences = new int[numProducers];
+        for (int producerId = 0; producerId < numProducers; producerId++) {
+            append(producerId);
+        }
+        stateManager.takeSnapshot();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Utils.delete(logDir);
+    }
+
+    private void append(int producerId) {
+        ProducerAppendInfo appendInfo = stateManager.prepareUpdate(producerId, AppendOrigin.Client$.MODULE$);
+        int sequence = sequences[producerId]++;
+        appendInfo.appendDataBatch(EPOCH, sequence, sequence, System.currentTimeMillis(),
+            new LogOffsetMetadata(offset, 0L, 0), offset, false);
+        stateManager.update(appendInfo);
+        stateManager.updateMapEndOffset(offset + 1);
+        offset++;
+    }
+
+    private int nextProducerId() {
+        index = (index + 1) % numProducers;
+        return index;
+    }
+
+    @Benchmark
+    public void appendDataBatch() {
+        append(nextProducerId());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void takeSnapshot() {
+        for (int i = 0; i < appendsPerSnapshot; i++) {
+            append(nextProducerId());
+        }
+        stateManager.takeSnapshot();
+        stateManager.deleteSnapshotsBefore(offset);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.memory;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.apache.kafka.common.memory.MemoryPool;
+import org.apache.kafka.common.memory.RecyclingMemoryPool;
+import org.apache.kafka.common.memory.StripedRecyclingMemoryPool;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the allocate/release round trip of {@link RecyclingMemoryPool} and {@link StripedRecyclingMemoryPool}
+ * when shared by 8, 16 and 32 network processor threads.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RecyclingMemoryPoolBenchmark {
+    private static final int CACHEABLE_BUFFER_SIZE = 16 * 1024;
+
+    @Param({"queue", "striped"})
+    private String poolType;
+
+    @Param({"64", "1024"})
+    private int bufferCacheCapacity;
+
+    private Metrics metrics;
+    private MemoryPool memoryPool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        metrics = new Metrics();
+        Sensor sensor = metrics.sensor("allocate");
+        if (poolType.equals("striped")) {
+            memoryPool = new StripedRecyclingMemoryPool(CACHEABLE_BUFFER_SIZE, bufferCacheCapacity, sensor);
+        } else {
+            memoryPool = new RecyclingMemoryPool(CACHEABLE_BUFFER_SIZE, bufferCacheCapacity, sensor);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        metrics.close();
+    }
+
+    private ByteBuffer allocateAndRelease() {
+        ByteBuffer buffer = memoryPool.tryAllocate(CACHEABLE_BUFFER_SIZE);
+        memoryPool.release(buffer);
+        return buffer;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public ByteBuffer allocateAndRelease8Threads() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public ByteBuffer allocateAndRelease16Threads() {
+        return allocateAndRelease();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public ByteBuffer allocateAndRelease32Threads() {
+        return allocateAndRelease();
+    }
+}
@@ -42,8 +42,10 @@ import kafka.server.ZkAdminManager;
 import kafka.server.ZkSupport;
 import kafka.server.metadata.MockConfigRepository;
 import kafka.zk.KafkaZkClient;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.memory.MemoryPool;
 import org.apache.kafka.common.message.ApiMessageType;
+import org.apache.kafka.common.message.MetadataResponseData.MetadataResponseTopic;
 import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataBroker;
 import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataEndpoint;
 import org.apache.kafka.common.message.UpdateMetadataRequestData.UpdateMetadataPartitionState;
@@ -73,13 +75,17 @@ import org.openjdk.jmh.annotations.State;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Warmup;
 import scala.Option;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.IntStream;
 
@@ -91,7 +97,7 @@ import java.util.stream.IntStream;
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 
 public class MetadataRequestBenchmark {
-    @Param({"500", "1000", "5000"})
+    @Param({"500", "1000", "5000", "10000", "20000"})
     private int topicCount;
     @Param({"10", "20", "50"})
     private int partitionCount;
@@ -121,12 +127,19 @@ public class MetadataRequestBenchmark {
     private KafkaPrincipal principal = new KafkaPrincipal(KafkaPrincipal.USER_TYPE, "test-user");
     private KafkaApis kafkaApis;
     private RequestChannel.Request allTopicMetadataRequest;
+    private UpdateMetadataRequest partialUpdateMetadataRequest;
+    private scala.collection.Set<String> someTopics;
+    private int correlationId = 0;
 
     @Setup(Level.Trial)
     public void setup() {
         initializeMetadataCache();
         kafkaApis = createKafkaApis();
         allTopicMetadataRequest = buildAllTopicMetadataRequest();
+        partialUpdateMetadataRequest = buildPartialUpdateMetadataRequest();
+        Set<String> topics = new HashSet<>();
+        IntStream.range(0, 10).forEach(topicId -> topics.add("topic-" + topicId));
+        someTopics = JavaConverters.asScalaSetConverter(topics).asScala();
     }
 
     private void initializeMetadataCache() {
@@ -161,6 +174,35 @@ public class MetadataRequestBenchmark {
         metadataCache.updateMetadata(100, updateMetadataRequest);
     }
 
+    /**
+     * An update moving the leadership of the first partition of a hundred topics, as sent to every broker for the
+     * partitions led by a broker which is restarted.
+     */
+    private UpdateMetadataRequest buildPartialUpdateMetadataRequest() {
+        List<UpdateMetadataBroker> liveBrokers = new LinkedList<>();
+        List<UpdateMetadataPartitionState> partitionStates = new LinkedList<>();
+
+        IntStream.range(0, 5).forEach(brokerId -> liveBrokers.add(
+            new UpdateMetadataBroker().setId(brokerId)
+                .setEndpoints(endpoints(brokerId))
+                .setRack("rack1")));
+
+        IntStream.range(0, Math.min(100, topicCount)).forEach(topicId -> partitionStates.add(
+            new UpdateMetadataPartitionState().setTopicName("topic-" + topicId)
+                .setPartitionIndex(0)
+                .setControllerEpoch(1)
+                .setLeader(1)
+                .setLeaderEpoch(1)
+                .setIsr(Arrays.asList(0, 1, 3))
+                .setZkVersion(1)
+                .setReplicas(Arrays.asList(0, 1, 3))));
+
+        return new UpdateMetadataRequest.Builder(
+            ApiKeys.UPDATE_METADATA.latestVersion(),
+            1, 1, 1, 1,
+            partitionStates, liveBrokers, Collections.emptyMap()).build();
+    }
+
     private List<UpdateMetadataEndpoint> endpoints(final int brokerId) {
         return Collections.singletonList(
             new UpdateMetadataEndpoint()
@@ -219,6 +261,17 @@ public class MetadataRequestBenchmark {
         kafkaApis.handleTopicMetadataRequest(allTopicMetadataRequest);
     }
 
+    @Benchmark
+    public Seq<TopicPartition> testPartialUpdateMetadata() {
+        return metadataCache.updateMetadata(correlationId++, partialUpdateMetadataRequest);
+    }
+
+    @Benchmark
+    public Seq<MetadataResponseTopic> testGetTopicMetadata() {
+        return metadataCache.getTopicMetadata(someTopics, ListenerName.forSecurityProtocol(SecurityProtocol.PLAINTEXT),
+            false, false);
+    }
+
     @Benchmark
     public String testRequestToJson() {
         return RequestConvertToJson.requestDesc(allTopicMetadataRequest.header(), allTopicMetadataRequest.requestLog(), allTopicMetadataRequest.isForwarded()).toString();
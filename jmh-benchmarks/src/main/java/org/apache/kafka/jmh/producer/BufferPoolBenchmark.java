@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.producer.internals.BufferPool;
+import org.apache.kafka.clients.producer.internals.SizeClassedBufferPool;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of many threads allocating and deallocating buffers from the default buffer pool and from
+ * the size classed buffer pool, for batches of batch.size only or of up to four times batch.size. Run with
+ * {@code -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(8)
+public class BufferPoolBenchmark {
+    private static final int BATCH_SIZE = 16 * 1024;
+
+    @Param(value = {"default", "size-classed", "size-classed-direct"})
+    private String pool = "default";
+
+    @Param(value = {"1", "4"})
+    private int maxBatchSizeMultiple = 1;
+
+    private Metrics metrics;
+    private BufferPool bufferPool;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Time time = Time.SYSTEM;
+        metrics = new Metrics(time);
+        long totalMemory = 64 * 1024 * 1024;
+        switch (pool) {
+            case "default":
+                bufferPool = new BufferPool(totalMemory, BATCH_SIZE, metrics, time, "producer-metrics");
+                break;
+            case "size-classed":
+                bufferPool = new SizeClassedBufferPool(totalMemory, BATCH_SIZE, 3, false, metrics, time, "producer-metrics");
+                break;
+            case "size-classed-direct":
+                bufferPool = new SizeClassedBufferPool(totalMemory, BATCH_SIZE, 3, true, metrics, time, "producer-metrics");
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown buffer pool " + pool);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bufferPool.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public int allocateAndDeallocate() throws InterruptedException {
+        int size = BATCH_SIZE * (1 + ThreadLocalRandom.current().nextInt(maxBatchSizeMultiple));
+        ByteBuffer buffer = bufferPool.allocate(size, Long.MAX_VALUE);
+        int capacity = buffer.capacity();
+        bufferPool.deallocate(buffer);
+        return capacity;
+    }
+}
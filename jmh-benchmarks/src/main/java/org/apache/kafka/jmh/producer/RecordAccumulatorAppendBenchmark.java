@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.producer;
+
+import org.apache.kafka.clients.ApiVersions;
+import org.apache.kafka.clients.producer.internals.BufferPool;
+import org.apache.kafka.clients.producer.internals.ProducerBatch;
+import org.apache.kafka.clients.producer.internals.RecordAccumulator;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.utils.LogContext;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of many threads appending records to few partitions of a record accumulator, while a sender
+ * thread drains it, with different numbers of append stripes per partition.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(16)
+public class RecordAccumulatorAppendBenchmark {
+    private static final String TOPIC = "topic";
+    private static final int BATCH_SIZE = 16 * 1024;
+
+    @Param(value = {"1", "4", "8"})
+    private int appendStripes = 1;
+
+    @Param(value = {"1", "4"})
+    private int partitionCount = 1;
+
+    @Param(value = {"NONE", "LZ4"})
+    private String compressionType = "NONE";
+
+    private final Time time = Time.SYSTEM;
+    private final byte[] value = new byte[100];
+    private Metrics metrics;
+    private Cluster cluster;
+    private TopicPartition[] partitions;
+    private RecordAccumulator accumulator;
+    private Thread sender;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        new Random(0).nextBytes(value);
+        metrics = new Metrics(time);
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitionInfos = new ArrayList<>();
+        partitions = new TopicPartition[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            partitions[i] = new TopicPartition(TOPIC, i);
+            partitionInfos.add(new PartitionInfo(TOPIC, i, node, new Node[] {node}, new Node[] {node}));
+        }
+        cluster = new Cluster(null, Collections.singletonList(node), partitionInfos, Collections.emptySet(),
+            Collections.emptySet());
+        accumulator = new RecordAccumulator(new LogContext(), BATCH_SIZE, CompressionType.forName(compressionType), 0,
+            100L, Integer.MAX_VALUE, metrics, "producer-metrics", time, new ApiVersions(), null,
+            new BufferPool(64 * 1024 * 1024, BATCH_SIZE, metrics, time, "producer-metrics"), null, appendStripes);
+
+        running = true;
+        sender = new Thread(this::drain, "benchmark-sender");
+        sender.start();
+    }
+
+    // drains and completes the batches like the sender, as if the produce requests succeed immediately
+    private void drain() {
+        while (running) {
+            long now = time.milliseconds();
+            Set<Node> readyNodes = accumulator.ready(cluster, now).readyNodes;
+            Map<Integer, List<ProducerBatch>> batches = accumulator.drain(cluster, readyNodes, 1024 * 1024, now);
+            for (List<ProducerBatch> nodeBatches : batches.values()) {
+                for (ProducerBatch batch : nodeBatches) {
+                    batch.complete(0L, now);
+                    accumulator.deallocate(batch);
+                }
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        sender.join();
+        accumulator.close();
+        metrics.close();
+    }
+
+    @Benchmark
+    public RecordAccumulator.RecordAppendResult append() throws InterruptedException {
+        TopicPartition tp = partitions[ThreadLocalRandom.current().nextInt(partitionCount)];
+        return accumulator.append(tp, time.milliseconds(), null, value, Record.EMPTY_HEADERS, null, Long.MAX_VALUE,
+            false, time.milliseconds());
+    }
+}
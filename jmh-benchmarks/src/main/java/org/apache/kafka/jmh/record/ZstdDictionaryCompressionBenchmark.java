@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.kafka.jmh.record;
+
+import org.apache.kafka.common.compress.ZstdDictionary;
+import org.apache.kafka.common.compress.ZstdFactory;
+import org.apache.kafka.common.record.CompressionType;
+import org.apache.kafka.common.record.MemoryRecords;
+import org.apache.kafka.common.record.MemoryRecordsBuilder;
+import org.apache.kafka.common.record.Record;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the compression and decompression of batches of small, similarly structured records with zstd, with and
+ * without a dictionary trained from other records of the same structure. The compressed and uncompressed bytes are
+ * reported as counters, whose ratio is the compression ratio.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+public class ZstdDictionaryCompressionBenchmark {
+    private static final String[] PAGE_KEYS = {"profile_view", "feed_update", "search_results", "job_details", "messaging"};
+
+    @Param(value = {"true", "false"})
+    private boolean useDictionary = true;
+
+    @Param(value = {"1", "10", "100"})
+    private int recordsPerBatch = 10;
+
+    private final Random random = new Random(0);
+    private byte[][] values;
+    private ZstdDictionary dictionary;
+    private ByteBuffer compressedBatch;
+    private int uncompressedSizeInBytes;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class CompressionCounters {
+        public long compressedBytes;
+        public long uncompressedBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            compressedBytes = 0;
+            uncompressedBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<byte[]> samples = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            samples.add(value());
+        dictionary = useDictionary ? ZstdFactory.trainDictionary(samples, 16 * 1024) : null;
+        if (dictionary != null)
+            ZstdDictionary.register(dictionary);
+
+        values = new byte[recordsPerBatch][];
+        for (int i = 0; i < recordsPerBatch; i++) {
+            values[i] = value();
+            uncompressedSizeInBytes += values[i].length;
+        }
+        compressedBatch = compress().buffer();
+    }
+
+    private byte[] value() {
+        return ("{\"memberId\":" + random.nextInt(10_000_000) + ",\"pageKey\":\"" + PAGE_KEYS[random.nextInt(PAGE_KEYS.length)] +
+            "\",\"trackingId\":\"" + Long.toHexString(random.nextLong()) + "\",\"time\":" + (1600000000000L + random.nextInt()) +
+            ",\"isMobile\":" + random.nextBoolean() + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private MemoryRecords compress() {
+        MemoryRecordsBuilder builder = MemoryRecords.builder(ByteBuffer.allocate(1024), RecordBatch.CURRENT_MAGIC_VALUE,
+            CompressionType.ZSTD, TimestampType.CREATE_TIME, 0L, dictionary);
+        for (byte[] value : values)
+            builder.append(0L, null, value);
+        return builder.build();
+    }
+
+    @Benchmark
+    public MemoryRecords measureCompress(CompressionCounters counters) {
+        MemoryRecords records = compress();
+        counters.compressedBytes += records.sizeInBytes();
+        counters.uncompressedBytes += uncompressedSizeInBytes;
+        return records;
+    }
+
+    @Benchmark
+    public void measureDecompress(Blackhole bh) {
+        for (RecordBatch batch : MemoryRecords.readableRecords(compressedBatch.duplicate()).batches()) {
+            for (Record record : batch)
+                bh.consume(record);
+        }
+    }
+}
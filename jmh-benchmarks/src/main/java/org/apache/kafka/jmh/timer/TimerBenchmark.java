@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.kafka.jmh.timer;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import kafka.server.DelayedOperation;
+import kafka.utils.timer.LockFreeTimer;
+import kafka.utils.timer.SystemTimer;
+import kafka.utils.timer.Timer;
+import org.apache.kafka.common.utils.Time;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Option;
+
+/**
+ * Compares {@link SystemTimer} and {@link LockFreeTimer} under the purgatory workload: request handler threads add
+ * delayed operations and complete (cancel) most of them before they expire, while a single reaper thread advances
+ * the clock. `expiredPercent` of the operations are left to expire, with delays spread over a few ticks.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TimerBenchmark {
+
+    @Param({"system", "lockFree"})
+    private String timerType;
+
+    @Param({"0", "10"})
+    private int expiredPercent;
+
+    private Timer timer;
+    private Thread reaper;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (timerType.equals("lockFree"))
+            timer = new LockFreeTimer("benchmark", 1, 20, Time.SYSTEM.hiResClockMs());
+        else
+            timer = new SystemTimer("benchmark", 1, 20, Time.SYSTEM.hiResClockMs());
+        running = true;
+        // the single thread advancing the clock, as the purgatory reaper does
+        reaper = new Thread(() -> {
+            while (running)
+                timer.advanceClock(200L);
+        }, "benchmark-reaper");
+        reaper.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        reaper.join();
+        timer.shutdown();
+    }
+
+    private int addAndComplete() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        boolean expire = random.nextInt(100) < expiredPercent;
+        BenchmarkOperation operation = new BenchmarkOperation(expire ? 1 + random.nextInt(50) : 30000L);
+        timer.add(operation);
+        if (!expire)
+            operation.forceComplete();
+        return timer.size();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public int addAndComplete8Threads() {
+        return addAndComplete();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public int addAndComplete32Threads() {
+        return addAndComplete();
+    }
+
+    private static class BenchmarkOperation extends DelayedOperation {
+        BenchmarkOperation(long delayMs) {
+            super(delayMs, Option.empty());
+        }
+
+        @Override
+        public void onExpiration() {
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        @Override
+        public boolean tryComplete() {
+            return false;
+        }
+    }
+}